@@ -0,0 +1,71 @@
+package tree;
+
+/**
+ *         A Sampler that uses Vose's alias method to pick an index in constant time.
+ *         It is the slowest Sampler to build and is used for large distributions that rarely change.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+final class AliasSampler implements Sampler {
+
+	// The chance of keeping each column instead of taking its alias
+	private final double[] keep;
+
+	private final int[] alias;
+
+	/**        Creates an AliasSampler.
+	 * @param  probabilities as the probabilities to pick from.
+	 */
+	AliasSampler(double[] probabilities) {
+		int n = probabilities.length;
+		this.keep = new double[n];
+		this.alias = new int[n];
+		double sum = 0;
+		for(double d : probabilities) {
+			sum += d;
+		}
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallSize = 0;
+		int largeSize = 0;
+		for(int i = 0; i < n; i++) {
+			scaled[i] = probabilities[i]*n/sum;
+			if(scaled[i] < 1.0) {
+				small[smallSize++] = i;
+			} else {
+				large[largeSize++] = i;
+			}
+		}
+		while(smallSize > 0 && largeSize > 0) {
+			int less = small[--smallSize];
+			int more = large[--largeSize];
+			this.keep[less] = scaled[less];
+			this.alias[less] = more;
+			scaled[more] = (scaled[more]+scaled[less])-1.0;
+			if(scaled[more] < 1.0) {
+				small[smallSize++] = more;
+			} else {
+				large[largeSize++] = more;
+			}
+		}
+		// Whatever is left is 1.0 give or take rounding error
+		while(largeSize > 0) {
+			this.keep[large[--largeSize]] = 1.0;
+		}
+		while(smallSize > 0) {
+			this.keep[small[--smallSize]] = 1.0;
+		}
+	}
+
+	@Override
+	public int next(double randomChoice) {
+		double column = randomChoice*this.keep.length;
+		int i = (int) column;
+		if(column-i < this.keep[i]) {
+			return i;
+		}
+		return this.alias[i];
+	}
+
+}
@@ -0,0 +1,428 @@
+package tree;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *         Maps the contexts of a ProbFunTree to the nodes they reach,
+ *         so nodes can be found from a run of elements without walking the whole tree.
+ *         A node is reached by the elements on the path to it from the root,
+ *         and the last MAX_ORDER or fewer of them are hashed, so any run of elements that ends at a node can be looked up.
+ *         The whole path to each node is hashed too, so the node reached from the root by a run of elements can be looked up.
+ *         Each entry is a path, the entry of the node it is reached from and the element that reaches it,
+ *         so a shared node is in the index once for each place it is reached from, without being copied.
+ *         The node at the end of each path is found again from the entry before it when the nodes of the tree change,
+ *         so copying a shared node doesn't make the index out of date.
+ *         The tree adds the paths of a child it adds, and marks the path of a child it removes as removed,
+ *         which hides the paths under it too; changes the tree can't find the path of make the index out of date.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ * @param  <T> The type of the elements that will be picked from
+ */
+final class ContextIndex<T> {
+
+	// The most elements at the end of a path that are hashed;
+	// longer contexts are found by following the rest of their elements from the nodes their first elements reach
+	static final int MAX_ORDER = 16;
+
+	private static final long BASE = 0x100000001B3L;
+
+	// BASE to the power of each suffix length
+	private static final long[] POWERS = new long[MAX_ORDER+1];
+
+	static {
+		POWERS[0] = 1;
+		for(int i = 1; i <= MAX_ORDER; i++) {
+			POWERS[i] = POWERS[i-1]*BASE;
+		}
+	}
+
+	// The nodes in the order they were added, the node each was reached from and the element that reached it;
+	// the root is node 0 and has no parent
+	private Object[] nodes = new Object[16];
+
+	// The copies version of the root when each node was found, so the ones that may have been copied since can be found again
+	private long[] found = new long[16];
+
+	// True for each node that is shared or is reached through a shared node, as of when it was found
+	private boolean[] sharedPaths = new boolean[16];
+
+	private int[] parents = new int[16];
+
+	private Object[] elements = new Object[16];
+
+	private int[] depths = new int[16];
+
+	// The hash of the elements on the whole path to each node
+	private long[] paths = new long[16];
+
+	// True for each path whose child was removed, which hides the paths under it too
+	private boolean[] removed = new boolean[16];
+
+	private int size = 0;
+
+	// The number of paths marked removed
+	private int removedCount = 0;
+
+	private int maxDepth = 0;
+
+	// Hashes of the last MAX_ORDER or fewer elements on the path to each node, and hashes of whole paths
+	private final Table suffixes = new Table();
+
+	private final Table wholePaths = new Table();
+
+	// The children version of the root when this was last known to match the tree
+	private long version;
+
+	/**        Creates a ContextIndex with only the root in it.
+	 * @param  root as the node every path starts from.
+	 */
+	ContextIndex(ProbFunTree<T> root) {
+		this.nodes[0] = root;
+		this.parents[0] = -1;
+		this.size = 1;
+		this.version = root.childrenVersion();
+	}
+
+	private static long hash(Object element) {
+		long h = (element.hashCode() ^ 0x5DEECE66DL)*0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+
+	/**        Returns the number of nodes in this ContextIndex.
+	 * @return the number of nodes, so the nodes are 0 to size()-1.
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**        Returns the node at the end of a path, finding the nodes on the path again if they may have been copied.
+	 * @param  id as the path.
+	 * @return the node reached by the path, which may be shared.
+	 */
+	@SuppressWarnings("unchecked")
+	ProbFunTree<T> node(int id) {
+		long version = node0().copiesVersion();
+		if(id != 0 && this.found[id] != version) {
+			// The path is followed down from the deepest node on it that was found since the nodes last changed
+			int[] path = new int[this.depths[id]];
+			int count = 0;
+			int top = id;
+			while(top != 0 && this.found[top] != version) {
+				path[count++] = top;
+				top = this.parents[top];
+			}
+			ProbFunTree<T> node = (ProbFunTree<T>) this.nodes[top];
+			boolean shared = top != 0 && this.sharedPaths[top];
+			for(int i = count-1; i >= 0; i--) {
+				node = node.child((T) this.elements[path[i]]);
+				shared |= node.isShared();
+				this.nodes[path[i]] = node;
+				this.found[path[i]] = version;
+				this.sharedPaths[path[i]] = shared;
+			}
+		}
+		return (ProbFunTree<T>) this.nodes[id];
+	}
+
+	@SuppressWarnings("unchecked")
+	private ProbFunTree<T> node0() {
+		return (ProbFunTree<T>) this.nodes[0];
+	}
+
+	/**        Returns the node every path starts from.
+	 * @return the root of this ContextIndex, which is never found again.
+	 */
+	ProbFunTree<T> root() {
+		return node0();
+	}
+
+	/**        Checks if a node on a path is shared, in which case the node of the path is reached from other places too.
+	 * @param  id as the path.
+	 * @return true if the node of the path or a node before it on the path is shared, else false.
+	 */
+	boolean isSharedOnPath(int id) {
+		node(id);
+		return id != 0 && this.sharedPaths[id];
+	}
+
+	/**        Returns the elements on a path, which reach the node of the path from the root.
+	 * @param  id as the path.
+	 * @return the elements picked to reach the node of id, oldest first.
+	 */
+	@SuppressWarnings("unchecked")
+	List<T> path(int id) {
+		Object[] path = new Object[this.depths[id]];
+		for(int i = path.length-1; i >= 0; i--) {
+			path[i] = this.elements[id];
+			id = this.parents[id];
+		}
+		return (List<T>) Arrays.asList(path);
+	}
+
+	/**        Adds a node that is reached by picking element from a node that was already added.
+	 * @param  node as the node to add.
+	 * @param  parent as the node element is picked from.
+	 * @param  element as the element that reaches node.
+	 * @return the id of node.
+	 */
+	int add(ProbFunTree<T> node, int parent, T element) {
+		if(this.size == this.nodes.length) {
+			int length = this.size*2;
+			this.nodes = Arrays.copyOf(this.nodes, length);
+			this.found = Arrays.copyOf(this.found, length);
+			this.sharedPaths = Arrays.copyOf(this.sharedPaths, length);
+			this.parents = Arrays.copyOf(this.parents, length);
+			this.elements = Arrays.copyOf(this.elements, length);
+			this.depths = Arrays.copyOf(this.depths, length);
+			this.paths = Arrays.copyOf(this.paths, length);
+			this.removed = Arrays.copyOf(this.removed, length);
+		}
+		// The parent is found first, so it is known whether it is reached through a shared node
+		node(parent);
+		int id = this.size++;
+		this.nodes[id] = node;
+		this.found[id] = node0().copiesVersion();
+		this.sharedPaths[id] = node.isShared() || (parent != 0 && this.sharedPaths[parent]);
+		this.parents[id] = parent;
+		this.elements[id] = element;
+		this.depths[id] = this.depths[parent]+1;
+		this.paths[id] = this.paths[parent]*BASE+hash(element);
+		this.maxDepth = Math.max(this.maxDepth, this.depths[id]);
+		this.wholePaths.put(this.paths[id], id);
+		// The hash of the last w elements is the hash of the whole path less the hash of the path to the node w up
+		int ancestor = parent;
+		for(int w = 1; w <= MAX_ORDER && ancestor != -1; w++) {
+			this.suffixes.put(this.paths[id]-this.paths[ancestor]*POWERS[w], id);
+			ancestor = this.parents[ancestor];
+		}
+		return id;
+	}
+
+	/**        Marks a path as removed after the child at the end of it was taken away,
+	 *         so it and the paths under it are no longer found.
+	 * @param  id as the path to the child that was removed.
+	 */
+	void remove(int id) {
+		if(!this.removed[id]) {
+			this.removed[id] = true;
+			this.removedCount++;
+		}
+	}
+
+	/**        Returns whether a path and the paths before it are still in the tree.
+	 *         Takes O(depth) time if any paths were removed.
+	 * @param  id as the path.
+	 * @return true if no path on the way to id was removed, else false.
+	 */
+	private boolean isPresent(int id) {
+		if(this.removedCount == 0) {
+			return true;
+		}
+		for(; id != -1; id = this.parents[id]) {
+			if(this.removed[id]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**        Returns whether so many paths were removed that building this ContextIndex again is worth it.
+	 * @return true if more than a quarter of the paths were marked removed, not counting the paths under them, else false.
+	 */
+	boolean isMostlyRemoved() {
+		return this.removedCount*4 > this.size;
+	}
+
+	/**        Returns whether this ContextIndex has every change to the children of the tree,
+	 *         which it tells from the version of the tree, so only changes to the tree of the root make it out of date.
+	 * @return true if no children have been added or removed since update() was last called.
+	 */
+	boolean isCurrent() {
+		return this.version == node0().childrenVersion();
+	}
+
+	/** Marks this ContextIndex as having every change to the children made so far,
+	 *  which must only be called after the changes made since it was last current have been added.
+	 */
+	void update() {
+		this.version = node0().childrenVersion();
+	}
+
+	/**        Checks if the path to a node ends with some elements.
+	 * @param  id as the node.
+	 * @param  context as the elements to check.
+	 * @param  end as the index after the last element in context to check.
+	 * @param  length as the number of elements to check.
+	 * @return true if the last length elements on the path to id are the ones before end in context, else false.
+	 */
+	private boolean endsWith(int id, Object[] context, int end, int length) {
+		if(this.depths[id] < length) {
+			return false;
+		}
+		for(int i = end-1; i >= end-length; i--) {
+			if(!this.elements[id].equals(context[i])) {
+				return false;
+			}
+			id = this.parents[id];
+		}
+		return true;
+	}
+
+	/**        Finds the nodes reached by picking the elements of context one after another, starting from any node.
+	 *         Takes O(|context|) time for each node found, and O(depth) more if paths were removed.
+	 * @param  context as the elements to follow, which must not be empty.
+	 * @param  limit as the most nodes to find.
+	 * @return the ids of the nodes reached by context, at most limit of them.
+	 */
+	int[] find(List<T> context, int limit) {
+		Object[] elements = context.toArray();
+		int hashed = Math.min(elements.length, MAX_ORDER);
+		long h = 0;
+		for(int i = 0; i < hashed; i++) {
+			h = h*BASE+hash(elements[i]);
+		}
+		int[] found = new int[4];
+		int count = 0;
+		for(int entry = this.suffixes.first(h); entry != -1 && count < limit; entry = this.suffixes.next(entry)) {
+			int id = this.suffixes.id(entry);
+			if(endsWith(id, elements, hashed, hashed) && isPresent(id)) {
+				for(int i = hashed; i < elements.length && id != -1; i++) {
+					id = child(id, elements[i]);
+				}
+				if(id != -1) {
+					if(count == found.length) {
+						found = Arrays.copyOf(found, count*2);
+					}
+					found[count++] = id;
+				}
+			}
+		}
+		return Arrays.copyOf(found, count);
+	}
+
+	/**        Finds the node reached by picking element from a node.
+	 * @param  id as the node element is picked from.
+	 * @param  element as the element that was picked.
+	 * @return the id of the child of element, or -1 if there isn't one.
+	 */
+	int child(int id, Object element) {
+		long h = this.paths[id]*BASE+hash(element);
+		for(int entry = this.wholePaths.first(h); entry != -1; entry = this.wholePaths.next(entry)) {
+			int child = this.wholePaths.id(entry);
+			if(this.parents[child] == id && !this.removed[child] && this.elements[child].equals(element)) {
+				return child;
+			}
+		}
+		return -1;
+	}
+
+	/**        Finds the node reached from the root by the longest run of elements at the end of history.
+	 *         Takes O(|history|) time, and O(depth) more if paths were removed.
+	 * @param  history as the elements that were picked, oldest first.
+	 * @return the id of the node, or 0 for the root if the last element of history can't be picked from the root.
+	 */
+	int longest(List<T> history) {
+		Object[] elements = history.toArray();
+		int t = elements.length;
+		// prefixes[i] is the hash of the first i elements, so the hash of the last w is prefixes[t]-prefixes[t-w]*BASE^w
+		long[] prefixes = new long[t+1];
+		long[] powers = new long[t+1];
+		powers[0] = 1;
+		for(int i = 0; i < t; i++) {
+			prefixes[i+1] = prefixes[i]*BASE+hash(elements[i]);
+			powers[i+1] = powers[i]*BASE;
+		}
+		for(int w = Math.min(t, this.maxDepth); w > 0; w--) {
+			long h = prefixes[t]-prefixes[t-w]*powers[w];
+			for(int entry = this.wholePaths.first(h); entry != -1; entry = this.wholePaths.next(entry)) {
+				int id = this.wholePaths.id(entry);
+				if(this.depths[id] == w && endsWith(id, elements, t, w) && isPresent(id)) {
+					return id;
+				}
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 *         A hash table from hashes to ids, that can hold more than one id for a hash.
+	 *         The hashes are in an open addressed table pointing at the first entry with each hash,
+	 *         and each entry points at the next entry with the same hash.
+	 */
+	private static final class Table {
+
+		private long[] keys = new long[16];
+
+		// One more than the index of the first entry for each key, so 0 is an empty slot
+		private int[] heads = new int[16];
+
+		private int keyCount = 0;
+
+		private int[] ids = new int[16];
+
+		private int[] next = new int[16];
+
+		private int entryCount = 0;
+
+		private int slot(long key, int mask) {
+			int slot = (int) ((key*0x9E3779B97F4A7C15L) >>> 40) & mask;
+			while(this.heads[slot] != 0 && this.keys[slot] != key) {
+				slot = (slot+1) & mask;
+			}
+			return slot;
+		}
+
+		void put(long key, int id) {
+			if(this.entryCount == this.ids.length) {
+				this.ids = Arrays.copyOf(this.ids, this.entryCount*2);
+				this.next = Arrays.copyOf(this.next, this.entryCount*2);
+			}
+			int slot = slot(key, this.keys.length-1);
+			if(this.heads[slot] == 0) {
+				if(2*(this.keyCount+1) > this.keys.length) {
+					rehash();
+					slot = slot(key, this.keys.length-1);
+				}
+				this.keys[slot] = key;
+				this.keyCount++;
+			}
+			int entry = this.entryCount++;
+			this.ids[entry] = id;
+			this.next[entry] = this.heads[slot]-1;
+			this.heads[slot] = entry+1;
+		}
+
+		private void rehash() {
+			long[] keys = this.keys;
+			int[] heads = this.heads;
+			this.keys = new long[keys.length*2];
+			this.heads = new int[keys.length*2];
+			for(int i = 0; i < keys.length; i++) {
+				if(heads[i] != 0) {
+					int slot = slot(keys[i], this.keys.length-1);
+					this.keys[slot] = keys[i];
+					this.heads[slot] = heads[i];
+				}
+			}
+		}
+
+		/**        Returns the first entry with key.
+		 * @param  key as the hash to look for.
+		 * @return the index of the first entry with key, or -1 if there isn't one.
+		 */
+		int first(long key) {
+			return this.heads[slot(key, this.keys.length-1)]-1;
+		}
+
+		int next(int entry) {
+			return this.next[entry];
+		}
+
+		int id(int entry) {
+			return this.ids[entry];
+		}
+
+	}
+
+}
@@ -0,0 +1,51 @@
+package tree;
+
+/**
+ *         A Sampler that does a binary search over the cumulative probabilities.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+final class CumulativeSampler implements Sampler {
+
+	private final double[] cumulative;
+
+	/**        Creates a CumulativeSampler.
+	 * @param  probabilities as the probabilities to pick from.
+	 */
+	CumulativeSampler(double[] probabilities) {
+		this.cumulative = new double[probabilities.length];
+		double sumOfProbabilities = 0.0;
+		for(int i = 0; i < probabilities.length; i++) {
+			sumOfProbabilities += probabilities[i];
+			this.cumulative[i] = sumOfProbabilities;
+		}
+	}
+
+	@Override
+	public int next(double randomChoice) {
+		return search(this.cumulative, 0, this.cumulative.length, randomChoice);
+	}
+
+	/**        Finds the first index in a range of cumulative probabilities that is not less than randomChoice.
+	 * @param  cumulative as the cumulative probabilities.
+	 * @param  from as the first index of the range (inclusive).
+	 * @param  to as the last index of the range (exclusive), which must be greater than from.
+	 * @param  randomChoice as the value to look for.
+	 * @return the first index in the range where the cumulative probability is not less than randomChoice,
+	 *         or the last index in the range if there isn't one due to rounding error.
+	 */
+	static int search(double[] cumulative, int from, int to, double randomChoice) {
+		int low = from;
+		int high = to-1;
+		while(low < high) {
+			int mid = (low+high) >>> 1;
+			if(cumulative[mid] < randomChoice) {
+				low = mid+1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+}
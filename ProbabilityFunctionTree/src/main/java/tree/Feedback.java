@@ -0,0 +1,113 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ *         Feedback for a sequence of elements, which makes the elements more or less likely to be picked
+ *         in the order they appear in, as good(elements, percent) or bad(elements, percent) of a ProbFunTree does.
+ *         Feedback is equal to other Feedback with the same elements, percent and direction,
+ *         so a FeedbackPipeline can apply repeats of it together.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ * @param  <T> The type of the elements that will be picked from
+ */
+public final class Feedback<T> {
+
+	private final List<T> elements;
+
+	private final double percent;
+
+	// True to make the elements appear more often, false to make them appear less often
+	private final boolean good;
+
+	private Feedback(List<T> elements, double percent, boolean good, String method) {
+		Objects.requireNonNull(elements);
+		for(T element : elements) {
+			Objects.requireNonNull(element);
+		}
+		if(elements.isEmpty()) {
+			throw new IllegalArgumentException("elements passed to " + method + "() must not be empty\n");
+		}
+		if(percent >= 1.0 || percent <= 0.0) {
+			throw new IllegalArgumentException("percent passed to " + method + "() is not between 0.0 and 1.0 (exclusive)\n");
+		}
+		// Invariants secured
+		this.elements = Collections.unmodifiableList(new ArrayList<T>(elements));
+		this.percent = percent;
+		this.good = good;
+	}
+
+	/**        Creates Feedback that makes elements more likely to be picked, as good(elements, percent) does.
+	 * @param  elements as the elements to make appear more often in the order they should appear in.
+	 * @param  percent as the percentage between 0 and 1 (exclusive),
+	 *         of the probabilities of getting the elements to add to the probabilities.
+	 * @param  <T> The type of the elements that will be picked from
+	 * @return the Feedback.
+	 * @throws NullPointerException if elements is null or has a null element.
+	 * @throws IllegalArgumentException if the percent isn't between 0 and 1 exclusive or elements is empty.
+	 */
+	public static <T> Feedback<T> good(List<T> elements, double percent) {
+		return new Feedback<T>(elements, percent, true, "good");
+	}
+
+	/**        Creates Feedback that makes elements less likely to be picked, as bad(elements, percent) does.
+	 * @param  elements as the elements to make appear less often in the order they should not appear in.
+	 * @param  percent as the percentage between 0 and 1 (exclusive),
+	 *         of the probabilities of getting the elements to subtract from the probabilities.
+	 * @param  <T> The type of the elements that will be picked from
+	 * @return the Feedback.
+	 * @throws NullPointerException if elements is null or has a null element.
+	 * @throws IllegalArgumentException if the percent isn't between 0 and 1 exclusive or elements is empty.
+	 */
+	public static <T> Feedback<T> bad(List<T> elements, double percent) {
+		return new Feedback<T>(elements, percent, false, "bad");
+	}
+
+	/**        Returns the elements of this Feedback.
+	 * @return an unmodifiable List of the elements, in the order they are picked.
+	 */
+	public List<T> getElements() {
+		return this.elements;
+	}
+
+	/**        Returns the percentage of the probabilities of the elements that is added or subtracted.
+	 * @return the percent of this Feedback.
+	 */
+	public double getPercent() {
+		return this.percent;
+	}
+
+	/**        Returns whether this Feedback makes the elements more likely to be picked.
+	 * @return true if the elements are made more likely, false if they are made less likely.
+	 */
+	public boolean isGood() {
+		return this.good;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(this == o) {
+			return true;
+		}
+		if(!(o instanceof Feedback)) {
+			return false;
+		}
+		Feedback<?> other = (Feedback<?>) o;
+		return this.good == other.good && Double.compare(this.percent, other.percent) == 0
+				&& this.elements.equals(other.elements);
+	}
+
+	@Override
+	public int hashCode() {
+		return (this.elements.hashCode()*31+Double.hashCode(this.percent))*31+(this.good ? 1 : 0);
+	}
+
+	@Override
+	public String toString() {
+		return (this.good ? "good " : "bad ") + this.elements + ": " + this.percent;
+	}
+
+}
@@ -0,0 +1,407 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *         Applies Feedback to a ProbFunTree on a thread of its own, so the threads that get feedback don't wait for it to be applied.
+ *         Feedback is put on a bounded queue by any number of threads and taken off by the applier thread,
+ *         which gathers it for up to the flush interval and applies it in batches.
+ *         Each batch is applied with ProbFunTree.applyFeedback(), which gives the probabilities of applying it in order
+ *         but changes the weight of each element once, so updates to the same node and element are coalesced.
+ *         When the queue is full, submit() waits for room and offer() gives up, and both are counted as backpressure.
+ *         If applying a batch throws, the applier thread throws away the batch and the Feedback that comes after it,
+ *         and submit(), offer() and flush() throw an IllegalStateException caused by what was thrown.
+ *         The ProbFunTree must not be changed by other threads while the FeedbackPipeline is open,
+ *         and must be concurrent if other threads generate from it while feedback is applied.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ * @param  <T> The type of the elements that will be picked from
+ */
+public final class FeedbackPipeline<T> implements AutoCloseable {
+
+	// Put on the queue by close(), after which the applier thread stops
+	private static final Object STOP = new Object();
+
+	// How long a thread waits for room on the queue before checking whether the applier thread stopped
+	private static final long WAIT_MILLIS = 10;
+
+	private final ProbFunTree<T> tree;
+
+	// Holds Feedback, and the CountDownLatches of flush() and STOP, which are handled once the Feedback before them is applied
+	private final BlockingQueue<Object> queue;
+
+	private final int capacity;
+
+	private final long flushNanos;
+
+	private final Thread applier;
+
+	private volatile boolean closed = false;
+
+	// Whether close() put STOP on the queue, guarded by this
+	private boolean stopped = false;
+
+	// Set by the applier thread before it takes what is left off the queue and stops, after which nothing else is taken off it
+	private volatile boolean terminated = false;
+
+	// What was thrown while a batch was applied, after which the applier thread throws Feedback away
+	private volatile RuntimeException failure = null;
+
+	private final LongAdder submitted = new LongAdder();
+
+	private final LongAdder rejected = new LongAdder();
+
+	private final LongAdder blocked = new LongAdder();
+
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+	// Only written by the applier thread
+	private volatile long applied = 0;
+
+	private volatile long coalesced = 0;
+
+	private volatile long failed = 0;
+
+	private volatile long batches = 0;
+
+	/**        Creates a FeedbackPipeline and starts its applier thread.
+	 * @param  tree as the ProbFunTree to apply feedback to.
+	 * @param  capacity as the most Feedback that can wait on the queue, which is also the most applied in one batch.
+	 * @param  flushInterval as the longest time to gather Feedback into a batch after the first of it is taken off the queue,
+	 *         or 0 to apply whatever is on the queue right away.
+	 * @param  unit as the TimeUnit of flushInterval.
+	 * @throws NullPointerException if tree or unit is null.
+	 * @throws IllegalArgumentException if capacity is less than 1 or flushInterval is negative.
+	 */
+	public FeedbackPipeline(ProbFunTree<T> tree, int capacity, long flushInterval, TimeUnit unit) {
+		Objects.requireNonNull(tree);
+		Objects.requireNonNull(unit);
+		if(capacity < 1) {
+			throw new IllegalArgumentException("capacity passed to FeedbackPipeline() must be at least 1\n");
+		}
+		if(flushInterval < 0) {
+			throw new IllegalArgumentException("flushInterval passed to FeedbackPipeline() must not be negative\n");
+		}
+		// Invariants secured
+		this.tree = tree;
+		this.capacity = capacity;
+		this.queue = new ArrayBlockingQueue<Object>(capacity);
+		this.flushNanos = unit.toNanos(flushInterval);
+		this.applier = new Thread(this::run, "FeedbackPipeline applier");
+		this.applier.setDaemon(true);
+		this.applier.start();
+	}
+
+	/**        Puts feedback on the queue, waiting for room if the queue is full.
+	 * @param  feedback as the Feedback to apply.
+	 * @throws NullPointerException if feedback is null.
+	 * @throws IllegalStateException if this FeedbackPipeline was closed, or applying Feedback failed.
+	 * @throws InterruptedException if the thread is interrupted while waiting for room.
+	 */
+	public void submit(Feedback<T> feedback) throws InterruptedException {
+		Objects.requireNonNull(feedback);
+		checkOpen();
+		// Invariants secured
+		if(this.queue.offer(feedback)) {
+			checkTaken(feedback);
+		} else {
+			this.blocked.increment();
+			put(feedback);
+		}
+		// The applier thread may have failed before it took feedback off the queue, in which case feedback was thrown away
+		checkApplied();
+		submitted();
+	}
+
+	/**        Puts feedback on the queue if there is room.
+	 * @param  feedback as the Feedback to apply.
+	 * @return true if feedback was put on the queue, or false if the queue was full.
+	 * @throws NullPointerException if feedback is null.
+	 * @throws IllegalStateException if this FeedbackPipeline was closed, or applying Feedback failed.
+	 */
+	public boolean offer(Feedback<T> feedback) {
+		Objects.requireNonNull(feedback);
+		checkOpen();
+		// Invariants secured
+		if(!this.queue.offer(feedback)) {
+			this.rejected.increment();
+			return false;
+		}
+		checkTaken(feedback);
+		submitted();
+		return true;
+	}
+
+	private void submitted() {
+		this.submitted.increment();
+		int depth = this.queue.size();
+		if(depth > this.maxQueueDepth.get()) {
+			this.maxQueueDepth.accumulateAndGet(depth, Math::max);
+		}
+	}
+
+	private void checkOpen() {
+		checkApplied();
+		if(this.closed) {
+			throw new IllegalStateException("FeedbackPipeline was closed\n");
+		}
+	}
+
+	private void checkApplied() {
+		RuntimeException failure = this.failure;
+		if(failure != null) {
+			throw new IllegalStateException("FeedbackPipeline failed to apply Feedback\n", failure);
+		}
+	}
+
+	/**        Puts o on the queue, waiting for room if the queue is full.
+	 * @param  o as the Feedback or CountDownLatch to put on the queue.
+	 * @throws IllegalStateException if the applier thread stopped before it took o off the queue.
+	 * @throws InterruptedException if the thread is interrupted while waiting for room.
+	 */
+	private void put(Object o) throws InterruptedException {
+		// Nothing takes o off a full queue once the applier thread stops, so this can't wait for room forever
+		while(!this.queue.offer(o, WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+			if(this.terminated) {
+				checkOpen();
+			}
+		}
+		checkTaken(o);
+	}
+
+	/**        Checks that the applier thread will take o off the queue, which is where o was just put.
+	 * @param  o as the Feedback or CountDownLatch that was put on the queue.
+	 * @throws IllegalStateException if the applier thread stopped before it took o off the queue.
+	 */
+	private void checkTaken(Object o) {
+		// The applier thread sets terminated before it takes what is left off the queue,
+		// so if o was put on after that, terminated is seen here and o is still on the queue
+		if(this.terminated && this.queue.remove(o)) {
+			checkOpen();
+		}
+	}
+
+	/**        Waits until the Feedback put on the queue before this was called has been applied.
+	 * @throws IllegalStateException if this FeedbackPipeline was closed, or applying Feedback failed.
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	public void flush() throws InterruptedException {
+		checkOpen();
+		CountDownLatch latch = new CountDownLatch(1);
+		put(latch);
+		latch.await();
+		// The latch is also let go when the Feedback before it was thrown away
+		checkApplied();
+	}
+
+	/**        Applies the Feedback on the queue, stops the applier thread and waits for it to stop.
+	 *         Feedback can't be put on the queue afterwards. Calling close() again does nothing.
+	 *         If the thread is interrupted while waiting, close() returns with the thread still interrupted,
+	 *         and calling close() again waits again.
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		try {
+			synchronized(this) {
+				// The applier thread may have stopped already, after which nothing makes room on the queue
+				while(!this.stopped && !this.terminated) {
+					this.stopped = this.queue.offer(STOP, WAIT_MILLIS, TimeUnit.MILLISECONDS);
+				}
+			}
+			this.applier.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**        Returns the number of Feedback waiting on the queue.
+	 * @return the depth of the queue, not counting Feedback the applier thread has taken off it.
+	 */
+	public int queueDepth() {
+		return this.queue.size();
+	}
+
+	/**        Returns the most Feedback that was seen waiting on the queue after Feedback was put on it.
+	 * @return the highest depth of the queue.
+	 */
+	public int maxQueueDepth() {
+		return this.maxQueueDepth.get();
+	}
+
+	/**        Returns the most Feedback that can wait on the queue.
+	 * @return the capacity of the queue.
+	 */
+	public int capacity() {
+		return this.capacity;
+	}
+
+	/**        Returns the number of Feedback put on the queue.
+	 * @return the Feedback put on the queue by submit() and offer().
+	 */
+	public long submittedCount() {
+		return this.submitted.sum();
+	}
+
+	/**        Returns the number of Feedback that was applied.
+	 * @return the Feedback that was applied.
+	 */
+	public long appliedCount() {
+		return this.applied;
+	}
+
+	/**        Returns the number of changes to the weight of an element that were combined with an earlier change to it in the same batch.
+	 * @return the changes that didn't have to be made on their own.
+	 */
+	public long coalescedCount() {
+		return this.coalesced;
+	}
+
+	/**        Returns the number of Feedback that couldn't be applied,
+	 *         because an element was not in the node it would be picked from, or applying Feedback failed.
+	 * @return the Feedback that was thrown away.
+	 */
+	public long failedCount() {
+		return this.failed;
+	}
+
+	/**        Returns the number of batches that were applied.
+	 * @return the number of times the applier thread applied Feedback.
+	 */
+	public long batchCount() {
+		return this.batches;
+	}
+
+	/**        Returns the number of times offer() found the queue full.
+	 * @return the Feedback that offer() did not put on the queue.
+	 */
+	public long rejectedCount() {
+		return this.rejected.sum();
+	}
+
+	/**        Returns the number of times submit() found the queue full and had to wait.
+	 * @return the Feedback that submit() waited to put on the queue.
+	 */
+	public long blockedCount() {
+		return this.blocked.sum();
+	}
+
+	/** Takes batches off the queue and applies them until close() is called.
+	 */
+	private void run() {
+		List<Object> batch = new ArrayList<Object>();
+		// The Feedback in the batch that has not been applied yet
+		List<Feedback<T>> pending = new ArrayList<Feedback<T>>();
+		boolean running = true;
+		try {
+			while(running) {
+				try {
+					gather(batch);
+				} catch(InterruptedException e) {
+					// Nothing should interrupt the applier thread, but if something does, it stops once the batch is applied
+					running = false;
+				}
+				running &= apply(batch, pending);
+				batch.clear();
+			}
+		} finally {
+			// Closed in case the applier thread stopped without close(), so Feedback isn't put on a queue nothing takes off;
+			// what raced with this is taken off here, or is taken back off by the thread that put it
+			this.closed = true;
+			this.terminated = true;
+			this.queue.drainTo(batch);
+			apply(batch, pending);
+		}
+	}
+
+	/**        Waits for something on the queue, then takes off what comes within the flush interval,
+	 *         stopping early at a full batch or at a flush() or close().
+	 * @param  batch as the List to add what is taken off the queue to, which is empty.
+	 * @throws InterruptedException if the applier thread is interrupted.
+	 */
+	private void gather(List<Object> batch) throws InterruptedException {
+		batch.add(this.queue.take());
+		long deadline = System.nanoTime()+this.flushNanos;
+		int checked = 0;
+		while(batch.size() < this.capacity) {
+			for(; checked < batch.size(); checked++) {
+				if(!(batch.get(checked) instanceof Feedback)) {
+					return;
+				}
+			}
+			if(this.queue.drainTo(batch, this.capacity-batch.size()) > 0) {
+				continue;
+			}
+			long wait = deadline-System.nanoTime();
+			Object o = wait > 0 ? this.queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+			if(o == null) {
+				return;
+			}
+			batch.add(o);
+		}
+	}
+
+	/**        Applies a batch, letting flush() return once the Feedback before its latch is applied.
+	 * @param  batch as what was taken off the queue.
+	 * @param  pending as an empty List to hold the Feedback until it is applied.
+	 * @return false if close() was called, else true.
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean apply(List<Object> batch, List<Feedback<T>> pending) {
+		for(Object o : batch) {
+			if(o instanceof Feedback) {
+				// After applying Feedback failed, the rest is thrown away, so flush() and submit() don't wait for it forever
+				if(this.failure == null) {
+					pending.add((Feedback<T>) o);
+				} else {
+					this.failed++;
+				}
+			} else {
+				applyPending(pending);
+				if(o == STOP) {
+					return false;
+				}
+				((CountDownLatch) o).countDown();
+			}
+		}
+		applyPending(pending);
+		return true;
+	}
+
+	/**        Applies Feedback with ProbFunTree.applyFeedback(), leaving out the Feedback that can't be applied.
+	 *         If applying it throws, what was thrown is kept as the failure and the Feedback is counted as failed.
+	 * @param  pending as the Feedback to apply, in the order it was taken off the queue, which is cleared.
+	 */
+	private void applyPending(List<Feedback<T>> pending) {
+		if(pending.isEmpty()) {
+			return;
+		}
+		long failed = 0;
+		try {
+			for(int i = pending.size()-1; i >= 0; i--) {
+				if(!this.tree.canApply(pending.get(i))) {
+					pending.remove(i);
+					failed++;
+				}
+			}
+			this.coalesced += this.tree.combineFeedback(pending);
+			this.applied += pending.size();
+			this.batches++;
+		} catch(RuntimeException e) {
+			// The tree may have been left with part of the batch applied, so no more Feedback is applied to it
+			this.failure = e;
+			failed += pending.size();
+		}
+		this.failed += failed;
+		pending.clear();
+	}
+
+}
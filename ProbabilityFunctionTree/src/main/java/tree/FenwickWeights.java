@@ -0,0 +1,168 @@
+package tree;
+
+import java.util.Arrays;
+
+/**
+ *         Unnormalized weights of the elements of a node, kept in a Fenwick tree with their total,
+ *         so a weight can be changed and an element picked in O(log n) without touching the other weights.
+ *         The probability of an element is its weight divided by the total.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+final class FenwickWeights {
+
+	// The elements in the same order as the probMap they came from, which is sorted
+	private final Object[] elements;
+
+	private final double[] weights;
+
+	// tree[i] is the sum of the weights from i-(i & -i) to i-1
+	private final double[] tree;
+
+	private double total;
+
+	// The highest power of 2 not greater than the number of elements
+	private final int highestBit;
+
+	// The number of times a weight was changed since the tree was last built,
+	// since rounding error builds up in the sums with every change
+	private int changes = 0;
+
+	/**        Creates FenwickWeights for elements.
+	 * @param  elements as the elements, sorted by their natural order.
+	 * @param  weights as the weights of the elements, which must not be negative.
+	 */
+	FenwickWeights(Object[] elements, double[] weights) {
+		this.elements = elements;
+		this.weights = weights;
+		this.tree = new double[weights.length+1];
+		this.highestBit = Integer.highestOneBit(weights.length);
+		build();
+	}
+
+	/** Builds the tree from the weights, scaling them so they add up to 1.0 if they can.
+	 *
+	 */
+	private void build() {
+		double sum = 0;
+		for(double w : this.weights) {
+			sum += w;
+		}
+		if(sum > 0) {
+			for(int i = 0; i < this.weights.length; i++) {
+				this.weights[i] /= sum;
+			}
+		}
+		Arrays.fill(this.tree, 0);
+		this.total = 0;
+		for(int i = 1; i < this.tree.length; i++) {
+			this.tree[i] += this.weights[i-1];
+			this.total += this.weights[i-1];
+			int parent = i+(i & -i);
+			if(parent < this.tree.length) {
+				this.tree[parent] += this.tree[i];
+			}
+		}
+		this.changes = 0;
+	}
+
+	/**        Finds the index of element.
+	 * @param  element as the element to look for.
+	 * @return the index of element, or a negative number if it isn't one of the elements.
+	 */
+	int indexOf(Object element) {
+		return Arrays.binarySearch(this.elements, element);
+	}
+
+	/**        Returns the elements, which must not be changed.
+	 * @return the elements in the order of their weights.
+	 */
+	Object[] elements() {
+		return this.elements;
+	}
+
+	int size() {
+		return this.elements.length;
+	}
+
+	Object element(int index) {
+		return this.elements[index];
+	}
+
+	double weight(int index) {
+		return this.weights[index];
+	}
+
+	double total() {
+		return this.total;
+	}
+
+	/**        Changes the weight of the element at index.
+	 * @param  index as the index of the element.
+	 * @param  weight as the new weight, which must not be negative.
+	 */
+	void set(int index, double weight) {
+		update(index, weight);
+		// Rebuilding every n changes keeps the rounding error down and the weights near 1.0 for O(1) amortized
+		if(++this.changes >= Math.max(64, this.weights.length)) {
+			build();
+		}
+	}
+
+	/**        Changes the weights of many elements at once.
+	 *         The tree is rebuilt at most once, after every weight is changed, 
+	 *         so the weights can be worked out together without being scaled part way through.
+	 * @param  indices as the indices of the elements.
+	 * @param  weights as the new weights in the same order, which must not be negative.
+	 * @param  count as the number of weights to change.
+	 */
+	void setAll(int[] indices, double[] weights, int count) {
+		for(int i = 0; i < count; i++) {
+			update(indices[i], weights[i]);
+		}
+		this.changes += count;
+		if(this.changes >= Math.max(64, this.weights.length)) {
+			build();
+		}
+	}
+
+	private void update(int index, double weight) {
+		double delta = weight-this.weights[index];
+		this.weights[index] = weight;
+		this.total += delta;
+		for(int i = index+1; i < this.tree.length; i += i & -i) {
+			this.tree[i] += delta;
+		}
+	}
+
+	/**        Picks an index with a probability of its weight divided by the total,
+	 *         which is the first index whose running total of weights is greater than randomChoice times the total,
+	 *         so an element without weight is never picked.
+	 * @param  randomChoice as a random number in [0, 1).
+	 * @return the picked index.
+	 */
+	int search(double randomChoice) {
+		double target = randomChoice*this.total;
+		int index = 0;
+		for(int bit = this.highestBit; bit > 0; bit >>= 1) {
+			int next = index+bit;
+			if(next < this.tree.length && this.tree[next] <= target) {
+				index = next;
+				target -= this.tree[next];
+			}
+		}
+		return Math.min(index, this.weights.length-1);
+	}
+
+	/**        Returns a copy of the weights divided by the total.
+	 * @return the probabilities of the elements.
+	 */
+	double[] probabilities() {
+		double[] probabilities = new double[this.weights.length];
+		for(int i = 0; i < probabilities.length; i++) {
+			probabilities[i] = this.weights[i]/this.total;
+		}
+		return probabilities;
+	}
+
+}
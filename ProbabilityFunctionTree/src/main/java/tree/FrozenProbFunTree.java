@@ -0,0 +1,277 @@
+package tree;
+
+import java.io.Serializable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+/**
+ *         A read-only copy of a ProbFunTree made by ProbFunTree.freeze().
+ *         The nodes are numbered breadth-first, so siblings are next to each other,
+ *         and every node is stored as a range of entries in a few arrays instead of as an Object with Maps.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ * @param  <T> The type of the elements that will be picked from
+ */
+public final class FrozenProbFunTree<T> implements Serializable {
+
+	private static final long serialVersionUID = -2675104893452201348L;
+
+	// The elements of every node; the elements of a node are in the same order as in the ProbFunTree
+	private final Object[] elements;
+
+	// The probability of getting each entry or an entry before it in the same node
+	private final double[] cumulative;
+
+	// The node picked from after each entry is picked, or -1 if there isn't one
+	private final int[] children;
+
+	// The entries of node i are at offsets[i] (inclusive) to offsets[i+1] (exclusive)
+	private final int[] offsets;
+
+	// Remembers the elements returned by fun()
+	private transient FrozenGenerationSession<T> session = null;
+
+	/**        Creates a FrozenProbFunTree from the arrays made by ProbFunTree.freeze().
+	 * @param  elements as the elements of every node.
+	 * @param  cumulative as the cumulative probabilities of the entries in every node.
+	 * @param  children as the node picked from after each entry is picked, or -1 if there isn't one.
+	 * @param  offsets as the index of the first entry of every node, followed by the number of entries.
+	 */
+	FrozenProbFunTree(Object[] elements, double[] cumulative, int[] children, int[] offsets) {
+		this.elements = elements;
+		this.cumulative = cumulative;
+		this.children = children;
+		this.offsets = offsets;
+	}
+
+	/**        Returns a randomly picked element from this FrozenProbFunTree, based on the previously returned elements.
+	 *         Elements are picked the same way as ProbFunTree.fun() would pick them from the ProbFunTree that was frozen.
+	 * @return a randomly picked element from this FrozenProbFunTree.
+	 */
+	public T fun() {
+		return session().fun();
+	}
+
+	/**        Returns n randomly picked elements from this FrozenProbFunTree, 
+	 *         picked the same way as calling fun() n times.
+	 * @param  n as the number of elements to pick.
+	 * @return a List of the picked elements in the order they were picked.
+	 * @throws IllegalArgumentException if n is less than 0.
+	 */
+	public List<T> fun(int n) {
+		return session().fun(n);
+	}
+
+	/**        Fills part of dest with randomly picked elements from this FrozenProbFunTree, 
+	 *         picked the same way as calling fun() len times.
+	 * @param  dest as the array to put the picked elements in.
+	 * @param  off as the index in dest of the first picked element.
+	 * @param  len as the number of elements to pick.
+	 * @throws NullPointerException if dest is null.
+	 * @throws IndexOutOfBoundsException if off or len are negative or off+len is greater than dest.length.
+	 */
+	public void fun(T[] dest, int off, int len) {
+		session().fun(dest, off, len);
+	}
+
+	/**        Passes n randomly picked elements from this FrozenProbFunTree to sink, 
+	 *         picked the same way as calling fun() n times.
+	 * @param  n as the number of elements to pick.
+	 * @param  sink as the Consumer to pass each picked element to.
+	 * @throws NullPointerException if sink is null.
+	 * @throws IllegalArgumentException if n is less than 0.
+	 */
+	public void generate(int n, Consumer<? super T> sink) {
+		session().generate(n, sink);
+	}
+
+	/**        Creates a new FrozenGenerationSession that generates elements from this FrozenProbFunTree,
+	 *         with a history of its own that starts out empty.
+	 *         Any number of sessions can generate from the same FrozenProbFunTree, 
+	 *         and fun() uses a session of its own.
+	 *         Each session picks with a SplittableRandom of its own, so sessions never share random numbers.
+	 * @return a new FrozenGenerationSession for this FrozenProbFunTree.
+	 */
+	public FrozenGenerationSession<T> newSession() {
+		return new FrozenGenerationSession<T>(this, new SplittableRandom());
+	}
+
+	/**        Creates a new FrozenGenerationSession that generates elements from this FrozenProbFunTree, as newSession() does,
+	 *         picking elements with random, so the elements it generates can be reproduced from the seed of random.
+	 *         Sessions for parallel workers can be made with split() so each gets its own reproducible random numbers.
+	 * @param  random as the random numbers to pick elements with, which must only be used by the session.
+	 * @return a new FrozenGenerationSession for this FrozenProbFunTree.
+	 * @throws NullPointerException if random is null.
+	 */
+	public FrozenGenerationSession<T> newSession(SplittableRandom random) {
+		Objects.requireNonNull(random);
+		// Invariants secured
+		return new FrozenGenerationSession<T>(this, random);
+	}
+
+	private FrozenGenerationSession<T> session() {
+		if(this.session == null) {
+			this.session = new FrozenGenerationSession<T>(this, new SplittableRandom());
+		}
+		return this.session;
+	}
+
+	/**        Picks an entry from a node.
+	 * @param  node as the node to pick from.
+	 * @param  randomChoice as a random number in [0, 1).
+	 * @return the picked entry.
+	 */
+	int pick(int node, double randomChoice) {
+		return CumulativeSampler.search(this.cumulative, this.offsets[node], this.offsets[node+1], randomChoice);
+	}
+
+	/**        Finds the node that picks the element after element is picked from node.
+	 * @param  node as the node element was picked from.
+	 * @param  element as the element that was picked.
+	 * @return the child of element, or -1 if there isn't one.
+	 */
+	int child(int node, Object element) {
+		int entry = find(node, element);
+		return entry == -1 ? -1 : this.children[entry];
+	}
+
+	/** Clears the history so the next element will be picked from the root node.
+	 *
+	 */
+	public void clearHistory() {
+		if(this.session != null) {
+			this.session.clearHistory();
+		}
+	}
+
+	/**        Returns the probability of element being picked after the elements in path have been picked.
+	 * @param  path as the elements leading from the root node to the node to look in.
+	 *         It may be empty to look in the root node.
+	 * @param  element as the element to get the probability of.
+	 * @return the probability of element being picked after path, or 0.0 if path or element are not in this FrozenProbFunTree.
+	 * @throws NullPointerException if path or element is null.
+	 */
+	public double getProbability(List<T> path, T element) {
+		Objects.requireNonNull(path);
+		Objects.requireNonNull(element);
+		int node = node(path);
+		if(node == -1) {
+			return 0.0;
+		}
+		int entry = find(node, element);
+		if(entry == -1) {
+			return 0.0;
+		}
+		return entry == this.offsets[node] ?
+				this.cumulative[entry] : this.cumulative[entry]-this.cumulative[entry-1];
+	}
+
+	/**        Checks if the elements in sequence can be picked one after another starting from the root node.
+	 * @param  sequence as the elements to look for.
+	 * @return true if every element in sequence is in the node reached by the elements before it, else false.
+	 * @throws NullPointerException if sequence is null.
+	 */
+	public boolean contains(List<T> sequence) {
+		Objects.requireNonNull(sequence);
+		if(sequence.isEmpty()) {
+			return true;
+		}
+		int node = node(sequence.subList(0, sequence.size()-1));
+		return node != -1 && find(node, sequence.get(sequence.size()-1)) != -1;
+	}
+
+	/**        Finds the node reached by picking the elements in path starting from the root node.
+	 * @param  path as the elements to follow.
+	 * @return the node reached by following path, or -1 if there isn't one.
+	 */
+	private int node(List<T> path) {
+		int node = 0;
+		for(T t : path) {
+			int entry = find(node, t);
+			if(entry == -1) {
+				return -1;
+			}
+			node = this.children[entry];
+			if(node == -1) {
+				return -1;
+			}
+		}
+		return node;
+	}
+
+	/**        Finds the entry of element in a node.
+	 *         The elements of a node are sorted the same way as the ProbFunTree's probMap, so a binary search is used.
+	 * @param  node as the node to look in.
+	 * @param  element as the element to look for.
+	 * @return the entry of element, or -1 if node doesn't have element.
+	 */
+	@SuppressWarnings("unchecked")
+	private int find(int node, Object element) {
+		int low = this.offsets[node];
+		int high = this.offsets[node+1]-1;
+		Comparable<Object> key = (Comparable<Object>) element;
+		while(low <= high) {
+			int mid = (low+high) >>> 1;
+			int c = key.compareTo(this.elements[mid]);
+			if(c > 0) {
+				low = mid+1;
+			} else if(c < 0) {
+				high = mid-1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	T element(int entry) {
+		return (T) this.elements[entry];
+	}
+
+	// The arrays are read by MappedProbFunTree.write() and must not be changed
+
+	Object[] elements() {
+		return this.elements;
+	}
+
+	double[] cumulative() {
+		return this.cumulative;
+	}
+
+	int[] children() {
+		return this.children;
+	}
+
+	int[] offsets() {
+		return this.offsets;
+	}
+
+	/**        Returns the number of elements in the root node.
+	 * @return the number of elements in the root node.
+	 */
+	public int parentSize() {
+		return this.offsets[1];
+	}
+
+	/**        Returns the number of elements in every node of this FrozenProbFunTree.
+	 * @return the number of elements in every node of this FrozenProbFunTree,
+	 *         counting a node shared by many parents once, 
+	 *         so it is size() of the ProbFunTree that was frozen only if no nodes were shared.
+	 */
+	public int size() {
+		return this.elements.length;
+	}
+
+	/**        Returns the number of nodes in this FrozenProbFunTree.
+	 * @return the number of nodes in this FrozenProbFunTree, counting a node shared by many parents once.
+	 */
+	public int nodeCount() {
+		return this.offsets.length-1;
+	}
+
+}
@@ -0,0 +1,245 @@
+package tree;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.function.IntConsumer;
+
+/**
+ *         Generates elements from an IntProbFunTree with a history of its own, made by IntProbFunTree.newSession(),
+ *         so many generators can share one IntProbFunTree.
+ *         It holds every node reached by following the last generated elements from the root,
+ *         and the node with the longest history picks the next element,
+ *         so the next element can be picked without walking down the tree from the root.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+public final class IntGenerationSession {
+
+	private final IntProbFunTree root;
+
+	// The random numbers elements are picked with, which only this session uses
+	private final SplittableRandom random;
+
+	// The nodes reached by following the last generated elements, from the longest history to the shortest
+	private IntProbFunTree[] nodes;
+
+	// The number of generated elements followed to reach each node
+	private int[] depths;
+
+	private int size = 0;
+
+	// Holds the nodes for the next element while they are found, then swapped with nodes
+	private IntProbFunTree[] nextNodes;
+
+	private int[] nextDepths;
+
+	// The last generated elements, oldest first, as a ring buffer
+	private int[] history;
+
+	private int historyStart = 0;
+
+	private int historySize = 0;
+
+	// The structure version of root when nodes was last known to match the tree
+	private long version;
+
+	/**        Creates an IntGenerationSession that starts generating from root.
+	 * @param  root as the IntProbFunTree to generate elements from.
+	 * @param  random as the random numbers to pick elements with.
+	 */
+	IntGenerationSession(IntProbFunTree root, SplittableRandom random) {
+		this.root = root;
+		this.random = random;
+		this.nodes = new IntProbFunTree[4];
+		this.nextNodes = new IntProbFunTree[4];
+		this.depths = new int[4];
+		this.nextDepths = new int[4];
+		this.history = new int[4];
+		this.version = root.structureVersion();
+	}
+
+	/**        Picks the next element.
+	 * @return the next element.
+	 */
+	private int next() {
+		if(this.version != this.root.structureVersion()) {
+			rebuild();
+		}
+		IntProbFunTree picker = this.size == 0 ? this.root : this.nodes[0];
+		int element = picker.nextValue(this.random.nextDouble());
+		advance(element);
+		return element;
+	}
+
+	/**        Moves every node down to the child of element, dropping the nodes without one,
+	 *         and starts a new history from the root.
+	 * @param  element as the element that was generated.
+	 */
+	private void advance(int element) {
+		if(this.size == this.nodes.length || (this.size != 0 && this.depths[0] == this.history.length)) {
+			grow();
+		}
+		int nextSize = 0;
+		for(int i = 0; i < this.size; i++) {
+			IntProbFunTree child = this.nodes[i].getChild(element);
+			if(child != null) {
+				this.nextNodes[nextSize] = child;
+				this.nextDepths[nextSize] = this.depths[i]+1;
+				nextSize++;
+			}
+		}
+		IntProbFunTree child = this.root.getChild(element);
+		if(child != null) {
+			this.nextNodes[nextSize] = child;
+			this.nextDepths[nextSize] = 1;
+			nextSize++;
+		}
+		Arrays.fill(this.nodes, 0, this.size, null);
+		IntProbFunTree[] swapNodes = this.nodes;
+		this.nodes = this.nextNodes;
+		this.nextNodes = swapNodes;
+		int[] swapDepths = this.depths;
+		this.depths = this.nextDepths;
+		this.nextDepths = swapDepths;
+		this.size = nextSize;
+		remember(element);
+	}
+
+	/**        Adds element to the end of the history, forgetting the oldest element if the history is full.
+	 * @param  element as the element that was generated.
+	 */
+	private void remember(int element) {
+		if(this.historySize < this.history.length) {
+			this.history[(this.historyStart+this.historySize) % this.history.length] = element;
+			this.historySize++;
+		} else {
+			this.history[this.historyStart] = element;
+			this.historyStart = (this.historyStart+1) % this.history.length;
+		}
+	}
+
+	private int historyAt(int i) {
+		return this.history[(this.historyStart+i) % this.history.length];
+	}
+
+	/** Doubles the space for nodes and history.
+	 *
+	 */
+	private void grow() {
+		int length = this.nodes.length*2;
+		this.nodes = Arrays.copyOf(this.nodes, length);
+		this.nextNodes = Arrays.copyOf(this.nextNodes, length);
+		this.depths = Arrays.copyOf(this.depths, length);
+		this.nextDepths = Arrays.copyOf(this.nextDepths, length);
+		int[] newHistory = new int[length];
+		for(int i = 0; i < this.historySize; i++) {
+			newHistory[i] = historyAt(i);
+		}
+		this.history = newHistory;
+		this.historyStart = 0;
+	}
+
+	/** Finds the nodes again by following the history from the root,
+	 *  since nodes may have been copied, added or removed since they were found.
+	 */
+	private void rebuild() {
+		Arrays.fill(this.nodes, 0, this.size, null);
+		this.size = 0;
+		for(int depth = this.historySize; depth > 0; depth--) {
+			IntProbFunTree node = this.root;
+			for(int i = this.historySize-depth; i < this.historySize && node != null; i++) {
+				node = node.getChild(historyAt(i));
+			}
+			if(node != null) {
+				this.nodes[this.size] = node;
+				this.depths[this.size] = depth;
+				this.size++;
+			}
+		}
+		this.version = this.root.structureVersion();
+	}
+
+	/**        Returns a randomly picked element from the IntProbFunTree of this IntGenerationSession, based on the previously returned elements.
+	 *         The element is picked by the node reached by following the longest run of
+	 *         previously returned elements from the root, or by the root if there isn't one.
+	 * @return a randomly picked element from the IntProbFunTree.
+	 */
+	public int fun() {
+		return next();
+	}
+
+	/**        Returns n randomly picked elements from the IntProbFunTree, 
+	 *         picked the same way as calling fun() n times.
+	 * @param  n as the number of elements to pick.
+	 * @return an array of the picked elements in the order they were picked.
+	 * @throws IllegalArgumentException if n is less than 0.
+	 */
+	public int[] fun(int n) {
+		if(n < 0) {
+			throw new IllegalArgumentException("n must be at least 0\n");
+		}
+		// Invariants secured
+		int[] elements = new int[n];
+		fun(elements, 0, n);
+		return elements;
+	}
+
+	/**        Fills part of dest with randomly picked elements from the IntProbFunTree, 
+	 *         picked the same way as calling fun() len times.
+	 * @param  dest as the array to put the picked elements in.
+	 * @param  off as the index in dest of the first picked element.
+	 * @param  len as the number of elements to pick.
+	 * @throws NullPointerException if dest is null.
+	 * @throws IndexOutOfBoundsException if off or len are negative or off+len is greater than dest.length.
+	 */
+	public void fun(int[] dest, int off, int len) {
+		Objects.requireNonNull(dest);
+		if(off < 0 || len < 0 || len > dest.length-off) {
+			throw new IndexOutOfBoundsException("off and len must be in the bounds of dest\n");
+		}
+		// Invariants secured
+		for(int i = off; i < off+len; i++) {
+			dest[i] = next();
+		}
+	}
+
+	/**        Passes n randomly picked elements from the IntProbFunTree to sink, 
+	 *         picked the same way as calling fun() n times.
+	 * @param  n as the number of elements to pick.
+	 * @param  sink as the IntConsumer to pass each picked element to.
+	 * @throws NullPointerException if sink is null.
+	 * @throws IllegalArgumentException if n is less than 0.
+	 */
+	public void generate(int n, IntConsumer sink) {
+		Objects.requireNonNull(sink);
+		if(n < 0) {
+			throw new IllegalArgumentException("n must be at least 0\n");
+		}
+		// Invariants secured
+		for(int i = 0; i < n; i++) {
+			sink.accept(next());
+		}
+	}
+
+	/**        Creates a new IntGenerationSession for the same IntProbFunTree with an empty history,
+	 *         picking elements with random numbers split from the ones of this session.
+	 *         Sessions split in the same order from sessions with the same seed pick the same elements,
+	 *         so parallel workers that are each given a split session get the same results whatever threads run them.
+	 * @return a new IntGenerationSession with random numbers that are independent of the ones of this session.
+	 */
+	public IntGenerationSession split() {
+		return new IntGenerationSession(this.root, this.random.split());
+	}
+
+	/** Forgets the generated elements, so the next element will be picked by the root.
+	 *  The probabilities of the IntProbFunTree are not changed.
+	 */
+	public void clearHistory() {
+		Arrays.fill(this.nodes, 0, this.size, null);
+		this.size = 0;
+		this.historyStart = 0;
+		this.historySize = 0;
+	}
+
+}
@@ -0,0 +1,1059 @@
+package tree;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ *         A ProbFunTree for int elements.
+ *         Elements and their probabilities are kept in parallel arrays sorted by element,
+ *         and the child nodes are kept in an array parallel to the elements,
+ *         so elements and probabilities are never boxed when sampling or updating.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+public class IntProbFunTree implements Serializable {
+
+	private static final long serialVersionUID = 3720947462358211097L;
+
+	// The elements to be picked from, in ascending order
+	private int[] elements;
+
+	// The probabilities of the elements getting picked
+	private double[] probabilities;
+
+	// The nodes that will pick the next element after each element gets picked, or null if there isn't one
+	private IntProbFunTree[] children;
+
+	// The number of elements in use
+	private int size = 0;
+
+	// The number of non-null children
+	private int childCount = 0;
+
+	private IntProbFunTree parent = null;
+
+	private int id = 0;
+
+	private int layer;
+
+	private double roundingError = 0;
+
+	// Picks an index into elements; rebuilt lazily after the probabilities change
+	private transient Sampler sampler = null;
+
+	// Remembers the elements returned by fun(), so the next one can be picked without walking the tree
+	private transient IntGenerationSession session = null;
+
+	// Counts the times a child was added or removed in the tree this node is in, shared by every node of the tree,
+	// so an IntGenerationSession can tell when the nodes it holds may be out of date
+	private AtomicLong structure;
+
+	/**        Creates an IntProbFunTree where there is an equal chance of getting any element from choices when fun() in called.
+	 * @param  choices as the choices to be randomly picked from. Duplicate choices are only added once.
+	 * @param  layers as the number of layers for this IntProbFunTree to generate.
+	 *         Ex: for choices[0, 1] and layers=2, the following data structure will be made,
+	 *         <br>{@literal [[0->0.5][1->0.5]]} where the first choice is propagated like so
+	 *         {@literal [[0->[[0->0.5][1->0.5]]][1->[[0->0.5][1->0.5]]]]}.
+	 * @throws NullPointerException if choices is null.
+	 * @throws IllegalArgumentException if there isn't at least one element in choices, or
+	 *         layers is not at least 1.
+	 */
+	public IntProbFunTree(int[] choices, int layers) {
+		Objects.requireNonNull(choices);
+		if(choices.length < 1)
+			throw new IllegalArgumentException("Must have at least 1 element in the choices passed to the IntProbFunTree constructor\n");
+		if(layers < 1) {
+			throw new IllegalArgumentException("layers passed into the IntProbFunTree constructor must be at least 1");
+		}
+		// Invariants secured
+		int[] sortedChoices = sortedChoices(choices);
+		this.layer = 0;
+		this.structure = new AtomicLong();
+		init(sortedChoices, equalProbabilities(sortedChoices.length), layers);
+	}
+
+	/**        Creates an IntProbFunTree where getting an element from this IntProbFunTree's fun() function is based on the probabilities.
+	 * @param  choices as the choices to be randomly picked from, which must not contain duplicates.
+	 * @param  probabilities as the probabilities of picking the choice at the same index,
+	 *         which must add up to 1.0 using double addition.
+	 * @param  layers as the number of layers for this IntProbFunTree to generate.
+	 *         Ex: for choices[0, 1], probabilities[0.25, 0.75] and layers=2, the following data structure will be made,
+	 *         <br>{@literal [[0->0.25][1->0.75]]} where the first choice is propagated like so
+	 *         {@literal [[0->[[0->0.25][1->0.75]]][1->[[0->0.25][1->0.75]]]]}.
+	 * @throws NullPointerException if choices or probabilities is null.
+	 * @throws IllegalArgumentException if there isn't at least one element in choices,
+	 *         choices contains duplicates, probabilities isn't the same length as choices,
+	 *         probabilities do not add up to 1.0 using double addition, or
+	 *         layers is not at least 1.
+	 */
+	public IntProbFunTree(int[] choices, double[] probabilities, int layers) {
+		Objects.requireNonNull(choices);
+		Objects.requireNonNull(probabilities);
+		if(choices.length < 1)
+			throw new IllegalArgumentException("Must have at least 1 element in the choices passed to the IntProbFunTree constructor\n");
+		if(layers < 1) {
+			throw new IllegalArgumentException("layers passed into the IntProbFunTree constructor must be at least 1");
+		}
+		// Invariants secured
+		this.layer = 0;
+		this.structure = new AtomicLong();
+		double[] sortedProbabilities = new double[choices.length];
+		int[] sortedChoices = sortedChoices(choices, probabilities, sortedProbabilities, "the IntProbFunTree constructor");
+		init(sortedChoices, sortedProbabilities, layers);
+	}
+
+	/**        Private constructor for tracking parent nodes in the IntProbFunTree.
+	 *         The arguments must have already been checked.
+	 * @param  sortedChoices as the elements for the IntProbFunTree to generate in ascending order.
+	 * @param  probabilities as the probabilities of the elements in sortedChoices.
+	 * @param  layers as the number of layers to make the IntProbFunTree.
+	 * @param  currentLayer as the layer of the IntProbFunTree node to be generated.
+	 * @param  parent as the parent node in the IntProbFunTree.
+	 */
+	private IntProbFunTree(int[] sortedChoices, double[] probabilities, int layers, int currentLayer, IntProbFunTree parent) {
+		this.layer = currentLayer;
+		this.parent = parent;
+		this.structure = parent.structure;
+		init(sortedChoices, probabilities, layers);
+	}
+
+	/**        Fills this node with the choices and makes the layers under it.
+	 * @param  sortedChoices as the elements for the IntProbFunTree to generate in ascending order.
+	 * @param  probabilities as the probabilities of the elements in sortedChoices.
+	 * @param  layers as the number of layers to make the IntProbFunTree.
+	 */
+	private void init(int[] sortedChoices, double[] probabilities, int layers) {
+		this.size = sortedChoices.length;
+		this.elements = Arrays.copyOf(sortedChoices, this.size);
+		this.probabilities = Arrays.copyOf(probabilities, this.size);
+		this.children = new IntProbFunTree[this.size];
+		fixProbSum();
+		if(this.layer+1 < layers) {
+			for(int i = 0; i < this.size; i++) {
+				this.children[i] = new IntProbFunTree(sortedChoices, probabilities, layers, this.layer+1, this);
+			}
+			this.childCount = this.size;
+		}
+	}
+
+	/**        Copies choices into a sorted array without duplicates.
+	 * @param  choices as the choices to copy.
+	 * @return the sorted choices without duplicates.
+	 */
+	private static int[] sortedChoices(int[] choices) {
+		int[] sorted = Arrays.copyOf(choices, choices.length);
+		Arrays.sort(sorted);
+		int n = 0;
+		for(int i = 0; i < sorted.length; i++) {
+			if(i == 0 || sorted[i] != sorted[i-1]) {
+				sorted[n++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, n);
+	}
+
+	/**        Sorts choices and their probabilities by choice.
+	 * @param  choices as the choices to sort.
+	 * @param  probabilities as the probabilities of the choices.
+	 * @param  sortedProbabilities as the array to put the probabilities into in the order of the sorted choices.
+	 * @param  method as the name of the method for error messages.
+	 * @return the sorted choices.
+	 * @throws IllegalArgumentException if choices contains duplicates, probabilities isn't the same length as choices,
+	 *         or probabilities do not add up to 1.0 using double addition.
+	 */
+	private static int[] sortedChoices(int[] choices, double[] probabilities, double[] sortedProbabilities, String method) {
+		if(choices.length != probabilities.length) {
+			throw new IllegalArgumentException("choices and probabilities passed to " + method + " must be the same length\n");
+		}
+		double sum = 0;
+		for(double d : probabilities) {
+			sum += d;
+		}
+		if(sum != 1.0) {
+			throw new IllegalArgumentException("probabilities must add up to 1.0 using double addition "
+					+ "when passed to " + method + "\n");
+		}
+		int[] sorted = sortedChoices(choices);
+		if(sorted.length != choices.length) {
+			throw new IllegalArgumentException("choices passed to " + method + " must not contain duplicates\n");
+		}
+		for(int i = 0; i < choices.length; i++) {
+			sortedProbabilities[Arrays.binarySearch(sorted, choices[i])] = probabilities[i];
+		}
+		return sorted;
+	}
+
+	/**        Makes an array where every probability is 1.0/n.
+	 * @param  n as the number of probabilities.
+	 * @return an array where every probability is 1.0/n.
+	 */
+	private static double[] equalProbabilities(int n) {
+		double[] probabilities = new double[n];
+		Arrays.fill(probabilities, 1.0/n);
+		return probabilities;
+	}
+
+	/**        Returns the elements that can be returned by this IntProbFunTree in ascending order.
+	 * @return a copy of the elements in this IntProbFunTree in ascending order.
+	 */
+	public int[] getElements() {
+		return Arrays.copyOf(this.elements, this.size);
+	}
+
+	/**        Returns the probability of element being returned when fun() is called from this IntProbFunTree.
+	 * @param  element as the element to get the probability of.
+	 * @return the probability of element being returned, or 0.0 if element isn't in this IntProbFunTree.
+	 */
+	public double getProbability(int element) {
+		int i = indexOf(element);
+		return i < 0 ? 0.0 : this.probabilities[i];
+	}
+
+	/**        Returns the IntProbFunTree that will be used to generate the next element after element is returned.
+	 *         Any changes in the returned IntProbFunTree will be reflected in this IntProbFunTree.
+	 * @param  element as the element the child follows.
+	 * @return the child of element, or null if element has no child.
+	 */
+	public IntProbFunTree getChild(int element) {
+		int i = indexOf(element);
+		return i < 0 ? null : this.children[i];
+	}
+
+	/**        Finds the index of element.
+	 * @param  element as the element to look for.
+	 * @return the index of element if it is in this node, else (-(insertion point) - 1).
+	 */
+	private int indexOf(int element) {
+		return Arrays.binarySearch(this.elements, 0, this.size, element);
+	}
+
+	/**        Inserts an element into this node.
+	 * @param  index as the index to insert the element at to keep the elements in order.
+	 * @param  element as the element to insert.
+	 * @param  probability as the probability of the element.
+	 */
+	private void insert(int index, int element, double probability) {
+		if(this.size == this.elements.length) {
+			int capacity = Math.max(4, this.size*2);
+			this.elements = Arrays.copyOf(this.elements, capacity);
+			this.probabilities = Arrays.copyOf(this.probabilities, capacity);
+			this.children = Arrays.copyOf(this.children, capacity);
+		}
+		int moved = this.size-index;
+		System.arraycopy(this.elements, index, this.elements, index+1, moved);
+		System.arraycopy(this.probabilities, index, this.probabilities, index+1, moved);
+		System.arraycopy(this.children, index, this.children, index+1, moved);
+		this.elements[index] = element;
+		this.probabilities[index] = probability;
+		this.children[index] = null;
+		this.size++;
+	}
+
+	/**        Removes the element at index from this node, along with its child.
+	 * @param  index as the index of the element to remove.
+	 */
+	private void removeAt(int index) {
+		if(this.children[index] != null) {
+			this.childCount--;
+			this.structure.incrementAndGet();
+		}
+		int moved = this.size-index-1;
+		System.arraycopy(this.elements, index+1, this.elements, index, moved);
+		System.arraycopy(this.probabilities, index+1, this.probabilities, index, moved);
+		System.arraycopy(this.children, index+1, this.children, index, moved);
+		this.size--;
+		this.children[this.size] = null;
+	}
+
+	/**        Sets the child of the element at index.
+	 * @param  index as the index of the element.
+	 * @param  child as the new child, which must not be null.
+	 */
+	private void setChild(int index, IntProbFunTree child) {
+		if(this.children[index] == null) {
+			this.childCount++;
+		}
+		this.children[index] = child;
+		this.structure.incrementAndGet();
+	}
+
+	/**        Returns the number of times a child was added or removed in the tree this node is in.
+	 * @return the number of times a child was added or removed in the tree this node is in.
+	 */
+	long structureVersion() {
+		return this.structure.get();
+	}
+
+	/**        Makes a node without children under this node.
+	 * @param  choices as the elements of the new node.
+	 * @return the new node.
+	 */
+	private IntProbFunTree leaf(int[] choices) {
+		int[] sorted = sortedChoices(choices);
+		return new IntProbFunTree(sorted, equalProbabilities(sorted.length), this.layer+2, this.layer+1, this);
+	}
+
+	/**        Makes a node without children under this node.
+	 * @param  sortedChoices as the elements of the new node in ascending order.
+	 * @param  probabilities as the probabilities of the elements in sortedChoices.
+	 * @return the new node.
+	 */
+	private IntProbFunTree leaf(int[] sortedChoices, double[] probabilities) {
+		return new IntProbFunTree(sortedChoices, probabilities, this.layer+2, this.layer+1, this);
+	}
+
+	/** Scales the probabilities so they add up to 1.0.
+	 *
+	 */
+	private void scaleProbs() {
+		double scale = 1.0/probSum();
+		for(int i = 0; i < this.size; i++) {
+			this.probabilities[i] *= scale;
+		}
+		fixProbSum();
+	}
+
+	/**
+	 * @return the sum of all the probabilities in order to fix rounding error.
+	 */
+	private double probSum() {
+		double sum = 0;
+		for(int i = 0; i < this.size; i++) {
+			sum += this.probabilities[i];
+		}
+		return sum;
+	}
+
+	/** Fixes rounding error in the probabilities by adding up the probabilities
+	 *  and changing the first probability so all probabilities add up to 1.0.
+	 */
+	private void fixProbSum() {
+		this.roundingError = 1.0-probSum();
+		this.probabilities[0] += this.roundingError;
+		probsChanged();
+	}
+
+	/** Throws away the sampler so it will be rebuilt from the probabilities the next time an element is generated.
+	 *
+	 */
+	private void probsChanged() {
+		this.sampler = null;
+	}
+
+	/**        Returns the children of this node.
+	 * @param  follow as the test an element must pass for its child to be returned.
+	 * @return an Iterator over the children of the elements that pass follow, in the order of the elements.
+	 */
+	private Iterator<IntProbFunTree> children(IntPredicate follow) {
+		return new Iterator<IntProbFunTree>() {
+
+			private int next = find(0);
+
+			private int find(int from) {
+				int i = from;
+				while(i < IntProbFunTree.this.size && (IntProbFunTree.this.children[i] == null 
+						|| !follow.test(IntProbFunTree.this.elements[i]))) {
+					i++;
+				}
+				return i;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return this.next < IntProbFunTree.this.size;
+			}
+
+			@Override
+			public IntProbFunTree next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				IntProbFunTree child = IntProbFunTree.this.children[this.next];
+				this.next = find(this.next+1);
+				return child;
+			}
+
+		};
+	}
+
+	/**        Visits this node and every descendant, parents before children, without recursion.
+	 * @param  visit as the action to run on each node before its children are found.
+	 * @param  follow as the test an element must pass for its child to be visited.
+	 */
+	private void changeAll(Consumer<IntProbFunTree> visit, IntPredicate follow) {
+		TreeTraversal.walk(this, new TreeTraversal.Visitor<IntProbFunTree>() {
+			@Override
+			public TreeTraversal.Result preVisit(IntProbFunTree node) {
+				visit.accept(node);
+				return TreeTraversal.Result.CONTINUE;
+			}
+			@Override
+			public Iterator<IntProbFunTree> children(IntProbFunTree node) {
+				return node.children(follow);
+			}
+		});
+	}
+
+	/** Sets the probabilities to there being an equal chance of getting any element from this IntProbFunTree.
+	 *
+	 */
+	public void clearProbs() {
+		Arrays.fill(this.probabilities, 0, this.size, 1.0/this.size);
+		fixProbSum();
+	}
+
+	/** Sets the probabilities to there being an equal chance of getting any element from this IntProbFunTree and it's descendants.
+	 *
+	 */
+	public void clearAllProbs() {
+		changeAll(node -> node.clearProbs(), e -> true);
+	}
+
+	/** Due to propagation of past values, history may not produce favorable results, therefore this method
+	 *  clears the history, but not the probabilities produced by feedback,
+	 *  so the next generation is way more likely to produce favorable results
+	 *  after good() or bad() have been called one or more times.
+	 */
+	public void clearHistory() {
+		if(this.session != null) {
+			this.session.clearHistory();
+		}
+	}
+
+	/**        Adds an element to this IntProbFunTree, making the probability equal to 1.0/n
+	 *         where n is the number of elements contained in this IntProbFunTree.
+	 * @param  element as the element to add to this IntProbFunTree.
+	 * @param  elements as the elements to be picked from after fun() returns element.
+	 *         It may be empty or null if no elements should be picked from after fun() is called.
+	 *         In this case, the probability function in this IntProbFunTree will be used to generate
+	 *         the next value based in the elements it contains.
+	 */
+	public void add(int element, int[] elements) {
+		double probability = 1.0/this.size;
+		int i = indexOf(element);
+		if(i < 0) {
+			i = -i-1;
+			insert(i, element, probability);
+		}
+		scaleProbs();
+		if(this.childCount != 0 && this.children[i] == null && elements != null && elements.length != 0) {
+			setChild(i, leaf(elements));
+		}
+	}
+
+	/**        Adds an element to every descendant of this IntProbFunTree and this IntProbFunTree,
+	 *         making the probability equal to 1.0/n,
+	 *         where n is the number of elements contained in this IntProbFunTree.
+	 *         If the element already exists in a node, then the element will not be overwritten.
+	 *         In order to overwrite old element probabilities, you must remove the element using removeFromAll().
+	 * @param  element as the element to add to this IntProbFunTree and it's descendants.
+	 * @param  elements as the elements to be picked from after fun() returns element from the descendant with the greatest depth.
+	 *         It may be empty or null if no elements should be picked from after fun() is called.
+	 */
+	public void addToAll(int element, int[] elements) {
+		changeAll(node -> node.add(element, elements), e -> e != element);
+	}
+
+	/**        Adds an element to this IntProbFunTree with the specified probability.
+	 *         If the element exists in this IntProbFunTree then it's probability will be overwritten with percent.
+	 * @param  element as the element to add to this IntProbFunTree.
+	 * @param  elements as the elements to be picked from after fun() returns element.
+	 *         It may be empty or null if no elements should be picked from after fun() is called.
+	 * @param  percent, between 0 and 1 exclusive, as the chance of this IntProbFunTree returning element.
+	 * @throws IllegalArgumentException if percent is not between 0.0 and 1.0 (exclusive).
+	 */
+	public void add(int element, int[] elements, double percent) {
+		if(percent >= 1.0 || percent <= 0.0) {
+			throw new IllegalArgumentException("percent passed to add() is not between 0.0 and 1.0 (exclusive)");
+		}
+		// Invariants secured
+		double scale = (1.0-percent);
+		for(int i = 0; i < this.size; i++) {
+			this.probabilities[i] *= scale;
+		}
+		int i = indexOf(element);
+		if(i < 0) {
+			i = -i-1;
+			insert(i, element, percent);
+		} else {
+			this.probabilities[i] = percent;
+		}
+		scaleProbs();
+		if(this.childCount != 0 && this.children[i] == null && elements != null && elements.length != 0) {
+			setChild(i, leaf(elements));
+		}
+	}
+
+	/**        Adds an element to every node in this IntProbFunTree with the specified probability.
+	 *         If the element already exists in a node, then the element will not be updated.
+	 *         In order to overwrite old element probabilities, you must remove the element using removeFromAll().
+	 * @param  element as the element to add to every node.
+	 * @param  elements as the elements to be picked from after fun() returns element.
+	 *         It may be empty or null if no elements should be picked from after fun() is called.
+	 * @param  percent between 0 and 1 exclusive, as the chance of
+	 *         the parent and all it's children of this IntProbFunTree returning element.
+	 * @throws IllegalArgumentException if percent is not between 0.0 and 1.0 (exclusive).
+	 */
+	public void addToAll(int element, int[] elements, double percent) {
+		if(percent >= 1.0 || percent <= 0.0) {
+			throw new IllegalArgumentException("percent passed to add() is not between 0.0 and 1.0 (exclusive)");
+		}
+		// Invariants secured
+		changeAll(node -> node.add(element, elements, percent), e -> e != element);
+	}
+
+	/**        Adds elements to a new layer under every descendant of this IntProbFunTree that has no children,
+	 *         making the probability of each element added equal to 1.0/n,
+	 *         where n is the number of elements in choices.
+	 *         If this IntProbFunTree has no children, the layer is added under this IntProbFunTree.
+	 * @param  choices as the elements to add to the new layer.
+	 * @throws NullPointerException if choices is null.
+	 * @throws IllegalArgumentException if choices doesn't have at least one item.
+	 */
+	public void addLayer(int[] choices) {
+		Objects.requireNonNull(choices);
+		if(choices.length < 1)
+			throw new IllegalArgumentException("Must have at least 1 element in the choices passed to addLayer\n");
+		// Invariants secured
+		int[] sorted = sortedChoices(choices);
+		addSortedLayer(sorted, equalProbabilities(sorted.length));
+	}
+
+	/**        Adds choices to a new layer under every descendant of this IntProbFunTree that has no children,
+	 *         making the probability of each element added equal to the corresponding value in probabilities.
+	 *         If this IntProbFunTree has no children, the layer is added under this IntProbFunTree.
+	 * @param  choices as the elements to add to the new layer, which must not contain duplicates.
+	 * @param  probabilities as the probabilities of picking the choice at the same index,
+	 *         which must add up to 1.0 using double addition.
+	 * @throws NullPointerException if choices or probabilities is null.
+	 * @throws IllegalArgumentException if choices doesn't have at least one item,
+	 *         choices contains duplicates, probabilities isn't the same length as choices,
+	 *         or probabilities do not add up to 1.0 using double addition.
+	 */
+	public void addLayer(int[] choices, double[] probabilities) {
+		Objects.requireNonNull(choices);
+		Objects.requireNonNull(probabilities);
+		if(choices.length < 1)
+			throw new IllegalArgumentException("Must have at least 1 element in the choices passed to addLayer\n");
+		// Invariants secured
+		double[] sortedProbabilities = new double[choices.length];
+		int[] sorted = sortedChoices(choices, probabilities, sortedProbabilities, "addLayer");
+		addSortedLayer(sorted, sortedProbabilities);
+	}
+
+	/**        Adds a new layer under every descendant of this IntProbFunTree that has no children.
+	 * @param  sortedChoices as the elements for the new layer in ascending order.
+	 * @param  probabilities as the probabilities of the elements in sortedChoices.
+	 */
+	private void addSortedLayer(int[] sortedChoices, double[] probabilities) {
+		TreeTraversal.walk(this, new TreeTraversal.Visitor<IntProbFunTree>() {
+			@Override
+			public TreeTraversal.Result preVisit(IntProbFunTree node) {
+				if(node.childCount == 0) {
+					for(int i = 0; i < node.size; i++) {
+						node.setChild(i, node.leaf(sortedChoices, probabilities));
+					}
+					return TreeTraversal.Result.SKIP_CHILDREN;
+				}
+				return TreeTraversal.Result.CONTINUE;
+			}
+			@Override
+			public Iterator<IntProbFunTree> children(IntProbFunTree node) {
+				return node.children(e -> true);
+			}
+		});
+	}
+
+	/**        Removes an element from this IntProbFunTree unless there is only one element.
+	 * @param  element as the element to remove from this IntProbFunTree.
+	 * @return True if this IntProbFunTree's parent contained the element and it was removed, else false.
+	 */
+	public boolean remove(int element) {
+		if(this.size == 1) {
+			return false;
+		}
+		int i = indexOf(element);
+		if(i < 0) {
+			return false;
+		}
+		removeAt(i);
+		scaleProbs();
+		return true;
+	}
+
+	/**        Removes an element from every node in this IntProbFunTree.
+	 *         If an node in the tree has only 1 element, then element will not be removed that that specific node.
+	 * @param  element as the element to remove from every node in this IntProbFunTree.
+	 */
+	public void removeFromAll(int element) {
+		changeAll(node -> node.remove(element), e -> true);
+	}
+
+	/** Removes elements with the lowest probability of occurring when fun() is called from this IntProbFunTree.
+	 *  If elements have the same maximum probability of occurring, no elements will be removed.
+	 *  If parentSize() == 1, no elements will be removed.
+	 *  If parentSize() == 1 after a removal, no more elements will be removed.
+	 */
+	public void prune() {
+		double min = this.probabilities[0];
+		double max = this.probabilities[0];
+		for(int i = 1; i < this.size; i++) {
+			min = Math.min(min, this.probabilities[i]);
+			max = Math.max(max, this.probabilities[i]);
+		}
+		if(max == min || this.size == 1) {
+			return;
+		}
+		removeAtMost(min, max);
+	}
+
+	/** Removes elements with the lowest probability of occurring when fun() is called from this IntProbFunTree and it's descendants.
+	 *  If elements have the same maximum probability of occurring, no elements will be removed.
+	 *  If a node has one element, no elements will be removed.
+	 *  If a node has one element after a removal, no more elements will be removed.
+	 */
+	public void pruneAll() {
+		changeAll(node -> node.prune(), e -> true);
+	}
+
+	/**        Removes elements with probabilities less than or equal to percent chance of occurring
+	 *         when fun() is called from this IntProbFunTree.
+	 *         The element with the greatest probability will not be removed.
+	 *         If a node has one element, no elements will be removed.
+	 *         If a node has one element after a removal, no more elements will be removed.
+	 * @param  percent as the upper limit, inclusive, of the probability of elements being returned to be removed from this IntProbFunTree.
+	 * @throws IllegalArgumentException if percent is not between 0.0 and 1.0 (exclusive)
+	 */
+	public void prune(double percent) {
+		if(percent >= 1.0 || percent <= 0.0) {
+			throw new IllegalArgumentException("percent passed to prune() is not between 0.0 and 1.0 (exclusive)");
+		}
+		// Invariants secured
+		double max = this.probabilities[0];
+		for(int i = 1; i < this.size; i++) {
+			max = Math.max(max, this.probabilities[i]);
+		}
+		if(this.size == 1) {
+			return;
+		}
+		removeAtMost(percent, max);
+	}
+
+	/**        Removes elements with probabilities less than or equal to percent chance of occurring
+	 *         when fun() is called from this IntProbFunTree and it's descendants.
+	 *         If a node has one element, no elements will be removed.
+	 *         If a node has one element after a removal, no more elements will be removed.
+	 * @param  percent as the upper limit, inclusive, of the probability of elements being returned to be removed from this IntProbFunTree.
+	 * @throws IllegalArgumentException if percent is not between 0.0 and 1.0 (exclusive)
+	 */
+	public void pruneAll(double percent) {
+		if(percent >= 1.0 || percent <= 0.0) {
+			throw new IllegalArgumentException("percent passed to pruneAll() is not between 0.0 and 1.0 (exclusive)");
+		}
+		// Invariants secured
+		changeAll(node -> node.prune(percent), e -> true);
+	}
+
+	/**        Removes the elements with probabilities less than or equal to limit,
+	 *         except for elements within rounding error of max, until one element is left.
+	 * @param  limit as the upper limit, inclusive, of the probabilities to remove.
+	 * @param  max as the greatest probability in this node.
+	 */
+	private void removeAtMost(double limit, double max) {
+		int kept = 0;
+		int left = this.size;
+		for(int i = 0; i < this.size; i++) {
+			double p = this.probabilities[i];
+			if(left > 1 && p <= limit && p < max-this.roundingError) {
+				left--;
+				if(this.children[i] != null) {
+					this.childCount--;
+					this.structure.incrementAndGet();
+				}
+			} else {
+				this.elements[kept] = this.elements[i];
+				this.probabilities[kept] = p;
+				this.children[kept] = this.children[i];
+				kept++;
+			}
+		}
+		Arrays.fill(this.children, kept, this.size, null);
+		this.size = kept;
+		scaleProbs();
+	}
+
+	/**        Adds elementToAdd to the child node after traversing ifPresent.
+	 *         If there is no child node, a new node will be created.
+	 *         If ifPresent is not part of this tree, elementToAdd will not be added.
+	 * @param  ifPresent as the elements in the order to look for in this IntProbFunTree.
+	 * @param  elementToAdd as the element to add to a the child node under the node containing the last elements in ifPresent.
+	 * @throws NullPointerException if ifPresent is null.
+	 * @throws IllegalArgumentException if ifPresent is empty.
+	 */
+	public void addIfPresent(int[] ifPresent, int elementToAdd) {
+		Objects.requireNonNull(ifPresent);
+		if(ifPresent.length == 0) {
+			throw new IllegalArgumentException("Must have at least one entry in ifPresent passed to addIfPresent()");
+		}
+		// Invariants secured
+		IntProbFunTree pft = getChild(ifPresent[0]);
+		IntProbFunTree pftPrev;
+		for(int i = 1; i < ifPresent.length && pft != null; i++) {
+			pftPrev = pft;
+			pft = pft.getChild(ifPresent[i]);
+			if(i == ifPresent.length-1 && pft == null) {
+				pft = pftPrev;
+			}
+		}
+		if(pft != null) {
+			int last = ifPresent[ifPresent.length-1];
+			int i = pft.indexOf(last);
+			if(i >= 0 && pft.children[i] == null) {
+				pft.setChild(i, pft.leaf(new int[] {elementToAdd}));
+			}
+		}
+	}
+
+	/**        Adds elementToAdd to the child nodes after traversing ifPresent starting at every node.
+	 *         If there is no child node for one instance of ifPresent, a new node will be created.
+	 *         If ifPresent is not part of this tree, elementToAdd will not be added.
+	 * @param  ifPresent as the elements in the order to look for in this IntProbFunTree.
+	 * @param  elementToAdd as the element to add to a the child nodes under the nodes containing the last elements in ifPresent.
+	 * @throws NullPointerException if ifPresent is null.
+	 * @throws IllegalArgumentException if ifPresent is empty.
+	 */
+	public void addIfPresentToAll(int[] ifPresent, int elementToAdd) {
+		changeAll(node -> node.addIfPresent(ifPresent, elementToAdd), e -> true);
+	}
+
+	/**        Adjust the probability to make element more likely to be returned when fun() is called from this IntProbFunTree.
+	 * @param  element as the element to make appear more often
+	 * @param  percent as the percentage between 0 and 1 (exclusive),
+	 *         of the probability of getting element to add to the probability.
+	 * @return the adjusted probability.
+	 * @throws IllegalArgumentException if the percent isn't between 0 and 1 exclusive,
+	 *         or element isn't in this IntProbFunTree.
+	 */
+	public double good(int element, double percent) {
+		if(percent >= 1.0 || percent <= 0.0) {
+			throw new IllegalArgumentException("percent passed to good() is not between 0.0 and 1.0 (exclusive)");
+		}
+		int i = indexOf(element);
+		if(i < 0) {
+			throw new IllegalArgumentException("element passed to good() is not in this IntProbFunTree");
+		}
+		// Invariants secured
+		double oldProb = this.probabilities[i];
+		double add;
+		if(oldProb > 0.5)
+			add = ((1.0-oldProb)*percent);
+		else
+			add = (oldProb*percent);
+		if(oldProb+add >= (1.0-this.roundingError))
+			return oldProb;
+		setProbability(i, oldProb+add);
+		return this.probabilities[i];
+	}
+
+	/**        Adjust the probabilities to make the elements more likely to be returned when fun() is called
+	 *         in the order they appear in elements.
+	 *         Elements past the deepest node are ignored.
+	 * @param  elements as the elements to make appear more often in the order they should appear in.
+	 * @param  percent as the percentage between 0 and 1 (exclusive),
+	 *         of the probabilities of getting the elements to add to the probabilities.
+	 * @throws NullPointerException if elements is null.
+	 * @throws IllegalArgumentException if the percent isn't between 0 and 1 exclusive
+	 *         or elements is empty.
+	 */
+	public void good(int[] elements, double percent) {
+		Objects.requireNonNull(elements);
+		if(elements.length == 0){
+			throw new IllegalArgumentException("elements passed to good() must not be empty");
+		}
+		if(percent >= 1.0 || percent <= 0.0) {
+			throw new IllegalArgumentException("percent passed to good() is not between 0.0 and 1.0 (exclusive)");
+		}
+		// Invariants secured
+		IntProbFunTree node = this;
+		for(int i = 0; i < elements.length && node != null; i++) {
+			node.good(elements[i], percent);
+			node = node.getChild(elements[i]);
+		}
+	}
+
+	/**        Adjust the probability to make element less likely to be returned when fun() is called from this IntProbFunTree.
+	 * @param  element as the element to make appear less often
+	 * @param  percent as the percentage between 0 and 1 (exclusive),
+	 *         of the probability of getting element to subtract from the probability.
+	 * @return the adjusted probability.
+	 * @throws IllegalArgumentException if the percent isn't between 0 and 1 exclusive,
+	 *         or element isn't in this IntProbFunTree.
+	 */
+	public double bad(int element, double percent) {
+		if(percent >= 1.0 || percent <= 0.0) {
+			throw new IllegalArgumentException("percent passed to bad() is not between 0.0 and 1.0 (exclusive)");
+		}
+		int i = indexOf(element);
+		if(i < 0) {
+			throw new IllegalArgumentException("element passed to bad() is not in this IntProbFunTree");
+		}
+		// Invariants secured
+		double oldProb = this.probabilities[i];
+		double sub = (oldProb*percent);
+		if(oldProb-sub <= this.roundingError)
+			return oldProb;
+		setProbability(i, oldProb-sub);
+		return this.probabilities[i];
+	}
+
+	/**        Adjust the probabilities to make the elements less likely to be returned when fun() is called
+	 *         in the order they appear in elements.
+	 *         Elements past the deepest node are ignored.
+	 * @param  elements as the elements to make appear less often in the order they should not appear in.
+	 * @param  percent as the percentage between 0 and 1 (exclusive),
+	 *         of the probabilities of getting the elements to subtract from the probabilities.
+	 * @throws NullPointerException if elements is null.
+	 * @throws IllegalArgumentException if the percent isn't between 0 and 1 exclusive
+	 *         or elements is empty.
+	 */
+	public void bad(int[] elements, double percent) {
+		Objects.requireNonNull(elements);
+		if(elements.length == 0){
+			throw new IllegalArgumentException("elements passed to bad() must not be empty");
+		}
+		if(percent >= 1.0 || percent <= 0.0) {
+			throw new IllegalArgumentException("percent passed to bad() is not between 0.0 and 1.0 (exclusive)");
+		}
+		// Invariants secured
+		IntProbFunTree node = this;
+		for(int i = 0; i < elements.length && node != null; i++) {
+			node.bad(elements[i], percent);
+			node = node.getChild(elements[i]);
+		}
+	}
+
+	/**        Sets the probability of the element at index and scales the other probabilities so they all add up to 1.0.
+	 * @param  index as the index of the element.
+	 * @param  probability as the new probability of the element.
+	 */
+	private void setProbability(int index, double probability) {
+		double oldProb = this.probabilities[index];
+		double leftover = 1.0-probability;
+		double sumOfLeftovers = probSum() - oldProb;
+		double leftoverScale = leftover/sumOfLeftovers;
+		for(int i = 0; i < this.size; i++) {
+			this.probabilities[i] *= leftoverScale;
+		}
+		this.probabilities[index] = probability;
+		fixProbSum();
+	}
+
+	/**        Returns a randomly picked element from this IntProbFunTree, based on the previously returned elements.
+	 *         The element is picked by the node reached by following the longest run of
+	 *         previously returned elements from this node, or by this node if there isn't one.
+	 * @return a randomly picked element from this IntProbFunTree.
+	 */
+	public int fun() {
+		return session().fun();
+	}
+
+	/**        Returns n randomly picked elements from this IntProbFunTree, 
+	 *         picked the same way as calling fun() n times.
+	 * @param  n as the number of elements to pick.
+	 * @return an array of the picked elements in the order they were picked.
+	 * @throws IllegalArgumentException if n is less than 0.
+	 */
+	public int[] fun(int n) {
+		return session().fun(n);
+	}
+
+	/**        Fills part of dest with randomly picked elements from this IntProbFunTree, 
+	 *         picked the same way as calling fun() len times.
+	 * @param  dest as the array to put the picked elements in.
+	 * @param  off as the index in dest of the first picked element.
+	 * @param  len as the number of elements to pick.
+	 * @throws NullPointerException if dest is null.
+	 * @throws IndexOutOfBoundsException if off or len are negative or off+len is greater than dest.length.
+	 */
+	public void fun(int[] dest, int off, int len) {
+		session().fun(dest, off, len);
+	}
+
+	/**        Passes n randomly picked elements from this IntProbFunTree to sink, 
+	 *         picked the same way as calling fun() n times.
+	 * @param  n as the number of elements to pick.
+	 * @param  sink as the IntConsumer to pass each picked element to.
+	 * @throws NullPointerException if sink is null.
+	 * @throws IllegalArgumentException if n is less than 0.
+	 */
+	public void generate(int n, IntConsumer sink) {
+		session().generate(n, sink);
+	}
+
+	/**        Creates a new IntGenerationSession that generates elements from this IntProbFunTree,
+	 *         with a history of its own that starts out empty.
+	 *         Any number of sessions can generate from the same IntProbFunTree, 
+	 *         and fun() uses a session of its own.
+	 *         Each session picks with a SplittableRandom of its own, so sessions never share random numbers.
+	 *         Like the IntProbFunTree, a session is not thread-safe.
+	 * @return a new IntGenerationSession for this IntProbFunTree.
+	 */
+	public IntGenerationSession newSession() {
+		return new IntGenerationSession(this, new SplittableRandom());
+	}
+
+	/**        Creates a new IntGenerationSession that generates elements from this IntProbFunTree, as newSession() does,
+	 *         picking elements with random, so the elements it generates can be reproduced from the seed of random.
+	 *         Sessions for parallel workers can be made with split() so each gets its own reproducible random numbers.
+	 * @param  random as the random numbers to pick elements with, which must only be used by the session.
+	 * @return a new IntGenerationSession for this IntProbFunTree.
+	 * @throws NullPointerException if random is null.
+	 */
+	public IntGenerationSession newSession(SplittableRandom random) {
+		Objects.requireNonNull(random);
+		// Invariants secured
+		return new IntGenerationSession(this, random);
+	}
+
+	private IntGenerationSession session() {
+		if(this.session == null) {
+			this.session = new IntGenerationSession(this, new SplittableRandom());
+		}
+		return this.session;
+	}
+
+	/**        For generating the next value.
+	 * @param  random as a random number in [0, 1) to pick with.
+	 * @return the next generated value.
+	 */
+	int nextValue(double random) {
+		Sampler s = this.sampler;
+		if(s == null) {
+			s = Sampler.of(Arrays.copyOf(this.probabilities, this.size));
+			this.sampler = s;
+		}
+		return this.elements[s.next(random)];
+	}
+
+	/**        Returns the number of elements in this IntProbFunTree.
+	 * @return the number of elements in this IntProbFunTree.
+	 */
+	public int parentSize() {return this.size;}
+
+	/**        Returns the number of elements in this whole IntProbFunTree,
+	 *         which includes the number of elements in the parent plus the number of elements in every descendant.
+	 * @return the number of elements in this whole IntProbFunTree,
+	 *         which includes the number of elements in the parent plus the number of elements in every descendant.
+	 */
+	public int size() {
+		int[] size = new int[1];
+		changeAll(node -> size[0] += node.size, e -> true);
+		return size[0];
+	}
+
+	/**       Private copy constructor for clone
+	 * @param intProbFunTree as the IntProbFunTree to copy
+	 */
+	private IntProbFunTree(IntProbFunTree intProbFunTree) {
+		this(intProbFunTree, null);
+		// The children of each copy are the nodes it was copied from until the copy is visited
+		changeAll(copy -> {
+			for(int i = 0; i < copy.size; i++) {
+				if(copy.children[i] != null) {
+					copy.children[i] = new IntProbFunTree(copy.children[i], copy);
+				}
+			}
+		}, e -> true);
+	}
+
+	/**        Private constructor that copies a node without copying its children.
+	 * @param  intProbFunTree as the IntProbFunTree to copy.
+	 * @param  parent as the parent of the copy.
+	 */
+	private IntProbFunTree(IntProbFunTree intProbFunTree, IntProbFunTree parent) {
+		this.size = intProbFunTree.size;
+		this.elements = Arrays.copyOf(intProbFunTree.elements, this.size);
+		this.probabilities = Arrays.copyOf(intProbFunTree.probabilities, this.size);
+		this.children = Arrays.copyOf(intProbFunTree.children, this.size);
+		this.childCount = intProbFunTree.childCount;
+		this.parent = parent;
+		this.structure = parent == null ? new AtomicLong() : parent.structure;
+		this.layer = intProbFunTree.layer;
+		this.roundingError = intProbFunTree.roundingError;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		// Trees written before the version was kept don't have one, so the root gives one to every node,
+		// which it can do since the nodes under it are read first
+		if(this.structure == null && this.parent == null) {
+			AtomicLong structure = new AtomicLong();
+			changeAll(node -> node.structure = structure, e -> true);
+		}
+	}
+
+	@Override
+	public IntProbFunTree clone() {
+		return new IntProbFunTree(this);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		toString(sb, 0);
+		return sb.toString();
+	}
+
+	/**        Appends this IntProbFunTree and it's descendants to sb.
+	 * @param  sb as the StringBuilder to append to.
+	 * @param  indent as the number of spaces to indent this node by.
+	 */
+	private void toString(StringBuilder sb, int indent) {
+		if(this.id == 0) {
+			this.id = System.identityHashCode(this);
+		}
+		sb.append("PF ");
+		sb.append(this.id);
+		sb.append(": [");
+		for(int i = 0; i < this.size; i++) {
+			sb.append("[");
+			sb.append(this.elements[i]);
+			sb.append(" = ");
+			sb.append(this.probabilities[i]*100.0);
+			sb.append("%]");
+		}
+		sb.append("]\n");
+		if(this.childCount != 0) {
+			for(int i = 0; i < this.size; i++) {
+				if(this.children[i] != null) {
+					for(int j = 0; j < indent+4; j++) {
+						sb.append(" ");
+					}
+					sb.append(this.elements[i]);
+					sb.append(" -> ");
+					this.children[i].toString(sb, indent+4);
+				}
+			}
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		if(this.id == 0) {
+			this.id = System.identityHashCode(this);
+		}
+		return this.id;
+	}
+
+}
@@ -0,0 +1,34 @@
+package tree;
+
+/**
+ *         A Sampler that adds up the probabilities until it passes the random choice.
+ *         It is the fastest Sampler to build and is used for small distributions.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+final class LinearSampler implements Sampler {
+
+	private final double[] probabilities;
+
+	/**        Creates a LinearSampler.
+	 * @param  probabilities as the probabilities to pick from.
+	 *         The array will NOT be copied and must not be changed afterwards.
+	 */
+	LinearSampler(double[] probabilities) {
+		this.probabilities = probabilities;
+	}
+
+	@Override
+	public int next(double randomChoice) {
+		double sumOfProbabilities = 0.0;
+		int last = this.probabilities.length-1;
+		for(int i = 0; i < last; i++) {
+			sumOfProbabilities += this.probabilities[i];
+			if(randomChoice <= sumOfProbabilities) {
+				return i;
+			}
+		}
+		return last;
+	}
+
+}
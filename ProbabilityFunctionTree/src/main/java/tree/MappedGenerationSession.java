@@ -0,0 +1,144 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+/**
+ *         Generates elements from a MappedProbFunTree with a history of its own, made by MappedProbFunTree.newSession().
+ *         A MappedProbFunTree only reads the mapped file and never changes, so sessions for the same MappedProbFunTree
+ *         can be used by different threads at the same time, as long as each session is only used by one thread.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ * @param  <T> The type of the elements that will be picked from
+ */
+public final class MappedGenerationSession<T> {
+
+	private final MappedProbFunTree<T> tree;
+
+	// The random numbers elements are picked with, which only this session uses
+	private final SplittableRandom random;
+
+	// The nodes reached by following the last generated elements, from the longest history to the shortest
+	private int[] context = new int[4];
+
+	private int size = 0;
+
+	// Holds the nodes for the next element while they are found, then swapped with context
+	private int[] nextContext = new int[4];
+
+	/**        Creates a MappedGenerationSession that starts generating from the root node of tree.
+	 * @param  tree as the MappedProbFunTree to generate elements from.
+	 * @param  random as the random numbers to pick elements with.
+	 */
+	MappedGenerationSession(MappedProbFunTree<T> tree, SplittableRandom random) {
+		this.tree = tree;
+		this.random = random;
+	}
+
+	/**        Returns a randomly picked element from the MappedProbFunTree, based on the previously returned elements.
+	 *         Elements are picked the same way as FrozenProbFunTree.fun() would pick them from the FrozenProbFunTree that was written.
+	 * @return a randomly picked element from the MappedProbFunTree.
+	 */
+	public T fun() {
+		if(this.size == this.context.length) {
+			this.context = Arrays.copyOf(this.context, this.size*2);
+			this.nextContext = new int[this.size*2];
+		}
+		int picker = this.size == 0 ? 0 : this.context[0];
+		int symbol = this.tree.symbol(this.tree.pick(picker, this.random.nextDouble()));
+		// Move every node down to the child of the element, and start a new history from the root
+		int nextSize = 0;
+		for(int i = 0; i < this.size; i++) {
+			int child = this.tree.child(this.context[i], symbol);
+			if(child != -1) {
+				this.nextContext[nextSize++] = child;
+			}
+		}
+		int child = this.tree.child(0, symbol);
+		if(child != -1) {
+			this.nextContext[nextSize++] = child;
+		}
+		int[] swap = this.context;
+		this.context = this.nextContext;
+		this.nextContext = swap;
+		this.size = nextSize;
+		return this.tree.element(symbol);
+	}
+
+	/**        Returns n randomly picked elements from the MappedProbFunTree, 
+	 *         picked the same way as calling fun() n times.
+	 * @param  n as the number of elements to pick.
+	 * @return a List of the picked elements in the order they were picked.
+	 * @throws IllegalArgumentException if n is less than 0.
+	 */
+	public List<T> fun(int n) {
+		if(n < 0) {
+			throw new IllegalArgumentException("n must be at least 0\n");
+		}
+		// Invariants secured
+		List<T> elements = new ArrayList<T>(n);
+		for(int i = 0; i < n; i++) {
+			elements.add(fun());
+		}
+		return elements;
+	}
+
+	/**        Fills part of dest with randomly picked elements from the MappedProbFunTree, 
+	 *         picked the same way as calling fun() len times.
+	 * @param  dest as the array to put the picked elements in.
+	 * @param  off as the index in dest of the first picked element.
+	 * @param  len as the number of elements to pick.
+	 * @throws NullPointerException if dest is null.
+	 * @throws IndexOutOfBoundsException if off or len are negative or off+len is greater than dest.length.
+	 */
+	public void fun(T[] dest, int off, int len) {
+		Objects.requireNonNull(dest);
+		if(off < 0 || len < 0 || len > dest.length-off) {
+			throw new IndexOutOfBoundsException("off and len must be in the bounds of dest\n");
+		}
+		// Invariants secured
+		for(int i = off; i < off+len; i++) {
+			dest[i] = fun();
+		}
+	}
+
+	/**        Passes n randomly picked elements from the MappedProbFunTree to sink, 
+	 *         picked the same way as calling fun() n times.
+	 * @param  n as the number of elements to pick.
+	 * @param  sink as the Consumer to pass each picked element to.
+	 * @throws NullPointerException if sink is null.
+	 * @throws IllegalArgumentException if n is less than 0.
+	 */
+	public void generate(int n, Consumer<? super T> sink) {
+		Objects.requireNonNull(sink);
+		if(n < 0) {
+			throw new IllegalArgumentException("n must be at least 0\n");
+		}
+		// Invariants secured
+		for(int i = 0; i < n; i++) {
+			sink.accept(fun());
+		}
+	}
+
+	/**        Creates a new MappedGenerationSession for the same MappedProbFunTree with an empty history,
+	 *         picking elements with random numbers split from the ones of this session.
+	 *         Sessions split in the same order from sessions with the same seed pick the same elements,
+	 *         so parallel workers that are each given a split session get the same results whatever threads run them.
+	 * @return a new MappedGenerationSession with random numbers that are independent of the ones of this session.
+	 */
+	public MappedGenerationSession<T> split() {
+		return new MappedGenerationSession<T>(this.tree, this.random.split());
+	}
+
+	/** Forgets the generated elements, so the next element will be picked from the root node.
+	 *
+	 */
+	public void clearHistory() {
+		this.size = 0;
+	}
+
+}
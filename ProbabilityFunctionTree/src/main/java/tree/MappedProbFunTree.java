@@ -0,0 +1,497 @@
+package tree;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ *         A read-only ProbFunTree that is picked from directly in a memory-mapped file,
+ *         so opening it takes about the same time for any size of tree and the nodes are never copied onto the heap.
+ *         Every JVM that opens the same file shares the pages the operating system caches for it.
+ *         The file is made from a FrozenProbFunTree by write(), and only the symbols are read onto the heap by open().
+ *         The file is, in little-endian order:
+ *         <br>the magic bytes "PFTM", the format version as an int,
+ *         the number of symbols, nodes and entries, and the positions of the offsets and entries as longs,
+ *         <br>each symbol in natural order, as an int length and the bytes made by the SymbolCodec,
+ *         <br>the index of the first entry of each node as a long, followed by the number of entries,
+ *         <br>each entry as the cumulative probability as a double, the symbol index as an int
+ *         and the node picked from after it as an int, or -1 if there isn't one.
+ *         <br>The nodes are in breadth-first order and the entries of a node are sorted by their symbols,
+ *         the same way as in the FrozenProbFunTree.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ * @param  <T> The type of the elements that will be picked from
+ */
+public final class MappedProbFunTree<T> {
+
+	static final int MAGIC = 0x5046544D;
+
+	// Increased whenever the format changes, so old readers fail instead of reading garbage
+	static final int FORMAT_VERSION = 1;
+
+	private static final int HEADER_SIZE = 48;
+
+	private static final int ENTRY_SIZE = 16;
+
+	// A MappedByteBuffer can't be larger than 2 GB, so the file is mapped in segments of 1 GB
+	private static final int SEGMENT_BITS = 30;
+
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS)-1;
+
+	// Each segment overlaps the next by one entry, so no value is split between two segments
+	private static final int SEGMENT_OVERLAP = ENTRY_SIZE;
+
+	private final ByteBuffer[] segments;
+
+	// The elements, sorted by their natural order, so an element's index is its symbol
+	private final Object[] symbols;
+
+	private final int nodeCount;
+
+	private final long entryCount;
+
+	private final long offsetsPosition;
+
+	private final long entriesPosition;
+
+	// Remembers the elements returned by fun()
+	private MappedGenerationSession<T> session = null;
+
+	private MappedProbFunTree(ByteBuffer[] segments, Object[] symbols, int nodeCount,
+			long entryCount, long offsetsPosition, long entriesPosition) {
+		this.segments = segments;
+		this.symbols = symbols;
+		this.nodeCount = nodeCount;
+		this.entryCount = entryCount;
+		this.offsetsPosition = offsetsPosition;
+		this.entriesPosition = entriesPosition;
+	}
+
+	/**        Writes tree to the file at path in the format that open() maps, replacing the file if it exists.
+	 * @param  tree as the FrozenProbFunTree to write.
+	 * @param  path as the path of the file to write to.
+	 * @param  codec as the SymbolCodec that turns the elements of tree into bytes.
+	 * @param  <T> The type of the elements of tree
+	 * @throws NullPointerException if tree, path or codec is null.
+	 * @throws IOException if the file can't be written to.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> void write(FrozenProbFunTree<T> tree, Path path, SymbolCodec<? super T> codec) throws IOException {
+		Objects.requireNonNull(tree);
+		Objects.requireNonNull(path);
+		Objects.requireNonNull(codec);
+		// Invariants secured
+		Object[] elements = tree.elements();
+		double[] cumulative = tree.cumulative();
+		int[] children = tree.children();
+		int[] offsets = tree.offsets();
+		Object[] symbols = new TreeSet<Object>(Arrays.asList(elements)).toArray();
+		byte[][] symbolBytes = new byte[symbols.length][];
+		long position = HEADER_SIZE;
+		for(int i = 0; i < symbols.length; i++) {
+			symbolBytes[i] = codec.encode((T) symbols[i]);
+			position += 4+symbolBytes[i].length;
+		}
+		long offsetsPosition = align(position, 8);
+		long entriesPosition = align(offsetsPosition+8L*offsets.length, ENTRY_SIZE);
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC);
+			buffer.putInt(FORMAT_VERSION);
+			buffer.putLong(symbols.length);
+			buffer.putLong(offsets.length-1);
+			buffer.putLong(elements.length);
+			buffer.putLong(offsetsPosition);
+			buffer.putLong(entriesPosition);
+			for(byte[] bytes : symbolBytes) {
+				reserve(channel, buffer, 4);
+				buffer.putInt(bytes.length);
+				for(int off = 0; off < bytes.length;) {
+					reserve(channel, buffer, 1);
+					int len = Math.min(buffer.remaining(), bytes.length-off);
+					buffer.put(bytes, off, len);
+					off += len;
+				}
+			}
+			pad(channel, buffer, offsetsPosition-position);
+			for(int offset : offsets) {
+				reserve(channel, buffer, 8);
+				buffer.putLong(offset);
+			}
+			pad(channel, buffer, entriesPosition-offsetsPosition-8L*offsets.length);
+			for(int i = 0; i < elements.length; i++) {
+				reserve(channel, buffer, ENTRY_SIZE);
+				buffer.putDouble(cumulative[i]);
+				buffer.putInt(Arrays.binarySearch(symbols, elements[i]));
+				buffer.putInt(children[i]);
+			}
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	private static long align(long position, int alignment) {
+		return (position+alignment-1)/alignment*alignment;
+	}
+
+	/**        Writes buffer to channel if there isn't room for some bytes.
+	 * @param  channel as the channel to write to.
+	 * @param  buffer as the buffer to make room in.
+	 * @param  bytes as the number of bytes that will be put in buffer.
+	 * @throws IOException if channel can't be written to.
+	 */
+	private static void reserve(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+		if(buffer.remaining() < bytes) {
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+
+	private static void pad(FileChannel channel, ByteBuffer buffer, long bytes) throws IOException {
+		for(long i = 0; i < bytes; i++) {
+			reserve(channel, buffer, 1);
+			buffer.put((byte) 0);
+		}
+	}
+
+	/**        Maps the file at path written by write().
+	 *         Only the header and the symbols are read, so this takes about the same time for any size of tree.
+	 *         The file must not be changed while the MappedProbFunTree is used.
+	 * @param  path as the path of the file to map.
+	 * @param  codec as the SymbolCodec that turns bytes back into the elements.
+	 * @param  <T> The type of the elements of the tree
+	 * @return a MappedProbFunTree that picks from the file.
+	 * @throws NullPointerException if path or codec is null.
+	 * @throws IOException if the file can't be mapped,
+	 *         or doesn't hold a tree in a format version this class can read.
+	 */
+	public static <T> MappedProbFunTree<T> open(Path path, SymbolCodec<? extends T> codec) throws IOException {
+		Objects.requireNonNull(path);
+		Objects.requireNonNull(codec);
+		// Invariants secured
+		ByteBuffer[] segments;
+		long size;
+		// The mappings stay valid after the channel is closed
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			size = channel.size();
+			if(size < HEADER_SIZE) {
+				throw new IOException(path + " is too small to hold a MappedProbFunTree\n");
+			}
+			segments = new ByteBuffer[(int) ((size+SEGMENT_MASK) >>> SEGMENT_BITS)];
+			for(int i = 0; i < segments.length; i++) {
+				long start = (long) i << SEGMENT_BITS;
+				long length = Math.min(SEGMENT_MASK+1+SEGMENT_OVERLAP, size-start);
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length).order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+		ByteBuffer header = segments[0];
+		if(header.getInt(0) != MAGIC) {
+			throw new IOException(path + " does not hold a MappedProbFunTree\n");
+		}
+		int version = header.getInt(4);
+		if(version != FORMAT_VERSION) {
+			throw new IOException("MappedProbFunTree can't read format version " + version + "\n");
+		}
+		long symbolCount = header.getLong(8);
+		long nodeCount = header.getLong(16);
+		long entryCount = header.getLong(24);
+		long offsetsPosition = header.getLong(32);
+		long entriesPosition = header.getLong(40);
+		if(symbolCount < 1 || symbolCount > Integer.MAX_VALUE || nodeCount < 1 || nodeCount > Integer.MAX_VALUE
+				|| entryCount < 1 || offsetsPosition < HEADER_SIZE || entriesPosition < offsetsPosition+8*(nodeCount+1)
+				|| size != entriesPosition+entryCount*ENTRY_SIZE) {
+			throw new IOException(path + " has a bad header or was cut short\n");
+		}
+		Object[] symbols = new Object[(int) symbolCount];
+		long position = HEADER_SIZE;
+		for(int i = 0; i < symbols.length; i++) {
+			if(position+4 > offsetsPosition) {
+				throw new IOException(path + " has a bad symbol\n");
+			}
+			int length = getInt(segments, position);
+			if(length < 0 || position+4+length > offsetsPosition) {
+				throw new IOException(path + " has a bad symbol\n");
+			}
+			byte[] bytes = new byte[length];
+			for(int j = 0; j < length; j++) {
+				bytes[j] = segments[(int) ((position+4+j) >>> SEGMENT_BITS)].get((int) ((position+4+j) & SEGMENT_MASK));
+			}
+			symbols[i] = codec.decode(bytes);
+			position += 4+length;
+		}
+		return new MappedProbFunTree<T>(segments, symbols, (int) nodeCount, entryCount, offsetsPosition, entriesPosition);
+	}
+
+	private static int getInt(ByteBuffer[] segments, long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & SEGMENT_MASK));
+	}
+
+	private int getInt(long position) {
+		return this.segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & SEGMENT_MASK));
+	}
+
+	private long getLong(long position) {
+		return this.segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & SEGMENT_MASK));
+	}
+
+	private double getDouble(long position) {
+		return this.segments[(int) (position >>> SEGMENT_BITS)].getDouble((int) (position & SEGMENT_MASK));
+	}
+
+	/**        Returns the index of the first entry of a node.
+	 * @param  node as the node, or the number of nodes to get the number of entries.
+	 * @return the index of the first entry of node.
+	 */
+	private long offset(int node) {
+		return getLong(this.offsetsPosition+8L*node);
+	}
+
+	private double cumulative(long entry) {
+		return getDouble(this.entriesPosition+entry*ENTRY_SIZE);
+	}
+
+	/**        Returns the symbol of an entry.
+	 * @param  entry as the entry.
+	 * @return the index of the element of entry in the symbols.
+	 */
+	int symbol(long entry) {
+		return getInt(this.entriesPosition+entry*ENTRY_SIZE+8);
+	}
+
+	private int childOf(long entry) {
+		return getInt(this.entriesPosition+entry*ENTRY_SIZE+12);
+	}
+
+	@SuppressWarnings("unchecked")
+	T element(int symbol) {
+		return (T) this.symbols[symbol];
+	}
+
+	/**        Picks an entry from a node.
+	 * @param  node as the node to pick from.
+	 * @param  randomChoice as a random number in [0, 1).
+	 * @return the picked entry.
+	 */
+	long pick(int node, double randomChoice) {
+		long low = offset(node);
+		long high = offset(node+1)-1;
+		while(low < high) {
+			long mid = (low+high) >>> 1;
+			if(cumulative(mid) < randomChoice) {
+				low = mid+1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**        Finds the node that picks the element after the element of symbol is picked from node.
+	 * @param  node as the node the element was picked from.
+	 * @param  symbol as the symbol of the element that was picked.
+	 * @return the child of the element, or -1 if there isn't one.
+	 */
+	int child(int node, int symbol) {
+		long entry = find(node, symbol);
+		return entry == -1 ? -1 : childOf(entry);
+	}
+
+	/**        Finds the entry of a symbol in a node.
+	 *         The entries of a node are sorted by their symbols, so a binary search is used.
+	 * @param  node as the node to look in.
+	 * @param  symbol as the symbol to look for.
+	 * @return the entry of symbol, or -1 if node doesn't have symbol.
+	 */
+	private long find(int node, int symbol) {
+		long low = offset(node);
+		long high = offset(node+1)-1;
+		while(low <= high) {
+			long mid = (low+high) >>> 1;
+			int s = symbol(mid);
+			if(s < symbol) {
+				low = mid+1;
+			} else if(s > symbol) {
+				high = mid-1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**        Returns a randomly picked element from this MappedProbFunTree, based on the previously returned elements.
+	 *         Elements are picked the same way as FrozenProbFunTree.fun() would pick them from the FrozenProbFunTree that was written.
+	 * @return a randomly picked element from this MappedProbFunTree.
+	 */
+	public T fun() {
+		return session().fun();
+	}
+
+	/**        Returns n randomly picked elements from this MappedProbFunTree,
+	 *         picked the same way as calling fun() n times.
+	 * @param  n as the number of elements to pick.
+	 * @return a List of the picked elements in the order they were picked.
+	 * @throws IllegalArgumentException if n is less than 0.
+	 */
+	public List<T> fun(int n) {
+		return session().fun(n);
+	}
+
+	/**        Fills part of dest with randomly picked elements from this MappedProbFunTree,
+	 *         picked the same way as calling fun() len times.
+	 * @param  dest as the array to put the picked elements in.
+	 * @param  off as the index in dest of the first picked element.
+	 * @param  len as the number of elements to pick.
+	 * @throws NullPointerException if dest is null.
+	 * @throws IndexOutOfBoundsException if off or len are negative or off+len is greater than dest.length.
+	 */
+	public void fun(T[] dest, int off, int len) {
+		session().fun(dest, off, len);
+	}
+
+	/**        Passes n randomly picked elements from this MappedProbFunTree to sink,
+	 *         picked the same way as calling fun() n times.
+	 * @param  n as the number of elements to pick.
+	 * @param  sink as the Consumer to pass each picked element to.
+	 * @throws NullPointerException if sink is null.
+	 * @throws IllegalArgumentException if n is less than 0.
+	 */
+	public void generate(int n, Consumer<? super T> sink) {
+		session().generate(n, sink);
+	}
+
+	/**        Creates a new MappedGenerationSession that generates elements from this MappedProbFunTree,
+	 *         with a history of its own that starts out empty.
+	 *         Any number of sessions can generate from the same MappedProbFunTree,
+	 *         and fun() uses a session of its own.
+	 *         Each session picks with a SplittableRandom of its own, so sessions never share random numbers.
+	 * @return a new MappedGenerationSession for this MappedProbFunTree.
+	 */
+	public MappedGenerationSession<T> newSession() {
+		return new MappedGenerationSession<T>(this, new SplittableRandom());
+	}
+
+	/**        Creates a new MappedGenerationSession that generates elements from this MappedProbFunTree, as newSession() does,
+	 *         picking elements with random, so the elements it generates can be reproduced from the seed of random.
+	 *         Sessions for parallel workers can be made with split() so each gets its own reproducible random numbers.
+	 * @param  random as the random numbers to pick elements with, which must only be used by the session.
+	 * @return a new MappedGenerationSession for this MappedProbFunTree.
+	 * @throws NullPointerException if random is null.
+	 */
+	public MappedGenerationSession<T> newSession(SplittableRandom random) {
+		Objects.requireNonNull(random);
+		// Invariants secured
+		return new MappedGenerationSession<T>(this, random);
+	}
+
+	private MappedGenerationSession<T> session() {
+		if(this.session == null) {
+			this.session = new MappedGenerationSession<T>(this, new SplittableRandom());
+		}
+		return this.session;
+	}
+
+	/** Clears the history so the next element will be picked from the root node.
+	 *
+	 */
+	public void clearHistory() {
+		if(this.session != null) {
+			this.session.clearHistory();
+		}
+	}
+
+	/**        Returns the probability of element being picked after the elements in path have been picked.
+	 * @param  path as the elements leading from the root node to the node to look in.
+	 *         It may be empty to look in the root node.
+	 * @param  element as the element to get the probability of.
+	 * @return the probability of element being picked after path, or 0.0 if path or element are not in this MappedProbFunTree.
+	 * @throws NullPointerException if path or element is null.
+	 */
+	public double getProbability(List<T> path, T element) {
+		Objects.requireNonNull(path);
+		Objects.requireNonNull(element);
+		int node = node(path);
+		int symbol = Arrays.binarySearch(this.symbols, element);
+		if(node == -1 || symbol < 0) {
+			return 0.0;
+		}
+		long entry = find(node, symbol);
+		if(entry == -1) {
+			return 0.0;
+		}
+		return entry == offset(node) ? cumulative(entry) : cumulative(entry)-cumulative(entry-1);
+	}
+
+	/**        Checks if the elements in sequence can be picked one after another starting from the root node.
+	 * @param  sequence as the elements to look for.
+	 * @return true if every element in sequence is in the node reached by the elements before it, else false.
+	 * @throws NullPointerException if sequence is null.
+	 */
+	public boolean contains(List<T> sequence) {
+		Objects.requireNonNull(sequence);
+		if(sequence.isEmpty()) {
+			return true;
+		}
+		int node = node(sequence.subList(0, sequence.size()-1));
+		int symbol = Arrays.binarySearch(this.symbols, sequence.get(sequence.size()-1));
+		return node != -1 && symbol >= 0 && find(node, symbol) != -1;
+	}
+
+	/**        Finds the node reached by picking the elements in path starting from the root node.
+	 * @param  path as the elements to follow.
+	 * @return the node reached by following path, or -1 if there isn't one.
+	 */
+	private int node(List<T> path) {
+		int node = 0;
+		for(T t : path) {
+			int symbol = Arrays.binarySearch(this.symbols, t);
+			if(symbol < 0) {
+				return -1;
+			}
+			node = child(node, symbol);
+			if(node == -1) {
+				return -1;
+			}
+		}
+		return node;
+	}
+
+	/**        Returns the number of elements in the root node.
+	 * @return the number of elements in the root node.
+	 */
+	public int parentSize() {
+		return (int) offset(1);
+	}
+
+	/**        Returns the number of elements in every node of this MappedProbFunTree.
+	 * @return the number of elements in every node of this MappedProbFunTree,
+	 *         which is the same as size() of the FrozenProbFunTree that was written.
+	 */
+	public long size() {
+		return this.entryCount;
+	}
+
+	/**        Returns the number of nodes in this MappedProbFunTree.
+	 * @return the number of nodes in this MappedProbFunTree.
+	 */
+	public int nodeCount() {
+		return this.nodeCount;
+	}
+
+}
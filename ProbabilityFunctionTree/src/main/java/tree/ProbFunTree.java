@@ -1,19 +1,35 @@
 package tree;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.SplittableRandom;
 import java.util.TreeMap;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.Stream;
 
 /**
  *         A tree node where a set of elements are picked from randomly to decide which child node 
@@ -26,22 +42,119 @@ public class ProbFunTree<T> implements Serializable {
 
 	private static final long serialVersionUID = -6556634307811294014L;
 
+	// The fewest nodes changed by one task when the whole tree is changed in parallel
+	private static final int SEQUENTIAL_CUTOFF = 1 << 12;
+
+	// Estimates of the bytes taken by a node with its empty maps, by an element-probability pair,
+	// and by an element-child pair, on a 64 bit JVM with compressed references
+	private static final long NODE_BYTES = 160;
+
+	private static final long ENTRY_BYTES = 56;
+
+	private static final long CHILD_BYTES = 40;
+
 	// The set of elements to be picked from, mapped to the probabilities of getting picked 
 	private TreeMap<T, Double> probMap = new TreeMap<T, Double>();
 
 	// The set of elements to be picked from, mapped to the probabilities of getting picked 
-	private HashMap<T, ProbFunTree<T>> children = new HashMap<T, ProbFunTree<T>>();
+	private Map<T, ProbFunTree<T>> children = new HashMap<T, ProbFunTree<T>>();
 
 	private ProbFunTree<T> parent = null;
 
-	private T previousElement = null;
-
 	private int id = 0;
 
 	private int layer;
 
 	private double roundingError = 0;
 
+	// True if this node is used by more than one parent, which may be in different trees after snapshot(),
+	// in which case it must be copied before it is changed; 
+	// the children of a copy are used by both, so they are marked shared when the copy is made
+	private boolean shared = false;
+
+	// True if fun() may be called from other threads while this node is changed;
+	// then distribution is rebuilt as soon as probMap changes and children is a ConcurrentHashMap
+	private boolean concurrent = false;
+
+	// What fun() picks from; rebuilt lazily after probMap changes unless this node is concurrent
+	private transient volatile Distribution distribution = null;
+
+	// The weights of the elements while feedback is being given, in which case probMap is out of date
+	// until syncProbMap() is called
+	private transient FenwickWeights weights = null;
+
+	// Remembers the elements returned by fun(), so the next one can be picked without walking the tree
+	private transient GenerationSession<T> session = null;
+
+	// Shows the counts of this tree over JMX, which are published to it by the thread that changes the tree;
+	// only set on a root by ProbFunTreeMetrics.register()
+	private transient ProbFunTreeMonitor monitor = null;
+
+	// Maps runs of elements to the nodes under this node they reach, made the first time a context is looked up
+	private transient ContextIndex<T> contextIndex = null;
+
+	// The node whose aggregates count this node, which changes to this node are passed up to; 
+	// unlike parent, it is kept up to date for children put in with getChildMap()
+	private transient ProbFunTree<T> owner = null;
+
+	// The number of elements and nodes in this node and its descendants, counting shared nodes once for each parent
+	private transient long entryCount = 0;
+
+	private transient long nodeCount = 0;
+
+	// The most nodes on a path down from this node, counting this node
+	private transient int depth = 0;
+
+	// The estimated bytes of this node and its descendants, counting each shared child once
+	private transient long byteCount = 0;
+
+	// True if the aggregates are up to date; if false, the aggregates of the owners are out of date too
+	private transient boolean fresh = false;
+
+	// Counts the changes to the children of the tree this node is in, shared by every node of the tree
+	private StructureVersion structure;
+
+	/**
+	 *         Counts the changes to the children of the nodes of one tree,
+	 *         so a GenerationSession or ContextIndex can tell when what it holds of the tree may be out of date
+	 *         without being made out of date by changes to other trees.
+	 *         Every node of a tree has the one of its root. Shared nodes are copied before they are changed,
+	 *         and the copy gets the one of the tree it is copied into, so only nodes of the tree change it.
+	 */
+	static final class StructureVersion implements Serializable {
+
+		private static final long serialVersionUID = 4470113522311375083L;
+
+		// Counts the times a child was added or removed
+		private final AtomicLong children = new AtomicLong();
+
+		// Counts the times a child was replaced by a copy or the children of the root were marked shared by snapshot()
+		private final AtomicLong copies = new AtomicLong();
+
+		// The context index last built for a node of the tree, which children added and removed are put in
+		private transient ContextIndex<?> index = null;
+
+	}
+
+	/**
+	 *         An immutable copy of the probabilities of a node, 
+	 *         so threads can pick from it while the node is changed.
+	 */
+	private static final class Distribution {
+
+		// The elements of probMap in iteration order, so the sampler can return them by index
+		private final Object[] elements;
+
+		// Picks an index into elements
+		private final Sampler sampler;
+
+		private Distribution(Object[] elements, Sampler sampler) {
+			this.elements = elements;
+			this.sampler = sampler;
+		}
+
+	}
+
 	/**        Creates a ProbFunTree where there is an equal chance of getting any element from choices when fun() in called.
 	 *         Note that the elements in choices passed into this constructor will NOT be copied and will be added by reference.
 	 * @param  choices as the choices to be randomly picked from.
@@ -62,50 +175,14 @@ public class ProbFunTree<T> implements Serializable {
 		}
 		// Invariants secured
 		this.layer = 0;
+		this.structure = new StructureVersion();
+		Map<T, Double> probs = new HashMap<T, Double>();
 		for(T choice : choices) {
-			this.probMap.put(choice, 1.0/choices.size());
-		}
-		fixProbSum();
-		int currentLayers = 1;
-		if(layers != this.layer+1) {
-			for(T t: this.probMap.keySet()) {
-				this.children.put(t, new ProbFunTree<T>(choices, layers, currentLayers,  this));
-			}
-		}
-	}
-
-	/**        Private constructor for tracking parent nodes in the ProbFunTree.
-	 * @param  choices as the elements for the ProbFunTree to generate.
-	 * @param  layers as the number of layers to make the ProbFunTree.
-	 * @param  currentLayer as the layer of the ProbFunTree node to be generated.
-	 * @param  parent as the parent node in the ProbFunTree.
-	 * @throws NullPointerException if choices is null.
-	 * @throws IllegalArgumentException if there isn't at least one element in choices, or 
-	 *         layers and currentLayer are not at least 1.	 
-	 */
-	private ProbFunTree(Set<T> choices, int layers, int currentLayer, ProbFunTree<T> parent){
-		Objects.requireNonNull(choices);
-		if(choices.size() < 1) 
-			throw new IllegalArgumentException("Must have at least 1 element in the choices passed to the ProbFunTree constructor\n");
-		if(layers < 1) {
-			throw new IllegalArgumentException("layers passed into the ProbFunTree constructor must be at least 1");
-		}
-		if(currentLayer < 1) {
-			throw new IllegalArgumentException("currentLayer passed into the ProbFunTree constructor must be at least 1");
-		}
-		// Invariants secured
-		this.layer = currentLayer;
-		this.parent = parent;
-		for(T choice : choices) {
-			this.probMap.put(choice, 1.0/choices.size());
+			probs.put(choice, 1.0/choices.size());
 		}
+		this.probMap.putAll(probs);
 		fixProbSum();
-		currentLayer++;
-		if(this.layer+1 != layers) {
-			for(T t: this.probMap.keySet()) {
-				this.children.put(t, new ProbFunTree<T>(choices, layers, currentLayer, this));
-			}
-		}
+		addSharedLayers(probs, layers);
 	}
 
 	/**        Creates a ProbFunTree where getting a key from this ProbFunTree's fun() function is based on the probability values.
@@ -137,78 +214,818 @@ public class ProbFunTree<T> implements Serializable {
 		}
 		// Invariants secured
 		this.layer = 0;
-		for(Entry<T, Double> choice : probMap.entrySet()) {
-			this.probMap.put(choice.getKey(), choice.getValue());
+		this.structure = new StructureVersion();
+		this.probMap.putAll(probMap);
+		fixProbSum();
+		addSharedLayers(probMap, layers);
+	}
+
+	/**        Constructor for making a single node from probabilities that have already been checked.
+	 * @param  probMap as the element-probability pairs to copy into the node.
+	 * @param  layer as the layer of the node in the ProbFunTree.
+	 * @param  parent as the parent node in the ProbFunTree, or null for a root node.
+	 */
+	ProbFunTree(Map<T, Double> probMap, int layer, ProbFunTree<T> parent) {
+		this.layer = layer;
+		this.parent = parent;
+		this.structure = parent == null ? new StructureVersion() : parent.structure;
+		if(parent != null && parent.concurrent) {
+			this.concurrent = true;
+			this.children = new ConcurrentHashMap<T, ProbFunTree<T>>();
 		}
+		this.probMap.putAll(probMap);
 		fixProbSum();
-		int currentLayer = 1;
-		if(this.layer+1 != layers) {
-			for(T t: probMap.keySet()) {
-				this.children.put(t, new ProbFunTree<T>(probMap, layers, currentLayer, this));
+		this.owner = parent;
+		aggregate();
+	}
+
+	/**        Private constructor that copies a node so it can be changed without changing the nodes it is shared with,
+	 *         and that clone() starts each copy with.
+	 *         The children are not copied.
+	 * @param  node as the node to copy.
+	 * @param  parent as the parent of the copy.
+	 */
+	private ProbFunTree(ProbFunTree<T> node, ProbFunTree<T> parent) {
+		node.syncProbMap();
+		this.probMap.putAll(node.probMap);
+		if(node.concurrent) {
+			this.concurrent = true;
+			this.children = new ConcurrentHashMap<T, ProbFunTree<T>>();
+		}
+		this.children.putAll(node.children);
+		this.parent = parent;
+		this.structure = parent == null ? new StructureVersion() : parent.structure;
+		this.layer = node.layer;
+		this.roundingError = node.roundingError;
+		// The Distribution never changes, so the copy can pick from it until the copy is changed
+		this.distribution = node.distribution;
+		// The copy has the same elements and children, so it has the same aggregates
+		this.owner = parent;
+		if(node.fresh) {
+			this.entryCount = node.entryCount;
+			this.nodeCount = node.nodeCount;
+			this.depth = node.depth;
+			this.byteCount = node.byteCount;
+			this.fresh = true;
+		} else {
+			markStale();
+		}
+	}
+
+	/**        Constructor for a node that is read by ProbFunTreeCodec before its probabilities are known.
+	 *         restore() must be called before the node is used.
+	 */
+	ProbFunTree() {}
+
+	/**        Fills in a node made for ProbFunTreeCodec with probabilities that were written by it,
+	 *         keeping the rounding error that was written instead of working it out again.
+	 * @param  parent as the parent node in the ProbFunTree, or null for a root node.
+	 * @param  probMap as the element-probability pairs of the node, which become part of the node.
+	 * @param  layer as the layer of the node in the ProbFunTree.
+	 * @param  roundingError as the rounding error of the node.
+	 * @param  shared as true if the node is used by more than one parent.
+	 */
+	void restore(ProbFunTree<T> parent, TreeMap<T, Double> probMap, int layer, double roundingError, boolean shared) {
+		this.parent = parent;
+		this.structure = parent == null ? new StructureVersion() : parent.structure;
+		this.probMap = probMap;
+		this.layer = layer;
+		this.roundingError = roundingError;
+		this.shared = shared;
+		probMapChanged();
+	}
+
+	/**        Returns the probabilities of this node for reading, bringing them up to date with feedback first.
+	 * @return the element-probability pairs of this node, which must not be changed.
+	 */
+	TreeMap<T, Double> probabilities() {
+		syncProbMap();
+		return this.probMap;
+	}
+
+	/**        Returns the children of this node for reading.
+	 * @return the element-ProbFunTree pairs of this node, which must not be changed.
+	 */
+	Map<T, ProbFunTree<T>> children() {
+		return this.children;
+	}
+
+	int layer() {
+		return this.layer;
+	}
+
+	double roundingError() {
+		return this.roundingError;
+	}
+
+	boolean isShared() {
+		return this.shared;
+	}
+
+	/**        Puts a new node under an element of this node.
+	 * @param  element as the element the child follows.
+	 * @param  child as the node to pick from after element is picked.
+	 */
+	void addChild(T element, ProbFunTree<T> child) {
+		ProbFunTree<T> old = this.children.put(element, child);
+		childrenChanged(element, old != null, child);
+		// Nodes are added in bulk, so the aggregates are worked out when they are next needed
+		markStale();
+	}
+
+	/** Counts a child being added to or removed from this node, so sessions and the context index of the tree
+	 *  find the nodes they hold again. The context index is built again the next time it is used.
+	 */
+	private void childrenChanged() {
+		this.structure.children.incrementAndGet();
+	}
+
+	/**        Counts a child of this node being added, removed or replaced,
+	 *         and makes the same change to the context index of the tree if it was up to date and can find this node,
+	 *         so it doesn't have to be built again.
+	 * @param  element as the element whose child changed.
+	 * @param  removed as true if a child of element was taken away.
+	 * @param  added as the child put under element, or null if there isn't one.
+	 */
+	private void childrenChanged(T element, boolean removed, ProbFunTree<T> added) {
+		@SuppressWarnings("unchecked")
+		ContextIndex<T> index = (ContextIndex<T>) this.structure.index;
+		boolean current = index != null && index.isCurrent();
+		childrenChanged();
+		if(!current) {
+			return;
+		}
+		if(removed || added != null) {
+			// If the path can't be found, the index is left out of date and built again when it is next used
+			int id = pathIn(index);
+			if(id == -1) {
+				return;
+			}
+			if(removed) {
+				int child = index.child(id, element);
+				if(child == -1) {
+					return;
+				}
+				index.remove(child);
+			}
+			if(added != null) {
+				indexFrom(index, index.add(added, id, element));
 			}
 		}
+		index.update();
 	}
 
-	/**        Private constructor for tracking parent nodes in the ProbFunTree.
-	 * @param  probMap as the Object-probability pairs where the probabilities must add up to 1.0 using double addition.
-	 * @param  layers as the number of layers to make the ProbFunTree.
-	 * @param  currentLayer as the layer of the ProbFunTree node to be generated.
-	 * @param  parent as the parent node in the ProbFunTree.
-	 * @throws NullPointerException if probMap is null.
-	 * @throws IllegalArgumentException if there isn't at least one entry in probMap, 
-	 *         probMap entries do not add up to 1.0 using double addition, or
-	 *         layers or currentLayer are not at least 1.
+	/**        Gives a node put under this node from elsewhere, and the nodes under it, the StructureVersion of this tree,
+	 *         so changes to them are counted with the changes to this tree.
+	 * @param  child as the node put under this node.
 	 */
-	private ProbFunTree(Map<T, Double> probMap , int layers, int currentLayer, ProbFunTree<T> parent){
-		Objects.requireNonNull(probMap);
-		if(probMap.size() < 1) 
-			throw new IllegalArgumentException("Must have at least 1 entry in the probMap passed to the ProbFunTree constructor\n");
-		if(layers < 1) {
-			throw new IllegalArgumentException("layers passed into the ProbFunTree constructor must be at least 1");
+	private void adopt(ProbFunTree<T> child) {
+		StructureVersion structure = this.structure;
+		TreeTraversal.walk(child, new TreeTraversal.Visitor<ProbFunTree<T>>() {
+			@Override
+			public TreeTraversal.Result preVisit(ProbFunTree<T> node) {
+				if(node.structure == structure) {
+					return TreeTraversal.Result.SKIP_CHILDREN;
+				}
+				node.structure = structure;
+				return TreeTraversal.Result.CONTINUE;
+			}
+			@Override
+			public Iterator<ProbFunTree<T>> children(ProbFunTree<T> node) {
+				return node.children.values().iterator();
+			}
+		});
+	}
+
+	/**        Finds the path to this node in a context index by going up through the owners of the nodes above it.
+	 *         Takes O(depth) time, and the time to find each node in the children of its owner.
+	 * @param  index as the context index, whose root this node is under.
+	 * @return the id of the path to this node, or -1 if it isn't known to be the only one,
+	 *         which it isn't if a node on the way up is shared or isn't a child of its owner.
+	 */
+	private int pathIn(ContextIndex<T> index) {
+		List<T> path = new ArrayList<T>();
+		for(ProbFunTree<T> node = this; node != index.root(); node = node.owner) {
+			if(node.shared || node.owner == null) {
+				return -1;
+			}
+			T element = null;
+			for(Entry<T, ProbFunTree<T>> e : node.owner.children.entrySet()) {
+				if(e.getValue() == node) {
+					element = e.getKey();
+					break;
+				}
+			}
+			if(element == null) {
+				return -1;
+			}
+			path.add(element);
 		}
-		if(currentLayer < 1) {
-			throw new IllegalArgumentException("currentLayer passed into the ProbFunTree constructor must be at least 1");
+		int id = 0;
+		for(int i = path.size()-1; i >= 0 && id != -1; i--) {
+			id = index.child(id, path.get(i));
 		}
-		double sum = 0;
-		for(double d : probMap.values()) {
-			sum += d;
+		return id;
+	}
+
+	/**        Returns the number of times a child was added to or removed from a node of the tree this node is in.
+	 * @return a count that only goes up, which is the same while the children of the tree are the same.
+	 */
+	long childrenVersion() {
+		return this.structure.children.get();
+	}
+
+	/**        Returns the number of times a child of a node of the tree this node is in was replaced by a copy,
+	 *         or the children of the root were marked shared.
+	 * @return a count that only goes up, which is the same while the nodes of the tree and the ones that are shared are the same.
+	 */
+	long copiesVersion() {
+		return this.structure.copies.get();
+	}
+
+	/**        Returns the number of times a child was added to, removed from or replaced by a copy in a node 
+	 *         of the tree this node is in.
+	 * @return a count that only goes up, which is the same while the nodes reached from the root of the tree are the same.
+	 */
+	long nodesVersion() {
+		// Both only go up, so their sum only stays the same while both do
+		return this.structure.children.get()+this.structure.copies.get();
+	}
+
+	/**        Makes the layers under this node.
+	 *         Every node in a layer would be the same, so one node is made per layer and shared by every parent.
+	 *         Shared nodes are copied when they are first changed.
+	 * @param  probMap as the element-probability pairs for every node under this node.
+	 * @param  layers as the number of layers for this ProbFunTree to generate.
+	 */
+	private void addSharedLayers(Map<T, Double> probMap, int layers) {
+		List<ProbFunTree<T>> nodes = new ArrayList<ProbFunTree<T>>();
+		ProbFunTree<T> node = this;
+		nodes.add(node);
+		for(int currentLayer = this.layer+1; currentLayer < layers; currentLayer++) {
+			ProbFunTree<T> template = new ProbFunTree<T>(probMap, currentLayer, node);
+			template.shared = true;
+			for(T t : node.probMap.keySet()) {
+				node.children.put(t, template);
+			}
+			node = template;
+			nodes.add(node);
 		}
-		if(sum != 1.0) {
-			throw new IllegalArgumentException("probMap values must add up to 1.0 using double addition "
-					+ "when passed to the ProbFunTree constructor\n");
+		for(int i = nodes.size()-1; i >= 0; i--) {
+			nodes.get(i).aggregate();
 		}
-		// Invariants secured
-		this.layer = currentLayer;
-		this.parent = parent;
-		for(Entry<T, Double> choice : probMap.entrySet()) {
-			this.probMap.put(choice.getKey(), choice.getValue());
+	}
+
+	/**        Makes a node without children to go under this node.
+	 * @param  choices as the elements of the new node, which will have an equal chance of being picked.
+	 * @return the new node.
+	 */
+	private ProbFunTree<T> leaf(Set<T> choices) {
+		Map<T, Double> probs = new HashMap<T, Double>();
+		for(T choice : choices) {
+			probs.put(choice, 1.0/choices.size());
 		}
-		fixProbSum();
-		currentLayer++;
-		if(this.layer+1 != layers) {
-			for(T t: probMap.keySet()) {
-				this.children.put(t, new ProbFunTree<T>(probMap, layers, currentLayer, this));
+		return new ProbFunTree<T>(probs, this.layer+1, this);
+	}
+
+	/**        Returns the child of element, copying it first if it is shared with other nodes.
+	 * @param  element as the element the child follows.
+	 * @return the child of element that can be changed, or null if there isn't one.
+	 */
+	private ProbFunTree<T> mutableChild(T element) {
+		ProbFunTree<T> child = this.children.get(element);
+		if(child != null && child.shared) {
+			child = copyChild(child);
+			this.children.put(element, child);
+			changed();
+		}
+		return child;
+	}
+
+	/**        Copies a child that is shared with other nodes so this node can change it,
+	 *         which only copies the child and not its children, so a change only copies the nodes on the path to it.
+	 *         The children of the child are reached from the copy too, so they are marked shared.
+	 * @param  child as the shared child to copy.
+	 * @return the copy, which is not shared.
+	 */
+	private ProbFunTree<T> copyChild(ProbFunTree<T> child) {
+		ProbFunTree<T> copy = new ProbFunTree<T>(child, this);
+		for(ProbFunTree<T> grandchild : copy.children.values()) {
+			grandchild.shared = true;
+		}
+		this.structure.copies.incrementAndGet();
+		return copy;
+	}
+
+	/**        Copies the children that are shared with other nodes so they can be changed.
+	 * @return the children of this node, none of which are shared.
+	 */
+	private Collection<ProbFunTree<T>> mutableChildren() {
+		boolean copied = false;
+		for(Entry<T, ProbFunTree<T>> e : this.children.entrySet()) {
+			if(e.getValue().shared) {
+				e.setValue(copyChild(e.getValue()));
+				copied = true;
+			}
+		}
+		if(copied) {
+			changed();
+		}
+		return this.children.values();
+	}
+
+	/**        Takes the child of element away from this node, so changes to it are no longer passed up to this node.
+	 * @param  element as the element the child follows.
+	 * @return true if element had a child, else false.
+	 */
+	private boolean dropChild(T element) {
+		ProbFunTree<T> child = this.children.remove(element);
+		if(child != null && child.owner == this) {
+			child.owner = null;
+		}
+		return child != null;
+	}
+
+	/**        Works out the aggregates of this node from its elements and the aggregates of its children,
+	 *         which must be up to date, and makes this node the owner of the children that are not shared.
+	 */
+	private void aggregate() {
+		long entries = this.probMap.size();
+		long nodes = 1;
+		int depth = 1;
+		long bytes = ownBytes();
+		// Every element usually leads to the same shared node, so a Set is only made if there are others
+		ProbFunTree<T> sharedChild = null;
+		Set<ProbFunTree<T>> sharedChildren = null;
+		for(ProbFunTree<T> child : this.children.values()) {
+			entries += child.entryCount;
+			nodes += child.nodeCount;
+			depth = Math.max(depth, child.depth+1);
+			if(!child.shared) {
+				child.owner = this;
+				bytes += child.byteCount;
+			} else if(sharedChild == null) {
+				sharedChild = child;
+				bytes += child.byteCount;
+			} else if(child != sharedChild) {
+				if(sharedChildren == null) {
+					sharedChildren = Collections.newSetFromMap(new IdentityHashMap<ProbFunTree<T>, Boolean>());
+					sharedChildren.add(sharedChild);
+				}
+				if(sharedChildren.add(child)) {
+					bytes += child.byteCount;
+				}
+			}
+		}
+		this.entryCount = entries;
+		this.nodeCount = nodes;
+		this.depth = depth;
+		this.byteCount = bytes;
+		this.fresh = true;
+		publish();
+	}
+
+	/** Publishes the aggregates of this node to its ProbFunTreeMonitor, if it has one, 
+	 *  so the JMX thread can read them without reading this node.
+	 */
+	private void publish() {
+		if(this.monitor != null) {
+			this.monitor.publish(this.entryCount, this.nodeCount, this.depth, this.byteCount);
+		}
+	}
+
+	/**        Returns the ProbFunTreeMonitor that shows the counts of this tree, making it if there isn't one.
+	 *         Must be called on the thread that changes this tree.
+	 * @return the ProbFunTreeMonitor of this tree.
+	 */
+	ProbFunTreeMonitor monitor() {
+		if(this.monitor == null) {
+			this.monitor = new ProbFunTreeMonitor();
+			refresh();
+			publish();
+		}
+		return this.monitor;
+	}
+
+	/**        Works out the aggregates of this node again after it was changed, and passes the change up to the owners.
+	 *         Does nothing if the aggregates are out of date, since they will be worked out when they are next needed.
+	 */
+	private void changed() {
+		if(this.fresh) {
+			long entries = this.entryCount;
+			long nodes = this.nodeCount;
+			int depth = this.depth;
+			long bytes = this.byteCount;
+			aggregate();
+			passUp(entries, nodes, depth, bytes);
+		}
+	}
+
+	/**        Passes a change in the aggregates of this node up to the owners, 
+	 *         until an owner is reached that doesn't change or is out of date.
+	 * @param  entries as the entry count of this node before it changed.
+	 * @param  nodes as the node count of this node before it changed.
+	 * @param  depth as the depth of this node before it changed.
+	 * @param  bytes as the estimated bytes of this node before it changed.
+	 */
+	private void passUp(long entries, long nodes, int depth, long bytes) {
+		long entryChange = this.entryCount-entries;
+		long nodeChange = this.nodeCount-nodes;
+		long byteChange = this.byteCount-bytes;
+		ProbFunTree<T> child = this;
+		int childDepth = depth;
+		for(ProbFunTree<T> node = this.owner; node != null && node.fresh; node = node.owner) {
+			if(entryChange == 0 && nodeChange == 0 && byteChange == 0 && child.depth == childDepth) {
+				return;
+			}
+			int nodeDepth = node.depth;
+			node.entryCount += entryChange;
+			node.nodeCount += nodeChange;
+			node.byteCount += byteChange;
+			if(child.depth+1 > node.depth) {
+				node.depth = child.depth+1;
+			} else if(child.depth < childDepth && childDepth+1 == node.depth) {
+				// The child may have been the deepest, so the other children have to be checked
+				int deepest = 1;
+				for(ProbFunTree<T> c : node.children.values()) {
+					deepest = Math.max(deepest, c.depth+1);
+				}
+				node.depth = deepest;
+			}
+			node.publish();
+			child = node;
+			childDepth = nodeDepth;
+		}
+	}
+
+	/**        Marks the aggregates of this node and its owners as out of date, 
+	 *         for changes that are not passed up as they are made.
+	 */
+	private void markStale() {
+		for(ProbFunTree<T> node = this; node != null && node.fresh; node = node.owner) {
+			node.fresh = false;
+			if(node.monitor != null) {
+				node.monitor.markStale();
+			}
+		}
+	}
+
+	/**        Brings the aggregates of this node and its descendants up to date, 
+	 *         only working out the ones that are out of date.
+	 */
+	private void refresh() {
+		if(this.fresh) {
+			return;
+		}
+		TreeTraversal.walk(this, new TreeTraversal.Visitor<ProbFunTree<T>>() {
+			@Override
+			public TreeTraversal.Result preVisit(ProbFunTree<T> node) {
+				return node.fresh ? TreeTraversal.Result.SKIP_CHILDREN : TreeTraversal.Result.CONTINUE;
+			}
+			@Override
+			public Iterator<ProbFunTree<T>> children(ProbFunTree<T> node) {
+				return node.children.values().iterator();
+			}
+			@Override
+			public TreeTraversal.Result postVisit(ProbFunTree<T> node) {
+				node.aggregate();
+				return TreeTraversal.Result.CONTINUE;
+			}
+		});
+	}
+
+	/**        Returns the children of this node to change, copying the shared ones first.
+	 * @param  skip as the element whose child is left out, or null to return every child.
+	 * @return an Iterator over the children of this node, none of which are shared.
+	 */
+	private Iterator<ProbFunTree<T>> changeChildren(T skip) {
+		Collection<ProbFunTree<T>> children = mutableChildren();
+		if(skip == null || !this.children.containsKey(skip)) {
+			return children.iterator();
+		}
+		List<ProbFunTree<T>> others = new ArrayList<ProbFunTree<T>>(children.size());
+		for(Entry<T, ProbFunTree<T>> e : this.children.entrySet()) {
+			if(!e.getKey().equals(skip)) {
+				others.add(e.getValue());
+			}
+		}
+		return others.iterator();
+	}
+
+	/**        Visits this node and every descendant, parents before children, without recursion.
+	 *         Shared children are copied before they are visited, so visit can change them.
+	 * @param  visit as the action to run on each node before its children are found.
+	 * @param  skip as the element whose child is not visited, or null to visit every child.
+	 */
+	private void changeAll(Consumer<ProbFunTree<T>> visit, T skip) {
+		boolean fresh = this.fresh;
+		long entries = this.entryCount;
+		long nodes = this.nodeCount;
+		int depth = this.depth;
+		long bytes = this.byteCount;
+		TreeTraversal.walk(this, new TreeTraversal.Visitor<ProbFunTree<T>>() {
+			@Override
+			public TreeTraversal.Result preVisit(ProbFunTree<T> node) {
+				// The aggregates are worked out once the children are done instead of after every change
+				node.fresh = false;
+				visit.accept(node);
+				return TreeTraversal.Result.CONTINUE;
+			}
+			@Override
+			public Iterator<ProbFunTree<T>> children(ProbFunTree<T> node) {
+				return node.changeChildren(skip);
+			}
+			@Override
+			public TreeTraversal.Result postVisit(ProbFunTree<T> node) {
+				node.aggregate();
+				return TreeTraversal.Result.CONTINUE;
+			}
+		});
+		if(fresh) {
+			passUp(entries, nodes, depth, bytes);
+		}
+	}
+
+	/**        Visits this node and every descendant on the threads of pool, parents before children.
+	 *         Each node is only visited by one thread, and visit must only change the node it is given.
+	 * @param  visit as the action to run on each node before its children are found.
+	 * @param  skip as the element whose child is not visited, or null to visit every child.
+	 * @param  pool as the ForkJoinPool to visit on.
+	 */
+	private void changeAll(Consumer<ProbFunTree<T>> visit, T skip, ForkJoinPool pool) {
+		boolean fresh = this.fresh;
+		long entries = this.entryCount;
+		long nodes = this.nodeCount;
+		int depth = this.depth;
+		long bytes = this.byteCount;
+		pool.invoke(new ChangeTask<T>(Collections.singletonList(this), true, visit, skip));
+		if(fresh) {
+			passUp(entries, nodes, depth, bytes);
+		}
+	}
+
+	/**        Counts the nodes in this ProbFunTree, stopping at limit, 
+	 *         so a big tree can be told apart from a small one without counting every node.
+	 * @param  limit as the most nodes to count.
+	 * @return the number of nodes in this ProbFunTree, or limit if there are at least that many.
+	 */
+	private int countNodes(int limit) {
+		if(this.fresh) {
+			return (int) Math.min(this.nodeCount, limit);
+		}
+		int[] count = new int[1];
+		TreeTraversal.walk(this, new TreeTraversal.Visitor<ProbFunTree<T>>() {
+			@Override
+			public TreeTraversal.Result preVisit(ProbFunTree<T> node) {
+				return ++count[0] >= limit ? TreeTraversal.Result.STOP : TreeTraversal.Result.CONTINUE;
+			}
+			@Override
+			public Iterator<ProbFunTree<T>> children(ProbFunTree<T> node) {
+				return node.children.values().iterator();
 			}
+		});
+		return count[0];
+	}
+
+	/**
+	 *         Changes the nodes under some nodes.
+	 *         A task that splits visits its node and forks a task for every child with at least 
+	 *         SEQUENTIAL_CUTOFF nodes under it, while the smaller children are put together into tasks 
+	 *         of about SEQUENTIAL_CUTOFF nodes that change them on one thread.
+	 * @param  <T> The type of the elements that will be picked from
+	 */
+	private static final class ChangeTask<T> extends RecursiveAction {
+
+		private static final long serialVersionUID = -3092518846371839564L;
+
+		private final List<ProbFunTree<T>> nodes;
+
+		// True if this task changes one big node and splits its children into tasks
+		private final boolean split;
+
+		private final Consumer<ProbFunTree<T>> visit;
+
+		private final T skip;
+
+		private ChangeTask(List<ProbFunTree<T>> nodes, boolean split, Consumer<ProbFunTree<T>> visit, T skip) {
+			this.nodes = nodes;
+			this.split = split;
+			this.visit = visit;
+			this.skip = skip;
 		}
+
+		@Override
+		protected void compute() {
+			if(!this.split) {
+				for(ProbFunTree<T> node : this.nodes) {
+					node.changeAll(this.visit, this.skip);
+				}
+				return;
+			}
+			List<ChangeTask<T>> forked = new ArrayList<ChangeTask<T>>();
+			List<ProbFunTree<T>> batch = new ArrayList<ProbFunTree<T>>();
+			int batchSize = 0;
+			// One big child is changed by this task instead of forking, so a deep tree doesn't make deep tasks
+			List<ProbFunTree<T>> chain = new ArrayList<ProbFunTree<T>>();
+			ProbFunTree<T> node = this.nodes.get(0);
+			while(node != null) {
+				node.fresh = false;
+				chain.add(node);
+				this.visit.accept(node);
+				ProbFunTree<T> next = null;
+				for(Iterator<ProbFunTree<T>> it = node.changeChildren(this.skip); it.hasNext();) {
+					ProbFunTree<T> child = it.next();
+					int size = child.countNodes(SEQUENTIAL_CUTOFF);
+					if(size < SEQUENTIAL_CUTOFF) {
+						batch.add(child);
+						batchSize += size;
+						if(batchSize >= SEQUENTIAL_CUTOFF) {
+							forked.add(fork(batch, false));
+							batch = new ArrayList<ProbFunTree<T>>();
+							batchSize = 0;
+						}
+					} else if(next == null) {
+						next = child;
+					} else {
+						forked.add(fork(Collections.singletonList(child), true));
+					}
+				}
+				node = next;
+			}
+			if(!batch.isEmpty()) {
+				new ChangeTask<T>(batch, false, this.visit, this.skip).compute();
+			}
+			for(ChangeTask<T> task : forked) {
+				task.join();
+			}
+			for(int i = chain.size()-1; i >= 0; i--) {
+				chain.get(i).aggregate();
+			}
+		}
+
+		private ChangeTask<T> fork(List<ProbFunTree<T>> nodes, boolean split) {
+			ChangeTask<T> task = new ChangeTask<T>(nodes, split, this.visit, this.skip);
+			task.fork();
+			return task;
+		}
+
 	}
 
 	/**        returns the Map of element-probability pairs that make up this ProbFunTree. 
-	 *         Any changes in the returned Map will be reflected in this ProbFunTree.
+	 *         Any changes in the returned Map will be reflected in this ProbFunTree
+	 *         up until the next time fun() is called.
+	 *         If this ProbFunTree is concurrent, fun() won't see the changes until this node is changed again
+	 *         by a method of this ProbFunTree.
 	 * @return the Map of element-probability pairs that make up this ProbFunTree. 
 	 *         Any changes in the returned Map will be reflected in this ProbFunTree.
 	 */
 	public Map<T, Double> getProbMap() {
+		syncProbMap();
+		// The caller may change the Map, so the sampler has to be rebuilt and the aggregates worked out again
+		probMapChanged();
+		markStale();
 		return this.probMap;
 	}
 
 	/**        Returns the Map of element-ProbFunTree pairs that represent which ProbFunTree 
 	 *         will be used to generate the next element given the last returned element. 
 	 *         Any changes in the returned Map will be reflected in this ProbFunTree.
+	 *         The Map is a view of the children, so reading the elements doesn't copy anything, 
+	 *         but a child that is shared with other nodes is copied when it is got from the Map, since it may be changed.
 	 * @return the Map of element-ProbFunTree pairs that represent which ProbFunTree 
 	 *         will be used to generate the next element given the last returned element. 
 	 */
 	public Map<T, ProbFunTree<T>> getChildMap() {
-		return this.children;
+		return new ChildMap();
+	}
+
+	/**
+	 *         The view of the children of this node returned by getChildMap().
+	 *         Shared children are copied one at a time as they are got, 
+	 *         and putting or removing a child counts as a change to the children of the tree.
+	 */
+	private final class ChildMap extends AbstractMap<T, ProbFunTree<T>> {
+
+		@Override
+		public int size() {
+			return ProbFunTree.this.children.size();
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return ProbFunTree.this.children.containsKey(key);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public ProbFunTree<T> get(Object key) {
+			return containsKey(key) ? mutableChild((T) key) : null;
+		}
+
+		@Override
+		public ProbFunTree<T> put(T key, ProbFunTree<T> value) {
+			ProbFunTree<T> old = ProbFunTree.this.children.put(key, value);
+			if(old != null && old != value && old.owner == ProbFunTree.this) {
+				old.owner = null;
+			}
+			if(value != null) {
+				adopt(value);
+			}
+			childrenChanged(key, old != null, value);
+			// The new child may have any aggregates, so they are worked out when they are next needed
+			markStale();
+			return old;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public ProbFunTree<T> remove(Object key) {
+			ProbFunTree<T> old = ProbFunTree.this.children.get(key);
+			if(old != null) {
+				dropChild((T) key);
+				childrenChanged((T) key, true, null);
+				markStale();
+			}
+			return old;
+		}
+
+		@Override
+		public Set<Entry<T, ProbFunTree<T>>> entrySet() {
+			return new AbstractSet<Entry<T, ProbFunTree<T>>>() {
+				@Override
+				public int size() {
+					return ProbFunTree.this.children.size();
+				}
+				@Override
+				public Iterator<Entry<T, ProbFunTree<T>>> iterator() {
+					// The keys are copied, so shared children can be replaced by copies while the entries are iterated
+					Iterator<T> keys = new ArrayList<T>(ProbFunTree.this.children.keySet()).iterator();
+					return new Iterator<Entry<T, ProbFunTree<T>>>() {
+						private T last = null;
+						@Override
+						public boolean hasNext() {
+							return keys.hasNext();
+						}
+						@Override
+						public Entry<T, ProbFunTree<T>> next() {
+							this.last = keys.next();
+							return new ChildEntry(this.last);
+						}
+						@Override
+						public void remove() {
+							if(this.last == null) {
+								throw new IllegalStateException();
+							}
+							ChildMap.this.remove(this.last);
+							this.last = null;
+						}
+					};
+				}
+			};
+		}
+
+	}
+
+	/**
+	 *         An entry of the view returned by getChildMap(), which copies the child if it is shared when it is got.
+	 */
+	private final class ChildEntry implements Entry<T, ProbFunTree<T>> {
+
+		private final T key;
+
+		private ChildEntry(T key) {
+			this.key = key;
+		}
+
+		@Override
+		public T getKey() {
+			return this.key;
+		}
+
+		@Override
+		public ProbFunTree<T> getValue() {
+			return mutableChild(this.key);
+		}
+
+		@Override
+		public ProbFunTree<T> setValue(ProbFunTree<T> value) {
+			return new ChildMap().put(this.key, value);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Entry)) {
+				return false;
+			}
+			Entry<?, ?> e = (Entry<?, ?>) o;
+			return this.key.equals(e.getKey()) && Objects.equals(ProbFunTree.this.children.get(this.key), e.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return this.key.hashCode() ^ Objects.hashCode(ProbFunTree.this.children.get(this.key));
+		}
+
 	}
 
 	/** Scales the probabilities so they add up to 1.0.
@@ -242,23 +1059,168 @@ public class ProbFunTree<T> implements Serializable {
 		Entry<T, Double> firstProb = this.probMap.entrySet().iterator().next();
 		this.roundingError  = 1.0-probSum();
 		firstProb.setValue(firstProb.getValue() + this.roundingError);		
+		probMapChanged();
+	}
+
+	/** Throws away the Distribution so it will be rebuilt from probMap the next time an element is generated,
+	 *  or replaces it right away if this node is concurrent, since other threads can't read probMap while it changes.
+	 */
+	private void probMapChanged() {
+		this.distribution = this.concurrent ? buildDistribution() : null;
+	}
+
+	/**        Returns the weights of this node, making them from probMap if they were thrown away.
+	 *         probMap is out of date from when this is called until syncProbMap() is called.
+	 * @return the weights of this node.
+	 */
+	private FenwickWeights weights() {
+		if(this.weights == null) {
+			int n = this.probMap.size();
+			Object[] elements = new Object[n];
+			double[] weights = new double[n];
+			int i = 0;
+			for(Entry<T, Double> e : this.probMap.entrySet()) {
+				elements[i] = e.getKey();
+				weights[i] = e.getValue();
+				i++;
+			}
+			this.weights = new FenwickWeights(elements, weights);
+		}
+		return this.weights;
+	}
+
+	/** Puts the probabilities of the weights into probMap and throws the weights away, 
+	 *  so probMap can be used again after feedback.
+	 */
+	private void syncProbMap() {
+		FenwickWeights w = this.weights;
+		if(w != null) {
+			this.weights = null;
+			int i = 0;
+			for(Entry<T, Double> e : this.probMap.entrySet()) {
+				e.setValue(w.weight(i++)/w.total());
+			}
+			fixProbSum();
+		}
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		// probMap is what gets written, so it has to be up to date
+		syncProbMap();
+		out.defaultWriteObject();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		// Trees written before the version was kept don't have one, so the root gives one to every node,
+		// which it can do since the nodes under it are read first
+		if(this.structure == null && this.parent == null) {
+			StructureVersion structure = new StructureVersion();
+			TreeTraversal.walk(this, new TreeTraversal.Visitor<ProbFunTree<T>>() {
+				@Override
+				public TreeTraversal.Result preVisit(ProbFunTree<T> node) {
+					if(node.structure == structure) {
+						return TreeTraversal.Result.SKIP_CHILDREN;
+					}
+					node.structure = structure;
+					return TreeTraversal.Result.CONTINUE;
+				}
+				@Override
+				public Iterator<ProbFunTree<T>> children(ProbFunTree<T> node) {
+					return node.children.values().iterator();
+				}
+			});
+		}
+	}
+
+	/**        Builds the Distribution for the current probabilities, which are in the weights while feedback is being given.
+	 *         The kind of sampler only depends on the number of elements.
+	 * @return the Distribution for the current probabilities.
+	 */
+	private Distribution buildDistribution() {
+		FenwickWeights w = this.weights;
+		if(w != null) {
+			return new Distribution(w.elements(), Sampler.of(w.probabilities()));
+		}
+		int n = this.probMap.size();
+		Object[] elements = new Object[n];
+		double[] probabilities = new double[n];
+		int i = 0;
+		for(Entry<T, Double> e : this.probMap.entrySet()) {
+			elements[i] = e.getKey();
+			probabilities[i] = e.getValue();
+			i++;
+		}
+		return new Distribution(elements, Sampler.of(probabilities));
+	}
+
+	/**        Sets whether fun() may be called from other threads while this ProbFunTree is being changed.
+	 *         A concurrent node keeps an immutable copy of its probabilities that is replaced as soon as the node changes,
+	 *         so threads generating with their own GenerationSession never wait and never see a half changed node.
+	 *         Changes still have to be made by one thread at a time,
+	 *         and this method has to be called before other threads start generating.
+	 * @param  concurrent as true to allow fun() to be called from other threads while this ProbFunTree is changed.
+	 */
+	public void setConcurrent(boolean concurrent) {
+		TreeTraversal.walk(this, new TreeTraversal.Visitor<ProbFunTree<T>>() {
+			@Override
+			public TreeTraversal.Result preVisit(ProbFunTree<T> node) {
+				// Shared nodes are reached from many parents, but only have to be set once
+				if(node.concurrent == concurrent) {
+					return TreeTraversal.Result.SKIP_CHILDREN;
+				}
+				node.concurrent = concurrent;
+				if(concurrent) {
+					node.children = new ConcurrentHashMap<T, ProbFunTree<T>>(node.children);
+					node.distribution = node.buildDistribution();
+				} else {
+					node.children = new HashMap<T, ProbFunTree<T>>(node.children);
+				}
+				return TreeTraversal.Result.CONTINUE;
+			}
+			@Override
+			public Iterator<ProbFunTree<T>> children(ProbFunTree<T> node) {
+				return node.children.values().iterator();
+			}
+		});
+	}
+
+	/**        Returns whether fun() may be called from other threads while this ProbFunTree is being changed.
+	 * @return true if this ProbFunTree is concurrent, else false.
+	 */
+	public boolean isConcurrent() {
+		return this.concurrent;
 	}
 
 	/** Sets the probabilities to there being an equal chance of getting any element from this ProbFunTree.
 	 * 
 	 */
 	public void clearProbs() {
+		this.weights = null;
 		this.probMap = (new ProbFunTree<T>(this.probMap.keySet(), 1)).probMap;
+		probMapChanged();
 	}
 
 	/** Sets the probabilities to there being an equal chance of getting any element from this ProbFunTree and it's descendants.
 	 * 
 	 */
 	public void clearAllProbs() {
-		this.probMap = (new ProbFunTree<T>(this.probMap.keySet(), 1)).probMap;
-		for(ProbFunTree<T> p : this.children.values()) {
-			p.clearAllProbs();
-		}
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.CLEAR_ALL_PROBS);
+		changeAll(node -> node.clearProbs(), null);
+		ProbFunTreeMetrics.end(span);
+	}
+
+	/**        Sets the probabilities to there being an equal chance of getting any element from this ProbFunTree and it's descendants,
+	 *         changing big subtrees at the same time on the threads of pool.
+	 * @param  pool as the ForkJoinPool to change the nodes on, whose parallelism is the most threads that will be used.
+	 * @throws NullPointerException if pool is null.
+	 */
+	public void clearAllProbs(ForkJoinPool pool) {
+		Objects.requireNonNull(pool);
+		// Invariants secured
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.CLEAR_ALL_PROBS);
+		changeAll(node -> node.clearProbs(), null, pool);
+		ProbFunTreeMetrics.end(span);
 	}
 
 	/** Due to propagation of past values, history may not produce favorable results, therefore this method
@@ -267,9 +1229,8 @@ public class ProbFunTree<T> implements Serializable {
 	 *  after good() or bad() have been called one or more times.
 	 */
 	public void clearHistory() {
-		this.previousElement = null;
-		for(ProbFunTree<T> t : this.children.values()) {
-			t.clearHistory();
+		if(this.session != null) {
+			this.session.clearHistory();
 		}
 	}
 
@@ -283,6 +1244,7 @@ public class ProbFunTree<T> implements Serializable {
 	 * @throws NullPointerException if element is null.
 	 */
 	public void add(T element, Set<T> elements) {
+		syncProbMap();
 		Objects.requireNonNull(element);
 		// Invariants secured
 		double probability = 1.0/(this.probMap.size());
@@ -291,9 +1253,11 @@ public class ProbFunTree<T> implements Serializable {
 		}
 		scaleProbs();
 		if(!this.children.isEmpty() && !this.children.containsKey(element) && elements!= null && !elements.isEmpty()) {
-			int layers = this.layer+2;
-			this.children.put(element, new ProbFunTree<>(elements, layers, this.layer+1, this));
+			ProbFunTree<T> child = leaf(elements);
+			this.children.put(element, child);
+			childrenChanged(element, false, child);
 		}
+		changed();
 	}
 
 	/**        Adds an element to every descendant of this ProbFunTree and this ProbFunTree, 
@@ -311,12 +1275,26 @@ public class ProbFunTree<T> implements Serializable {
 	public void addToAll(T element, Set<T> elements) {
 		Objects.requireNonNull(element);
 		// Invariants secured
-		add(element, elements);
-		for(Entry<T, ProbFunTree<T>> p : this.children.entrySet()) {
-			if(!p.getKey().equals(element)) {
-				p.getValue().addToAll(element, elements);
-			}
-		}
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.ADD_TO_ALL);
+		changeAll(node -> node.add(element, elements), element);
+		ProbFunTreeMetrics.end(span);
+	}
+
+	/**        Does the same as addToAll(element, elements), 
+	 *         changing big subtrees at the same time on the threads of pool.
+	 * @param  element as the element to add to this ProbFunTree and it's descendants.
+	 * @param  elements as the elements to be picked from after fun() returns element from the descendant with the greatest depth.
+	 *         It may be empty or null if no elements should be picked from after fun() is called.
+	 * @param  pool as the ForkJoinPool to change the nodes on, whose parallelism is the most threads that will be used.
+	 * @throws NullPointerException if element or pool is null.
+	 */
+	public void addToAll(T element, Set<T> elements, ForkJoinPool pool) {
+		Objects.requireNonNull(element);
+		Objects.requireNonNull(pool);
+		// Invariants secured
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.ADD_TO_ALL);
+		changeAll(node -> node.add(element, elements), element, pool);
+		ProbFunTreeMetrics.end(span);
 	}
 
 	/**        Adds an element to this ProbFunTree with the specified probability.
@@ -331,6 +1309,7 @@ public class ProbFunTree<T> implements Serializable {
 	 * @throws IllegalArgumentException if percent is not between 0.0 and 1.0 (exclusive).
 	 */
 	public void add(T element, Set<T> elements, double percent) {
+		syncProbMap();
 		Objects.requireNonNull(element);
 		if(percent >= 1.0 || percent <= 0.0) {
 			throw new IllegalArgumentException("percent passed to add() is not between 0.0 and 1.0 (exclusive)");
@@ -344,13 +1323,11 @@ public class ProbFunTree<T> implements Serializable {
 		this.probMap.put(element, percent);
 		scaleProbs();
 		if(!this.children.isEmpty() && !this.children.containsKey(element) && elements != null && !elements.isEmpty()) {
-			int layers = this.layer+2;
-			this.children.put(element, new ProbFunTree<>(elements, layers, this.layer+1, this));
-			for(ProbFunTree<T> t : this.children.get(element).children.values()) {
-				t.remove(element);
-				t.add(element, elements, percent);
-			}
+			ProbFunTree<T> child = leaf(elements);
+			this.children.put(element, child);
+			childrenChanged(element, false, child);
 		}
+		changed();
 	}
 
 	/**        Adds an element to every node in this ProbFunTree with the specified probability.
@@ -372,13 +1349,32 @@ public class ProbFunTree<T> implements Serializable {
 			throw new IllegalArgumentException("percent passed to add() is not between 0.0 and 1.0 (exclusive)");
 		}
 		// Invariants secured
-		add(element, elements, percent);
-		for(Entry<T, ProbFunTree<T>> p : this.children.entrySet()) {
-			if(!p.getKey().equals(element)) {
-			p.getValue().addToAll(element, elements, percent);
-			}
-		}
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.ADD_TO_ALL);
+		changeAll(node -> node.add(element, elements, percent), element);
+		ProbFunTreeMetrics.end(span);
+	}
 
+	/**        Does the same as addToAll(element, elements, percent), 
+	 *         changing big subtrees at the same time on the threads of pool.
+	 * @param  element as the element to add to every node.
+	 * @param  elements as the elements to be picked from after fun() returns element.
+	 *         It may be empty or null if no elements should be picked from after fun() is called.
+	 * @param  percent between 0 and 1 exclusive, as the chance of 
+	 *         the parent and all it's children of this ProbFunTree returning element.
+	 * @param  pool as the ForkJoinPool to change the nodes on, whose parallelism is the most threads that will be used.
+	 * @throws NullPointerException if element or pool is null.
+	 * @throws IllegalArgumentException if percent is not between 0.0 and 1.0 (exclusive).
+	 */
+	public void addToAll(T element, Set<T> elements, double percent, ForkJoinPool pool) {
+		Objects.requireNonNull(element);
+		Objects.requireNonNull(pool);
+		if(percent >= 1.0 || percent <= 0.0) {
+			throw new IllegalArgumentException("percent passed to add() is not between 0.0 and 1.0 (exclusive)");
+		}
+		// Invariants secured
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.ADD_TO_ALL);
+		changeAll(node -> node.add(element, elements, percent), element, pool);
+		ProbFunTreeMetrics.end(span);
 	}
 
 	/**        Adds elements to a new layer that will be added to this ProbFunTree's descendants that have the greatest depth,
@@ -412,16 +1408,11 @@ public class ProbFunTree<T> implements Serializable {
 		if(choices.size() < 1) 
 			throw new IllegalArgumentException("Must have at least 1 element in the choices passed to addLayer\n");
 		// Invariants secured
-		for(ProbFunTree<T> child : parent.children.values()) {
-			if(child.children.isEmpty()) {
-				for(T t : child.probMap.keySet()) {
-					int layers = this.layer+2;
-					child.children.put(t, new ProbFunTree<T>(choices, layers, this.layer+1, parent));
-				}
-			} else {
-				addLayer(child, choices);
-			}
-		}
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.ADD_LAYER);
+		ProbFunTree<T> leaf = leaf(choices);
+		leaf.shared = true;
+		addSharedLayer(parent, leaf);
+		ProbFunTreeMetrics.end(span);
 	}
 
 	/**        Adds probMap keys as the elements to be returned when fun() is called 
@@ -472,15 +1463,76 @@ public class ProbFunTree<T> implements Serializable {
 			throw new IllegalArgumentException("probMap must have values that add up to 1.0 using double addition when passed to addLayer\n");
 		}
 		// Invariants secured
-		for(ProbFunTree<T> child : parent.children.values()) {
-			if(child.children.isEmpty()) {
-				for(T t : child.probMap.keySet()) {
-					int layers = this.layer+2;
-					child.children.put(t, new ProbFunTree<T>(probMap, layers, this.layer+1, parent));
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.ADD_LAYER);
+		ProbFunTree<T> leaf = new ProbFunTree<T>(probMap, this.layer+1, this);
+		leaf.shared = true;
+		addSharedLayer(parent, leaf);
+		ProbFunTreeMetrics.end(span);
+	}
+
+	/**        Adds leaf under every element of parent's descendants that have no children.
+	 *         The same leaf is used everywhere, so it must be shared.
+	 *         A shared node is copied once with the leaf added under it, and every parent of it is given the copy,
+	 *         so the layers made by the constructors stay shared.
+	 * @param  parent as the parent ProbFunTree to check the children of 
+	 *         to see if they are the descendants that have the greatest depth.
+	 * @param  leaf as the shared node to add as the new layer.
+	 */
+	private void addSharedLayer(ProbFunTree<T> parent, ProbFunTree<T> leaf) {
+		boolean fresh = parent.fresh;
+		long entries = parent.entryCount;
+		long nodes = parent.nodeCount;
+		int depth = parent.depth;
+		long bytes = parent.byteCount;
+		// The copy made of each shared node, which the other nodes it is shared by are given
+		Map<ProbFunTree<T>, ProbFunTree<T>> copies = new IdentityHashMap<ProbFunTree<T>, ProbFunTree<T>>();
+		TreeTraversal.walk(parent, new TreeTraversal.Visitor<ProbFunTree<T>>() {
+			@Override
+			public TreeTraversal.Result preVisit(ProbFunTree<T> node) {
+				if(node != parent && node.children.isEmpty()) {
+					for(T t : node.probMap.keySet()) {
+						node.children.put(t, leaf);
+						node.childrenChanged();
+					}
+					node.aggregate();
+					return TreeTraversal.Result.SKIP_CHILDREN;
+				}
+				// The aggregates are worked out once the children are done
+				node.fresh = false;
+				return TreeTraversal.Result.CONTINUE;
+			}
+			@Override
+			public Iterator<ProbFunTree<T>> children(ProbFunTree<T> node) {
+				// New copies are visited first, so they are done before a sibling that shares them is aggregated
+				List<ProbFunTree<T>> visit = new ArrayList<ProbFunTree<T>>(node.children.size());
+				int copied = 0;
+				for(Entry<T, ProbFunTree<T>> e : node.children.entrySet()) {
+					ProbFunTree<T> child = e.getValue();
+					if(!child.shared) {
+						visit.add(child);
+						continue;
+					}
+					ProbFunTree<T> copy = copies.get(child);
+					if(copy == null) {
+						copy = node.copyChild(child);
+						// The copy is given to every node the child is shared by, so it is shared too
+						copy.shared = true;
+						copy.owner = null;
+						copies.put(child, copy);
+						visit.add(copied++, copy);
+					}
+					e.setValue(copy);
 				}
-			} else {
-				addLayer(child, probMap);
+				return visit.iterator();
 			}
+			@Override
+			public TreeTraversal.Result postVisit(ProbFunTree<T> node) {
+				node.aggregate();
+				return TreeTraversal.Result.CONTINUE;
+			}
+		});
+		if(fresh) {
+			parent.passUp(entries, nodes, depth, bytes);
 		}
 	}
 
@@ -490,6 +1542,7 @@ public class ProbFunTree<T> implements Serializable {
 	 * @throws NullPointerException if element is null.
 	 */
 	public boolean remove(T element) {
+		syncProbMap();
 		Objects.requireNonNull(element);
 		if(parentSize() == 1) {
 			return false;
@@ -498,9 +1551,10 @@ public class ProbFunTree<T> implements Serializable {
 		if(this.probMap.remove(element) == null) {
 			return false;
 		} else {
-			this.children.remove(element);
+			childrenChanged(element, dropChild(element), null);
 		}
 		scaleProbs();
+		changed();
 		return true;
 	}
 
@@ -511,13 +1565,33 @@ public class ProbFunTree<T> implements Serializable {
 	 */
 	public void removeFromAll(T element) {
 		Objects.requireNonNull(element);
-		if(parentSize() != 1) {
-			remove(element);
-		}
 		// Invariants secured
-		for(ProbFunTree<T> p : this.children.values()) {
-			p.removeFromAll(element);
-		}
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.REMOVE_FROM_ALL);
+		changeAll(node -> {
+			if(node.parentSize() != 1) {
+				node.remove(element);
+			}
+		}, null);
+		ProbFunTreeMetrics.end(span);
+	}
+
+	/**        Does the same as removeFromAll(element), 
+	 *         changing big subtrees at the same time on the threads of pool.
+	 * @param  element as the element to remove from every node in this ProbFunTree.
+	 * @param  pool as the ForkJoinPool to change the nodes on, whose parallelism is the most threads that will be used.
+	 * @throws NullPointerException if element or pool is null.
+	 */
+	public void removeFromAll(T element, ForkJoinPool pool) {
+		Objects.requireNonNull(element);
+		Objects.requireNonNull(pool);
+		// Invariants secured
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.REMOVE_FROM_ALL);
+		changeAll(node -> {
+			if(node.parentSize() != 1) {
+				node.remove(element);
+			}
+		}, null, pool);
+		ProbFunTreeMetrics.end(span);
 	}
 
 	/** Removes elements with the lowest probability of occurring when fun() is called from this ProbFunTree.
@@ -527,14 +1601,25 @@ public class ProbFunTree<T> implements Serializable {
 	 *  If parentSize() == 1 after a removal, no more elements will be removed.
 	 */
 	public void prune() {
-		double min = this.probMap.values().stream().parallel().min(Double::compare).orElse(-1.0);
-		double max = this.probMap.values().stream().parallel().max(Double::compare).orElse(-1.0);
+		long start = ProbFunTreeMetrics.start();
+		pruneLowest();
+		ProbFunTreeMetrics.record(ProbFunTreeMetrics.Operation.PRUNE, start);
+	}
+
+	/**        Does the work of prune().
+	 */
+	private void pruneLowest() {
+		syncProbMap();
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for(double probability : this.probMap.values()) {
+			min = Math.min(min, probability);
+			max = Math.max(max, probability);
+		}
 		if(max == min) {
 			return;
 		}
-		if(min == -1) {
-			return;
-		} else if(parentSize() == 1) {
+		if(parentSize() <= 1) {
 			return;
 		} else {
 			Set<Entry<T, Double>> probabilities = this.probMap.entrySet();
@@ -543,15 +1628,20 @@ public class ProbFunTree<T> implements Serializable {
 			while(it.hasNext()) {
 				e = it.next();
 				if(e.getValue() <= min && e.getValue() < max-this.roundingError) {
+					// The entry may hold the next key once it is removed from the TreeMap, so the child goes first
+					T element = e.getKey();
+					boolean dropped = dropChild(element);
 					it.remove();
-					this.children.remove(e.getKey());
+					childrenChanged(element, dropped, null);
 					if(parentSize() == 1) {
 						scaleProbs();
+						changed();
 						return;
 					}
 				}
 			}
 			scaleProbs();
+			changed();
 		}
 	}
 
@@ -562,10 +1652,21 @@ public class ProbFunTree<T> implements Serializable {
 	 *  If a node has one element after a removal, no more elements will be removed.
 	 */
 	public void pruneAll() {
-		prune();
-		for(ProbFunTree<T> p : this.children.values()) {
-			p.pruneAll();
-		}
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.PRUNE_ALL);
+		changeAll(node -> node.pruneLowest(), null);
+		ProbFunTreeMetrics.end(span);
+	}
+
+	/**        Does the same as pruneAll(), changing big subtrees at the same time on the threads of pool.
+	 * @param  pool as the ForkJoinPool to change the nodes on, whose parallelism is the most threads that will be used.
+	 * @throws NullPointerException if pool is null.
+	 */
+	public void pruneAll(ForkJoinPool pool) {
+		Objects.requireNonNull(pool);
+		// Invariants secured
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.PRUNE_ALL);
+		changeAll(node -> node.pruneLowest(), null, pool);
+		ProbFunTreeMetrics.end(span);
 	}
 
 	/**        Removes elements with probabilities less than or equal to percent chance of occurring 
@@ -575,13 +1676,28 @@ public class ProbFunTree<T> implements Serializable {
 	 * @param  percent as the upper limit, inclusive, of the probability of elements being returned to be removed from this ProbFunTree.
 	 * @throws IllegalArgumentException if percent is not between 0.0 and 1.0 (exclusive)
 	 */
-	public void prune(double percent) {
+	public void prune(double percent) {
+		long start = ProbFunTreeMetrics.start();
+		pruneBelow(percent);
+		ProbFunTreeMetrics.record(ProbFunTreeMetrics.Operation.PRUNE, start);
+	}
+
+	/**        Does the work of prune(percent).
+	 * @param  percent as the upper limit, inclusive, of the probability of elements being returned to be removed from this ProbFunTree.
+	 * @throws IllegalArgumentException if percent is not between 0.0 and 1.0 (exclusive)
+	 */
+	private void pruneBelow(double percent) {
+		syncProbMap();
 		if(percent >= 1.0 || percent <= 0.0) {
 			throw new IllegalArgumentException("percent passed to prune() is not between 0.0 and 1.0 (exclusive)");
 		}
 		// Invariants secured
-		double max = this.probMap.values().stream().parallel().max(Double::compare).orElse(-1.0);
-		double min = this.probMap.values().stream().parallel().min(Double::compare).orElse(-1.0);
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for(double probability : this.probMap.values()) {
+			min = Math.min(min, probability);
+			max = Math.max(max, probability);
+		}
 		if(parentSize() == 1 || (max <= percent && min == max)) {
 			return;
 		} else {
@@ -591,15 +1707,20 @@ public class ProbFunTree<T> implements Serializable {
 			while(it.hasNext()) {
 				e = it.next();
 				if(e.getValue() <= min && e.getValue() < max-this.roundingError) {
+					// The entry may hold the next key once it is removed from the TreeMap, so the child goes first
+					T element = e.getKey();
+					boolean dropped = dropChild(element);
 					it.remove();
-					this.children.remove(e.getKey());
+					childrenChanged(element, dropped, null);
 					if(parentSize() == 1) {
 						scaleProbs();
+						changed();
 						return;
 					}
 				}
 			}
 			scaleProbs();
+			changed();
 		}
 	}
 
@@ -615,12 +1736,232 @@ public class ProbFunTree<T> implements Serializable {
 			throw new IllegalArgumentException("percent passed to pruge() is not between 0.0 and 1.0 (exclusive)");
 		}
 		// Invariants secured
-		if(parentSize() != 1) {
-			prune(percent);
-		} 
-		for(ProbFunTree<T> p : this.children.values()) {
-			p.pruneAll(percent);
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.PRUNE_ALL);
+		changeAll(node -> {
+			if(node.parentSize() != 1) {
+				node.pruneBelow(percent);
+			}
+		}, null);
+		ProbFunTreeMetrics.end(span);
+	}
+
+	/**        Does the same as pruneAll(percent), changing big subtrees at the same time on the threads of pool.
+	 * @param  percent as the upper limit, inclusive, of the probability of elements being returned to be removed from this ProbFunTree.
+	 * @param  pool as the ForkJoinPool to change the nodes on, whose parallelism is the most threads that will be used.
+	 * @throws NullPointerException if pool is null.
+	 * @throws IllegalArgumentException if percent is not between 0.0 and 1.0 (exclusive)
+	 */
+	public void pruneAll(double percent, ForkJoinPool pool) {
+		Objects.requireNonNull(pool);
+		if(percent >= 1.0 || percent <= 0.0) {
+			throw new IllegalArgumentException("percent passed to pruneAll() is not between 0.0 and 1.0 (exclusive)");
+		}
+		// Invariants secured
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.PRUNE_ALL);
+		changeAll(node -> {
+			if(node.parentSize() != 1) {
+				node.pruneBelow(percent);
+			}
+		}, null, pool);
+		ProbFunTreeMetrics.end(span);
+	}
+
+	/**
+	 *         A node being walked by pruneToBudget(), 
+	 *         with what is needed to score the element that leads to it once its descendants are counted.
+	 */
+	private static final class BudgetFrame<T> {
+
+		private final ProbFunTree<T> node;
+
+		// The frame of the parent, and the element of the parent that leads to node
+		private final BudgetFrame<T> up;
+
+		private final T element;
+
+		// The chance of fun() being called on node, starting from the root of the pruning
+		private final double reach;
+
+		// The estimated bytes of node and its descendants that are not shared, added up as they are walked
+		private long bytes = 0;
+
+		// True once the element that leads to node has been removed
+		private boolean removed = false;
+
+		private BudgetFrame(ProbFunTree<T> node, BudgetFrame<T> up, T element, double reach) {
+			this.node = node;
+			this.up = up;
+			this.element = element;
+			this.reach = reach;
+		}
+
+	}
+
+	/**
+	 *         An element that pruneToBudget() could remove from a node.
+	 */
+	private static final class BudgetCandidate<T> {
+
+		// The frame of the node to remove element from
+		private final BudgetFrame<T> frame;
+
+		private final T element;
+
+		// The frame of the child of element, or null if it has no child that can be removed with it
+		private final BudgetFrame<T> child;
+
+		// The estimated bytes that removing element frees
+		private final long bytes;
+
+		// The chance of picking element per byte freed; the lowest are removed first
+		private final double score;
+
+		private BudgetCandidate(BudgetFrame<T> frame, T element, BudgetFrame<T> child, double reach, long bytes) {
+			this.frame = frame;
+			this.element = element;
+			this.child = child;
+			this.bytes = bytes;
+			this.score = reach/bytes;
+		}
+
+	}
+
+	/**        Estimates the bytes of memory this whole ProbFunTree takes up, in O(1) time like size().
+	 *         A node that is shared by more than one element is counted once under each node with those elements.
+	 * @return an estimate of the bytes of memory taken by this ProbFunTree and it's descendants.
+	 */
+	public long estimatedBytes() {
+		refresh();
+		return this.byteCount;
+	}
+
+	/**        Estimates the bytes taken by this node, leaving out its children.
+	 * @return an estimate of the bytes taken by this node.
+	 */
+	private long ownBytes() {
+		return NODE_BYTES + this.probMap.size()*ENTRY_BYTES + this.children.size()*CHILD_BYTES;
+	}
+
+	/**        Removes the elements, along with their descendants, that are least likely to be picked for the memory they take up, 
+	 *         until estimatedBytes() is at most bytes.
+	 *         Elements are ranked across the whole tree by the chance of fun() picking them, starting from this node, 
+	 *         divided by the estimated bytes that removing them would free.
+	 *         Each pass over the tree takes O(n log k) time for n elements, where k is the number of elements removed.
+	 *         If a node has one element, it will not be removed.
+	 *         Nodes that are shared by more than one parent are not changed, but the elements that lead to them can be removed.
+	 * @param  bytes as the estimated bytes of memory this ProbFunTree should take up at most.
+	 * @return the estimated bytes of memory that were freed, 
+	 *         which may leave this ProbFunTree above bytes if every node left has one element.
+	 * @throws IllegalArgumentException if bytes is negative.
+	 */
+	public long pruneToBudget(long bytes) {
+		if(bytes < 0) {
+			throw new IllegalArgumentException("bytes passed to pruneToBudget() is negative\n");
+		}
+		// Invariants secured
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.PRUNE_TO_BUDGET);
+		long start = estimatedBytes();
+		long total = start;
+		while(total > bytes) {
+			List<BudgetCandidate<T>> candidates = budgetCandidates(total-bytes);
+			boolean removed = false;
+			for(BudgetCandidate<T> candidate : candidates) {
+				removed |= removeCandidate(candidate);
+			}
+			if(!removed) {
+				break;
+			}
+			total = estimatedBytes();
+		}
+		ProbFunTreeMetrics.end(span);
+		return start-total;
+	}
+
+	/**        Finds the lowest scoring elements that would free at least excess bytes,
+	 *         keeping only as many as are needed in a bounded priority queue.
+	 * @param  excess as the estimated bytes to free.
+	 * @return the elements to remove, lowest score first.
+	 */
+	private List<BudgetCandidate<T>> budgetCandidates(long excess) {
+		// Highest score first, so the head is the first to go when the rest free enough
+		PriorityQueue<BudgetCandidate<T>> queue = new PriorityQueue<BudgetCandidate<T>>(
+				(a, b) -> Double.compare(b.score, a.score));
+		long[] queued = new long[1];
+		Consumer<BudgetCandidate<T>> offer = candidate -> {
+			if(candidate.frame.node.parentSize() == 1 || 
+					(queued[0] >= excess && candidate.score >= queue.peek().score)) {
+				return;
+			}
+			queue.add(candidate);
+			queued[0] += candidate.bytes;
+			while(queued[0]-queue.peek().bytes >= excess) {
+				queued[0] -= queue.poll().bytes;
+			}
+		};
+		this.syncProbMap();
+		TreeTraversal.walk(new BudgetFrame<T>(this, null, null, 1.0), new TreeTraversal.Visitor<BudgetFrame<T>>() {
+			@Override
+			public Iterator<BudgetFrame<T>> children(BudgetFrame<T> frame) {
+				List<BudgetFrame<T>> frames = new ArrayList<BudgetFrame<T>>(frame.node.children.size());
+				for(Entry<T, ProbFunTree<T>> e : frame.node.children.entrySet()) {
+					ProbFunTree<T> child = e.getValue();
+					Double probability = frame.node.probMap.get(e.getKey());
+					if(probability == null) {
+						continue;
+					}
+					double reach = frame.reach*probability;
+					if(child.shared) {
+						offer.accept(new BudgetCandidate<T>(frame, e.getKey(), null, reach, ENTRY_BYTES+CHILD_BYTES));
+					} else {
+						child.syncProbMap();
+						frames.add(new BudgetFrame<T>(child, frame, e.getKey(), reach));
+					}
+				}
+				return frames.iterator();
+			}
+			@Override
+			public TreeTraversal.Result postVisit(BudgetFrame<T> frame) {
+				ProbFunTree<T> node = frame.node;
+				frame.bytes += node.ownBytes();
+				for(Entry<T, Double> e : node.probMap.entrySet()) {
+					if(!node.children.containsKey(e.getKey())) {
+						offer.accept(new BudgetCandidate<T>(frame, e.getKey(), null, frame.reach*e.getValue(), ENTRY_BYTES));
+					}
+				}
+				if(frame.up != null) {
+					frame.up.bytes += frame.bytes;
+					offer.accept(new BudgetCandidate<T>(frame.up, frame.element, frame, frame.reach, 
+							ENTRY_BYTES+CHILD_BYTES+frame.bytes));
+				}
+				return TreeTraversal.Result.CONTINUE;
+			}
+		});
+		List<BudgetCandidate<T>> candidates = new ArrayList<BudgetCandidate<T>>(queue.size());
+		while(!queue.isEmpty()) {
+			candidates.add(queue.poll());
+		}
+		Collections.reverse(candidates);
+		return candidates;
+	}
+
+	/**        Removes the element of a candidate unless it was already removed with an ancestor,
+	 *         or it is the last element of its node.
+	 * @param  candidate as the element to remove.
+	 * @return true if the element was removed, else false.
+	 */
+	private boolean removeCandidate(BudgetCandidate<T> candidate) {
+		for(BudgetFrame<T> frame = candidate.frame; frame != null; frame = frame.up) {
+			if(frame.removed) {
+				return false;
+			}
+		}
+		if(!candidate.frame.node.remove(candidate.element)) {
+			return false;
+		}
+		if(candidate.child != null) {
+			candidate.child.removed = true;
 		}
+		return true;
 	}
 
 	/**        Adds elementToAdd to the child node after traversing ifPresent. 
@@ -641,25 +1982,54 @@ public class ProbFunTree<T> implements Serializable {
 		Iterator<T> it = ifPresent.iterator();
 		ProbFunTree<T> pft = this.children.get(it.next());
 		ProbFunTree<T> pftPrev;
+		int depth = 1;
 		while(it.hasNext() && pft != null) {
 			pftPrev = pft;
 			pft = pft.children.get(it.next());
+			depth++;
 			if(!it.hasNext() && pft == null) {
 				pft = pftPrev;
+				depth--;
 			}
 		}
 		if(pft != null) {
 			if(!pft.children.containsKey(ifPresent.get(ifPresent.size()-1))) {
-				Set<T> s = new HashSet<T>();
-				s.add(elementToAdd);
-				pft.children.put(ifPresent.get(ifPresent.size()-1), new ProbFunTree<>(s, 1));
+				// pft may be shared, so the path to it has to be copied before it is changed
+				pft = this;
+				for(int i = 0; i < depth; i++) {
+					pft = pft.mutableChild(ifPresent.get(i));
+				}
+				T last = ifPresent.get(ifPresent.size()-1);
+				pft.childrenChanged(last, false, pft.addLeaf(last, elementToAdd));
+				pft.changed();
 			}
 		}
 	}
+
+	/**        Puts a new node that only has elementToAdd under element, which must not have a child,
+	 *         leaving the caller to count the change.
+	 * @param  element as the element the new node follows.
+	 * @param  elementToAdd as the only element of the new node.
+	 * @return the new node.
+	 */
+	private ProbFunTree<T> addLeaf(T element, T elementToAdd) {
+		Set<T> s = new HashSet<T>();
+		s.add(elementToAdd);
+		ProbFunTree<T> child = new ProbFunTree<>(s, 1);
+		child.setConcurrent(this.concurrent);
+		child.structure = this.structure;
+		// Set now so the path to the new node can be found before the aggregates are worked out
+		child.owner = this;
+		this.children.put(element, child);
+		return child;
+	}
 	
 	/**        Adds elementToAdd to the child nodes after traversing ifPresent starting at every node. 
 	 *         If there is no child node for one instance of ifPresent, a new node will be created.
 	 *         If ifPresent is not part of this tree, elementToAdd will not be added.
+	 *         The nodes are found with the context index, as in findContext(), 
+	 *         so only the nodes reached by ifPresent are visited instead of the whole tree.
+	 *         They are all found before any are added to, so the nodes added are not added to again.
 	 * @param  ifPresent as the List of Objects in the order to look for in this ProbFunTree.
 	 * @param  elementToAdd as the element to add to a the child nodes under the nodes containing the last elements in ifPresent.
 	 * @throws NullPointerException if ifPresent or elementToAdd are null.
@@ -672,10 +2042,145 @@ public class ProbFunTree<T> implements Serializable {
 			throw new IllegalArgumentException("Must have at least one entry in ifPresent passed to addIfPresent()");
 		}
 		// Invariants secured
-		addIfPresent(ifPresent, elementToAdd);
-		for(ProbFunTree<T> t : children.values()) {
-			t.addIfPresentToAll(ifPresent, elementToAdd);
+		ContextIndex<T> index = contextIndex();
+		T last = ifPresent.get(ifPresent.size()-1);
+		// addIfPresent() adds under the node reached by all of ifPresent, 
+		// or under the node reached by all but the last element if the last one has no child
+		int[] found = index.find(ifPresent.size() == 1 ? ifPresent : ifPresent.subList(0, ifPresent.size()-1), Integer.MAX_VALUE);
+		for(int i = 0; i < found.length; i++) {
+			if(ifPresent.size() > 1) {
+				int child = index.child(found[i], last);
+				if(child != -1) {
+					found[i] = child;
+				}
+			}
+		}
+		for(int id : found) {
+			ProbFunTree<T> node = index.node(id);
+			if(!node.children.containsKey(last)) {
+				node = mutableNode(index, id);
+				index.add(node.addLeaf(last, elementToAdd), id, last);
+				node.childrenChanged();
+				// There may be many nodes to add to, so the aggregates are worked out once they are next needed
+				node.markStale();
+			}
+		}
+		index.update();
+	}
+
+	/**        Returns the context index of this node, building it if there isn't one 
+	 *         or the children of the tree have changed since it was last brought up to date.
+	 *         Each place a shared node is reached from is a different context, so it is added once for each of them.
+	 * @return the context index of this node, which has every node under it.
+	 */
+	private ContextIndex<T> contextIndex() {
+		ContextIndex<T> index = this.contextIndex;
+		if(index != null && index.isCurrent() && !index.isMostlyRemoved()) {
+			return index;
+		}
+		this.contextIndex = null;
+		index = new ContextIndex<T>(this);
+		indexFrom(index, 0);
+		index.update();
+		this.contextIndex = index;
+		this.structure.index = index;
+		return index;
+	}
+
+	/**        Adds the paths under a path to a context index, and under each path added.
+	 * @param  index as the context index.
+	 * @param  first as the path to add the paths under, which must be the last path in index.
+	 */
+	private static <T> void indexFrom(ContextIndex<T> index, int first) {
+		// Breadth-first, like freeze(), so nodes are added after the node they are reached from
+		for(int i = first; i < index.size(); i++) {
+			ProbFunTree<T> node = index.node(i);
+			for(Entry<T, ProbFunTree<T>> e : node.children.entrySet()) {
+				index.add(e.getValue(), i, e.getKey());
+			}
+		}
+	}
+
+	/**        Returns the node of a path in the context index, copying the shared nodes on the path first,
+	 *         so it can be changed without changing the other places it is reached from.
+	 * @param  index as the context index of this node.
+	 * @param  id as the path to the node.
+	 * @return the node at the end of the path, which is not shared.
+	 */
+	private ProbFunTree<T> mutableNode(ContextIndex<T> index, int id) {
+		if(!index.isSharedOnPath(id)) {
+			return index.node(id);
+		}
+		ProbFunTree<T> node = this;
+		for(T element : index.path(id)) {
+			node = node.mutableChild(element);
+		}
+		return node;
+	}
+
+	/**        Checks if context can be followed from any node of this ProbFunTree, 
+	 *         which is whether there is a node reached by picking the elements of context one after another, starting anywhere.
+	 *         The first call builds an index of the contexts of this ProbFunTree, 
+	 *         where a shared node is in once for each place it is reached from, since each is a different context.
+	 *         Children added to and removed from the nodes under this node are put in the index as they change,
+	 *         so this takes O(|context|) time, and O(depth) more once children have been removed.
+	 *         Building the index takes time for every path from this node, counting a shared node once for each place it is reached from;
+	 *         it is built again after addLayer(), after a change outside this node or that can't be traced back to this node,
+	 *         after another node of the tree has looked up a context, and once a quarter of its paths have been removed.
+	 *         Copying shared nodes and changing other trees don't make it out of date.
+	 * @param  context as the elements to look for, in the order they are picked.
+	 * @return true if context can be followed from a node of this ProbFunTree, else false.
+	 * @throws NullPointerException if context is null or has a null element.
+	 * @throws IllegalArgumentException if context is empty.
+	 */
+	public boolean containsContext(List<T> context) {
+		Objects.requireNonNull(context);
+		if(context.isEmpty()) {
+			throw new IllegalArgumentException("Must have at least one entry in context passed to containsContext()\n");
+		}
+		// Invariants secured
+		return contextIndex().find(context, 1).length != 0;
+	}
+
+	/**        Finds the nodes reached by picking the elements of context one after another, starting from any node of this ProbFunTree.
+	 *         Uses the same index as containsContext(), so while it is up to date this takes O(|context|) time for each node found,
+	 *         and the shared nodes on the paths to the nodes found are copied, so each node found can be changed on its own.
+	 * @param  context as the elements to follow, in the order they are picked.
+	 * @return the nodes reached by following context, each of which picks the element after context, 
+	 *         or an empty List if context isn't in this ProbFunTree.
+	 * @throws NullPointerException if context is null or has a null element.
+	 * @throws IllegalArgumentException if context is empty.
+	 */
+	public List<ProbFunTree<T>> findContext(List<T> context) {
+		Objects.requireNonNull(context);
+		if(context.isEmpty()) {
+			throw new IllegalArgumentException("Must have at least one entry in context passed to findContext()\n");
+		}
+		// Invariants secured
+		ContextIndex<T> index = contextIndex();
+		int[] found = index.find(context, Integer.MAX_VALUE);
+		List<ProbFunTree<T>> nodes = new ArrayList<ProbFunTree<T>>(found.length);
+		for(int id : found) {
+			nodes.add(mutableNode(index, id));
 		}
+		return nodes;
+	}
+
+	/**        Finds the node that picks the element after history, backing off to shorter contexts:
+	 *         the node reached from this node by the longest run of elements at the end of history, 
+	 *         which is the node fun() would pick from after generating history.
+	 *         Uses the same index as containsContext(), so while it is up to date this takes O(|history|) time,
+	 *         and the shared nodes on the path to the node found are copied, so it can be changed on its own.
+	 * @param  history as the elements that were picked, oldest first.
+	 * @return the node reached from this node by the longest run of elements at the end of history,
+	 *         or this node if the last element of history has no child in this node.
+	 * @throws NullPointerException if history is null or has a null element.
+	 */
+	public ProbFunTree<T> longestContext(List<T> history) {
+		Objects.requireNonNull(history);
+		// Invariants secured
+		ContextIndex<T> index = contextIndex();
+		return mutableNode(index, index.longest(history));
 	}
 
 	/**        Adjust the probability to make element more likely to be returned when fun() is called from this ProbFunTree.
@@ -684,15 +2189,51 @@ public class ProbFunTree<T> implements Serializable {
 	 *         of the probability of getting element to add to the probability.
 	 * @return the adjusted probability.
 	 * @throws NullPointerException if element is null.
-	 * @throws IllegalArgumentException if the percent isn't between 0 and 1 exclusive.
+	 * @throws IllegalArgumentException if the percent isn't between 0 and 1 exclusive
+	 *         or element is not in this ProbFunTree.
 	 */
 	public double good(T element, double percent) {
+		long start = ProbFunTreeMetrics.start();
+		double probability = raise(element, percent);
+		ProbFunTreeMetrics.record(ProbFunTreeMetrics.Operation.GOOD, start);
+		return probability;
+	}
+
+	/**        Does the work of good(element, percent).
+	 * @param  element as the element to make appear more often.
+	 * @param  percent as the percentage between 0 and 1 (exclusive), of the probability of getting element to add to the probability.
+	 * @return the adjusted probability.
+	 */
+	private double raise(T element, double percent) {
 		Objects.requireNonNull(element);
 		if(percent >= 1.0 || percent <= 0.0) {
 			throw new IllegalArgumentException("percent passed to good() is not between 0.0 and 1.0 (exclusive)");
 		}
+		FenwickWeights w = weights();
+		int index = w.indexOf(element);
+		if(index < 0) {
+			throw new IllegalArgumentException("element passed to good() is not in this ProbFunTree\n");
+		}
 		// Invariants secured
-		Double oldProb = this.probMap.get(element);
+		double oldProb = w.weight(index)/w.total();
+		double goodProbability = raised(oldProb, percent);
+		if(goodProbability == oldProb)
+			return oldProb;
+		// The other weights are kept, so only the weight of element changes
+		double others = w.total()-w.weight(index);
+		if(others <= 0)
+			return oldProb;
+		w.set(index, goodProbability*others/(1.0-goodProbability));
+		probMapChanged();
+		return goodProbability;
+	}
+
+	/**        Works out the probability good() gives an element.
+	 * @param  oldProb as the probability of the element.
+	 * @param  percent as the percentage between 0 and 1 (exclusive), of the probability to add to the probability.
+	 * @return the raised probability, or oldProb if it would be too close to 1.0.
+	 */
+	private double raised(double oldProb, double percent) {
 		double add;
 		if(oldProb > 0.5) 
 			add = ((1.0-oldProb)*percent);
@@ -700,17 +2241,7 @@ public class ProbFunTree<T> implements Serializable {
 			add = (oldProb*percent);
 		if(oldProb+add >= (1.0-this.roundingError))
 			return oldProb;
-		double goodProbability = oldProb+add;
-		this.probMap.put(element, goodProbability);
-		double leftover = 1.0-goodProbability;
-		double sumOfLeftovers = probSum() - goodProbability;
-		double leftoverScale = leftover/sumOfLeftovers;
-		for(Entry<T, Double> e : this.probMap.entrySet()) {
-			e.setValue(e.getValue()*leftoverScale);
-		}
-		this.probMap.put(element, goodProbability);
-		fixProbSum();
-		return this.probMap.get(element);
+		return oldProb+add;
 	}
 
 	/**        Adjust the probabilities to make the elements more likely to be returned when fun() is called
@@ -720,7 +2251,7 @@ public class ProbFunTree<T> implements Serializable {
 	 *         of the probabilities of getting the elements to add to the probabilities.
 	 * @throws NullPointerException if elements is null.
 	 * @throws IllegalArgumentException if the percent isn't between 0 and 1 exclusive
-	 *         or elements is empty.
+	 *         or elements is empty, or an element is not in the node it would be picked from.
 	 */
 	public void good(List<T> elements, double percent) {
 		Objects.requireNonNull(elements);
@@ -731,15 +2262,16 @@ public class ProbFunTree<T> implements Serializable {
 			throw new IllegalArgumentException("percent passed to good() is not between 0.0 and 1.0 (exclusive)");
 		}
 		// Invariants secured
-		List<T> l = new ArrayList<>();
-		for(T t : elements) {
-			l.add(t);
-		}
-		good(l.get(0), percent);
-		if(l.size() == 1) {
-			return;
+		// Each element is picked from the child of the element before it
+		ProbFunTree<T> node = this;
+		Iterator<T> it = elements.iterator();
+		T element = it.next();
+		node.good(element, percent);
+		while(it.hasNext()) {
+			node = node.mutableChild(element);
+			element = it.next();
+			node.good(element, percent);
 		}
-		this.children.get(l.remove(0)).good(l, percent);
 	}
 
 	/**        Adjust the probability to make element less likely to be returned when fun() is called from this ProbFunTree.
@@ -748,29 +2280,55 @@ public class ProbFunTree<T> implements Serializable {
 	 *         of the probability of getting element to subtract from the probability.
 	 * @return the adjusted probability.
 	 * @throws NullPointerException if element is null.
-	 * @throws IllegalArgumentException if the percent isn't between 0 and 1 exclusive.
+	 * @throws IllegalArgumentException if the percent isn't between 0 and 1 exclusive
+	 *         or element is not in this ProbFunTree.
 	 */
 	public double bad(T element, double percent) {
+		long start = ProbFunTreeMetrics.start();
+		double probability = lower(element, percent);
+		ProbFunTreeMetrics.record(ProbFunTreeMetrics.Operation.BAD, start);
+		return probability;
+	}
+
+	/**        Does the work of bad(element, percent).
+	 * @param  element as the element to make appear less often.
+	 * @param  percent as the percentage between 0 and 1 (exclusive), of the probability of getting element to subtract from the probability.
+	 * @return the adjusted probability.
+	 */
+	private double lower(T element, double percent) {
 		Objects.requireNonNull(element);
 		if(percent >= 1.0 || percent <= 0.0) {
 			throw new IllegalArgumentException("percent passed to good() is not between 0.0 and 1.0 (exclusive)");
 		}
+		FenwickWeights w = weights();
+		int index = w.indexOf(element);
+		if(index < 0) {
+			throw new IllegalArgumentException("element passed to bad() is not in this ProbFunTree\n");
+		}
 		// Invariants secured
-		Double oldProb = this.probMap.get(element);
+		double oldProb = w.weight(index)/w.total();
+		double badProbability = lowered(oldProb, percent);
+		if(badProbability == oldProb)
+			return oldProb;
+		// The other weights are kept, so only the weight of element changes
+		double others = w.total()-w.weight(index);
+		if(others <= 0)
+			return oldProb;
+		w.set(index, badProbability*others/(1.0-badProbability));
+		probMapChanged();
+		return badProbability;
+	}
+
+	/**        Works out the probability bad() gives an element.
+	 * @param  oldProb as the probability of the element.
+	 * @param  percent as the percentage between 0 and 1 (exclusive), of the probability to subtract from the probability.
+	 * @return the lowered probability, or oldProb if it would be too close to 0.0.
+	 */
+	private double lowered(double oldProb, double percent) {
 		double sub = (oldProb*percent);
 		if(oldProb-sub <= this.roundingError)
 			return oldProb;
-		double badProbability = oldProb-sub;
-		this.probMap.put(element, badProbability);
-		double leftover = 1.0-badProbability;
-		double sumOfLeftovers = probSum() - badProbability;
-		double leftoverScale = leftover/sumOfLeftovers;
-		for(Entry<T, Double> e : this.probMap.entrySet()) {
-			e.setValue(e.getValue()*leftoverScale);
-		}
-		this.probMap.put(element, badProbability);
-		fixProbSum();
-		return this.probMap.get(element);
+		return oldProb-sub;
 	}
 
 	/**        Adjust the probabilities to make the elements less likely to be returned when fun() is called
@@ -780,7 +2338,7 @@ public class ProbFunTree<T> implements Serializable {
 	 *         of the probabilities of getting the elements to subtract from the probabilities.
 	 * @throws NullPointerException if elements is null.
 	 * @throws IllegalArgumentException if the percent isn't between 0 and 1 exclusive 
-	 *         or elements is empty.
+	 *         or elements is empty, or an element is not in the node it would be picked from.
 	 */
 	public void bad(List<T> elements, double percent) {
 		Objects.requireNonNull(elements);
@@ -791,70 +2349,372 @@ public class ProbFunTree<T> implements Serializable {
 			throw new IllegalArgumentException("percent passed to bad() is not between 0.0 and 1.0 (exclusive)");
 		}
 		// Invariants secured
-		List<T> l = new ArrayList<>();
-		for(T t : elements) {
-			l.add(t);
+		// Each element is picked from the child of the element before it
+		ProbFunTree<T> node = this;
+		Iterator<T> it = elements.iterator();
+		T element = it.next();
+		node.bad(element, percent);
+		while(it.hasNext()) {
+			node = node.mutableChild(element);
+			element = it.next();
+			node.bad(element, percent);
 		}
-		bad(l.get(0), percent);
-		if(l.size() == 1) {
-			return;
+	}
+
+	/**        Applies feedback as if good(elements, percent) or bad(elements, percent) was called for each Feedback in order,
+	 *         but only changes each node once.
+	 *         The Feedback is grouped by the nodes it goes through, keeping its order, and the changes to each node
+	 *         are worked out one after another from its weights; then the weight of each element that changed is set once,
+	 *         and the probabilities of the node are brought up to date once instead of after every change.
+	 *         The probabilities are the same as calling good() and bad() in order, apart from rounding.
+	 *         Every Feedback is checked before anything is changed.
+	 * @param  feedback as the Feedback to apply, in the order it would be applied in.
+	 * @throws NullPointerException if feedback is null or holds null.
+	 * @throws IllegalArgumentException if an element of a Feedback is not in the node it would be picked from.
+	 */
+	public void applyFeedback(Collection<Feedback<T>> feedback) {
+		Objects.requireNonNull(feedback);
+		for(Feedback<T> f : feedback) {
+			if(!canApply(Objects.requireNonNull(f))) {
+				throw new IllegalArgumentException("Feedback passed to applyFeedback() has an element that is not in the node "
+						+ "it would be picked from: " + f + "\n");
+			}
+		}
+		// Invariants secured
+		combineFeedback(feedback);
+	}
+
+	/**        Checks if every element of feedback is in the node it would be picked from.
+	 * @param  feedback as the Feedback to check.
+	 * @return true if feedback can be applied, else false.
+	 */
+	boolean canApply(Feedback<T> feedback) {
+		ProbFunTree<T> node = this;
+		Iterator<T> it = feedback.getElements().iterator();
+		T element = it.next();
+		while(node.elements().contains(element)) {
+			if(!it.hasNext()) {
+				return true;
+			}
+			node = node.child(element);
+			if(node == null) {
+				return false;
+			}
+			element = it.next();
+		}
+		return false;
+	}
+
+	/**        Does the work of applyFeedback(feedback) for Feedback that was checked with canApply().
+	 * @param  feedback as the Feedback to apply, in the order it would be applied in.
+	 * @return the number of changes to the weight of an element that were combined with an earlier change to it.
+	 */
+	long combineFeedback(Collection<Feedback<T>> feedback) {
+		// The changes to each node; the nodes don't depend on each other, so they can be changed in any order
+		Map<ProbFunTree<T>, Adjustments<T>> adjustments = new IdentityHashMap<ProbFunTree<T>, Adjustments<T>>();
+		long changes = 0;
+		for(Feedback<T> f : feedback) {
+			ProbFunTree<T> node = this;
+			Iterator<T> it = f.getElements().iterator();
+			T element = it.next();
+			while(true) {
+				Adjustments<T> a = adjustments.get(node);
+				if(a == null) {
+					a = new Adjustments<T>();
+					adjustments.put(node, a);
+				}
+				a.add(element, f.getPercent(), f.isGood());
+				changes++;
+				if(!it.hasNext()) {
+					break;
+				}
+				// Shared nodes are copied on the way down, so the nodes in adjustments are never shared
+				node = node.mutableChild(element);
+				element = it.next();
+			}
 		}
-		this.children.get(l.remove(0)).bad(l, percent);
+		for(Entry<ProbFunTree<T>, Adjustments<T>> e : adjustments.entrySet()) {
+			changes -= e.getKey().adjust(e.getValue());
+		}
+		return changes;
+	}
+
+	/**        Makes the changes good() and bad() would make to this node, in order, setting the weight of each element once.
+	 * @param  adjustments as the changes, whose elements must be in this node.
+	 * @return the number of elements changed.
+	 */
+	private int adjust(Adjustments<T> adjustments) {
+		FenwickWeights w = weights();
+		double total = w.total();
+		// The weights the changed elements have so far, by their index in w
+		Map<Integer, double[]> changed = new HashMap<Integer, double[]>();
+		boolean adjusted = false;
+		for(int i = 0; i < adjustments.size; i++) {
+			int index = w.indexOf(adjustments.elements[i]);
+			double[] weight = changed.get(index);
+			if(weight == null) {
+				weight = new double[] {w.weight(index)};
+				changed.put(index, weight);
+			}
+			double oldProb = weight[0]/total;
+			double probability = adjustments.goods[i] ? 
+					raised(oldProb, adjustments.percents[i]) : lowered(oldProb, adjustments.percents[i]);
+			// The other weights are kept, so only the weight of the element changes
+			double others = total-weight[0];
+			if(probability == oldProb || others <= 0) {
+				continue;
+			}
+			weight[0] = probability*others/(1.0-probability);
+			total = others+weight[0];
+			adjusted = true;
+		}
+		if(adjusted) {
+			int[] indices = new int[changed.size()];
+			double[] weights = new double[changed.size()];
+			int i = 0;
+			for(Entry<Integer, double[]> e : changed.entrySet()) {
+				indices[i] = e.getKey();
+				weights[i++] = e.getValue()[0];
+			}
+			w.setAll(indices, weights, i);
+			probMapChanged();
+		}
+		return changed.size();
+	}
+
+	/**
+	 *         The changes Feedback makes to one node, in the order they are made.
+	 * @param  <T> The type of the elements that will be picked from
+	 */
+	private static final class Adjustments<T> {
+
+		private Object[] elements = new Object[4];
+
+		private double[] percents = new double[4];
+
+		// True for good(), false for bad()
+		private boolean[] goods = new boolean[4];
+
+		private int size = 0;
+
+		private void add(T element, double percent, boolean good) {
+			if(this.size == this.elements.length) {
+				this.elements = Arrays.copyOf(this.elements, this.size*2);
+				this.percents = Arrays.copyOf(this.percents, this.size*2);
+				this.goods = Arrays.copyOf(this.goods, this.size*2);
+			}
+			this.elements[this.size] = element;
+			this.percents[this.size] = percent;
+			this.goods[this.size] = good;
+			this.size++;
+		}
+
 	}
 
 	/**        Returns a randomly picked element from this ProbFunTree, based on the previously returned elements.
+	 *         The element is picked by the node reached by following the longest run of
+	 *         previously returned elements from this node, or by this node if there isn't one.
 	 * @return a randomly picked element from this ProbFunTree.
 	 *         Any changes in the element will be reflected in this ProbFunTree.
 	 */
 	public T fun() {
-		ArrayList<T> previousElements = new ArrayList<T>();
-		if(this.previousElement == null) {
-			return nextValue();
-		} else if(!this.children.isEmpty()) {
-			ProbFunTree<T> pf = this.children.get(this.previousElement);
-			T t = pf.previousElement;
-			while(t != null) {
-				previousElements.add(t);
-				if(!pf.children.isEmpty()) {
-					pf = pf.children.get(t);
-					t = pf.previousElement;
-				} else {
-					t = null;
-				}
-			}
-			Iterator<T> it = previousElements.iterator();
-			if(it.hasNext()) {
-				this.previousElement = it.next();
-				pf = this.children.get(this.previousElement);
-				while(it.hasNext()) {
-					pf.previousElement = it.next();
-					pf = pf.children.get(pf.previousElement);
-				}
-				return pf.fun();
-			} else {
-				return this.children.get(this.previousElement).fun();
-			}
-		} else {
-			return nextValue();
+		long start = ProbFunTreeMetrics.start();
+		T t = session().fun();
+		ProbFunTreeMetrics.record(ProbFunTreeMetrics.Operation.FUN, start);
+		return t;
+	}
+
+	/**        Returns n randomly picked elements from this ProbFunTree, 
+	 *         picked the same way as calling fun() n times.
+	 * @param  n as the number of elements to pick.
+	 * @return a List of the picked elements in the order they were picked.
+	 * @throws IllegalArgumentException if n is less than 0.
+	 */
+	public List<T> fun(int n) {
+		return session().fun(n);
+	}
+
+	/**        Fills part of dest with randomly picked elements from this ProbFunTree, 
+	 *         picked the same way as calling fun() len times.
+	 * @param  dest as the array to put the picked elements in.
+	 * @param  off as the index in dest of the first picked element.
+	 * @param  len as the number of elements to pick.
+	 * @throws NullPointerException if dest is null.
+	 * @throws IndexOutOfBoundsException if off or len are negative or off+len is greater than dest.length.
+	 */
+	public void fun(T[] dest, int off, int len) {
+		session().fun(dest, off, len);
+	}
+
+	/**        Passes n randomly picked elements from this ProbFunTree to sink, 
+	 *         picked the same way as calling fun() n times.
+	 * @param  n as the number of elements to pick.
+	 * @param  sink as the Consumer to pass each picked element to.
+	 * @throws NullPointerException if sink is null.
+	 * @throws IllegalArgumentException if n is less than 0.
+	 */
+	public void generate(int n, Consumer<? super T> sink) {
+		session().generate(n, sink);
+	}
+
+	/**        Creates a new GenerationSession that generates elements from this ProbFunTree,
+	 *         with a history of its own that starts out empty.
+	 *         Any number of sessions can generate from the same ProbFunTree, 
+	 *         and fun() uses a session of its own.
+	 *         Each session picks with a SplittableRandom of its own, so sessions never share random numbers.
+	 *         A session must only be used by one thread at a time. 
+	 *         Sessions may generate on different threads at once while this ProbFunTree is not being changed,
+	 *         or while it is being changed if it is concurrent.
+	 * @return a new GenerationSession for this ProbFunTree.
+	 */
+	public GenerationSession<T> newSession() {
+		return new GenerationSession<T>(this, new SplittableRandom());
+	}
+
+	/**        Creates a new GenerationSession that generates elements from this ProbFunTree, as newSession() does,
+	 *         picking elements with random, so the elements it generates can be reproduced from the seed of random.
+	 *         Sessions for parallel workers can be made with split() so each gets its own reproducible random numbers.
+	 * @param  random as the random numbers to pick elements with, which must only be used by the session.
+	 * @return a new GenerationSession for this ProbFunTree.
+	 * @throws NullPointerException if random is null.
+	 */
+	public GenerationSession<T> newSession(SplittableRandom random) {
+		Objects.requireNonNull(random);
+		// Invariants secured
+		return new GenerationSession<T>(this, random);
+	}
+
+	/**        Returns the natural log of the probability of fun() generating sequence after clearHistory() is called.
+	 *         Each element is picked from the node a GenerationSession would pick it from,
+	 *         which is the node reached from the root by the longest run of the elements before it, or the root.
+	 *         The probabilities are added in log space, so long sequences don't underflow.
+	 * @param  sequence as the elements to score, in the order they are picked.
+	 * @return the log-probability of sequence, 0.0 if it is empty,
+	 *         or Double.NEGATIVE_INFINITY if one of its elements can't be picked after the elements before it.
+	 * @throws NullPointerException if sequence or an element of it is null.
+	 */
+	public double logProb(List<T> sequence) {
+		Objects.requireNonNull(sequence);
+		// Invariants secured
+		return new SequenceScorer<T>(this).logProb(sequence);
+	}
+
+	/**        Returns the log-probability of each sequence, as logProb() would, as the returned stream is consumed.
+	 *         Each thread of the stream scores with a scorer of its own, so a parallel stream is scored on all of its threads.
+	 *         A sequence that starts with the same elements as the one scored before it on the same thread
+	 *         only has the rest of its elements scored, so sorted sequences are scored fastest,
+	 *         and nothing is allocated for each element.
+	 *         This ProbFunTree must not be changed until the returned stream has been consumed.
+	 * @param  sequences as the sequences to score.
+	 * @return a DoubleStream of the log-probabilities of sequences, in the order of sequences.
+	 * @throws NullPointerException if sequences is null, or when a sequence or an element of one is null.
+	 */
+	public DoubleStream score(Stream<? extends List<T>> sequences) {
+		Objects.requireNonNull(sequences);
+		// Invariants secured
+		ThreadLocal<SequenceScorer<T>> scorers = ThreadLocal.withInitial(() -> new SequenceScorer<T>(this));
+		return sequences.mapToDouble(sequence -> scorers.get().logProb(Objects.requireNonNull(sequence)));
+	}
+
+	/**        Returns the log-probability of each sequence, as logProb() would, scoring on the threads of pool.
+	 *         The sequences are split into runs of neighbouring sequences, each scored on one thread,
+	 *         and small batches are scored as one run.
+	 *         A sequence that starts with the same elements as the one before it only has the rest of its elements scored,
+	 *         so sorted sequences are scored fastest, and nothing is allocated for each element.
+	 *         This ProbFunTree must not be changed while the sequences are scored.
+	 * @param  sequences as the sequences to score, which should allow fast random access.
+	 * @param  pool as the ForkJoinPool to score on.
+	 * @return the log-probabilities of sequences, in the order of sequences.
+	 * @throws NullPointerException if sequences, pool, a sequence or an element of one is null.
+	 */
+	public double[] score(List<? extends List<T>> sequences, ForkJoinPool pool) {
+		Objects.requireNonNull(sequences);
+		Objects.requireNonNull(pool);
+		// Invariants secured
+		return SequenceScorer.score(this, sequences, pool);
+	}
+
+	/**        Finds the k most probable sequences of length elements that fun() could generate after prefix was generated,
+	 *         with the probability of each sequence worked out as logProb() does, given prefix.
+	 *         The search is exact: the sequences are searched depth first, most probable elements first,
+	 *         and elements that can't make a sequence better than the worst of the best k found so far are not tried.
+	 * @param  prefix as the elements generated before the sequences, oldest first, which may be empty.
+	 * @param  length as the number of elements in each sequence.
+	 * @param  k as the greatest number of sequences to find.
+	 * @return the k most probable sequences and their log-probabilities, most probable first,
+	 *         or every sequence that can be generated if there are fewer than k of them.
+	 * @throws NullPointerException if prefix or an element of it is null.
+	 * @throws IllegalArgumentException if length is negative or k is less than 1.
+	 */
+	public List<ScoredSequence<T>> topK(List<T> prefix, int length, int k) {
+		Objects.requireNonNull(prefix);
+		if(length < 0) {
+			throw new IllegalArgumentException("length passed to topK() must not be negative\n");
+		}
+		if(k < 1) {
+			throw new IllegalArgumentException("k passed to topK() must be at least 1\n");
+		}
+		// Invariants secured
+		return SequenceScorer.topK(this, prefix, length, k);
+	}
+
+	private GenerationSession<T> session() {
+		if(this.session == null) {
+			this.session = new GenerationSession<T>(this, new SplittableRandom());
 		}
+		return this.session;
 	}
 
 	/**        For generating the next value.
+	 * @param  random as a random number in [0, 1) to pick with.
 	 * @return the next generated value.
 	 */
-	private T nextValue() {
-		double randomChoice = ThreadLocalRandom.current().nextDouble();
-		double sumOfProbabilities = 0.0;
-		Iterator<Entry<T, Double>> entries = this.probMap.entrySet().iterator();
-		T element = null;
-		Entry<T, Double> e;
-		while((randomChoice > sumOfProbabilities)) {
-			e = entries.next();
-			element = e.getKey();
-			sumOfProbabilities += e.getValue();
-		} 
-		this.previousElement = element;	
-		return element;
+	@SuppressWarnings("unchecked")
+	T nextValue(double random) {
+		Distribution d = this.distribution;
+		if(d == null) {
+			FenwickWeights w = this.weights;
+			// While feedback is being given, a node that isn't concurrent always picks from the weights in O(log n),
+			// instead of building a Distribution that the next change throws away.
+			// What is picked for a random number only depends on the node, not on the picks before it,
+			// so sessions with the same seeds pick the same elements however their picks are interleaved
+			if(w != null && !this.concurrent) {
+				return (T) w.element(w.search(random));
+			}
+			d = buildDistribution();
+			this.distribution = d;
+		}
+		return (T) d.elements[d.sampler.next(random)];
+	}
+
+	/**        Returns the node that picks the element after element.
+	 * @param  element as the element that was picked.
+	 * @return the child of element, or null if there isn't one.
+	 */
+	ProbFunTree<T> child(T element) {
+		return this.children.get(element);
+	}
+
+	/**        Returns the elements of this node for reading, which are up to date even when probMap is waiting for feedback.
+	 * @return the elements of this node, which must not be changed.
+	 */
+	Set<T> elements() {
+		return this.probMap.keySet();
+	}
+
+	/**        Returns the probability of element being picked from this node, without bringing probMap up to date,
+	 *         so probabilities can be read by many threads at once while this ProbFunTree is not being changed.
+	 * @param  element as the element to get the probability of.
+	 * @return the probability of element, or 0.0 if element is not in this node.
+	 */
+	double probability(T element) {
+		FenwickWeights w = this.weights;
+		if(w != null) {
+			int i = w.indexOf(element);
+			return i < 0 ? 0.0 : w.weight(i)/w.total();
+		}
+		Double probability = this.probMap.get(element);
+		return probability == null ? 0.0 : probability;
 	}
 
 	/**        Returns the number of elements in this ProbFunTree.
@@ -864,41 +2724,137 @@ public class ProbFunTree<T> implements Serializable {
 
 	/**        Returns the number of elements in this whole ProbFunTree, 
 	 *         which includes the number of elements in the parent plus the number of elements in every descendant.
+	 *         The counts are kept up to date as the tree is changed, so this takes O(1) time, 
+	 *         except after getProbMap() or getChildMap(), when the counts of the nodes they were called on are worked out again.
 	 * @return the number of elements in this whole ProbFunTree, 
 	 *         which includes the number of elements in the parent plus the number of elements in every descendant.
 	 */
 	public int size() {
-		int size = parentSize();
-		for(ProbFunTree<T> p : this.children.values()) {
-			size += p.size();
-		}
-		return size;
+		refresh();
+		return (int) Math.min(Integer.MAX_VALUE, this.entryCount);
+	}
+
+	/**        Returns the number of nodes in this whole ProbFunTree, in O(1) time like size(),
+	 *         which includes this node and every descendant.
+	 *         A node that is shared by more than one parent is counted once for each parent, as in size().
+	 * @return the number of nodes in this whole ProbFunTree.
+	 */
+	public long nodeCount() {
+		refresh();
+		return this.nodeCount;
+	}
+
+	/**        Returns the depth of this whole ProbFunTree, in O(1) time like size().
+	 * @return the most nodes on a path down from this node, counting this node, 
+	 *         so a ProbFunTree without children has a depth of 1.
+	 */
+	public int depth() {
+		refresh();
+		return this.depth;
 	}
 
 	/**       Private copy constructor for clone
 	 * @param probFunTree as the ProbFunTree to copy
 	 */
 	private ProbFunTree(ProbFunTree<T> probFunTree) {
-		for(Entry<T, Double> s : probFunTree.probMap.entrySet()) {
-			this.probMap.put(s.getKey(), s.getValue());
-		}
-		for(Entry<T, ProbFunTree<T>> e : probFunTree.children.entrySet()) {
-			this.children.put(e.getKey(), e.getValue().clone());
-		}
-		if(!this.children.isEmpty()){
-			for(ProbFunTree<T> e : this.children.values()) {
-				e.parent = this;
+		this(probFunTree, null);
+		// The children of each copy are the nodes it was copied from until the copy is visited
+		TreeTraversal.walk(this, new TreeTraversal.Visitor<ProbFunTree<T>>() {
+			@Override
+			public Iterator<ProbFunTree<T>> children(ProbFunTree<T> copy) {
+				List<ProbFunTree<T>> copies = new ArrayList<ProbFunTree<T>>(copy.children.size());
+				for(Entry<T, ProbFunTree<T>> e : copy.children.entrySet()) {
+					// Shared nodes are never changed, so the copy can share them too
+					if(!e.getValue().shared) {
+						ProbFunTree<T> child = new ProbFunTree<T>(e.getValue(), copy);
+						e.setValue(child);
+						copies.add(child);
+					}
+				}
+				return copies.iterator();
 			}
-		}
+		});
+	}
+
+	/**        Returns a copy of this ProbFunTree that shares every node under the root with this ProbFunTree,
+	 *         taking time proportional to the number of elements of the root instead of the size of the tree.
+	 *         The nodes under the root are marked shared, so a change to either tree copies the nodes on the path to 
+	 *         the nodes it changes, and many versions of a tree only take memory for the nodes they don't share.
+	 *         Nodes got from getChildMap() before snapshot() was called are shared with the snapshot,
+	 *         so they have to be got again before they are changed.
+	 * @return a ProbFunTree with the same elements, probabilities and children as this ProbFunTree.
+	 */
+	public ProbFunTree<T> snapshot() {
+		ProbFunTree<T> copy = new ProbFunTree<T>(this, null);
+		for(ProbFunTree<T> child : this.children.values()) {
+			child.shared = true;
+		}
+		// The context index keeps the paths with shared nodes on them
+		this.structure.copies.incrementAndGet();
+		return copy;
 	}
 
 	@Override
 	public ProbFunTree<T> clone() {
-		return new ProbFunTree<T>(this);
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.CLONE);
+		ProbFunTree<T> copy = new ProbFunTree<T>(this);
+		ProbFunTreeMetrics.end(span);
+		return copy;
+	}
+
+	/**        Compiles this ProbFunTree into a read-only FrozenProbFunTree that is faster to generate elements from.
+	 *         The nodes are laid out breadth-first in a few arrays, so there are no per-node Objects.
+	 *         A node shared by many parents is laid out once and every parent points at it, as ProbFunTreeCodec writes it,
+	 *         so the layers made by the constructors stay shared.
+	 *         Later changes to this ProbFunTree will not be reflected in the FrozenProbFunTree.
+	 * @return a FrozenProbFunTree with the same elements and probabilities as this ProbFunTree.
+	 */
+	public FrozenProbFunTree<T> freeze() {
+		ProbFunTreeMetrics.Span span = ProbFunTreeMetrics.begin(ProbFunTreeMetrics.Operation.FREEZE);
+		ArrayList<ProbFunTree<T>> nodes = new ArrayList<ProbFunTree<T>>();
+		Map<ProbFunTree<T>, Integer> ids = new IdentityHashMap<ProbFunTree<T>, Integer>();
+		nodes.add(this);
+		ids.put(this, 0);
+		int entryCount = 0;
+		for(int i = 0; i < nodes.size(); i++) {
+			ProbFunTree<T> node = nodes.get(i);
+			entryCount += node.probMap.size();
+			for(T t : node.probMap.keySet()) {
+				ProbFunTree<T> child = node.children.get(t);
+				if(child != null && !ids.containsKey(child)) {
+					ids.put(child, nodes.size());
+					nodes.add(child);
+				}
+			}
+		}
+		Object[] elements = new Object[entryCount];
+		double[] cumulative = new double[entryCount];
+		int[] childNodes = new int[entryCount];
+		int[] offsets = new int[nodes.size()+1];
+		int entry = 0;
+		for(int i = 0; i < nodes.size(); i++) {
+			ProbFunTree<T> node = nodes.get(i);
+			node.syncProbMap();
+			offsets[i] = entry;
+			double sumOfProbabilities = 0.0;
+			for(Entry<T, Double> e : node.probMap.entrySet()) {
+				sumOfProbabilities += e.getValue();
+				elements[entry] = e.getKey();
+				cumulative[entry] = sumOfProbabilities;
+				ProbFunTree<T> child = node.children.get(e.getKey());
+				childNodes[entry] = child == null ? -1 : ids.get(child);
+				entry++;
+			}
+		}
+		offsets[nodes.size()] = entry;
+		FrozenProbFunTree<T> frozen = new FrozenProbFunTree<T>(elements, cumulative, childNodes, offsets);
+		ProbFunTreeMetrics.end(span);
+		return frozen;
 	}
 
 	@Override
 	public String toString() {
+		syncProbMap();
 		if(this.id == 0) {
 			this.id = System.identityHashCode(this);
 		}
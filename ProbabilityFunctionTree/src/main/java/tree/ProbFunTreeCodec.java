@@ -0,0 +1,423 @@
+package tree;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ *         Writes ProbFunTrees in a compact binary format and reads them back,
+ *         without recursion, so trees of any depth can be saved.
+ *         The format is, with every count and index written as a varint:
+ *         <br>the magic bytes "PFTC" and the format version,
+ *         <br>the number of symbols and each symbol in natural order, as its length and the bytes made by the SymbolCodec,
+ *         <br>the number of nodes and each node in breadth-first order, as
+ *         its number of entries, its layer, a flags byte that is 1 if the node is shared, its rounding error,
+ *         the symbol index of each entry as the gap from the last one, the probability of each entry,
+ *         a bitmap of the entries that have a child and the node index of each child as a zigzag delta from the last child.
+ *         <br>A node shared by many parents is written once, so templates made by the constructors stay shared.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+public final class ProbFunTreeCodec {
+
+	static final int MAGIC = 0x50465443;
+
+	// Increased whenever the format changes, so old readers fail instead of reading garbage
+	static final int FORMAT_VERSION = 1;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private ProbFunTreeCodec() {}
+
+	/**        Writes tree to channel.
+	 *         Feedback given to tree is put into its probabilities before they are written.
+	 * @param  tree as the ProbFunTree to write.
+	 * @param  channel as the channel to write to, which is not closed.
+	 * @param  codec as the SymbolCodec that turns the elements of tree into bytes.
+	 * @param  <T> The type of the elements of tree
+	 * @throws NullPointerException if tree, channel or codec is null.
+	 * @throws IOException if channel can't be written to.
+	 */
+	public static <T> void write(ProbFunTree<T> tree, WritableByteChannel channel, SymbolCodec<? super T> codec) throws IOException {
+		Objects.requireNonNull(tree);
+		Objects.requireNonNull(channel);
+		Objects.requireNonNull(codec);
+		// Invariants secured
+		List<ProbFunTree<T>> nodes = new ArrayList<ProbFunTree<T>>();
+		Map<ProbFunTree<T>, Integer> ids = new IdentityHashMap<ProbFunTree<T>, Integer>();
+		TreeSet<T> symbols = new TreeSet<T>();
+		nodes.add(tree);
+		ids.put(tree, 0);
+		for(int i = 0; i < nodes.size(); i++) {
+			ProbFunTree<T> node = nodes.get(i);
+			Map<T, ProbFunTree<T>> children = node.children();
+			for(T t : node.probabilities().keySet()) {
+				symbols.add(t);
+				ProbFunTree<T> child = children.isEmpty() ? null : children.get(t);
+				if(child != null && !ids.containsKey(child)) {
+					ids.put(child, nodes.size());
+					nodes.add(child);
+				}
+			}
+		}
+		Output out = new Output(channel);
+		out.putInt(MAGIC);
+		out.putVarLong(FORMAT_VERSION);
+		out.putVarLong(symbols.size());
+		Map<T, Integer> symbolIds = new HashMap<T, Integer>();
+		for(T t : symbols) {
+			symbolIds.put(t, symbolIds.size());
+			byte[] bytes = codec.encode(t);
+			out.putVarLong(bytes.length);
+			out.putBytes(bytes);
+		}
+		out.putVarLong(nodes.size());
+		long lastChild = 0;
+		// The node index of the child of each entry of a node, or -1 if there isn't one
+		int[] childIds = new int[16];
+		for(ProbFunTree<T> node : nodes) {
+			TreeMap<T, Double> probMap = node.probabilities();
+			Map<T, ProbFunTree<T>> children = node.children();
+			int n = probMap.size();
+			if(childIds.length < n) {
+				childIds = new int[Math.max(n, childIds.length*2)];
+			}
+			out.putVarLong(n);
+			out.putVarLong(node.layer());
+			out.putByte(node.isShared() ? 1 : 0);
+			out.putDouble(node.roundingError());
+			// probMap is sorted the same way as the symbols, so the indexes only go up
+			int lastSymbol = -1;
+			int j = 0;
+			for(T t : probMap.keySet()) {
+				int symbol = symbolIds.get(t);
+				out.putVarLong(symbol-lastSymbol-1);
+				lastSymbol = symbol;
+				ProbFunTree<T> child = children.isEmpty() ? null : children.get(t);
+				childIds[j++] = child == null ? -1 : ids.get(child);
+			}
+			for(double probability : probMap.values()) {
+				out.putDouble(probability);
+			}
+			for(int start = 0; start < n; start += 8) {
+				int bits = 0;
+				for(int k = start; k < Math.min(n, start+8); k++) {
+					if(childIds[k] >= 0) {
+						bits |= 1 << (k-start);
+					}
+				}
+				out.putByte(bits);
+			}
+			for(int k = 0; k < n; k++) {
+				if(childIds[k] >= 0) {
+					// Unshared children are numbered in the order they are written, so most deltas are 1
+					out.putVarLong(zigzag(childIds[k]-lastChild));
+					lastChild = childIds[k];
+				}
+			}
+		}
+		out.flush();
+	}
+
+	/**        Writes tree to the file at path, replacing the file if it exists.
+	 * @param  tree as the ProbFunTree to write.
+	 * @param  path as the path of the file to write to.
+	 * @param  codec as the SymbolCodec that turns the elements of tree into bytes.
+	 * @param  <T> The type of the elements of tree
+	 * @throws NullPointerException if tree, path or codec is null.
+	 * @throws IOException if the file can't be written to.
+	 */
+	public static <T> void write(ProbFunTree<T> tree, Path path, SymbolCodec<? super T> codec) throws IOException {
+		Objects.requireNonNull(path);
+		// Invariants secured
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(tree, channel, codec);
+		}
+	}
+
+	/**        Reads a ProbFunTree written by write() from channel.
+	 * @param  channel as the channel to read from, which is not closed.
+	 * @param  codec as the SymbolCodec that turns bytes back into the elements.
+	 * @param  <T> The type of the elements of the ProbFunTree
+	 * @return the ProbFunTree that was read.
+	 * @throws NullPointerException if channel or codec is null.
+	 * @throws IOException if channel can't be read from,
+	 *         or doesn't hold a ProbFunTree in a format version this class can read.
+	 */
+	public static <T> ProbFunTree<T> read(ReadableByteChannel channel, SymbolCodec<? extends T> codec) throws IOException {
+		Objects.requireNonNull(channel);
+		Objects.requireNonNull(codec);
+		// Invariants secured
+		Input in = new Input(channel);
+		if(in.getInt() != MAGIC) {
+			throw new IOException("channel does not hold a ProbFunTree written by ProbFunTreeCodec\n");
+		}
+		long version = in.getVarLong();
+		if(version != FORMAT_VERSION) {
+			throw new IOException("ProbFunTreeCodec can't read format version " + version + "\n");
+		}
+		int symbolCount = in.getCount();
+		List<T> symbols = new ArrayList<T>(symbolCount);
+		for(int i = 0; i < symbolCount; i++) {
+			byte[] bytes = new byte[in.getCount()];
+			in.getBytes(bytes);
+			symbols.add(codec.decode(bytes));
+		}
+		int nodeCount = in.getCount();
+		if(nodeCount < 1) {
+			throw new IOException("A ProbFunTree must have at least one node\n");
+		}
+		@SuppressWarnings("unchecked")
+		ProbFunTree<T>[] nodes = (ProbFunTree<T>[]) new ProbFunTree<?>[nodeCount];
+		// The node each node was first found under, which becomes its parent
+		int[] parents = new int[nodeCount];
+		parents[0] = -1;
+		nodes[0] = new ProbFunTree<T>();
+		List<T> elements = new ArrayList<T>();
+		long lastChild = 0;
+		for(int i = 0; i < nodeCount; i++) {
+			ProbFunTree<T> node = nodes[i];
+			if(node == null) {
+				throw new IOException("Node " + i + " is not the child of any node\n");
+			}
+			int entryCount = in.getCount();
+			if(entryCount < 1) {
+				throw new IOException("Node " + i + " has no entries\n");
+			}
+			int layer = in.getCount();
+			boolean shared = (in.getByte() & 1) != 0;
+			double roundingError = in.getDouble();
+			elements.clear();
+			long symbol = -1;
+			for(int j = 0; j < entryCount; j++) {
+				symbol += in.getVarLong()+1;
+				if(symbol >= symbolCount) {
+					throw new IOException("Node " + i + " has a symbol that is not in the dictionary\n");
+				}
+				elements.add(symbols.get((int) symbol));
+			}
+			TreeMap<T, Double> probMap = new TreeMap<T, Double>();
+			for(T t : elements) {
+				probMap.put(t, in.getDouble());
+			}
+			node.restore(parents[i] < 0 ? null : nodes[parents[i]], probMap, layer, roundingError, shared);
+			byte[] bitmap = new byte[(entryCount+7)/8];
+			in.getBytes(bitmap);
+			for(int j = 0; j < entryCount; j++) {
+				if((bitmap[j >>> 3] & (1 << (j & 7))) != 0) {
+					long id = lastChild+unzigzag(in.getVarLong());
+					if(id <= 0 || id >= nodeCount) {
+						throw new IOException("Node " + i + " has a child that is not in the ProbFunTree\n");
+					}
+					lastChild = id;
+					ProbFunTree<T> child = nodes[(int) id];
+					if(child == null) {
+						child = new ProbFunTree<T>();
+						nodes[(int) id] = child;
+						parents[(int) id] = i;
+					}
+					node.addChild(elements.get(j), child);
+				}
+			}
+		}
+		return nodes[0];
+	}
+
+	/**        Reads a ProbFunTree written by write() from the file at path.
+	 * @param  path as the path of the file to read from.
+	 * @param  codec as the SymbolCodec that turns bytes back into the elements.
+	 * @param  <T> The type of the elements of the ProbFunTree
+	 * @return the ProbFunTree that was read.
+	 * @throws NullPointerException if path or codec is null.
+	 * @throws IOException if the file can't be read from,
+	 *         or doesn't hold a ProbFunTree in a format version this class can read.
+	 */
+	public static <T> ProbFunTree<T> read(Path path, SymbolCodec<? extends T> codec) throws IOException {
+		Objects.requireNonNull(path);
+		// Invariants secured
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return read(channel, codec);
+		}
+	}
+
+	private static long zigzag(long n) {
+		return (n << 1) ^ (n >> 63);
+	}
+
+	private static long unzigzag(long n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	/**
+	 *         Buffers the bytes written to a channel.
+	 */
+	private static final class Output {
+
+		private final WritableByteChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		private Output(WritableByteChannel channel) {
+			this.channel = channel;
+		}
+
+		/**        Makes sure there is room in the buffer for some bytes.
+		 * @param  bytes as the number of bytes that will be put in the buffer, which must not be more than BUFFER_SIZE.
+		 * @throws IOException if the buffer can't be written to the channel.
+		 */
+		private void reserve(int bytes) throws IOException {
+			if(this.buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		private void flush() throws IOException {
+			this.buffer.flip();
+			while(this.buffer.hasRemaining()) {
+				this.channel.write(this.buffer);
+			}
+			this.buffer.clear();
+		}
+
+		private void putByte(int b) throws IOException {
+			reserve(1);
+			this.buffer.put((byte) b);
+		}
+
+		private void putInt(int i) throws IOException {
+			reserve(4);
+			this.buffer.putInt(i);
+		}
+
+		private void putDouble(double d) throws IOException {
+			reserve(8);
+			this.buffer.putDouble(d);
+		}
+
+		/**        Puts n into the buffer 7 bits at a time, lowest bits first,
+		 *         with the high bit of every byte but the last set.
+		 * @param  n as the number to put, which is treated as unsigned.
+		 * @throws IOException if the buffer can't be written to the channel.
+		 */
+		private void putVarLong(long n) throws IOException {
+			reserve(10);
+			while((n & ~0x7FL) != 0) {
+				this.buffer.put((byte) ((n & 0x7F) | 0x80));
+				n >>>= 7;
+			}
+			this.buffer.put((byte) n);
+		}
+
+		private void putBytes(byte[] bytes) throws IOException {
+			int off = 0;
+			while(off < bytes.length) {
+				if(!this.buffer.hasRemaining()) {
+					flush();
+				}
+				int len = Math.min(this.buffer.remaining(), bytes.length-off);
+				this.buffer.put(bytes, off, len);
+				off += len;
+			}
+		}
+
+	}
+
+	/**
+	 *         Buffers the bytes read from a channel.
+	 */
+	private static final class Input {
+
+		private final ReadableByteChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		private Input(ReadableByteChannel channel) {
+			this.channel = channel;
+			this.buffer.limit(0);
+		}
+
+		/**        Makes sure the buffer holds some bytes that have not been read.
+		 * @param  bytes as the number of bytes that will be read, which must not be more than BUFFER_SIZE.
+		 * @throws IOException if the channel can't be read from or ends first.
+		 */
+		private void require(int bytes) throws IOException {
+			if(this.buffer.remaining() < bytes) {
+				this.buffer.compact();
+				while(this.buffer.position() < bytes) {
+					if(this.channel.read(this.buffer) < 0) {
+						throw new EOFException("channel ended in the middle of a ProbFunTree\n");
+					}
+				}
+				this.buffer.flip();
+			}
+		}
+
+		private int getByte() throws IOException {
+			require(1);
+			return this.buffer.get();
+		}
+
+		private int getInt() throws IOException {
+			require(4);
+			return this.buffer.getInt();
+		}
+
+		private double getDouble() throws IOException {
+			require(8);
+			return this.buffer.getDouble();
+		}
+
+		private long getVarLong() throws IOException {
+			long n = 0;
+			for(int shift = 0; shift < 64; shift += 7) {
+				int b = getByte();
+				n |= (long) (b & 0x7F) << shift;
+				if((b & 0x80) == 0) {
+					return n;
+				}
+			}
+			throw new IOException("varint is longer than 10 bytes\n");
+		}
+
+		/**        Reads a varint that is the size of something.
+		 * @return the size.
+		 * @throws IOException if the channel can't be read from, or the size doesn't fit in an int.
+		 */
+		private int getCount() throws IOException {
+			long n = getVarLong();
+			if(n < 0 || n > Integer.MAX_VALUE) {
+				throw new IOException("count of " + n + " is too large\n");
+			}
+			return (int) n;
+		}
+
+		private void getBytes(byte[] bytes) throws IOException {
+			int off = 0;
+			while(off < bytes.length) {
+				if(!this.buffer.hasRemaining()) {
+					require(1);
+				}
+				int len = Math.min(this.buffer.remaining(), bytes.length-off);
+				this.buffer.get(bytes, off, len);
+				off += len;
+			}
+		}
+
+	}
+
+}
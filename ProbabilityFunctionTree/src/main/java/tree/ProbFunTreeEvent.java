@@ -0,0 +1,33 @@
+package tree;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ *         A JFR event for a bulk operation on a ProbFunTree, such as pruneAll(), addLayer() or clone().
+ *         Only loaded when ProbFunTreeMetrics.ENABLED is true, and only compiled by JDKs since Java 11,
+ *         for Java 11, since the rest of the module is compiled for Java 8, which has no jdk.jfr.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+@Name("tree.ProbFunTreeOperation")
+@Label("ProbFunTree Operation")
+@Category("ProbFunTree")
+@Description("A bulk operation that changed or copied a whole ProbFunTree")
+@StackTrace(false)
+final class ProbFunTreeEvent extends jdk.jfr.Event implements ProbFunTreeMetrics.OperationEvent {
+
+	@Label("Operation")
+	String operation;
+
+	/**        Creates the event of a bulk operation, which ProbFunTreeMetrics does by reflection.
+	 * @param  operation as the name of the operation.
+	 */
+	ProbFunTreeEvent(String operation) {
+		this.operation = operation;
+	}
+
+}
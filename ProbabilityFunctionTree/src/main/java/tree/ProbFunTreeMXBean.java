@@ -0,0 +1,56 @@
+package tree;
+
+import java.util.Map;
+
+/**
+ *         The size of a ProbFunTree and the operation metrics, 
+ *         as shown over JMX after ProbFunTreeMetrics.register() is called.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+public interface ProbFunTreeMXBean {
+
+	/**        Returns the number of nodes in the ProbFunTree.
+	 * @return the nodeCount() of the ProbFunTree.
+	 */
+	long getNodeCount();
+
+	/**        Returns the number of elements in the ProbFunTree.
+	 * @return the size() of the ProbFunTree.
+	 */
+	int getEntryCount();
+
+	/**        Returns the depth of the ProbFunTree.
+	 * @return the depth() of the ProbFunTree.
+	 */
+	int getDepth();
+
+	/**        Returns the estimated bytes of memory taken by the ProbFunTree.
+	 * @return the estimatedBytes() of the ProbFunTree.
+	 */
+	long getEstimatedBytes();
+
+	/**        Returns whether the counts are those of the ProbFunTree as it is now.
+	 *         Some changes, like those made through getProbMap() or getChildMap(), 
+	 *         are only counted when a count is next read on the thread that changes the ProbFunTree, 
+	 *         and until then the counts of the ProbFunTree before them are shown.
+	 * @return true if the counts are up to date, else false.
+	 */
+	boolean isCountsCurrent();
+
+	/**        Returns whether metrics are being kept.
+	 * @return ProbFunTreeMetrics.ENABLED.
+	 */
+	boolean isMetricsEnabled();
+
+	/**        Returns the number of times each operation finished.
+	 * @return the names of the operations mapped to their counts.
+	 */
+	Map<String, Long> getOperationCounts();
+
+	/**        Returns the estimated 99th percentile of the times each operation took.
+	 * @return the names of the operations mapped to their 99th percentile in nanoseconds.
+	 */
+	Map<String, Long> getOperationP99Nanos();
+
+}
@@ -0,0 +1,299 @@
+package tree;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ *         Counts and times the operations of every ProbFunTree, records the long ones as JFR events, 
+ *         and shows the size of a ProbFunTree over JMX.
+ *         Metrics are only kept when the system property tree.metrics is true when this class is loaded, as with
+ *         -Dtree.metrics=true. Otherwise ENABLED is false and the JIT removes the calls from the ProbFunTree methods.
+ *         Latencies are kept in histograms with a bucket per power of 2 nanoseconds.
+ *         JFR events need ProbFunTreeEvent, which is only compiled by JDKs since Java 11, and a JVM with JFR;
+ *         without them, bulk operations are still counted and timed.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+public final class ProbFunTreeMetrics {
+
+	/**        True if metrics are being kept.
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean("tree.metrics");
+
+	/**
+	 *         The operations that are counted and timed.
+	 *         Bulk operations change a whole ProbFunTree and are also recorded as JFR events.
+	 */
+	public enum Operation {
+		FUN(false),
+		GOOD(false),
+		BAD(false),
+		PRUNE(false),
+		CLEAR_ALL_PROBS(true),
+		ADD_TO_ALL(true),
+		REMOVE_FROM_ALL(true),
+		PRUNE_ALL(true),
+		PRUNE_TO_BUDGET(true),
+		ADD_LAYER(true),
+		CLONE(true),
+		FREEZE(true);
+
+		private final boolean bulk;
+
+		private Operation(boolean bulk) {
+			this.bulk = bulk;
+		}
+
+		/**        Returns whether this operation changes or copies a whole ProbFunTree.
+		 * @return true if this operation is recorded as a JFR event, else false.
+		 */
+		public boolean isBulk() {
+			return this.bulk;
+		}
+
+	}
+
+	/**
+	 *         The JFR event of a bulk operation, which ProbFunTreeEvent gets the methods of from jdk.jfr.Event.
+	 */
+	interface OperationEvent {
+
+		void begin();
+
+		void commit();
+
+	}
+
+	// Makes the JFR event of a bulk operation from the name of the operation, 
+	// or null if metrics are not enabled or there is no ProbFunTreeEvent or JFR
+	private static final Constructor<? extends OperationEvent> events = ENABLED ? eventConstructor() : null;
+
+	// Bucket i counts the operations that took from 2^(i-1) to 2^i-1 nanoseconds, and bucket 0 those that took 0
+	private static final int BUCKETS = 64;
+
+	private static final Map<Operation, LongAdder> counts = new EnumMap<Operation, LongAdder>(Operation.class);
+
+	private static final Map<Operation, LongAdder> nanos = new EnumMap<Operation, LongAdder>(Operation.class);
+
+	private static final Map<Operation, LongAdder[]> histograms = new EnumMap<Operation, LongAdder[]>(Operation.class);
+
+	static {
+		for(Operation operation : Operation.values()) {
+			counts.put(operation, new LongAdder());
+			nanos.put(operation, new LongAdder());
+			LongAdder[] histogram = new LongAdder[BUCKETS];
+			for(int i = 0; i < BUCKETS; i++) {
+				histogram[i] = new LongAdder();
+			}
+			histograms.put(operation, histogram);
+		}
+	}
+
+	/**
+	 *         A bulk operation that has started.
+	 */
+	static final class Span {
+
+		private final Operation operation;
+
+		private final long start;
+
+		// The JFR event, or null if there isn't one
+		private final OperationEvent event;
+
+		private Span(Operation operation, long start, OperationEvent event) {
+			this.operation = operation;
+			this.start = start;
+			this.event = event;
+		}
+
+	}
+
+	private ProbFunTreeMetrics() {}
+
+	/**        Finds the constructor of ProbFunTreeEvent, which is loaded by name since it isn't compiled for Java 8.
+	 * @return the constructor, or null if ProbFunTreeEvent wasn't compiled or the JVM has no JFR.
+	 */
+	private static Constructor<? extends OperationEvent> eventConstructor() {
+		try {
+			return Class.forName("tree.ProbFunTreeEvent").asSubclass(OperationEvent.class).getDeclaredConstructor(String.class);
+		} catch(ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**        Returns the time an operation starts at.
+	 * @return the current System.nanoTime(), or 0 if metrics are not enabled.
+	 */
+	static long start() {
+		return ENABLED ? System.nanoTime() : 0;
+	}
+
+	/**        Counts and times an operation that has finished.
+	 * @param  operation as the operation that finished.
+	 * @param  start as the time start() returned when the operation started.
+	 */
+	static void record(Operation operation, long start) {
+		if(ENABLED) {
+			long time = Math.max(0, System.nanoTime()-start);
+			counts.get(operation).increment();
+			nanos.get(operation).add(time);
+			histograms.get(operation)[Math.min(BUCKETS-1, 64-Long.numberOfLeadingZeros(time))].increment();
+		}
+	}
+
+	/**        Starts a bulk operation.
+	 * @param  operation as the operation that is starting.
+	 * @return the started operation to pass to end(), or null if metrics are not enabled.
+	 */
+	static Span begin(Operation operation) {
+		if(!ENABLED) {
+			return null;
+		}
+		OperationEvent event = null;
+		if(events != null) {
+			try {
+				event = events.newInstance(operation.name());
+				event.begin();
+			} catch(ReflectiveOperationException e) {
+				event = null;
+			}
+		}
+		return new Span(operation, System.nanoTime(), event);
+	}
+
+	/**        Counts and times a bulk operation that has finished, and commits its JFR event.
+	 * @param  span as what begin() returned when the operation started.
+	 */
+	static void end(Span span) {
+		if(ENABLED && span != null) {
+			record(span.operation, span.start);
+			if(span.event != null) {
+				span.event.commit();
+			}
+		}
+	}
+
+	/**        Returns whether metrics are being kept.
+	 * @return ENABLED.
+	 */
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
+	/**        Returns the number of times an operation finished.
+	 * @param  operation as the operation.
+	 * @return the number of times operation finished since metrics were last reset.
+	 * @throws NullPointerException if operation is null.
+	 */
+	public static long count(Operation operation) {
+		return counts.get(Objects.requireNonNull(operation)).sum();
+	}
+
+	/**        Returns the total time an operation took.
+	 * @param  operation as the operation.
+	 * @return the nanoseconds operation took in total since metrics were last reset.
+	 * @throws NullPointerException if operation is null.
+	 */
+	public static long totalNanos(Operation operation) {
+		return nanos.get(Objects.requireNonNull(operation)).sum();
+	}
+
+	/**        Returns the histogram of the times an operation took.
+	 * @param  operation as the operation.
+	 * @return the number of times operation took 0 nanoseconds at index 0, 
+	 *         and from 2^(i-1) to 2^i-1 nanoseconds at index i.
+	 * @throws NullPointerException if operation is null.
+	 */
+	public static long[] histogram(Operation operation) {
+		LongAdder[] histogram = histograms.get(Objects.requireNonNull(operation));
+		long[] copy = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++) {
+			copy[i] = histogram[i].sum();
+		}
+		return copy;
+	}
+
+	/**        Estimates a percentile of the times an operation took from its histogram.
+	 * @param  operation as the operation.
+	 * @param  percentile as the percentile between 0 and 1 (inclusive).
+	 * @return the most nanoseconds the operations in the bucket holding percentile could have taken, 
+	 *         or 0 if operation never finished.
+	 * @throws NullPointerException if operation is null.
+	 * @throws IllegalArgumentException if percentile is not between 0 and 1 (inclusive).
+	 */
+	public static long percentileNanos(Operation operation, double percentile) {
+		Objects.requireNonNull(operation);
+		if(percentile < 0.0 || percentile > 1.0) {
+			throw new IllegalArgumentException("percentile passed to percentileNanos() is not between 0.0 and 1.0 (inclusive)\n");
+		}
+		// Invariants secured
+		long[] histogram = histogram(operation);
+		long total = 0;
+		for(long count : histogram) {
+			total += count;
+		}
+		if(total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile*total));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += histogram[i];
+			if(seen >= rank) {
+				return i == 0 ? 0 : (1L << i)-1;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**        Sets every count, time and histogram back to 0.
+	 */
+	public static void reset() {
+		for(Operation operation : Operation.values()) {
+			counts.get(operation).reset();
+			nanos.get(operation).reset();
+			for(LongAdder bucket : histograms.get(operation)) {
+				bucket.reset();
+			}
+		}
+	}
+
+	/**        Registers an MXBean with the platform MBeanServer that shows the size of tree and the operation metrics.
+	 *         The thread that changes tree publishes its size to the MXBean as it is kept up to date, 
+	 *         so the JMX thread never reads the nodes of tree, and tree can be changed while it is watched.
+	 *         This must be called on the thread that changes tree, or before any thread changes it.
+	 * @param  tree as the ProbFunTree to watch.
+	 * @param  name as the name of the MXBean, which is registered as tree:type=ProbFunTree,name=name.
+	 * @return the ObjectName the MXBean was registered under.
+	 * @throws NullPointerException if tree or name is null.
+	 * @throws JMException if the name is not valid or is already registered.
+	 */
+	public static ObjectName register(ProbFunTree<?> tree, String name) throws JMException {
+		Objects.requireNonNull(tree);
+		Objects.requireNonNull(name);
+		// Invariants secured
+		ObjectName objectName = new ObjectName("tree:type=ProbFunTree,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(tree.monitor(), objectName);
+		return objectName;
+	}
+
+	/**        Removes an MXBean that was registered with register().
+	 * @param  objectName as the ObjectName returned by register().
+	 * @throws NullPointerException if objectName is null.
+	 * @throws JMException if no MXBean is registered under objectName.
+	 */
+	public static void unregister(ObjectName objectName) throws JMException {
+		Objects.requireNonNull(objectName);
+		// Invariants secured
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+	}
+
+}
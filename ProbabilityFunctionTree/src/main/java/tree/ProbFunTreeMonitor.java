@@ -0,0 +1,110 @@
+package tree;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ *         The ProbFunTreeMXBean that ProbFunTreeMetrics.register() registers.
+ *         The thread that changes the ProbFunTree publishes its counts here whenever they are worked out,
+ *         so the JMX thread only reads what was published and never reads the nodes of the tree.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+final class ProbFunTreeMonitor implements ProbFunTreeMXBean {
+
+	/**
+	 *         The counts of a ProbFunTree at one time, so they are read together.
+	 */
+	private static final class Counts {
+
+		private final long entries;
+
+		private final long nodes;
+
+		private final int depth;
+
+		private final long bytes;
+
+		// False once the tree changed in a way that is only counted the next time the counts are read on its thread
+		private final boolean current;
+
+		private Counts(long entries, long nodes, int depth, long bytes, boolean current) {
+			this.entries = entries;
+			this.nodes = nodes;
+			this.depth = depth;
+			this.bytes = bytes;
+			this.current = current;
+		}
+
+	}
+
+	private volatile Counts counts = new Counts(0, 0, 0, 0, false);
+
+	/**        Publishes the counts of the ProbFunTree after they were worked out.
+	 * @param  entries as the size() of the ProbFunTree.
+	 * @param  nodes as the nodeCount() of the ProbFunTree.
+	 * @param  depth as the depth() of the ProbFunTree.
+	 * @param  bytes as the estimatedBytes() of the ProbFunTree.
+	 */
+	void publish(long entries, long nodes, int depth, long bytes) {
+		this.counts = new Counts(entries, nodes, depth, bytes, true);
+	}
+
+	/** Marks the published counts as out of date, after the ProbFunTree changed in a way that isn't counted right away.
+	 */
+	void markStale() {
+		Counts c = this.counts;
+		if(c.current) {
+			this.counts = new Counts(c.entries, c.nodes, c.depth, c.bytes, false);
+		}
+	}
+
+	@Override
+	public long getNodeCount() {
+		return this.counts.nodes;
+	}
+
+	@Override
+	public int getEntryCount() {
+		return (int) Math.min(Integer.MAX_VALUE, this.counts.entries);
+	}
+
+	@Override
+	public int getDepth() {
+		return this.counts.depth;
+	}
+
+	@Override
+	public long getEstimatedBytes() {
+		return this.counts.bytes;
+	}
+
+	@Override
+	public boolean isCountsCurrent() {
+		return this.counts.current;
+	}
+
+	@Override
+	public boolean isMetricsEnabled() {
+		return ProbFunTreeMetrics.ENABLED;
+	}
+
+	@Override
+	public Map<String, Long> getOperationCounts() {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for(ProbFunTreeMetrics.Operation operation : ProbFunTreeMetrics.Operation.values()) {
+			counts.put(operation.name(), ProbFunTreeMetrics.count(operation));
+		}
+		return counts;
+	}
+
+	@Override
+	public Map<String, Long> getOperationP99Nanos() {
+		Map<String, Long> p99 = new TreeMap<String, Long>();
+		for(ProbFunTreeMetrics.Operation operation : ProbFunTreeMetrics.Operation.values()) {
+			p99.put(operation.name(), ProbFunTreeMetrics.percentileNanos(operation, 0.99));
+		}
+		return p99;
+	}
+
+}
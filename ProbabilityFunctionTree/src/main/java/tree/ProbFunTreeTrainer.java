@@ -0,0 +1,424 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+/**
+ *         Builds a ProbFunTree from sequences of elements.
+ *         For every element in a sequence, the number of times it followed each of the runs of elements before it,
+ *         up to layers-1 elements long, is counted.
+ *         The counts are only turned into probabilities when build() is called.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ * @param  <T> The type of the elements in the sequences
+ */
+public final class ProbFunTreeTrainer<T> {
+
+	// The fewest elements counted by one task when training in parallel
+	private static final long MIN_CHUNK = 1 << 14;
+
+	private final int layers;
+
+	// The id of every element that has been seen
+	private final HashMap<T, Integer> ids = new HashMap<T, Integer>();
+
+	// The element of every id
+	private final ArrayList<T> elements = new ArrayList<T>();
+
+	// The transitions, which are an element following a node.
+	// The key of a transition is the node in the high 32 bits and the id of the element in the low 32 bits
+	private long[] keys = new long[16];
+
+	// The number of times each transition was seen
+	private long[] counts = new long[16];
+
+	// The node reached by each transition, or -1 if it hasn't been followed by an element yet
+	private int[] childNodes = new int[16];
+
+	private int transitionCount = 0;
+
+	// Open addressing hash table of the index of every transition plus 1, so 0 can mean empty
+	private int[] table = new int[32];
+
+	// The transition that reaches each node, or -1 for the root node
+	private int[] nodeTransitions = new int[16];
+
+	private int nodeCount = 1;
+
+	// The transitions of the element before the current one, from the shortest run of elements to the longest
+	private int[] context;
+
+	private int[] nextContext;
+
+	private int contextSize = 0;
+
+	/**        Creates a ProbFunTreeTrainer for ProbFunTrees with the given number of layers.
+	 * @param  layers as the number of layers of the ProbFunTrees that will be built.
+	 *         The ProbFunTree will pick elements based on up to layers-1 previously picked elements.
+	 * @throws IllegalArgumentException if layers is not at least 1.
+	 */
+	public ProbFunTreeTrainer(int layers) {
+		if(layers < 1) {
+			throw new IllegalArgumentException("layers passed into the ProbFunTreeTrainer constructor must be at least 1\n");
+		}
+		// Invariants secured
+		this.layers = layers;
+		this.context = new int[layers];
+		this.nextContext = new int[layers];
+		this.nodeTransitions[0] = -1;
+	}
+
+	/**        Counts the elements of a sequence.
+	 * @param  sequence as the elements in the order they came.
+	 * @throws NullPointerException if sequence or any of its elements are null.
+	 */
+	public void train(Iterable<? extends T> sequence) {
+		Objects.requireNonNull(sequence);
+		// Invariants secured
+		this.contextSize = 0;
+		for(T t : sequence) {
+			next(id(Objects.requireNonNull(t)), true);
+		}
+	}
+
+	/**        Counts the elements from index from to index to of a sequence.
+	 *         The elements before from are only used as the runs of elements the first elements follow,
+	 *         so the counts of a sequence split into parts add up to the counts of the whole sequence.
+	 * @param  sequence as the elements in the order they came.
+	 * @param  from as the index of the first element to count.
+	 * @param  to as the index after the last element to count.
+	 */
+	private void train(List<? extends T> sequence, int from, int to) {
+		this.contextSize = 0;
+		int start = Math.max(0, from-(this.layers-1));
+		int i = start;
+		for(T t : sequence.subList(start, to)) {
+			next(id(Objects.requireNonNull(t)), i++ >= from);
+		}
+	}
+
+	/**        Counts the elements of every sequence.
+	 * @param  sequences as the sequences to count.
+	 * @throws NullPointerException if sequences, any sequence, or any element is null.
+	 */
+	public void trainAll(Iterator<? extends Iterable<? extends T>> sequences) {
+		Objects.requireNonNull(sequences);
+		// Invariants secured
+		while(sequences.hasNext()) {
+			train(sequences.next());
+		}
+	}
+
+	/**        Counts the elements of every sequence on the threads of pool.
+	 *         The sequences are split into parts with about the same number of elements,
+	 *         which are counted by separate ProbFunTreeTrainers that are then merged in pairs.
+	 *         The counts are the same as if the sequences were trained on one at a time.
+	 * @param  sequences as the sequences to count.
+	 * @param  pool as the ForkJoinPool to count on.
+	 * @throws NullPointerException if sequences, pool, any sequence, or any element is null.
+	 */
+	public void trainAll(List<? extends List<? extends T>> sequences, ForkJoinPool pool) {
+		Objects.requireNonNull(sequences);
+		Objects.requireNonNull(pool);
+		long[] starts = new long[sequences.size()+1];
+		for(int i = 0; i < sequences.size(); i++) {
+			starts[i+1] = starts[i]+Objects.requireNonNull(sequences.get(i)).size();
+		}
+		// Invariants secured
+		long total = starts[sequences.size()];
+		if(total == 0) {
+			return;
+		}
+		long chunk = Math.max(MIN_CHUNK, total/(pool.getParallelism()*8L));
+		merge(pool.invoke(new TrainTask<T>(this.layers, sequences, starts, 0, total, chunk)));
+	}
+
+	/**        Counts the elements of every sequence in the order of the Stream.
+	 * @param  sequences as the sequences to count.
+	 * @throws NullPointerException if sequences, any sequence, or any element is null.
+	 */
+	public void trainAll(Stream<? extends Iterable<? extends T>> sequences) {
+		Objects.requireNonNull(sequences);
+		// Invariants secured
+		trainAll(sequences.iterator());
+	}
+
+	/**        Returns the id of element, giving it a new id if it hasn't been seen.
+	 * @param  element as the element to get the id of.
+	 * @return the id of element.
+	 */
+	private int id(T element) {
+		Integer id = this.ids.get(element);
+		if(id == null) {
+			id = this.elements.size();
+			this.ids.put(element, id);
+			this.elements.add(element);
+		}
+		return id;
+	}
+
+	/**        Counts element after every run of elements before it in the current sequence.
+	 * @param  element as the id of the element.
+	 * @param  count as false if element should only be followed and not counted.
+	 */
+	private void next(int element, boolean count) {
+		int add = count ? 1 : 0;
+		int nextSize = 0;
+		int transition = transition(0, element);
+		this.counts[transition] += add;
+		if(this.layers > 1) {
+			this.nextContext[nextSize++] = transition;
+		}
+		for(int i = 0; i < this.contextSize; i++) {
+			transition = transition(childNode(this.context[i]), element);
+			this.counts[transition] += add;
+			if(i+2 < this.layers) {
+				this.nextContext[nextSize++] = transition;
+			}
+		}
+		int[] swap = this.context;
+		this.context = this.nextContext;
+		this.nextContext = swap;
+		this.contextSize = nextSize;
+	}
+
+	/**        Returns the node reached by a transition, making it if the transition hasn't been followed yet.
+	 * @param  transition as the transition to follow.
+	 * @return the node reached by transition.
+	 */
+	private int childNode(int transition) {
+		int node = this.childNodes[transition];
+		if(node == -1) {
+			if(this.nodeCount == this.nodeTransitions.length) {
+				this.nodeTransitions = Arrays.copyOf(this.nodeTransitions, this.nodeCount*2);
+			}
+			node = this.nodeCount++;
+			this.nodeTransitions[node] = transition;
+			this.childNodes[transition] = node;
+		}
+		return node;
+	}
+
+	/**        Finds the transition of element following node, adding it if it hasn't been seen.
+	 * @param  node as the node element follows.
+	 * @param  element as the id of the element.
+	 * @return the index of the transition.
+	 */
+	private int transition(int node, int element) {
+		long key = (((long) node) << 32) | element;
+		int mask = this.table.length-1;
+		int slot = hash(key) & mask;
+		int index;
+		while((index = this.table[slot]) != 0) {
+			if(this.keys[index-1] == key) {
+				return index-1;
+			}
+			slot = (slot+1) & mask;
+		}
+		int transition = this.transitionCount;
+		if(transition == this.keys.length) {
+			int length = transition*2;
+			this.keys = Arrays.copyOf(this.keys, length);
+			this.counts = Arrays.copyOf(this.counts, length);
+			this.childNodes = Arrays.copyOf(this.childNodes, length);
+		}
+		this.keys[transition] = key;
+		this.counts[transition] = 0;
+		this.childNodes[transition] = -1;
+		this.transitionCount++;
+		this.table[slot] = transition+1;
+		// Keep the table at most half full
+		if(this.transitionCount*2 > this.table.length) {
+			rehash();
+		}
+		return transition;
+	}
+
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	/** Doubles the size of the hash table.
+	 *
+	 */
+	private void rehash() {
+		int[] table = new int[this.table.length*2];
+		int mask = table.length-1;
+		for(int transition = 0; transition < this.transitionCount; transition++) {
+			int slot = hash(this.keys[transition]) & mask;
+			while(table[slot] != 0) {
+				slot = (slot+1) & mask;
+			}
+			table[slot] = transition+1;
+		}
+		this.table = table;
+	}
+
+	/**        Adds the counts of another ProbFunTreeTrainer to this one.
+	 * @param  other as the ProbFunTreeTrainer to add the counts of.
+	 */
+	private void merge(ProbFunTreeTrainer<T> other) {
+		// A node is always made after the node its transition follows, so parents are mapped first
+		int[] nodes = new int[other.nodeCount];
+		for(int node = 1; node < other.nodeCount; node++) {
+			int transition = other.nodeTransitions[node];
+			nodes[node] = childNode(transition(nodes[other.node(transition)], id(other.element(transition))));
+		}
+		for(int transition = 0; transition < other.transitionCount; transition++) {
+			int merged = transition(nodes[other.node(transition)], id(other.element(transition)));
+			this.counts[merged] += other.counts[transition];
+		}
+	}
+
+	/**
+	 *         Counts the elements from one index to another of the sequences laid end to end,
+	 *         splitting the range in half until it is small enough to count on one thread.
+	 * @param  <T> The type of the elements in the sequences
+	 */
+	private static final class TrainTask<T> extends RecursiveTask<ProbFunTreeTrainer<T>> {
+
+		private static final long serialVersionUID = 2806713212867392301L;
+
+		private final int layers;
+
+		private final List<? extends List<? extends T>> sequences;
+
+		// The index of the first element of each sequence, followed by the number of elements
+		private final long[] starts;
+
+		private final long from;
+
+		private final long to;
+
+		private final long chunk;
+
+		private TrainTask(int layers, List<? extends List<? extends T>> sequences, long[] starts, 
+				long from, long to, long chunk) {
+			this.layers = layers;
+			this.sequences = sequences;
+			this.starts = starts;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected ProbFunTreeTrainer<T> compute() {
+			if(this.to-this.from <= this.chunk) {
+				ProbFunTreeTrainer<T> trainer = new ProbFunTreeTrainer<T>(this.layers);
+				// Find the last sequence that starts at or before from
+				int sequence = Arrays.binarySearch(this.starts, this.from);
+				sequence = sequence < 0 ? -sequence-2 : sequence;
+				for(; sequence < this.sequences.size() && this.starts[sequence] < this.to; sequence++) {
+					long start = this.starts[sequence];
+					int from = (int) (Math.max(this.from, start)-start);
+					int to = (int) (Math.min(this.to, this.starts[sequence+1])-start);
+					if(from < to) {
+						trainer.train(this.sequences.get(sequence), from, to);
+					}
+				}
+				return trainer;
+			}
+			long middle = (this.from+this.to) >>> 1;
+			TrainTask<T> left = new TrainTask<T>(this.layers, this.sequences, this.starts, this.from, middle, this.chunk);
+			TrainTask<T> right = new TrainTask<T>(this.layers, this.sequences, this.starts, middle, this.to, this.chunk);
+			left.fork();
+			ProbFunTreeTrainer<T> rightTrainer = right.compute();
+			ProbFunTreeTrainer<T> leftTrainer = left.join();
+			// Merging the smaller trainer into the larger one does less work
+			if(leftTrainer.transitionCount < rightTrainer.transitionCount) {
+				rightTrainer.merge(leftTrainer);
+				return rightTrainer;
+			}
+			leftTrainer.merge(rightTrainer);
+			return leftTrainer;
+		}
+
+	}
+
+	/**        Returns the number of runs of elements that have been seen followed by an element,
+	 *         which is the number of nodes the built ProbFunTree will have.
+	 * @return the number of nodes the built ProbFunTree will have.
+	 */
+	public int nodeCount() {
+		return this.transitionCount == 0 ? 0 : this.nodeCount;
+	}
+
+	/**        Returns the number of different elements that have been seen after every run of elements,
+	 *         which is the size() of the built ProbFunTree.
+	 * @return the size() of the built ProbFunTree.
+	 */
+	public int size() {
+		return this.transitionCount;
+	}
+
+	/**        Builds a ProbFunTree from the counts, where the probability of an element following a run of elements
+	 *         is the number of times it followed the run divided by the number of times the run was followed by any element.
+	 *         The counts are kept, so more sequences can be trained on and another ProbFunTree built.
+	 * @return a new ProbFunTree made from the counts.
+	 * @throws IllegalStateException if no elements have been trained on.
+	 */
+	public ProbFunTree<T> build() {
+		if(this.transitionCount == 0) {
+			throw new IllegalStateException("No elements have been trained on by the ProbFunTreeTrainer\n");
+		}
+		// Group the transitions by the node they follow
+		int[] starts = new int[this.nodeCount+1];
+		for(int transition = 0; transition < this.transitionCount; transition++) {
+			starts[node(transition)+1]++;
+		}
+		for(int node = 0; node < this.nodeCount; node++) {
+			starts[node+1] += starts[node];
+		}
+		int[] grouped = new int[this.transitionCount];
+		int[] next = Arrays.copyOf(starts, this.nodeCount);
+		for(int transition = 0; transition < this.transitionCount; transition++) {
+			grouped[next[node(transition)]++] = transition;
+		}
+		// A node is always made after the node its transition follows, so parents are built first
+		List<ProbFunTree<T>> nodes = new ArrayList<ProbFunTree<T>>(this.nodeCount);
+		int[] layers = new int[this.nodeCount];
+		for(int node = 0; node < this.nodeCount; node++) {
+			long total = 0;
+			for(int i = starts[node]; i < starts[node+1]; i++) {
+				total += this.counts[grouped[i]];
+			}
+			Map<T, Double> probMap = new TreeMap<T, Double>();
+			for(int i = starts[node]; i < starts[node+1]; i++) {
+				probMap.put(element(grouped[i]), ((double) this.counts[grouped[i]])/total);
+			}
+			int transition = this.nodeTransitions[node];
+			if(transition == -1) {
+				nodes.add(new ProbFunTree<T>(probMap, 0, null));
+			} else {
+				int parent = node(transition);
+				layers[node] = layers[parent]+1;
+				ProbFunTree<T> child = new ProbFunTree<T>(probMap, layers[node], nodes.get(parent));
+				nodes.get(parent).addChild(element(transition), child);
+				nodes.add(child);
+			}
+		}
+		return nodes.get(0);
+	}
+
+	private int node(int transition) {
+		return (int) (this.keys[transition] >>> 32);
+	}
+
+	private T element(int transition) {
+		return this.elements.get((int) this.keys[transition]);
+	}
+
+}
@@ -0,0 +1,42 @@
+package tree;
+
+/**
+ *         Picks an index from a discrete probability distribution.
+ *         A Sampler is built from a snapshot of the probabilities and must be rebuilt when they change.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+interface Sampler {
+
+	// Distributions with at most this many probabilities are scanned linearly
+	static final int LINEAR_LIMIT = 8;
+
+	// Distributions with at least this many probabilities use an alias table
+	static final int ALIAS_LIMIT = 64;
+
+	/**        Picks an index based on randomChoice.
+	 * @param  randomChoice as a uniformly distributed double between 0.0 (inclusive) and 1.0 (exclusive).
+	 * @return the index of the picked probability.
+	 */
+	int next(double randomChoice);
+
+	/**        Creates the Sampler best suited for a distribution.
+	 *         Small distributions are scanned linearly, large distributions use an alias table,
+	 *         and all others use a binary search over the cumulative probabilities.
+	 *         The kind of Sampler only depends on the number of probabilities, not on how it was sampled before,
+	 *         so the same probabilities always pick the same index for the same randomChoice.
+	 * @param  probabilities as the probabilities to pick from, which must not be empty.
+	 * @return the Sampler for probabilities.
+	 */
+	static Sampler of(double[] probabilities) {
+		int n = probabilities.length;
+		if(n <= LINEAR_LIMIT) {
+			return new LinearSampler(probabilities);
+		} else if(n >= ALIAS_LIMIT) {
+			return new AliasSampler(probabilities);
+		} else {
+			return new CumulativeSampler(probabilities);
+		}
+	}
+
+}
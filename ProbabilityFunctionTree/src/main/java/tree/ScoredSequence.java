@@ -0,0 +1,53 @@
+package tree;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *         A sequence of elements and the natural log of the probability of picking them, as found by ProbFunTree.topK().
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ * @param  <T> The type of the elements in the sequence
+ */
+public final class ScoredSequence<T> {
+
+	private final List<T> sequence;
+
+	private final double logProb;
+
+	/**        Creates a ScoredSequence.
+	 * @param  sequence as the elements, which must not be changed afterwards.
+	 * @param  logProb as the natural log of the probability of picking the elements.
+	 */
+	ScoredSequence(List<T> sequence, double logProb) {
+		this.sequence = Collections.unmodifiableList(sequence);
+		this.logProb = logProb;
+	}
+
+	/**        Returns the elements of this ScoredSequence.
+	 * @return an unmodifiable List of the elements, in the order they are picked.
+	 */
+	public List<T> getSequence() {
+		return this.sequence;
+	}
+
+	/**        Returns the natural log of the probability of picking the elements of this ScoredSequence.
+	 * @return the log-probability of the sequence.
+	 */
+	public double getLogProb() {
+		return this.logProb;
+	}
+
+	/**        Returns the probability of picking the elements of this ScoredSequence.
+	 * @return the probability of the sequence, which may underflow to 0.0 for long sequences.
+	 */
+	public double getProbability() {
+		return Math.exp(this.logProb);
+	}
+
+	@Override
+	public String toString() {
+		return this.sequence + ": " + this.logProb;
+	}
+
+}
@@ -0,0 +1,310 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *         Works out the log-probabilities of sequences being generated by a ProbFunTree,
+ *         picking each element from the node a GenerationSession would pick it from.
+ *         The nodes and the log-probability after each element of the last sequence are kept,
+ *         so a sequence that starts with the same elements as the last one only has the rest of its elements worked out,
+ *         and nothing is allocated once the arrays are big enough.
+ *         A SequenceScorer must only be used by one thread at a time, and the ProbFunTree must not be changed while it is used.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ * @param  <T> The type of the elements that will be picked from
+ */
+final class SequenceScorer<T> {
+
+	// The fewest sequences scored by one task when sequences are scored in parallel
+	private static final int MIN_CHUNK = 1 << 10;
+
+	private final ProbFunTree<T> root;
+
+	// The nodes a GenerationSession would hold after each element of the last sequence, from the longest history to the shortest;
+	// the nodes after i elements are from starts[i] to starts[i+1]
+	private ProbFunTree<T>[] nodes;
+
+	private int[] starts;
+
+	// The natural log of the probability of the first i elements of the last sequence
+	private double[] logProbs;
+
+	// The elements of the last sequence that the nodes and log-probabilities are for
+	private Object[] elements;
+
+	private int length = 0;
+
+	// The number of elements of the last sequence that the nodes have been worked out for,
+	// which can be less than length since the nodes after an element are only needed when an element is picked after it
+	private int ready = 0;
+
+	/**        Creates a SequenceScorer that scores sequences generated from root.
+	 * @param  root as the ProbFunTree to score sequences from.
+	 */
+	@SuppressWarnings("unchecked")
+	SequenceScorer(ProbFunTree<T> root) {
+		this.root = root;
+		this.nodes = (ProbFunTree<T>[]) new ProbFunTree<?>[16];
+		this.starts = new int[16];
+		this.logProbs = new double[16];
+		this.elements = new Object[16];
+	}
+
+	/**        Returns the natural log of the probability of root generating sequence after its history is cleared.
+	 * @param  sequence as the elements to score, in the order they are picked.
+	 * @return the log-probability of sequence, or Double.NEGATIVE_INFINITY if it can't be generated.
+	 * @throws NullPointerException if an element of sequence is null.
+	 */
+	double logProb(List<T> sequence) {
+		int i = 0;
+		for(T element : sequence) {
+			Objects.requireNonNull(element);
+			if(this.logProbs[i] == Double.NEGATIVE_INFINITY) {
+				return Double.NEGATIVE_INFINITY;
+			}
+			if(i < this.length && this.elements[i].equals(element)) {
+				i++;
+				continue;
+			}
+			// The rest of the last sequence is different, so its nodes are written over
+			truncate(i);
+			push(element, Math.log(picker().probability(element)));
+			i++;
+		}
+		return this.logProbs[i];
+	}
+
+	/**        Throws away the elements of the last sequence after the first length of them.
+	 * @param  length as the number of elements to keep, which must not be more than there are.
+	 */
+	private void truncate(int length) {
+		this.length = length;
+		this.ready = Math.min(this.ready, length);
+	}
+
+	/**        Returns the node that picks the element after the elements of the last sequence,
+	 *         which is the node reached by the longest run of them, or the root.
+	 * @return the node that picks the next element.
+	 */
+	private ProbFunTree<T> picker() {
+		while(this.ready < this.length) {
+			advance();
+		}
+		int from = this.starts[this.length];
+		return from == this.starts[this.length+1] ? this.root : this.nodes[from];
+	}
+
+	/**        Adds element to the end of the last sequence.
+	 * @param  element as the element that was picked.
+	 * @param  logProb as the natural log of the probability of picking element.
+	 */
+	private void push(T element, double logProb) {
+		int i = this.length;
+		// advance() writes starts[i+2] for the element after this one
+		if(i+2 >= this.starts.length) {
+			int capacity = this.starts.length*2;
+			this.starts = Arrays.copyOf(this.starts, capacity);
+			this.logProbs = Arrays.copyOf(this.logProbs, capacity);
+			this.elements = Arrays.copyOf(this.elements, capacity);
+		}
+		this.logProbs[i+1] = this.logProbs[i]+logProb;
+		this.elements[i] = element;
+		this.length = i+1;
+	}
+
+	/** Works out the nodes after the next element from the nodes before it, 
+	 *  which are the children of element of the nodes before it followed by the child of element of the root.
+	 */
+	@SuppressWarnings("unchecked")
+	private void advance() {
+		int i = this.ready;
+		T element = (T) this.elements[i];
+		int from = this.starts[i];
+		int to = this.starts[i+1];
+		// Every node can have a child, and the root can add one more
+		if(to+(to-from)+1 > this.nodes.length) {
+			this.nodes = Arrays.copyOf(this.nodes, Math.max(this.nodes.length*2, to+(to-from)+1));
+		}
+		int next = to;
+		for(int j = from; j < to; j++) {
+			ProbFunTree<T> child = this.nodes[j].child(element);
+			if(child != null) {
+				this.nodes[next++] = child;
+			}
+		}
+		ProbFunTree<T> child = this.root.child(element);
+		if(child != null) {
+			this.nodes[next++] = child;
+		}
+		this.starts[i+2] = next;
+		this.ready = i+1;
+	}
+
+	/**        Scores sequences on the threads of pool.
+	 *         The sequences are split into runs of neighbouring sequences that are each scored by one SequenceScorer,
+	 *         so sorted sequences share the work for the elements they start with.
+	 * @param  root as the ProbFunTree to score sequences from.
+	 * @param  sequences as the sequences to score.
+	 * @param  pool as the ForkJoinPool to score on.
+	 * @param  <T> The type of the elements that will be picked from
+	 * @return the log-probability of each sequence, in the order of sequences.
+	 */
+	static <T> double[] score(ProbFunTree<T> root, List<? extends List<T>> sequences, ForkJoinPool pool) {
+		double[] scores = new double[sequences.size()];
+		int chunk = Math.max(MIN_CHUNK, sequences.size()/(pool.getParallelism()*8));
+		pool.invoke(new ScoreTask<T>(root, sequences, scores, 0, sequences.size(), chunk));
+		return scores;
+	}
+
+	/**        Finds the most probable sequences of length elements that can be picked after prefix.
+	 *         The sequences are searched depth first, picking the most probable elements first, 
+	 *         and the best k sequences found so far are kept in a PriorityQueue with the worst at the head.
+	 *         The log-probability of the elements picked so far is an upper bound for every sequence that starts with them,
+	 *         so once it is no better than the worst of k sequences that were found, the rest of the elements are not tried.
+	 * @param  root as the ProbFunTree to pick from.
+	 * @param  prefix as the elements that were picked before the sequences.
+	 * @param  length as the number of elements in each sequence.
+	 * @param  k as the greatest number of sequences to find.
+	 * @param  <T> The type of the elements that will be picked from
+	 * @return the k most probable sequences, most probable first, 
+	 *         or every sequence that can be picked if there are fewer than k of them.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> List<ScoredSequence<T>> topK(ProbFunTree<T> root, List<T> prefix, int length, int k) {
+		SequenceScorer<T> scorer = new SequenceScorer<T>(root);
+		for(T element : prefix) {
+			scorer.push(Objects.requireNonNull(element), 0.0);
+		}
+		int start = scorer.length;
+		PriorityQueue<ScoredSequence<T>> best = new PriorityQueue<ScoredSequence<T>>(k, 
+				Comparator.comparingDouble(ScoredSequence::getLogProb));
+		// The elements that can be picked after each number of elements, and the index of the next one to try
+		Candidates<T>[] candidates = (Candidates<T>[]) new Candidates<?>[length];
+		int[] next = new int[length];
+		// Nodes are often picked from more than once, so their elements are only sorted once
+		Map<ProbFunTree<T>, Candidates<T>> sorted = new IdentityHashMap<ProbFunTree<T>, Candidates<T>>();
+		int depth = 0;
+		if(length == 0) {
+			best.add(new ScoredSequence<T>(new ArrayList<T>(), 0.0));
+			depth = -1;
+		} else {
+			candidates[0] = sorted.computeIfAbsent(scorer.picker(), Candidates::new);
+		}
+		while(depth >= 0) {
+			Candidates<T> c = candidates[depth];
+			int j = next[depth]++;
+			double logProb = j < c.size() ? scorer.logProbs[start+depth]+c.logProbs[j] : Double.NEGATIVE_INFINITY;
+			// The elements are most probable first, so if this one can't make a sequence good enough, none of the rest can
+			if(j == c.size() || (best.size() == k && logProb <= best.peek().getLogProb())) {
+				depth--;
+				continue;
+			}
+			scorer.truncate(start+depth);
+			scorer.push(c.elements[j], c.logProbs[j]);
+			if(depth+1 < length) {
+				depth++;
+				candidates[depth] = sorted.computeIfAbsent(scorer.picker(), Candidates::new);
+				next[depth] = 0;
+				continue;
+			}
+			if(best.size() == k) {
+				best.poll();
+			}
+			List<T> sequence = new ArrayList<T>(length);
+			for(int i = start; i < start+length; i++) {
+				sequence.add((T) scorer.elements[i]);
+			}
+			best.add(new ScoredSequence<T>(sequence, logProb));
+		}
+		List<ScoredSequence<T>> result = new ArrayList<ScoredSequence<T>>(best);
+		result.sort(Comparator.comparingDouble(ScoredSequence<T>::getLogProb).reversed());
+		return result;
+	}
+
+	/**
+	 *         The elements of a node that can be picked, most probable first, and the natural logs of their probabilities.
+	 * @param  <T> The type of the elements that will be picked from
+	 */
+	private static final class Candidates<T> {
+
+		private final T[] elements;
+
+		private final double[] logProbs;
+
+		@SuppressWarnings("unchecked")
+		private Candidates(ProbFunTree<T> node) {
+			List<T> elements = new ArrayList<T>();
+			for(T element : node.elements()) {
+				if(node.probability(element) > 0.0) {
+					elements.add(element);
+				}
+			}
+			elements.sort(Comparator.comparingDouble(node::probability).reversed());
+			this.elements = (T[]) elements.toArray();
+			this.logProbs = new double[this.elements.length];
+			for(int i = 0; i < this.elements.length; i++) {
+				this.logProbs[i] = Math.log(node.probability(this.elements[i]));
+			}
+		}
+
+		private int size() {
+			return this.elements.length;
+		}
+
+	}
+
+	/**
+	 *         Scores a range of sequences, splitting it in half until it is no bigger than a chunk.
+	 * @param  <T> The type of the elements that will be picked from
+	 */
+	private static final class ScoreTask<T> extends RecursiveAction {
+
+		private static final long serialVersionUID = 5012390148760353071L;
+
+		private final ProbFunTree<T> root;
+
+		private final List<? extends List<T>> sequences;
+
+		private final double[] scores;
+
+		private final int from;
+
+		private final int to;
+
+		private final int chunk;
+
+		private ScoreTask(ProbFunTree<T> root, List<? extends List<T>> sequences, double[] scores, int from, int to, int chunk) {
+			this.root = root;
+			this.sequences = sequences;
+			this.scores = scores;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected void compute() {
+			if(this.to-this.from <= this.chunk) {
+				SequenceScorer<T> scorer = new SequenceScorer<T>(this.root);
+				for(int i = this.from; i < this.to; i++) {
+					this.scores[i] = scorer.logProb(this.sequences.get(i));
+				}
+				return;
+			}
+			int mid = (this.from+this.to) >>> 1;
+			invokeAll(new ScoreTask<T>(this.root, this.sequences, this.scores, this.from, mid, this.chunk),
+					new ScoreTask<T>(this.root, this.sequences, this.scores, mid, this.to, this.chunk));
+		}
+
+	}
+
+}
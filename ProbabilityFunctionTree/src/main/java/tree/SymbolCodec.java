@@ -0,0 +1,58 @@
+package tree;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ *         Turns the elements of a ProbFunTree into bytes and back, so ProbFunTreeCodec can write its symbol dictionary.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ * @param  <T> The type of the elements
+ */
+public interface SymbolCodec<T> {
+
+	SymbolCodec<String> STRINGS = of(s -> s.getBytes(StandardCharsets.UTF_8), b -> new String(b, StandardCharsets.UTF_8));
+
+	SymbolCodec<Integer> INTEGERS = of(i -> ByteBuffer.allocate(4).putInt(i).array(), b -> ByteBuffer.wrap(b).getInt());
+
+	SymbolCodec<Long> LONGS = of(l -> ByteBuffer.allocate(8).putLong(l).array(), b -> ByteBuffer.wrap(b).getLong());
+
+	SymbolCodec<Character> CHARACTERS = of(c -> ByteBuffer.allocate(2).putChar(c).array(), b -> ByteBuffer.wrap(b).getChar());
+
+	/**        Turns symbol into bytes.
+	 * @param  symbol as the element to encode.
+	 * @return the bytes of symbol.
+	 */
+	byte[] encode(T symbol);
+
+	/**        Turns bytes made by encode() back into a symbol.
+	 * @param  bytes as the bytes of the symbol.
+	 * @return the symbol.
+	 */
+	T decode(byte[] bytes);
+
+	/**        Makes a SymbolCodec from a pair of functions.
+	 * @param  encoder as the function that turns a symbol into bytes.
+	 * @param  decoder as the function that turns bytes back into a symbol.
+	 * @param  <T> The type of the elements
+	 * @return a SymbolCodec that uses encoder and decoder.
+	 * @throws NullPointerException if encoder or decoder is null.
+	 */
+	static <T> SymbolCodec<T> of(Function<? super T, byte[]> encoder, Function<byte[], ? extends T> decoder) {
+		Objects.requireNonNull(encoder);
+		Objects.requireNonNull(decoder);
+		return new SymbolCodec<T>() {
+			@Override
+			public byte[] encode(T symbol) {
+				return encoder.apply(symbol);
+			}
+			@Override
+			public T decode(byte[] bytes) {
+				return decoder.apply(bytes);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,166 @@
+package tree;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ *         Walks a tree with a stack of its own instead of recursion, so trees of any depth can be walked.
+ *         A Visitor is called before the children of each node are walked and after they are walked,
+ *         and can skip the children of a node or stop the walk.
+ *         A walk can be run all at once or a limited number of nodes at a time.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ * @param  <N> The type of the nodes
+ */
+final class TreeTraversal<N> {
+
+	/**
+	 *         What to do after a node is visited.
+	 */
+	enum Result {
+		CONTINUE,
+		// Only meaningful from preVisit(); the children are not walked and postVisit() is not called for the node
+		SKIP_CHILDREN,
+		STOP
+	}
+
+	/**
+	 *         Called for the nodes of a walk.
+	 * @param  <N> The type of the nodes
+	 */
+	interface Visitor<N> {
+
+		/**        Called before the children of node are walked.
+		 * @param  node as the node being walked.
+		 * @return what to do next.
+		 */
+		default Result preVisit(N node) {
+			return Result.CONTINUE;
+		}
+
+		/**        Returns the children of node to walk, which is called after preVisit() returns CONTINUE,
+		 *         so preVisit() can change the children first.
+		 * @param  node as the node being walked.
+		 * @return an Iterator over the children of node, in the order they will be walked.
+		 */
+		Iterator<? extends N> children(N node);
+
+		/**        Called after the children of node have been walked.
+		 * @param  node as the node being walked.
+		 * @return what to do next.
+		 */
+		default Result postVisit(N node) {
+			return Result.CONTINUE;
+		}
+
+	}
+
+	private final Visitor<N> visitor;
+
+	// The node to start from until it has been visited
+	private N root;
+
+	// The nodes whose children are being walked, from the root down, and the children left to walk for each
+	private Object[] nodes = new Object[16];
+
+	private Iterator<?>[] children = new Iterator<?>[16];
+
+	private int depth = 0;
+
+	private boolean stopped = false;
+
+	/**        Creates a TreeTraversal that has not visited any nodes yet.
+	 * @param  root as the node to start from.
+	 * @param  visitor as the Visitor to call for every node.
+	 */
+	TreeTraversal(N root, Visitor<N> visitor) {
+		this.root = root;
+		this.visitor = visitor;
+	}
+
+	/**        Walks the tree under root.
+	 * @param  root as the node to start from.
+	 * @param  visitor as the Visitor to call for every node.
+	 * @param  <N> The type of the nodes
+	 * @return false if the Visitor stopped the walk, else true.
+	 */
+	static <N> boolean walk(N root, Visitor<N> visitor) {
+		return new TreeTraversal<N>(root, visitor).run();
+	}
+
+	/**        Walks the rest of the tree.
+	 * @return false if the Visitor stopped the walk, else true.
+	 */
+	boolean run() {
+		run(Long.MAX_VALUE);
+		return !this.stopped;
+	}
+
+	/**        Walks part of the tree, so a long walk can be split up.
+	 * @param  maxNodes as the greatest number of nodes to visit before returning.
+	 * @return true if the walk is finished, because every node was visited or the Visitor stopped it, else false.
+	 */
+	@SuppressWarnings("unchecked")
+	boolean run(long maxNodes) {
+		long visited = 0;
+		if(this.root != null && visited < maxNodes) {
+			N node = this.root;
+			this.root = null;
+			enter(node);
+			visited++;
+		}
+		while(this.depth > 0 && visited < maxNodes) {
+			Iterator<? extends N> it = (Iterator<? extends N>) this.children[this.depth-1];
+			if(it.hasNext()) {
+				enter(it.next());
+				visited++;
+			} else {
+				N node = (N) this.nodes[--this.depth];
+				this.nodes[this.depth] = null;
+				this.children[this.depth] = null;
+				if(this.visitor.postVisit(node) == Result.STOP) {
+					stop();
+				}
+			}
+		}
+		return isFinished();
+	}
+
+	/**        Returns whether the walk is finished.
+	 * @return true if every node was visited or the Visitor stopped the walk, else false.
+	 */
+	boolean isFinished() {
+		return this.root == null && this.depth == 0;
+	}
+
+	/**        Returns whether the Visitor stopped the walk.
+	 * @return true if the Visitor stopped the walk, else false.
+	 */
+	boolean isStopped() {
+		return this.stopped;
+	}
+
+	private void enter(N node) {
+		Result result = this.visitor.preVisit(node);
+		if(result == Result.STOP) {
+			stop();
+		} else if(result == Result.CONTINUE) {
+			if(this.depth == this.nodes.length) {
+				this.nodes = Arrays.copyOf(this.nodes, this.depth*2);
+				this.children = Arrays.copyOf(this.children, this.depth*2);
+			}
+			this.nodes[this.depth] = node;
+			this.children[this.depth] = this.visitor.children(node);
+			this.depth++;
+		}
+	}
+
+	private void stop() {
+		this.stopped = true;
+		this.root = null;
+		Arrays.fill(this.nodes, 0, this.depth, null);
+		Arrays.fill(this.children, 0, this.depth, null);
+		this.depth = 0;
+	}
+
+}
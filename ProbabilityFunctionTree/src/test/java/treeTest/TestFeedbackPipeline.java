@@ -0,0 +1,388 @@
+package treeTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import tree.Feedback;
+import tree.FeedbackPipeline;
+import tree.ProbFunTree;
+import tree.ProbFunTreeTrainer;
+
+public class TestFeedbackPipeline {
+
+	public static void main(String[] args) throws InterruptedException {
+		testErrors();
+		testRepeats();
+		testProducers();
+		testBackpressure();
+		testLatency();
+		testFailure();
+		testShutdown();
+	}
+
+	/**
+	 *         An element that can be made to throw when it is looked up, so applying Feedback with it fails.
+	 */
+	private static final class Failing implements Comparable<Failing> {
+
+		private static volatile boolean failing = false;
+
+		private final int value;
+
+		private Failing(int value) {
+			this.value = value;
+		}
+
+		private void check() {
+			if(failing) {
+				throw new UnsupportedOperationException("Failing element was looked up");
+			}
+		}
+
+		@Override
+		public int compareTo(Failing o) {
+			check();
+			return Integer.compare(this.value, o.value);
+		}
+
+		@Override
+		public int hashCode() {
+			check();
+			return this.value;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Failing && ((Failing) o).value == this.value;
+		}
+
+	}
+
+	private static double largestDifference(ProbFunTree<Integer> a, ProbFunTree<Integer> b) {
+		List<ProbFunTree<Integer>> as = new ArrayList<ProbFunTree<Integer>>();
+		List<ProbFunTree<Integer>> bs = new ArrayList<ProbFunTree<Integer>>();
+		as.add(a);
+		bs.add(b);
+		double largest = 0.0;
+		while(!as.isEmpty()) {
+			a = as.remove(as.size()-1);
+			b = bs.remove(bs.size()-1);
+			Map<Integer, Double> bProbs = b.getProbMap();
+			for(Map.Entry<Integer, Double> e : a.getProbMap().entrySet()) {
+				largest = Math.max(largest, Math.abs(e.getValue()-bProbs.get(e.getKey())));
+			}
+			for(Map.Entry<Integer, ProbFunTree<Integer>> e : a.getChildMap().entrySet()) {
+				as.add(e.getValue());
+				bs.add(b.getChildMap().get(e.getKey()));
+			}
+		}
+		return largest;
+	}
+
+	private static void testErrors() throws InterruptedException {
+		System.out.print("Feedback Pipeline Errors Test:\n");
+		Set<Integer> choices = new HashSet<Integer>(Arrays.asList(0, 1));
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 2);
+		try {
+			new FeedbackPipeline<Integer>(null, 16, 1, TimeUnit.MILLISECONDS);
+		} catch(NullPointerException e) {
+			System.out.print("Null tree pass\n");
+		} finally {
+			System.out.print("Null tree pass?\n");
+		}
+		try {
+			new FeedbackPipeline<Integer>(pf, 0, 1, TimeUnit.MILLISECONDS);
+		} catch(IllegalArgumentException e) {
+			System.out.print("No capacity pass\n");
+		} finally {
+			System.out.print("No capacity pass?\n");
+		}
+		try {
+			new FeedbackPipeline<Integer>(pf, 16, -1, TimeUnit.MILLISECONDS);
+		} catch(IllegalArgumentException e) {
+			System.out.print("Negative interval pass\n");
+		} finally {
+			System.out.print("Negative interval pass?\n");
+		}
+		try {
+			Feedback.good(new ArrayList<Integer>(), 0.5);
+		} catch(IllegalArgumentException e) {
+			System.out.print("Empty feedback pass\n");
+		} finally {
+			System.out.print("Empty feedback pass?\n");
+		}
+		try {
+			Feedback.bad(Arrays.asList(0), 1.0);
+		} catch(IllegalArgumentException e) {
+			System.out.print("Percent pass\n");
+		} finally {
+			System.out.print("Percent pass?\n");
+		}
+		try {
+			Feedback.good(Arrays.asList(0, null), 0.5);
+		} catch(NullPointerException e) {
+			System.out.print("Null element pass\n");
+		} finally {
+			System.out.print("Null element pass?\n");
+		}
+		FeedbackPipeline<Integer> pipeline = new FeedbackPipeline<Integer>(pf, 16, 1, TimeUnit.MILLISECONDS);
+		pipeline.submit(Feedback.good(Arrays.asList(0, 5), 0.5));
+		pipeline.submit(Feedback.good(Arrays.asList(0, 1), 0.5));
+		pipeline.flush();
+		System.out.print("Feedback for an element that is not in the tree should fail, and the rest should be applied:\n");
+		System.out.print(pipeline.failedCount() + " " + pipeline.appliedCount() + " " + pf.getChildMap().get(0).getProbMap());
+		pipeline.close();
+		pipeline.close();
+		System.out.print("\n");
+		try {
+			pipeline.submit(Feedback.good(Arrays.asList(0), 0.5));
+		} catch(IllegalStateException e) {
+			System.out.print("Closed pass\n");
+		} finally {
+			System.out.print("Closed pass?\n");
+		}
+	}
+
+	private static void testRepeats() throws InterruptedException {
+		System.out.print("Feedback Pipeline Repeats Test:\n");
+		Set<Integer> choices = new HashSet<Integer>(Arrays.asList(0, 1, 2, 3));
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 3);
+		ProbFunTree<Integer> expected = pf.clone();
+		// A long flush interval gathers everything into one batch
+		FeedbackPipeline<Integer> pipeline = new FeedbackPipeline<Integer>(pf, 1024, 1, TimeUnit.SECONDS);
+		for(int i = 0; i < 100; i++) {
+			pipeline.submit(Feedback.good(Arrays.asList(1, 2, 3), 0.1));
+			expected.good(Arrays.asList(1, 2, 3), 0.1);
+		}
+		for(int i = 0; i < 50; i++) {
+			pipeline.submit(Feedback.bad(Arrays.asList(2), 0.2));
+			expected.bad(2, 0.2);
+		}
+		pipeline.flush();
+		System.out.print("Repeated feedback should give the probabilities it gives when it is applied one at a time:\n");
+		System.out.print(largestDifference(pf, expected) < 1e-9);
+		System.out.print("\n346 of the 350 changes to weights should have been combined with an earlier one, in 1 batch:\n");
+		System.out.print(pipeline.coalescedCount() + " " + pipeline.batchCount());
+		System.out.print("\nThe queue should be empty after flush():\n");
+		System.out.print(pipeline.queueDepth());
+		pipeline.close();
+		System.out.print("\n");
+	}
+
+	private static void testProducers() throws InterruptedException {
+		System.out.print("Feedback Pipeline Producers Test:\n");
+		Set<Integer> choices = new HashSet<Integer>(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7));
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 3);
+		pf.setConcurrent(true);
+		FeedbackPipeline<Integer> pipeline = new FeedbackPipeline<Integer>(pf, 256, 1, TimeUnit.MILLISECONDS);
+		int n = 20000;
+		List<Thread> threads = new ArrayList<Thread>();
+		List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		for(int t = 0; t < 4; t++) {
+			Random random = new Random(t);
+			Thread thread = new Thread(() -> {
+				try {
+					for(int i = 0; i < n; i++) {
+						List<Integer> elements = Arrays.asList(random.nextInt(8), random.nextInt(8));
+						pipeline.submit(random.nextBoolean() ? Feedback.good(elements, 0.1) : Feedback.bad(elements, 0.1));
+					}
+				} catch(Throwable e) {
+					errors.add(e);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		// Generating while feedback is applied
+		List<Integer> generated = pf.newSession().fun(100000);
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		pipeline.flush();
+		System.out.print("Every submitted Feedback should be applied:\n");
+		System.out.print(errors.isEmpty() && pipeline.submittedCount() == 4*n && pipeline.appliedCount() == 4*n);
+		System.out.print("\nSome Feedback should have been applied together in " + pipeline.batchCount() + " batches:\n");
+		System.out.print(pipeline.coalescedCount() > 0);
+		System.out.print("\nThe deepest the queue got should be no more than its capacity:\n");
+		System.out.print(pipeline.maxQueueDepth() <= pipeline.capacity());
+		pipeline.close();
+		double sum = 0;
+		for(double d : pf.getProbMap().values()) {
+			sum += d;
+		}
+		System.out.print("\nProbabilities should add up to 1.0:\n");
+		System.out.print(sum);
+		System.out.print("\nGenerating during feedback should still pick elements of the tree:\n");
+		System.out.print(choices.containsAll(generated));
+		System.out.print("\n");
+	}
+
+	private static void testBackpressure() throws InterruptedException {
+		System.out.print("Feedback Pipeline Backpressure Test:\n");
+		Set<Integer> choices = new HashSet<Integer>(Arrays.asList(0, 1, 2, 3));
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 3);
+		FeedbackPipeline<Integer> pipeline = new FeedbackPipeline<Integer>(pf, 4, 0, TimeUnit.MILLISECONDS);
+		Random random = new Random(0);
+		long offered = 0;
+		for(int i = 0; i < 100000; i++) {
+			if(pipeline.offer(Feedback.good(Arrays.asList(random.nextInt(4), random.nextInt(4), random.nextInt(4)), 0.1))) {
+				offered++;
+			}
+		}
+		pipeline.flush();
+		System.out.print("Offers that were not rejected should be applied:\n");
+		System.out.print(offered == pipeline.appliedCount() && offered+pipeline.rejectedCount() == 100000);
+		System.out.print("\nA queue of 4 should have been full at times, rejecting " + pipeline.rejectedCount() + " offers:\n");
+		System.out.print(pipeline.rejectedCount() > 0 && pipeline.maxQueueDepth() == 4);
+		pipeline.close();
+		System.out.print("\n");
+	}
+
+	private static void testLatency() throws InterruptedException {
+		System.out.print("Feedback Pipeline Latency Test:\n");
+		Random random = new Random(0);
+		List<Integer> sequence = new ArrayList<Integer>();
+		for(int i = 0; i < 1000000; i++) {
+			sequence.add((int) Math.abs(random.nextGaussian()*16));
+		}
+		ProbFunTreeTrainer<Integer> trainer = new ProbFunTreeTrainer<Integer>(4);
+		trainer.train(sequence);
+		ProbFunTree<Integer> inline = trainer.build();
+		ProbFunTree<Integer> piped = trainer.build();
+		int n = 200000;
+		List<Feedback<Integer>> feedback = new ArrayList<Feedback<Integer>>(n);
+		for(int i = 0; i < n; i++) {
+			int start = random.nextInt(sequence.size()-4);
+			feedback.add(Feedback.good(sequence.subList(start, start+1+random.nextInt(3)), 0.01));
+		}
+		long start = System.nanoTime();
+		for(Feedback<Integer> f : feedback) {
+			inline.good(f.getElements(), f.getPercent());
+		}
+		long inlined = System.nanoTime()-start;
+		FeedbackPipeline<Integer> pipeline = new FeedbackPipeline<Integer>(piped, 4096, 1, TimeUnit.MILLISECONDS);
+		start = System.nanoTime();
+		for(Feedback<Integer> f : feedback) {
+			pipeline.submit(f);
+		}
+		long submitted = System.nanoTime()-start;
+		pipeline.flush();
+		long flushed = System.nanoTime()-start;
+		System.out.print(n + " good() calls took " + inlined/1000000 + " ms inline, and submitting them took "
+				+ submitted/1000000 + " ms with " + flushed/1000000 + " ms until they were applied in "
+				+ pipeline.batchCount() + " batches, " + pipeline.blockedCount() + " submits waiting for room\n");
+		System.out.print("Every Feedback should be applied, giving the probabilities it gives when it is applied inline:\n");
+		System.out.print(pipeline.appliedCount() == n);
+		System.out.print(" " + largestDifference(inline, piped));
+		pipeline.close();
+		System.out.print("\n");
+	}
+
+	private static void testFailure() throws InterruptedException {
+		System.out.print("Feedback Pipeline Failure Test:\n");
+		Failing zero = new Failing(0);
+		Failing one = new Failing(1);
+		ProbFunTree<Failing> pf = new ProbFunTree<Failing>(new HashSet<Failing>(Arrays.asList(zero, one)), 2);
+		FeedbackPipeline<Failing> pipeline = new FeedbackPipeline<Failing>(pf, 4, 1, TimeUnit.MILLISECONDS);
+		Failing.failing = true;
+		pipeline.submit(Feedback.good(Arrays.asList(zero, one), 0.5));
+		try {
+			pipeline.flush();
+		} catch(IllegalStateException e) {
+			System.out.print("Failed flush pass\n");
+		} finally {
+			System.out.print("Failed flush pass?\n");
+		}
+		try {
+			pipeline.submit(Feedback.good(Arrays.asList(zero), 0.5));
+		} catch(IllegalStateException e) {
+			System.out.print("Failed submit pass\n");
+		} finally {
+			System.out.print("Failed submit pass?\n");
+		}
+		pipeline.close();
+		Failing.failing = false;
+		System.out.print("The Feedback that failed should be counted:\n");
+		System.out.print(pipeline.failedCount() + " " + pipeline.appliedCount());
+		System.out.print("\n");
+	}
+
+	private static void testShutdown() throws InterruptedException {
+		System.out.print("Feedback Pipeline Shutdown Test:\n");
+		Set<Integer> choices = new HashSet<Integer>(Arrays.asList(0, 1, 2, 3));
+		boolean finished = true;
+		boolean counted = true;
+		for(int round = 0; round < 50; round++) {
+			ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 2);
+			FeedbackPipeline<Integer> pipeline = new FeedbackPipeline<Integer>(pf, 2, 0, TimeUnit.MILLISECONDS);
+			List<Thread> threads = new ArrayList<Thread>();
+			long[] returned = new long[4];
+			for(int t = 0; t < 4; t++) {
+				int thread = t;
+				Random random = new Random(round*4+t);
+				threads.add(new Thread(() -> {
+					try {
+						while(true) {
+							pipeline.submit(Feedback.good(Arrays.asList(random.nextInt(4), random.nextInt(4)), 0.1));
+							returned[thread]++;
+							pipeline.flush();
+						}
+					} catch(IllegalStateException | InterruptedException e) {
+						// Closed
+					}
+				}));
+			}
+			for(Thread thread : threads) {
+				thread.start();
+			}
+			Thread.sleep(2);
+			pipeline.close();
+			long sum = 0;
+			for(int t = 0; t < 4; t++) {
+				threads.get(t).join(10000);
+				finished &= !threads.get(t).isAlive();
+				sum += returned[t];
+			}
+			counted &= sum == pipeline.appliedCount();
+		}
+		System.out.print("submit() and flush() racing with close() should return or throw instead of waiting forever:\n");
+		System.out.print(finished);
+		System.out.print("\nEvery Feedback that submit() returned for should be applied:\n");
+		System.out.print(counted);
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 2);
+		FeedbackPipeline<Integer> pipeline = new FeedbackPipeline<Integer>(pf, 2, 0, TimeUnit.MILLISECONDS);
+		for(Thread thread : Thread.getAllStackTraces().keySet()) {
+			if(thread.getName().equals("FeedbackPipeline applier")) {
+				thread.interrupt();
+				thread.join();
+			}
+		}
+		System.out.print("\n");
+		try {
+			pipeline.flush();
+		} catch(IllegalStateException e) {
+			System.out.print("Interrupted flush pass\n");
+		} finally {
+			System.out.print("Interrupted flush pass?\n");
+		}
+		try {
+			for(int i = 0; i < 4; i++) {
+				pipeline.submit(Feedback.good(Arrays.asList(0, 1), 0.1));
+			}
+		} catch(IllegalStateException e) {
+			System.out.print("Interrupted submit pass\n");
+		} finally {
+			System.out.print("Interrupted submit pass?\n");
+		}
+		pipeline.close();
+		System.out.print("close() should return after the applier thread was interrupted\n");
+	}
+
+}
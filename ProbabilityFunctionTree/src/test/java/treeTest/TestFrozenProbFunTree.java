@@ -0,0 +1,164 @@
+package treeTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import tree.FrozenGenerationSession;
+import tree.FrozenProbFunTree;
+import tree.ProbFunTree;
+
+public class TestFrozenProbFunTree {
+
+	public static void main(String[] args) {
+		testFreeze();
+		testFun();
+		testGetProbability();
+		testFunBatch();
+		testSessions();
+	}
+
+	private static void testFreeze() {
+		System.out.print("Freeze Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		choices.add(0);choices.add(1);
+		int layers = 3;
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, layers);
+		Set<Integer> choices2 = new HashSet<Integer>();
+		choices2.add(3);choices2.add(4);
+		pf.add(2, choices2, 0.1);
+		FrozenProbFunTree<Integer> frozen = pf.freeze();
+		// The shared layers made by the constructor are only frozen once
+		System.out.print("Size should be 9:\n");
+		System.out.print(frozen.size());
+		System.out.print("\nNode count should be 4:\n");
+		System.out.print(frozen.nodeCount());
+		System.out.print("\nParent size should be 3:\n");
+		System.out.print(frozen.parentSize());
+		System.out.print("\n");
+	}
+
+	private static void testFun() {
+		System.out.print("Frozen Fun Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		choices.add(0);choices.add(1);
+		int layers = 3;
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, layers);
+		List<Integer> elements = new ArrayList<>();
+		elements.add(0);elements.add(1);elements.add(1);
+		pf.good(elements, 0.9);
+		FrozenProbFunTree<Integer> frozen = pf.freeze();
+		int n = 100000;
+		int[] counts = new int[2];
+		int[] frozenCounts = new int[2];
+		for(int i = 0; i < n; i++) {
+			counts[pf.fun()]++;
+			frozenCounts[frozen.fun()]++;
+		}
+		System.out.print("Counts should be close:\n");
+		System.out.print(Arrays.toString(counts));
+		System.out.print("\n");
+		System.out.print(Arrays.toString(frozenCounts));
+		System.out.print("\n");
+	}
+
+	private static void testGetProbability() {
+		//NullPointerException - if path or element is null.
+		System.out.print("Get Probability Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		choices.add(0);choices.add(1);choices.add(2);
+		int layers = 2;
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, layers);
+		pf.getChildMap().get(1).good(2, 0.5);
+		FrozenProbFunTree<Integer> frozen = pf.freeze();
+		try {
+			frozen.getProbability(null, 0);
+		} catch(NullPointerException e) {
+			System.out.print("Null path pass\n");
+		} finally {
+			System.out.print("Null path pass?\n");
+		}
+		List<Integer> path = new ArrayList<>();
+		path.add(1);
+		System.out.print("Probability should be " + pf.getChildMap().get(1).getProbMap().get(2) + ":\n");
+		System.out.print(frozen.getProbability(path, 2));
+		System.out.print("\nProbability of a missing element should be 0.0:\n");
+		System.out.print(frozen.getProbability(path, 5));
+		path.add(2);
+		System.out.print("\nContains [1, 2] should be true:\n");
+		System.out.print(frozen.contains(path));
+		path.add(2);
+		System.out.print("\nContains [1, 2, 2] should be false:\n");
+		System.out.print(frozen.contains(path));
+		System.out.print("\n");
+	}
+
+	private static void testFunBatch() {
+		System.out.print("Frozen Fun Batch Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		choices.add(0);choices.add(1);
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 2);
+		// After 0 always pick 1 and after 1 always pick 0
+		pf.getChildMap().get(0).getProbMap().put(0, 0.0);
+		pf.getChildMap().get(0).getProbMap().put(1, 1.0);
+		pf.getChildMap().get(1).getProbMap().put(0, 1.0);
+		pf.getChildMap().get(1).getProbMap().put(1, 0.0);
+		FrozenProbFunTree<Integer> frozen = pf.freeze();
+		List<Integer> elements = frozen.fun(1000);
+		Integer[] dest = new Integer[1000];
+		frozen.fun(dest, 0, 1000);
+		elements.addAll(Arrays.asList(dest));
+		frozen.generate(1000, elements::add);
+		boolean alternates = elements.size() == 3000;
+		for(int i = 1; i < elements.size(); i++) {
+			alternates &= !elements.get(i).equals(elements.get(i-1));
+		}
+		System.out.print("Elements should alternate between 0 and 1:\n");
+		System.out.print(alternates);
+		System.out.print("\n");
+	}
+
+	private static void testSessions() {
+		System.out.print("Frozen Sessions Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		choices.add(0);choices.add(1);
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 2);
+		// After 0 always pick 1 and after 1 always pick 0
+		pf.getChildMap().get(0).getProbMap().put(0, 0.0);
+		pf.getChildMap().get(0).getProbMap().put(1, 1.0);
+		pf.getChildMap().get(1).getProbMap().put(0, 1.0);
+		pf.getChildMap().get(1).getProbMap().put(1, 0.0);
+		FrozenProbFunTree<Integer> frozen = pf.freeze();
+		int threads = 4;
+		boolean[] alternates = new boolean[threads];
+		List<Thread> workers = new ArrayList<>();
+		for(int t = 0; t < threads; t++) {
+			int worker = t;
+			workers.add(new Thread(() -> {
+				FrozenGenerationSession<Integer> session = frozen.newSession();
+				List<Integer> elements = session.fun(100000);
+				boolean alternated = true;
+				for(int i = 1; i < elements.size(); i++) {
+					alternated &= !elements.get(i).equals(elements.get(i-1));
+				}
+				alternates[worker] = alternated;
+			}));
+		}
+		for(Thread worker : workers) {
+			worker.start();
+		}
+		for(Thread worker : workers) {
+			try {
+				worker.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		System.out.print("Every thread's session should alternate between 0 and 1:\n");
+		System.out.print(Arrays.toString(alternates));
+		System.out.print("\n");
+	}
+
+}
@@ -0,0 +1,238 @@
+package treeTest;
+
+import java.util.Arrays;
+
+import tree.IntGenerationSession;
+import tree.IntProbFunTree;
+
+public class TestIntProbFunTree {
+
+	public static void main(String[] args) {
+		testConstructor();
+		testConstructorWithProbs();
+		testFun();
+		testGoodAndBad();
+		testAddAndRemove();
+		testPrune();
+		testAddLayer();
+		testClone();
+		testFunBatch();
+		testSessions();
+	}
+
+	private static void testConstructor() {
+		//NullPointerException - if choices is null.
+		//IllegalArgumentException - if there isn't at least one element in choices or layers is not at least 1.
+		System.out.print("Constructor Test:\n");
+		try {
+			new IntProbFunTree(null, 1);
+		} catch(NullPointerException e) {
+			System.out.print("Null choices pass\n");
+		} finally {
+			System.out.print("Null choices pass?\n");
+		}
+		try {
+			new IntProbFunTree(new int[0], 1);
+		} catch(IllegalArgumentException e) {
+			System.out.print("Empty choices pass\n");
+		} finally {
+			System.out.print("Empty choices pass?\n");
+		}
+		try {
+			new IntProbFunTree(new int[] {0, 1}, 0);
+		} catch(IllegalArgumentException e) {
+			System.out.print("No layers pass\n");
+		} finally {
+			System.out.print("No layers pass?\n");
+		}
+		System.out.print("Three layers with 1 and 0:\n");
+		IntProbFunTree pf = new IntProbFunTree(new int[] {1, 0}, 3);
+		System.out.print(pf);
+		System.out.print("Size should be 14:\n");
+		System.out.print(pf.size());
+		System.out.print("\n");
+	}
+
+	private static void testConstructorWithProbs() {
+		//IllegalArgumentException - if the lengths differ, choices has duplicates or probabilities don't add up to 1.0.
+		System.out.print("Constructor w/ Probs Test:\n");
+		try {
+			new IntProbFunTree(new int[] {2, 3}, new double[] {1.0}, 1);
+		} catch(IllegalArgumentException e) {
+			System.out.print("Wrong length pass\n");
+		} finally {
+			System.out.print("Wrong length pass?\n");
+		}
+		try {
+			new IntProbFunTree(new int[] {2, 2}, new double[] {0.25, 0.75}, 1);
+		} catch(IllegalArgumentException e) {
+			System.out.print("Duplicate pass\n");
+		} finally {
+			System.out.print("Duplicate pass?\n");
+		}
+		try {
+			new IntProbFunTree(new int[] {2, 3}, new double[] {0.1, 0.5}, 1);
+		} catch(IllegalArgumentException e) {
+			System.out.print("Wrong prob sum pass\n");
+		} finally {
+			System.out.print("Wrong prob sum pass?\n");
+		}
+		System.out.print("Two layers with 3 and 2 at 0.75 and 0.25:\n");
+		IntProbFunTree pf = new IntProbFunTree(new int[] {3, 2}, new double[] {0.75, 0.25}, 2);
+		System.out.print(pf);
+	}
+
+	private static void testFun() {
+		System.out.print("Fun Test:\n");
+		IntProbFunTree pf = new IntProbFunTree(new int[] {0, 1}, new double[] {0.25, 0.75}, 1);
+		int n = 100000;
+		int ones = 0;
+		for(int i = 0; i < n; i++) {
+			ones += pf.fun();
+		}
+		System.out.print("1 should come up about 75000 times:\n");
+		System.out.print(ones);
+		System.out.print("\n");
+	}
+
+	private static void testGoodAndBad() {
+		System.out.print("Good and Bad Test:\n");
+		IntProbFunTree pf = new IntProbFunTree(new int[] {0, 1, 2}, 3);
+		try {
+			pf.good(new int[0], 0.5);
+		} catch(IllegalArgumentException e) {
+			System.out.print("Empty elements pass\n");
+		} finally {
+			System.out.print("Empty elements pass?\n");
+		}
+		try {
+			pf.bad(new int[] {2}, 1);
+		} catch(IllegalArgumentException e) {
+			System.out.print("1% pass\n");
+		} finally {
+			System.out.print("1% pass?\n");
+		}
+		System.out.print("Before good([0, 1, 2], 0.5) and bad([1], 0.5):\n");
+		System.out.print(pf);
+		pf.good(new int[] {0, 1, 2}, 0.5);
+		pf.bad(new int[] {1}, 0.5);
+		System.out.print("After good([0, 1, 2], 0.5) and bad([1], 0.5):\n");
+		System.out.print(pf);
+	}
+
+	private static void testAddAndRemove() {
+		System.out.print("Add and Remove Test:\n");
+		IntProbFunTree pf = new IntProbFunTree(new int[] {0, 1}, 2);
+		System.out.print("Before add(2, [3, 4], 0.1):\n");
+		System.out.print(pf);
+		pf.add(2, new int[] {3, 4}, 0.1);
+		System.out.print("After add(2, [3, 4], 0.1):\n");
+		System.out.print(pf);
+		pf.removeFromAll(0);
+		System.out.print("After removeFromAll(0):\n");
+		System.out.print(pf);
+	}
+
+	private static void testPrune() {
+		System.out.print("Prune Test:\n");
+		IntProbFunTree pf = new IntProbFunTree(new int[] {0, 1, 2}, 2);
+		pf.addToAll(3, new int[] {5, 6}, 0.1);
+		pf.addToAll(4, new int[] {5, 6}, 0.05);
+		System.out.print("Before pruneAll():\n");
+		System.out.print(pf);
+		pf.pruneAll();
+		System.out.print("After pruneAll():\n");
+		System.out.print(pf);
+		pf.pruneAll(0.2);
+		System.out.print("After pruneAll(0.2):\n");
+		System.out.print(pf);
+	}
+
+	private static void testAddLayer() {
+		System.out.print("Add Layer Test:\n");
+		IntProbFunTree pf = new IntProbFunTree(new int[] {0, 1}, 1);
+		pf.addLayer(new int[] {2, 3}, new double[] {0.25, 0.75});
+		pf.addLayer(new int[] {4});
+		System.out.print("After addLayer([2, 3], [0.25, 0.75]) and addLayer([4]):\n");
+		System.out.print(pf);
+		System.out.print("Size should be 10:\n");
+		System.out.print(pf.size());
+		System.out.print("\n");
+	}
+
+	private static void testClone() {
+		System.out.print("Clone Test:\n");
+		IntProbFunTree pf = new IntProbFunTree(new int[] {0, 1}, 3);
+		IntProbFunTree pf2 = pf.clone();
+		pf2.good(new int[] {0, 0}, 0.5);
+		System.out.print("Original copy:\n");
+		System.out.print(pf);
+		System.out.print("Changed copy:\n");
+		System.out.print(pf2);
+	}
+
+	private static void testFunBatch() {
+		System.out.print("Fun Batch Test:\n");
+		IntProbFunTree pf = new IntProbFunTree(new int[] {0, 1, 2}, 3);
+		// After 0 and 1 always pick 2
+		for(int i = 0; i < 10; i++) {
+			pf.good(new int[] {0, 1, 2}, 0.99);
+		}
+		pf.getChild(0).getChild(1).prune(0.5);
+		int[] elements = pf.fun(100000);
+		int[] dest = new int[100002];
+		pf.fun(dest, 2, 100000);
+		int[] count = new int[1];
+		pf.generate(100, e -> count[0]++);
+		boolean followed = count[0] == 100;
+		for(int[] a : new int[][] {elements, Arrays.copyOfRange(dest, 2, dest.length)}) {
+			for(int i = 2; i < a.length; i++) {
+				if(a[i-2] == 0 && a[i-1] == 1) {
+					followed &= a[i] == 2;
+				}
+			}
+		}
+		System.out.print("2 should always follow 0 and 1:\n");
+		System.out.print(followed);
+		System.out.print("\n");
+	}
+
+	private static void testSessions() {
+		System.out.print("Sessions Test:\n");
+		IntProbFunTree pf = new IntProbFunTree(new int[] {0, 1}, 2);
+		// After 0 always pick 1 and after 1 always pick 0
+		pf.getChild(0).good(1, 0.99);
+		pf.getChild(0).prune(0.5);
+		pf.getChild(1).good(0, 0.99);
+		pf.getChild(1).prune(0.5);
+		IntGenerationSession first = pf.newSession();
+		IntGenerationSession second = pf.newSession();
+		int previousFirst = first.fun();
+		int previousSecond = second.fun();
+		boolean alternates = true;
+		for(int i = 0; i < 1000; i++) {
+			int nextFirst = first.fun();
+			int nextSecond = second.fun();
+			alternates &= nextFirst != previousFirst && nextSecond != previousSecond;
+			previousFirst = nextFirst;
+			previousSecond = nextSecond;
+		}
+		System.out.print("Each session should alternate between 0 and 1 on its own:\n");
+		System.out.print(alternates);
+		System.out.print("\n");
+		// A session must stop using a child after it is taken out of the tree
+		IntProbFunTree changed = new IntProbFunTree(new int[] {0, 1, 2}, 2);
+		changed.getChild(0).good(1, 0.99);
+		changed.getChild(0).prune(0.5);
+		IntGenerationSession session = changed.newSession();
+		while(session.fun() != 0);
+		// Changing another tree doesn't change the nodes of this one
+		pf.remove(0);
+		changed.remove(0);
+		changed.add(0, new int[] {2});
+		System.out.print("2 should follow 0 after the child of 0 was replaced:\n");
+		System.out.print(session.fun());
+		System.out.print("\n");
+	}
+
+}
@@ -0,0 +1,162 @@
+package treeTest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import tree.FrozenProbFunTree;
+import tree.MappedGenerationSession;
+import tree.MappedProbFunTree;
+import tree.ProbFunTree;
+import tree.ProbFunTreeTrainer;
+import tree.SymbolCodec;
+
+public class TestMappedProbFunTree {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		testOpen();
+		testFun();
+		testBadFile();
+		testStartup();
+	}
+
+	private static MappedProbFunTree<Integer> map(FrozenProbFunTree<Integer> frozen) throws IOException {
+		Path path = Files.createTempFile("tree", ".pftm");
+		path.toFile().deleteOnExit();
+		MappedProbFunTree.write(frozen, path, SymbolCodec.INTEGERS);
+		return MappedProbFunTree.open(path, SymbolCodec.INTEGERS);
+	}
+
+	private static void testOpen() throws IOException {
+		System.out.print("Mapped Open Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		choices.add(0);choices.add(1);choices.add(2);
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 3);
+		pf.getChildMap().get(1).good(2, 0.5);
+		pf.getChildMap().get(2).remove(0);
+		FrozenProbFunTree<Integer> frozen = pf.freeze();
+		MappedProbFunTree<Integer> mapped = map(frozen);
+		System.out.print("Size should be " + frozen.size() + ":\n");
+		System.out.print(mapped.size());
+		System.out.print("\nNode count should be " + frozen.nodeCount() + ":\n");
+		System.out.print(mapped.nodeCount());
+		System.out.print("\nParent size should be 3:\n");
+		System.out.print(mapped.parentSize());
+		System.out.print("\nProbabilities should be the same as the FrozenProbFunTree:\n");
+		boolean same = true;
+		for(int i = -1; i < 4; i++) {
+			for(int j = -1; j < 4; j++) {
+				List<Integer> path = new ArrayList<Integer>();
+				if(i != -1) {
+					path.add(i);
+				}
+				same &= mapped.getProbability(path, j) == frozen.getProbability(path, j);
+				path.add(j);
+				same &= mapped.contains(path) == frozen.contains(path);
+			}
+		}
+		System.out.print(same);
+		System.out.print("\n[2, 0] should not be in the tree:\n");
+		System.out.print(mapped.contains(Arrays.asList(2, 0)));
+		System.out.print("\n");
+	}
+
+	private static void testFun() throws IOException, InterruptedException {
+		System.out.print("Mapped Fun Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		choices.add(0);choices.add(1);
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 3);
+		List<Integer> elements = new ArrayList<>();
+		elements.add(0);elements.add(1);elements.add(1);
+		pf.good(elements, 0.9);
+		FrozenProbFunTree<Integer> frozen = pf.freeze();
+		MappedProbFunTree<Integer> mapped = map(frozen);
+		int n = 100000;
+		int[] frozenCounts = new int[2];
+		int[] mappedCounts = new int[2];
+		for(int i = 0; i < n; i++) {
+			frozenCounts[frozen.fun()]++;
+			mappedCounts[mapped.fun()]++;
+		}
+		System.out.print("Counts should be close:\n");
+		System.out.print(Arrays.toString(frozenCounts));
+		System.out.print("\n");
+		System.out.print(Arrays.toString(mappedCounts));
+		System.out.print("\nSessions on 4 threads should only generate 0 and 1:\n");
+		AtomicBoolean ok = new AtomicBoolean(true);
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int t = 0; t < 4; t++) {
+			MappedGenerationSession<Integer> session = mapped.newSession();
+			Thread thread = new Thread(() -> session.generate(n, e -> {
+				if(e != 0 && e != 1) {
+					ok.set(false);
+				}
+			}));
+			threads.add(thread);
+			thread.start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		System.out.print(ok.get());
+		System.out.print("\n");
+	}
+
+	private static void testBadFile() throws IOException {
+		//IOException - if the file doesn't hold a MappedProbFunTree or was cut short.
+		System.out.print("Mapped Bad File Test:\n");
+		Path path = Files.createTempFile("tree", ".pftm");
+		path.toFile().deleteOnExit();
+		Files.write(path, new byte[64]);
+		try {
+			MappedProbFunTree.open(path, SymbolCodec.INTEGERS);
+		} catch(IOException e) {
+			System.out.print("Bad magic pass\n");
+		} finally {
+			System.out.print("Bad magic pass?\n");
+		}
+		Set<Integer> choices = new HashSet<Integer>(Arrays.asList(0, 1));
+		MappedProbFunTree.write(new ProbFunTree<Integer>(choices, 2).freeze(), path, SymbolCodec.INTEGERS);
+		byte[] bytes = Files.readAllBytes(path);
+		Files.write(path, Arrays.copyOf(bytes, bytes.length-16));
+		try {
+			MappedProbFunTree.open(path, SymbolCodec.INTEGERS);
+		} catch(IOException e) {
+			System.out.print("Truncated pass\n");
+		} finally {
+			System.out.print("Truncated pass?\n");
+		}
+	}
+
+	private static void testStartup() throws IOException {
+		System.out.print("Mapped Startup Test:\n");
+		Random random = new Random(0);
+		List<Integer> sequence = new ArrayList<Integer>();
+		for(int i = 0; i < 1000000; i++) {
+			sequence.add((int) Math.abs(random.nextGaussian()*16));
+		}
+		ProbFunTreeTrainer<Integer> trainer = new ProbFunTreeTrainer<Integer>(4);
+		trainer.train(sequence);
+		Path path = Files.createTempFile("tree", ".pftm");
+		path.toFile().deleteOnExit();
+		MappedProbFunTree.write(trainer.build().freeze(), path, SymbolCodec.INTEGERS);
+		long start = System.nanoTime();
+		MappedProbFunTree<Integer> mapped = MappedProbFunTree.open(path, SymbolCodec.INTEGERS);
+		long opened = System.nanoTime();
+		mapped.fun(1000000);
+		long generated = System.nanoTime();
+		System.out.print("Opened " + Files.size(path) + " bytes in " + (opened-start)/1000 + " us"
+				+ " and generated 1000000 elements in " + (generated-opened)/1000000 + " ms\n");
+		System.out.print("Size should be " + trainer.size() + ":\n");
+		System.out.print(mapped.size());
+		System.out.print("\n");
+	}
+
+}
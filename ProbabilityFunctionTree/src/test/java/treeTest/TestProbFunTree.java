@@ -1,13 +1,34 @@
 package treeTest;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
+import tree.Feedback;
+import tree.FrozenProbFunTree;
+import tree.GenerationSession;
 import tree.ProbFunTree;
+import tree.ProbFunTreeTrainer;
+import tree.ScoredSequence;
 
 public class TestProbFunTree {
 
@@ -38,9 +59,1328 @@ public class TestProbFunTree {
 		 */
 		testAddIfPresent();
 		testAddIfPresentToAll();
+		testFunSamplers();
+		testSharedLayers();
+		testFunBatch();
+		testSessions();
+		testConcurrent();
+		testWideFeedback();
+		testDeepTree();
+		testParallelChanges();
+		testPruneToBudget();
+		testAggregates();
+		testContexts();
+		testContextChanges();
+		testScoring();
+		testTopK();
+		testSeededSessions();
+		testSnapshots();
+		testApplyFeedback();
 
 	}
 
+	private static List<ProbFunTree<Integer>> allNodes(ProbFunTree<Integer> pf) {
+		List<ProbFunTree<Integer>> nodes = new ArrayList<ProbFunTree<Integer>>();
+		nodes.add(pf);
+		for(int i = 0; i < nodes.size(); i++) {
+			nodes.addAll(nodes.get(i).getChildMap().values());
+		}
+		return nodes;
+	}
+
+	private static ProbFunTree<Integer> follow(ProbFunTree<Integer> node, List<Integer> context) {
+		for(int i = 0; i < context.size() && node != null; i++) {
+			node = node.getChildMap().get(context.get(i));
+		}
+		return node;
+	}
+
+	private static double bruteLogProb(ProbFunTree<Integer> pf, List<Integer> sequence) {
+		double logProb = 0.0;
+		for(int i = 0; i < sequence.size(); i++) {
+			ProbFunTree<Integer> picker = pf;
+			for(int w = i; w > 0; w--) {
+				ProbFunTree<Integer> node = follow(pf, sequence.subList(i-w, i));
+				if(node != null) {
+					picker = node;
+					break;
+				}
+			}
+			Double probability = picker.getProbMap().get(sequence.get(i));
+			logProb += probability == null ? Double.NEGATIVE_INFINITY : Math.log(probability);
+		}
+		return logProb;
+	}
+
+	private static void testContextChanges() {
+		System.out.print("Context Changes Test:\n");
+		Random random = new Random(1);
+		List<Integer> sequence = new ArrayList<Integer>();
+		for(int i = 0; i < 20000; i++) {
+			sequence.add((int) Math.abs(random.nextGaussian()*3));
+		}
+		ProbFunTreeTrainer<Integer> trainer = new ProbFunTreeTrainer<Integer>(4);
+		trainer.train(sequence);
+		ProbFunTree<Integer> pf = trainer.build();
+		Set<Integer> leaf = new HashSet<Integer>(Arrays.asList(0, 1, 2));
+		boolean same = true;
+		for(int i = 0; i < 300; i++) {
+			List<ProbFunTree<Integer>> nodes = allNodes(pf);
+			ProbFunTree<Integer> node = nodes.get(random.nextInt(nodes.size()));
+			List<Integer> elements = new ArrayList<Integer>(node.getProbMap().keySet());
+			int element = random.nextInt(8);
+			List<Integer> context = new ArrayList<Integer>();
+			for(int j = 1+random.nextInt(3); j > 0; j--) {
+				context.add((int) Math.abs(random.nextGaussian()*3));
+			}
+			switch(i % 7) {
+			case 0:
+				node.add(element, leaf);
+				break;
+			case 1:
+				node.remove(elements.get(random.nextInt(elements.size())));
+				break;
+			case 2:
+				node.addIfPresent(context, 9);
+				break;
+			case 3:
+				node.getChildMap().remove(elements.get(random.nextInt(elements.size())));
+				break;
+			case 4:
+				node.getChildMap().put(elements.get(random.nextInt(elements.size())), new ProbFunTree<Integer>(leaf, 1));
+				break;
+			case 5:
+				node.prune();
+				break;
+			default:
+				pf.addIfPresentToAll(context, 9);
+			}
+			// The answers are worked out by walking every node first, since getChildMap() copies the shared nodes it returns
+			nodes = allNodes(pf);
+			Set<ProbFunTree<Integer>> reached = new HashSet<ProbFunTree<Integer>>();
+			for(ProbFunTree<Integer> n : nodes) {
+				if(follow(n, context) != null) {
+					reached.add(follow(n, context));
+				}
+			}
+			ProbFunTree<Integer> longest = pf;
+			for(int w = context.size(); w > 0; w--) {
+				ProbFunTree<Integer> end = follow(pf, context.subList(context.size()-w, context.size()));
+				if(end != null) {
+					longest = end;
+					break;
+				}
+			}
+			same &= pf.containsContext(context) == !reached.isEmpty();
+			same &= new HashSet<ProbFunTree<Integer>>(pf.findContext(context)).equals(reached);
+			same &= pf.longestContext(context) == longest;
+		}
+		System.out.print("Looking up contexts between adding and removing children should match walking every node:\n");
+		System.out.print(same);
+
+		Set<Integer> symbols = new HashSet<Integer>();
+		for(int i = 0; i < 200; i++) {
+			symbols.add(i);
+		}
+		ProbFunTree<Integer> wide = new ProbFunTree<Integer>(symbols, 3);
+		long start = System.nanoTime();
+		boolean found = wide.containsContext(Arrays.asList(0, 1));
+		long built = System.nanoTime()-start;
+		start = System.nanoTime();
+		for(int i = 0; i < 200; i++) {
+			wide.add(200+i, leaf);
+			found &= wide.containsContext(Arrays.asList(200+i));
+			wide.remove(200+i);
+			found &= !wide.containsContext(Arrays.asList(200+i)) && wide.containsContext(Arrays.asList(i, 199));
+		}
+		System.out.print("\nContexts added and removed at the root should be found, and the ones removed should not be:\n");
+		System.out.print(found);
+		System.out.print("\nBuilding the index of 3 layers of 200 elements took " + built/1000000 + " ms, and 200 adds and removes"
+				+ " with 400 lookups between them took " + (System.nanoTime()-start)/1000000 + " ms\n");
+	}
+
+	private static void testScoring() {
+		//NullPointerException - if sequence or an element of it is null.
+		System.out.print("Scoring Test:\n");
+		Random random = new Random(0);
+		List<Integer> sequence = new ArrayList<Integer>();
+		for(int i = 0; i < 20000; i++) {
+			sequence.add((int) Math.abs(random.nextGaussian()*3));
+		}
+		ProbFunTreeTrainer<Integer> trainer = new ProbFunTreeTrainer<Integer>(4);
+		trainer.train(sequence);
+		ProbFunTree<Integer> pf = trainer.build();
+		try {
+			pf.logProb(null);
+		} catch(NullPointerException e) {
+			System.out.print("Null sequence pass\n");
+		} finally {
+			System.out.print("Null sequence pass?\n");
+		}
+		try {
+			pf.logProb(Arrays.asList(0, null));
+		} catch(NullPointerException e) {
+			System.out.print("Null element pass\n");
+		} finally {
+			System.out.print("Null element pass?\n");
+		}
+		List<List<Integer>> sequences = new ArrayList<List<Integer>>();
+		for(int i = 0; i < 2000; i++) {
+			List<Integer> s = new ArrayList<Integer>();
+			int length = random.nextInt(12);
+			for(int j = 0; j < length; j++) {
+				s.add((int) Math.abs(random.nextGaussian()*3));
+			}
+			sequences.add(s);
+		}
+		double[] expected = new double[sequences.size()];
+		for(int i = 0; i < expected.length; i++) {
+			expected[i] = bruteLogProb(pf, sequences.get(i));
+		}
+		System.out.print("logProb(), score() and parallel score() should match the product of the probabilities:\n");
+		double[] sequential = pf.score(sequences.stream()).toArray();
+		double[] parallel = pf.score(sequences.parallelStream()).toArray();
+		double[] pooled = pf.score(sequences, ForkJoinPool.commonPool());
+		boolean same = true;
+		int impossible = 0;
+		for(int i = 0; i < expected.length; i++) {
+			if(expected[i] == Double.NEGATIVE_INFINITY) {
+				impossible++;
+				same &= pf.logProb(sequences.get(i)) == expected[i] && sequential[i] == expected[i]
+						&& parallel[i] == expected[i] && pooled[i] == expected[i];
+			} else {
+				same &= Math.abs(pf.logProb(sequences.get(i))-expected[i]) < 1e-9 && Math.abs(sequential[i]-expected[i]) < 1e-9
+						&& Math.abs(parallel[i]-expected[i]) < 1e-9 && Math.abs(pooled[i]-expected[i]) < 1e-9;
+			}
+		}
+		System.out.print(same + " with " + impossible + " impossible sequences\n");
+		System.out.print("Sequences longer than the first capacity of a SequenceScorer should match the product of the probabilities:\n");
+		ProbFunTree<Integer> binary = new ProbFunTree<Integer>(new HashSet<Integer>(Arrays.asList(0, 1)), 3);
+		binary.good(Arrays.asList(0, 1, 1), 0.5);
+		List<List<Integer>> longSequences = new ArrayList<List<Integer>>();
+		for(int length = 15; length <= 40; length++) {
+			longSequences.add(sequence.subList(length*10, length*11));
+		}
+		List<Integer> alternating = new ArrayList<Integer>();
+		for(int i = 0; i < 40; i++) {
+			alternating.add(i%3 == 0 ? 0 : 1);
+		}
+		boolean longSame = Math.abs(binary.logProb(alternating)-bruteLogProb(binary, alternating)) < 1e-9;
+		double[] longSequential = pf.score(longSequences.stream()).toArray();
+		double[] longPooled = pf.score(longSequences, ForkJoinPool.commonPool());
+		for(int i = 0; i < longSequences.size(); i++) {
+			double e = bruteLogProb(pf, longSequences.get(i));
+			longSame &= Math.abs(pf.logProb(longSequences.get(i))-e) < 1e-9
+					&& Math.abs(longSequential[i]-e) < 1e-9 && Math.abs(longPooled[i]-e) < 1e-9;
+		}
+		System.out.print(longSame + "\n");
+		System.out.print("The empty sequence should have a log-probability of 0.0:\n");
+		System.out.print(pf.logProb(new ArrayList<Integer>()));
+		System.out.print("\nScores should include feedback that has not been read yet:\n");
+		pf.good(0, 0.5);
+		double score = pf.logProb(Arrays.asList(0));
+		System.out.print(Math.abs(score-Math.log(pf.getProbMap().get(0))) < 1e-12);
+		System.out.print("\nThe probabilities of every sequence of 4 should add up to 1.0:\n");
+		Set<Integer> choices = new HashSet<Integer>(Arrays.asList(0, 1, 2));
+		ProbFunTree<Integer> full = new ProbFunTree<Integer>(choices, 3);
+		full.good(Arrays.asList(0, 1, 2), 0.5);
+		full.bad(Arrays.asList(2, 2), 0.5);
+		List<List<Integer>> all = new ArrayList<List<Integer>>();
+		for(int i = 0; i < 81; i++) {
+			all.add(Arrays.asList(i/27, i/9%3, i/3%3, i%3));
+		}
+		double total = 0.0;
+		for(double s : full.score(all.stream()).toArray()) {
+			total += Math.exp(s);
+		}
+		System.out.print(total);
+		System.out.print("\n");
+		sequence.clear();
+		for(int i = 0; i < 1000000; i++) {
+			sequence.add((int) Math.abs(random.nextGaussian()*16));
+		}
+		trainer = new ProbFunTreeTrainer<Integer>(4);
+		trainer.train(sequence);
+		ProbFunTree<Integer> big = trainer.build();
+		GenerationSession<Integer> session = big.newSession();
+		List<List<Integer>> candidates = new ArrayList<List<Integer>>();
+		for(int i = 0; i < 1000000; i++) {
+			candidates.add(session.fun(8));
+		}
+		candidates.sort((a, b) -> {
+			for(int i = 0; i < a.size(); i++) {
+				int c = a.get(i).compareTo(b.get(i));
+				if(c != 0) {
+					return c;
+				}
+			}
+			return 0;
+		});
+		long start = System.nanoTime();
+		double[] scores = big.score(candidates, ForkJoinPool.commonPool());
+		long pooledTime = System.nanoTime()-start;
+		start = System.nanoTime();
+		double sum = big.score(candidates.stream()).sum();
+		long streamTime = System.nanoTime()-start;
+		System.out.print("Scored " + scores.length + " sorted sequences of 8 in " + pooledTime/1000000 + " ms on the pool ("
+				+ (long) (scores.length*60e9/pooledTime) + " a minute) and " + streamTime/1000000 + " ms on one thread\n");
+		System.out.print("Both should be the same:\n");
+		double poolSum = 0.0;
+		for(double s : scores) {
+			poolSum += s;
+		}
+		System.out.print(Math.abs(poolSum-sum) < 1e-6*Math.abs(sum));
+		System.out.print("\n");
+	}
+
+	private static void testTopK() {
+		//NullPointerException - if prefix or an element of it is null.
+		//IllegalArgumentException - if length is negative or k is less than 1.
+		System.out.print("Top K Test:\n");
+		Random random = new Random(0);
+		List<Integer> sequence = new ArrayList<Integer>();
+		for(int i = 0; i < 20000; i++) {
+			sequence.add((int) Math.abs(random.nextGaussian()*2));
+		}
+		ProbFunTreeTrainer<Integer> trainer = new ProbFunTreeTrainer<Integer>(3);
+		trainer.train(sequence);
+		ProbFunTree<Integer> pf = trainer.build();
+		try {
+			pf.topK(null, 2, 2);
+		} catch(NullPointerException e) {
+			System.out.print("Null prefix pass\n");
+		} finally {
+			System.out.print("Null prefix pass?\n");
+		}
+		try {
+			pf.topK(new ArrayList<Integer>(), -1, 2);
+		} catch(IllegalArgumentException e) {
+			System.out.print("Negative length pass\n");
+		} finally {
+			System.out.print("Negative length pass?\n");
+		}
+		try {
+			pf.topK(new ArrayList<Integer>(), 2, 0);
+		} catch(IllegalArgumentException e) {
+			System.out.print("0 k pass\n");
+		} finally {
+			System.out.print("0 k pass?\n");
+		}
+		Set<Integer> alphabet = new TreeSet<Integer>(sequence);
+		List<Integer> symbols = new ArrayList<Integer>(alphabet);
+		System.out.print("The top 20 should match the best of every sequence of 5, with and without a prefix, including a long one:\n");
+		for(List<Integer> prefix : Arrays.asList(new ArrayList<Integer>(), sequence.subList(0, 3), Arrays.asList(0, 0, 0, 0), sequence.subList(0, 20))) {
+			double prefixLogProb = pf.logProb(prefix);
+			List<Double> expected = new ArrayList<Double>();
+			int count = (int) Math.pow(symbols.size(), 5);
+			for(int i = 0; i < count; i++) {
+				List<Integer> s = new ArrayList<Integer>(prefix);
+				for(int j = 0, n = i; j < 5; j++, n /= symbols.size()) {
+					s.add(symbols.get(n%symbols.size()));
+				}
+				double logProb = pf.logProb(s)-prefixLogProb;
+				if(logProb != Double.NEGATIVE_INFINITY) {
+					expected.add(logProb);
+				}
+			}
+			expected.sort(Collections.reverseOrder());
+			List<ScoredSequence<Integer>> top = pf.topK(prefix, 5, 20);
+			boolean same = top.size() == 20;
+			for(int i = 0; i < top.size(); i++) {
+				List<Integer> s = new ArrayList<Integer>(prefix);
+				s.addAll(top.get(i).getSequence());
+				same &= Math.abs(top.get(i).getLogProb()-expected.get(i)) < 1e-9
+						&& Math.abs(pf.logProb(s)-prefixLogProb-top.get(i).getLogProb()) < 1e-9;
+			}
+			System.out.print(same + " " + top.get(0) + "\n");
+		}
+		System.out.print("Length 0 should give the empty sequence:\n");
+		System.out.print(pf.topK(new ArrayList<Integer>(), 0, 3));
+		System.out.print("\nA k bigger than the number of sequences should give all 8 of them, adding up to 1.0:\n");
+		ProbFunTree<Integer> small = new ProbFunTree<Integer>(new HashSet<Integer>(Arrays.asList(0, 1)), 2);
+		small.good(Arrays.asList(0, 1), 0.5);
+		List<ScoredSequence<Integer>> all = small.topK(new ArrayList<Integer>(), 3, 100);
+		double total = 0.0;
+		for(ScoredSequence<Integer> s : all) {
+			total += s.getProbability();
+		}
+		System.out.print(all.size() + " " + total);
+		System.out.print("\n");
+		sequence.clear();
+		for(int i = 0; i < 1000000; i++) {
+			sequence.add((int) Math.abs(random.nextGaussian()*16));
+		}
+		trainer = new ProbFunTreeTrainer<Integer>(4);
+		trainer.train(sequence);
+		ProbFunTree<Integer> big = trainer.build();
+		long start = System.nanoTime();
+		List<ScoredSequence<Integer>> top = big.topK(new ArrayList<Integer>(), 6, 10);
+		long searched = System.nanoTime()-start;
+		Map<List<Integer>, Integer> counts = new HashMap<List<Integer>, Integer>();
+		GenerationSession<Integer> session = big.newSession();
+		start = System.nanoTime();
+		for(int i = 0; i < 1000000; i++) {
+			session.clearHistory();
+			counts.merge(session.fun(6), 1, Integer::sum);
+		}
+		long sampled = System.nanoTime()-start;
+		System.out.print("Found the top 10 of 6 in " + searched/1000 + " us, sampling 1000000 took " + sampled/1000000 + " ms\n");
+		System.out.print(top.get(0) + " was sampled " + counts.getOrDefault(top.get(0).getSequence(), 0) + " times\n");
+	}
+
+	private static String dump(ProbFunTree<Integer> pf) {
+		// getChildMap() copies the shared children, so a clone is dumped to leave pf as it was
+		StringBuilder sb = new StringBuilder();
+		List<ProbFunTree<Integer>> nodes = new ArrayList<ProbFunTree<Integer>>();
+		nodes.add(pf.clone());
+		while(!nodes.isEmpty()) {
+			ProbFunTree<Integer> node = nodes.remove(nodes.size()-1);
+			sb.append('[');
+			for(Map.Entry<Integer, Double> e : node.getProbMap().entrySet()) {
+				sb.append(e.getKey()).append('=').append(e.getValue()).append(',');
+			}
+			Map<Integer, ProbFunTree<Integer>> children = new TreeMap<Integer, ProbFunTree<Integer>>(node.getChildMap());
+			sb.append(children.keySet()).append(']');
+			nodes.addAll(children.values());
+		}
+		return sb.toString();
+	}
+
+	private static void testApplyFeedback() {
+		//NullPointerException - if feedback is null or holds null.
+		//IllegalArgumentException - if an element of a Feedback is not in the node it would be picked from.
+		System.out.print("Apply Feedback Test:\n");
+		Set<Integer> choices = new HashSet<Integer>(Arrays.asList(0, 1, 2, 3, 4, 5));
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 3);
+		try {
+			pf.applyFeedback(null);
+		} catch(NullPointerException e) {
+			System.out.print("Null feedback pass\n");
+		} finally {
+			System.out.print("Null feedback pass?\n");
+		}
+		try {
+			pf.applyFeedback(Arrays.asList(Feedback.good(Arrays.asList(0), 0.5), null));
+		} catch(NullPointerException e) {
+			System.out.print("Null Feedback pass\n");
+		} finally {
+			System.out.print("Null Feedback pass?\n");
+		}
+		ProbFunTree<Integer> before = pf.clone();
+		try {
+			pf.applyFeedback(Arrays.asList(Feedback.good(Arrays.asList(0, 1), 0.5), Feedback.bad(Arrays.asList(0, 9), 0.5)));
+		} catch(IllegalArgumentException e) {
+			System.out.print("Missing element pass\n");
+		} finally {
+			System.out.print("Missing element pass?\n");
+		}
+		System.out.print("Feedback that can't be applied should change nothing:\n");
+		System.out.print(largestDifference(pf, before) == 0.0);
+		// The same Feedback is applied one at a time to a copy, to check pf against
+		ProbFunTree<Integer> expected = pf.clone();
+		Random random = new Random(0);
+		List<Feedback<Integer>> feedback = new ArrayList<Feedback<Integer>>();
+		for(int i = 0; i < 10000; i++) {
+			List<Integer> elements = new ArrayList<Integer>();
+			for(int j = random.nextInt(3); j >= 0; j--) {
+				elements.add(random.nextInt(3));
+			}
+			double percent = 0.01+random.nextDouble()*0.2;
+			if(random.nextBoolean()) {
+				feedback.add(Feedback.good(elements, percent));
+				expected.good(elements, percent);
+			} else {
+				feedback.add(Feedback.bad(elements, percent));
+				expected.bad(elements, percent);
+			}
+		}
+		pf.applyFeedback(feedback);
+		System.out.print("\n10000 Feedback applied together should give the probabilities they give one at a time:\n");
+		System.out.print(largestDifference(pf, expected) < 1e-9);
+		System.out.print("\n");
+	}
+
+	private static double largestDifference(ProbFunTree<Integer> a, ProbFunTree<Integer> b) {
+		List<ProbFunTree<Integer>> as = allNodes(a);
+		List<ProbFunTree<Integer>> bs = allNodes(b);
+		double largest = 0.0;
+		for(int i = 0; i < as.size(); i++) {
+			Map<Integer, Double> bProbs = bs.get(i).getProbMap();
+			for(Map.Entry<Integer, Double> e : as.get(i).getProbMap().entrySet()) {
+				largest = Math.max(largest, Math.abs(e.getValue()-bProbs.get(e.getKey())));
+			}
+		}
+		return largest;
+	}
+
+	private static void testSnapshots() {
+		System.out.print("Snapshots Test:\n");
+		Set<Integer> choices = new HashSet<Integer>(Arrays.asList(0, 1, 2, 3, 4, 5));
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 3);
+		// The same changes are made to a tree that is never snapshotted, to check pf against
+		ProbFunTree<Integer> expected = pf.clone();
+		List<ProbFunTree<Integer>> snapshots = new ArrayList<ProbFunTree<Integer>>();
+		List<String> snapshotDumps = new ArrayList<String>();
+		Random random = new Random(0);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		boolean same = true;
+		boolean aggregated = true;
+		for(int i = 0; i < 300; i++) {
+			int element = random.nextInt(6);
+			List<Integer> path = Arrays.asList(random.nextInt(6), random.nextInt(6));
+			int op = random.nextInt(11);
+			Consumer<ProbFunTree<Integer>> change;
+			switch(op) {
+			case 0: change = t -> t.add(element, choices); break;
+			case 1: change = t -> {
+				ProbFunTree<Integer> child = t.getChildMap().get(t.getProbMap().keySet().iterator().next());
+				if(child != null) {
+					child.add(element, choices, 0.2);
+				}
+			}; break;
+			case 2: change = t -> t.remove(element); break;
+			case 3: change = t -> t.prune(); break;
+			case 4: change = t -> t.addIfPresent(path, element); break;
+			case 5: change = t -> t.addToAll(element, choices); break;
+			case 6: change = t -> t.removeFromAll(element, pool); break;
+			case 7: change = t -> t.pruneAll(0.1); break;
+			case 8: change = t -> {
+				if(t.getProbMap().containsKey(path.get(0)) && follow(t, path.subList(0, 1)) != null
+						&& follow(t, path.subList(0, 1)).getProbMap().containsKey(path.get(1))) {
+					t.good(path, 0.3);
+				}
+			}; break;
+			case 9: change = t -> {
+				if(t.getProbMap().containsKey(path.get(0)) && follow(t, path.subList(0, 1)) != null
+						&& follow(t, path.subList(0, 1)).getProbMap().containsKey(path.get(1))) {
+					t.bad(path, 0.3);
+				}
+			}; break;
+			default: change = t -> {
+				snapshots.add(t.snapshot());
+				snapshotDumps.add(dump(t));
+			}; break;
+			}
+			change.accept(pf);
+			if(snapshots.size() > 0 && random.nextInt(20) == 0) {
+				// Changing a snapshot must not change pf or the other snapshots
+				int s = random.nextInt(snapshots.size());
+				ProbFunTree<Integer> snapshot = snapshots.remove(s);
+				snapshotDumps.remove(s);
+				snapshot.addToAll(element, choices);
+				snapshot.good(snapshot.getProbMap().keySet().iterator().next(), 0.5);
+			}
+			if(op != 10) {
+				change.accept(expected);
+			}
+			aggregated &= aggregates(pf).equals(aggregates(serializedCopy(pf)));
+		}
+		pool.shutdown();
+		System.out.print("A tree with snapshots should change like a tree without any:\n");
+		System.out.print(dump(pf).equals(dump(expected)));
+		System.out.print("\nEvery snapshot should still be the tree it was taken from, after all the changes:\n");
+		for(int i = 0; i < snapshots.size(); i++) {
+			same &= dump(snapshots.get(i)).equals(snapshotDumps.get(i));
+		}
+		System.out.print(same + " for " + snapshots.size() + " snapshots");
+		System.out.print("\nAggregates should match the ones worked out from scratch:\n");
+		System.out.print(aggregated);
+		List<Integer> sequence = new ArrayList<Integer>();
+		for(int i = 0; i < 1000000; i++) {
+			sequence.add((int) Math.abs(random.nextGaussian()*16));
+		}
+		ProbFunTreeTrainer<Integer> trainer = new ProbFunTreeTrainer<Integer>(4);
+		trainer.train(sequence);
+		ProbFunTree<Integer> big = trainer.build();
+		long start = System.nanoTime();
+		for(int i = 0; i < 10; i++) {
+			big.clone();
+		}
+		long cloned = System.nanoTime()-start;
+		// Each version changes one path of the last, which only copies the nodes on that path
+		List<ProbFunTree<Integer>> versions = new ArrayList<ProbFunTree<Integer>>();
+		start = System.nanoTime();
+		ProbFunTree<Integer> version = big;
+		for(int i = 0; i < 1000; i++) {
+			version = version.snapshot();
+			versions.add(version);
+			List<Integer> path = sequence.subList(i, i+3);
+			version.good(path, 0.1);
+		}
+		long snapshotted = System.nanoTime()-start;
+		System.out.print("\n10 clones of " + big.nodeCount() + " nodes took " + cloned/1000000 + " ms and 1000 snapshots with a "
+				+ "change to each took " + snapshotted/1000000 + " ms\n");
+		System.out.print("The tree the snapshots were taken from should not have changed:\n");
+		System.out.print(same(big, trainer.build()));
+		System.out.print("\n");
+	}
+
+	private static List<List<Integer>> generateSplit(ProbFunTree<Integer> pf, long seed, int workers, int turn) {
+		GenerationSession<Integer> master = pf.newSession(new SplittableRandom(seed));
+		List<GenerationSession<Integer>> sessions = new ArrayList<GenerationSession<Integer>>();
+		List<List<Integer>> results = new ArrayList<List<Integer>>();
+		for(int i = 0; i < workers; i++) {
+			sessions.add(master.split());
+			results.add(new ArrayList<Integer>());
+		}
+		// The workers take turns generating turn elements, as threads would take turns on fewer cores
+		for(int n = 0; n < 20000; n += turn) {
+			for(int i = 0; i < workers; i++) {
+				results.get(i).addAll(sessions.get(i).fun(turn));
+			}
+		}
+		return results;
+	}
+
+	private static void testSeededSessions() {
+		//NullPointerException - if random is null.
+		System.out.print("Seeded Sessions Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		for(int i = 0; i < 100; i++) {
+			choices.add(i);
+		}
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 3);
+		// Every element is picked by the root, which picks from the weights while feedback is waiting to be read
+		ProbFunTree<Integer> wide = new ProbFunTree<Integer>(choices, 1);
+		try {
+			pf.newSession(null);
+		} catch(NullPointerException e) {
+			System.out.print("Null random pass\n");
+		} finally {
+			System.out.print("Null random pass?\n");
+		}
+		Random random = new Random(0);
+		for(int i = 0; i < 1000; i++) {
+			pf.good(Arrays.asList(random.nextInt(100), random.nextInt(100)), 0.1);
+			wide.good(random.nextInt(100), 0.1);
+		}
+		System.out.print("Sessions with the same seed should generate the same elements:\n");
+		System.out.print(pf.newSession(new SplittableRandom(42)).fun(10000).equals(pf.newSession(new SplittableRandom(42)).fun(10000)));
+		System.out.print("\nSessions with different seeds should not:\n");
+		System.out.print(pf.newSession(new SplittableRandom(42)).fun(10000).equals(pf.newSession(new SplittableRandom(43)).fun(10000)));
+		System.out.print("\nSplit sessions should generate the same elements however they take turns, with feedback waiting to be read:\n");
+		ProbFunTree<Integer> inTurnTree = wide.clone();
+		ProbFunTree<Integer> interleavedTree = wide.clone();
+		for(int i = 0; i < 100; i++) {
+			int element = random.nextInt(100);
+			inTurnTree.bad(element, 0.1);
+			interleavedTree.bad(element, 0.1);
+		}
+		List<List<Integer>> inTurn = generateSplit(inTurnTree, 7, 16, 20000);
+		List<List<Integer>> interleaved = generateSplit(interleavedTree, 7, 16, 1);
+		System.out.print(inTurn.equals(interleaved));
+		System.out.print("\nThe split sessions should not generate the same elements as each other:\n");
+		System.out.print(inTurn.get(0).equals(inTurn.get(1)));
+		System.out.print("\nA session should generate the same elements whether or not another session picks between its picks,"
+				+ " with feedback given and read between them, for nodes of 4, 20 and 100 elements:\n");
+		boolean same = true;
+		for(int size : new int[] {4, 20, 100}) {
+			Set<Integer> elements = new HashSet<Integer>();
+			for(int i = 0; i < size; i++) {
+				elements.add(i);
+			}
+			ProbFunTree<Integer> aloneTree = size == 100 ? wide.clone() : new ProbFunTree<Integer>(elements, 1);
+			ProbFunTree<Integer> sharedTree = aloneTree.clone();
+			GenerationSession<Integer> alone = aloneTree.newSession(new SplittableRandom(5));
+			GenerationSession<Integer> first = sharedTree.newSession(new SplittableRandom(5));
+			GenerationSession<Integer> second = sharedTree.newSession(new SplittableRandom(6));
+			List<Integer> aloneElements = new ArrayList<Integer>();
+			List<Integer> firstElements = new ArrayList<Integer>();
+			for(int i = 0; i < 200; i++) {
+				int element = random.nextInt(size);
+				aloneTree.good(element, 0.1);
+				sharedTree.good(element, 0.1);
+				// Reading the probabilities brings them up to date from the weights
+				if(i % 2 == 0) {
+					aloneTree.getProbMap();
+					sharedTree.getProbMap();
+				}
+				for(int j = 0; j < 1+i%150; j++) {
+					aloneElements.add(alone.fun());
+					firstElements.add(first.fun());
+					second.fun();
+					second.fun();
+				}
+			}
+			same &= aloneElements.equals(firstElements);
+		}
+		System.out.print(same);
+		System.out.print("\nSplit sessions on 4 threads should generate the same elements as on 1:\n");
+		ProbFunTree<Integer> threaded = pf.clone();
+		GenerationSession<Integer> master = threaded.newSession(new SplittableRandom(7));
+		List<GenerationSession<Integer>> sessions = new ArrayList<GenerationSession<Integer>>();
+		for(int i = 0; i < 16; i++) {
+			sessions.add(master.split());
+		}
+		ProbFunTree<Integer> single = pf.clone();
+		List<List<Integer>> expected = generateSplit(single, 7, 16, 20000);
+		List<List<Integer>> results = new ArrayList<List<Integer>>(Collections.nCopies(16, (List<Integer>) null));
+		ForkJoinPool pool = new ForkJoinPool(4);
+		pool.submit(() -> IntStream.range(0, 16).parallel().forEach(i -> results.set(i, sessions.get(i).fun(20000)))).join();
+		pool.shutdown();
+		System.out.print(expected.equals(results));
+		System.out.print("\nFrozen sessions with the same seed should generate the same elements:\n");
+		FrozenProbFunTree<Integer> frozen = pf.freeze();
+		System.out.print(frozen.newSession(new SplittableRandom(3)).fun(10000).equals(frozen.newSession(new SplittableRandom(3)).fun(10000)));
+		System.out.print("\n");
+	}
+
+	private static void testContexts() {
+		//NullPointerException - if context is null.
+		//IllegalArgumentException - if context is empty.
+		System.out.print("Contexts Test:\n");
+		Random random = new Random(0);
+		List<Integer> sequence = new ArrayList<Integer>();
+		for(int i = 0; i < 20000; i++) {
+			sequence.add((int) Math.abs(random.nextGaussian()*3));
+		}
+		ProbFunTreeTrainer<Integer> trainer = new ProbFunTreeTrainer<Integer>(4);
+		trainer.train(sequence);
+		ProbFunTree<Integer> pf = trainer.build();
+		try {
+			pf.containsContext(null);
+		} catch(NullPointerException e) {
+			System.out.print("Null context pass\n");
+		} finally {
+			System.out.print("Null context pass?\n");
+		}
+		try {
+			pf.findContext(new ArrayList<Integer>());
+		} catch(IllegalArgumentException e) {
+			System.out.print("Empty context pass\n");
+		} finally {
+			System.out.print("Empty context pass?\n");
+		}
+		// The answers are worked out by walking every node first, since getChildMap() copies the shared nodes it returns
+		List<ProbFunTree<Integer>> nodes = allNodes(pf);
+		List<List<Integer>> contexts = new ArrayList<List<Integer>>();
+		List<Set<ProbFunTree<Integer>>> expected = new ArrayList<Set<ProbFunTree<Integer>>>();
+		List<ProbFunTree<Integer>> expectedLongest = new ArrayList<ProbFunTree<Integer>>();
+		for(int i = 0; i < 200; i++) {
+			List<Integer> context = new ArrayList<Integer>();
+			int length = 1+random.nextInt(5);
+			for(int j = 0; j < length; j++) {
+				context.add((int) Math.abs(random.nextGaussian()*3));
+			}
+			contexts.add(context);
+			Set<ProbFunTree<Integer>> reached = new HashSet<ProbFunTree<Integer>>();
+			for(ProbFunTree<Integer> node : nodes) {
+				ProbFunTree<Integer> end = follow(node, context);
+				if(end != null) {
+					reached.add(end);
+				}
+			}
+			expected.add(reached);
+			ProbFunTree<Integer> longest = pf;
+			for(int w = context.size(); w > 0; w--) {
+				ProbFunTree<Integer> end = follow(pf, context.subList(context.size()-w, context.size()));
+				if(end != null) {
+					longest = end;
+					break;
+				}
+			}
+			expectedLongest.add(longest);
+		}
+		boolean same = true;
+		boolean sameLongest = true;
+		int present = 0;
+		for(int i = 0; i < contexts.size(); i++) {
+			same &= pf.containsContext(contexts.get(i)) == !expected.get(i).isEmpty();
+			same &= new HashSet<ProbFunTree<Integer>>(pf.findContext(contexts.get(i))).equals(expected.get(i));
+			sameLongest &= pf.longestContext(contexts.get(i)) == expectedLongest.get(i);
+			present += expected.get(i).isEmpty() ? 0 : 1;
+		}
+		System.out.print("findContext() and containsContext() should match walking every node for " + present + " of 200 contexts found:\n");
+		System.out.print(same);
+		System.out.print("\nlongestContext() should match trying every run at the end of the history:\n");
+		System.out.print(sameLongest);
+		System.out.print("\nlongestContext() of an empty history should be the root:\n");
+		System.out.print(pf.longestContext(new ArrayList<Integer>()) == pf);
+
+		List<Integer> labels = new ArrayList<Integer>();
+		ProbFunTree<Integer> chain = new ProbFunTree<Integer>(new HashSet<Integer>(Arrays.asList(0, 1, 2)), 1);
+		ProbFunTree<Integer> node = chain;
+		for(int i = 0; i < 60; i++) {
+			ProbFunTree<Integer> child = new ProbFunTree<Integer>(new HashSet<Integer>(Arrays.asList(0, 1, 2)), 1);
+			labels.add(random.nextInt(3));
+			node.getChildMap().put(labels.get(i), child);
+			node = child;
+		}
+		List<Integer> longContext = labels.subList(10, 40);
+		Set<ProbFunTree<Integer>> reached = new HashSet<ProbFunTree<Integer>>();
+		for(ProbFunTree<Integer> n : allNodes(chain)) {
+			if(follow(n, longContext) != null) {
+				reached.add(follow(n, longContext));
+			}
+		}
+		System.out.print("\nA context longer than the hashed part should match walking every node:\n");
+		System.out.print(new HashSet<ProbFunTree<Integer>>(chain.findContext(longContext)).equals(reached));
+		System.out.print("\nThe longest context of the whole chain should be the end of the chain:\n");
+		System.out.print(chain.longestContext(labels) == node);
+
+		Set<Integer> choices = new HashSet<Integer>(Arrays.asList(0, 1, 2));
+		ProbFunTree<Integer> shared = new ProbFunTree<Integer>(choices, 4);
+		int size = shared.size();
+		long bytes = shared.estimatedBytes();
+		System.out.print("\n[0, 2, 1] should be in 4 layers of [0, 1, 2] but [0, 2, 1, 0] should not:\n");
+		System.out.print(shared.containsContext(Arrays.asList(0, 2, 1)) + " " + shared.containsContext(Arrays.asList(0, 2, 1, 0)));
+		System.out.print("\nLooking up contexts should not copy the shared nodes or change the size:\n");
+		System.out.print(shared.estimatedBytes() == bytes && shared.size() == size);
+		double before = shared.getProbMap().get(0);
+		List<ProbFunTree<Integer>> ends = shared.findContext(Arrays.asList(1, 2));
+		ends.get(0).good(0, 0.5);
+		int changed = 0;
+		for(ProbFunTree<Integer> end : shared.findContext(Arrays.asList(1, 2))) {
+			changed += end.getProbMap().get(0) == before ? 0 : 1;
+		}
+		System.out.print("\nChanging one of the " + ends.size() + " nodes found in the shared layers should only change that node:\n");
+		System.out.print(changed == 1);
+
+		ProbFunTree<Integer> walked = pf.clone();
+		boolean sameAdds = true;
+		for(List<Integer> ifPresent : Arrays.asList(Arrays.asList(0, 1), Arrays.asList(2, 0, 1), Arrays.asList(1, 3, 0, 2))) {
+			for(ProbFunTree<Integer> n : allNodes(walked)) {
+				n.addIfPresent(ifPresent, 9);
+			}
+			pf.addIfPresentToAll(ifPresent, 9);
+			sameAdds &= pf.toString().replaceAll("PF -?[0-9]+", "PF").equals(walked.toString().replaceAll("PF -?[0-9]+", "PF"));
+			sameAdds &= pf.size() == walked.size();
+		}
+		System.out.print("\naddIfPresentToAll() should do the same as addIfPresent() on every node:\n");
+		System.out.print(sameAdds);
+
+		sequence.clear();
+		for(int i = 0; i < 1000000; i++) {
+			sequence.add((int) Math.abs(random.nextGaussian()*16));
+		}
+		trainer = new ProbFunTreeTrainer<Integer>(4);
+		trainer.train(sequence);
+		ProbFunTree<Integer> big = trainer.build();
+		long start = System.nanoTime();
+		for(ProbFunTree<Integer> n : allNodes(big)) {
+			n.addIfPresent(Arrays.asList(0, 1, 2), 99);
+		}
+		long walkedTime = System.nanoTime()-start;
+		start = System.nanoTime();
+		big.addIfPresentToAll(Arrays.asList(1, 2, 3), 99);
+		long built = System.nanoTime()-start;
+		long nodeCount = big.nodeCount();
+		start = System.nanoTime();
+		for(int i = 0; i < 100; i++) {
+			big.addIfPresentToAll(Arrays.asList(i % 20, (i+1) % 20, (i+2) % 20), 99);
+		}
+		System.out.print("\nOn " + nodeCount + " nodes, addIfPresent() on every node took " + walkedTime/1000000 
+				+ " ms, the first addIfPresentToAll() took " + built/1000000 + " ms and the next 100 took " 
+				+ (System.nanoTime()-start)/1000000 + " ms to add " + (big.nodeCount()-nodeCount) + " nodes\n");
+	}
+
+	private static String aggregates(ProbFunTree<Integer> pf) {
+		return pf.size() + " " + pf.nodeCount() + " " + pf.depth() + " " + pf.estimatedBytes();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ProbFunTree<Integer> serializedCopy(ProbFunTree<Integer> pf) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+				out.writeObject(pf);
+			}
+			try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+				return (ProbFunTree<Integer>) in.readObject();
+			}
+		} catch(IOException | ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void testAggregates() {
+		System.out.print("Aggregates Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		choices.add(0);choices.add(1);choices.add(2);
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 3);
+		System.out.print("3 layers of 3 elements should have 39 elements, 13 nodes and a depth of 3:\n");
+		System.out.print(pf.size() + " " + pf.nodeCount() + " " + pf.depth());
+		// A copy that is read back has to work out every aggregate again, so it is the answer to check against
+		boolean same = aggregates(pf).equals(aggregates(serializedCopy(pf)));
+		Random random = new Random(0);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		for(int i = 0; i < 200; i++) {
+			int element = random.nextInt(6);
+			switch(random.nextInt(12)) {
+			case 0: pf.add(element, choices); break;
+			case 1: pf.getChildMap().get(pf.getProbMap().keySet().iterator().next()).add(element, choices, 0.2); break;
+			case 2: pf.remove(element); break;
+			case 3: pf.prune(); break;
+			case 4: pf.addIfPresent(Arrays.asList(random.nextInt(3), random.nextInt(3)), element); break;
+			case 5: pf.addToAll(element, choices); break;
+			case 6: pf.removeFromAll(element, pool); break;
+			case 7: pf.pruneAll(0.2); break;
+			case 8: if(pf.getProbMap().containsKey(0) && pf.getChildMap().get(0) != null
+					&& pf.getChildMap().get(0).getProbMap().containsKey(0)) pf.good(Arrays.asList(0, 0), 0.5); break;
+			case 9: if(pf.depth() < 6) pf.addLayer(choices); break;
+			case 10: pf.pruneToBudget(pf.estimatedBytes()*3/4); break;
+			default: pf = pf.clone(); break;
+			}
+			same &= aggregates(pf).equals(aggregates(serializedCopy(pf)));
+		}
+		pool.shutdown();
+		System.out.print("\nAggregates should match the ones worked out from scratch after 200 random changes:\n");
+		System.out.print(same);
+		Set<Integer> one = new HashSet<Integer>(Arrays.asList(0));
+		ProbFunTree<Integer> chain = new ProbFunTree<Integer>(one, 1);
+		ProbFunTree<Integer> node = chain;
+		for(int i = 1; i < 100000; i++) {
+			ProbFunTree<Integer> child = new ProbFunTree<Integer>(one, 1);
+			node.getChildMap().put(0, child);
+			node = child;
+		}
+		System.out.print("\nA chain of 100000 nodes put in with getChildMap() should have a depth of 100000:\n");
+		System.out.print(chain.depth());
+		node.add(1, null);
+		System.out.print("\nAdding to the last node should be seen by the root:\n");
+		System.out.print(chain.size());
+		ProbFunTreeTrainer<Integer> trainer = new ProbFunTreeTrainer<Integer>(4);
+		List<Integer> sequence = new ArrayList<Integer>();
+		for(int i = 0; i < 1000000; i++) {
+			sequence.add((int) Math.abs(random.nextGaussian()*16));
+		}
+		trainer.train(sequence);
+		ProbFunTree<Integer> big = trainer.build();
+		big.size();
+		long start = System.nanoTime();
+		long sum = 0;
+		for(int i = 0; i < 1000000; i++) {
+			sum += big.size()+big.nodeCount()+big.estimatedBytes();
+		}
+		System.out.print("\n1000000 calls to size(), nodeCount() and estimatedBytes() on " + big.nodeCount() + " nodes took " 
+				+ (System.nanoTime()-start)/1000000 + " ms" + (sum == 0 ? "" : "") + "\n");
+	}
+
+	private static void testPruneToBudget() {
+		System.out.print("Prune to Budget Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		choices.add(0);choices.add(1);
+		ProbFunTree<Integer> small = new ProbFunTree<Integer>(choices, 2);
+		try {
+			small.pruneToBudget(-1);
+		} catch(IllegalArgumentException e) {
+			System.out.print("Negative budget pass\n");
+		} finally {
+			System.out.print("Negative budget pass?\n");
+		}
+		System.out.print("Nothing should be freed when the tree is under budget:\n");
+		System.out.print(small.pruneToBudget(small.estimatedBytes()));
+		System.out.print("\nA budget of 0 should leave one element in the root:\n");
+		small.good(1, 0.5);
+		small.pruneToBudget(0);
+		System.out.print(small);
+		Random random = new Random(0);
+		List<Integer> sequence = new ArrayList<Integer>();
+		for(int i = 0; i < 1000000; i++) {
+			sequence.add((int) Math.abs(random.nextGaussian()*16));
+		}
+		ProbFunTreeTrainer<Integer> trainer = new ProbFunTreeTrainer<Integer>(4);
+		trainer.train(sequence);
+		ProbFunTree<Integer> pf = trainer.build();
+		long before = pf.estimatedBytes();
+		long budget = before/4;
+		long start = System.nanoTime();
+		long freed = pf.pruneToBudget(budget);
+		long time = System.nanoTime()-start;
+		long after = pf.estimatedBytes();
+		System.out.print("\nPruning " + trainer.nodeCount() + " nodes from " + before + " to " + after 
+				+ " estimated bytes took " + time/1000000 + " ms\n");
+		System.out.print("The tree should be under budget:\n");
+		System.out.print(after <= budget);
+		System.out.print("\nThe bytes freed should be reported:\n");
+		System.out.print(freed == before-after);
+		System.out.print("\nThe most likely element should be kept:\n");
+		System.out.print(pf.getProbMap().containsKey(0));
+		double sum = 0;
+		for(double d : pf.getProbMap().values()) {
+			sum += d;
+		}
+		System.out.print("\nProbabilities should add up to 1.0:\n");
+		System.out.print(sum);
+		System.out.print("\n");
+	}
+
+	private static boolean same(ProbFunTree<Integer> a, ProbFunTree<Integer> b) {
+		List<ProbFunTree<Integer>> as = new ArrayList<ProbFunTree<Integer>>();
+		List<ProbFunTree<Integer>> bs = new ArrayList<ProbFunTree<Integer>>();
+		as.add(a);
+		bs.add(b);
+		while(!as.isEmpty()) {
+			a = as.remove(as.size()-1);
+			b = bs.remove(bs.size()-1);
+			if(!a.getProbMap().equals(b.getProbMap())) {
+				return false;
+			}
+			Map<Integer, ProbFunTree<Integer>> aChildren = a.getChildMap();
+			Map<Integer, ProbFunTree<Integer>> bChildren = b.getChildMap();
+			if(!aChildren.keySet().equals(bChildren.keySet())) {
+				return false;
+			}
+			for(Integer key : aChildren.keySet()) {
+				as.add(aChildren.get(key));
+				bs.add(bChildren.get(key));
+			}
+		}
+		return true;
+	}
+
+	private static void testParallelChanges() {
+		System.out.print("Parallel Changes Test:\n");
+		Random random = new Random(0);
+		List<Integer> sequence = new ArrayList<Integer>();
+		for(int i = 0; i < 1000000; i++) {
+			sequence.add((int) Math.abs(random.nextGaussian()*16));
+		}
+		ProbFunTreeTrainer<Integer> trainer = new ProbFunTreeTrainer<Integer>(4);
+		trainer.train(sequence);
+		ProbFunTree<Integer> sequential = trainer.build();
+		ProbFunTree<Integer> parallel = sequential.clone();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			parallel.pruneAll(null);
+		} catch(NullPointerException e) {
+			System.out.print("Null pool pass\n");
+		} finally {
+			System.out.print("Null pool pass?\n");
+		}
+		long start = System.nanoTime();
+		sequential.addToAll(100, null);
+		sequential.removeFromAll(0);
+		sequential.pruneAll(0.01);
+		sequential.pruneAll();
+		long sequentialTime = System.nanoTime()-start;
+		start = System.nanoTime();
+		parallel.addToAll(100, null, pool);
+		parallel.removeFromAll(0, pool);
+		parallel.pruneAll(0.01, pool);
+		parallel.pruneAll(pool);
+		long parallelTime = System.nanoTime()-start;
+		System.out.print("Changing " + trainer.nodeCount() + " nodes took " + sequentialTime/1000000 
+				+ " ms in sequence and " + parallelTime/1000000 + " ms on " + pool.getParallelism() + " threads\n");
+		System.out.print("Parallel changes should match sequential changes:\n");
+		System.out.print(same(sequential, parallel));
+		sequential.clearAllProbs();
+		parallel.clearAllProbs(pool);
+		sequential.addToAll(101, null, 0.5);
+		parallel.addToAll(101, null, 0.5, pool);
+		System.out.print("\nParallel clearAllProbs() and addToAll() should match sequential:\n");
+		System.out.print(same(sequential, parallel));
+		System.out.print("\n");
+		pool.shutdown();
+	}
+
+	private static void testDeepTree() {
+		System.out.print("Deep Tree Test:\n");
+		int depth = 100000;
+		Set<Integer> choices = new HashSet<Integer>();
+		choices.add(0);choices.add(1);
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 1);
+		ProbFunTree<Integer> node = pf;
+		for(int i = 1; i < depth; i++) {
+			ProbFunTree<Integer> child = new ProbFunTree<Integer>(choices, 1);
+			node.getChildMap().put(0, child);
+			node = child;
+		}
+		System.out.print("Size should be " + 2*depth + ":\n");
+		System.out.print(pf.size());
+		ProbFunTree<Integer> copy = pf.clone();
+		pf.addToAll(2, null);
+		System.out.print("\nSize after addToAll() should be " + 3*depth + ":\n");
+		System.out.print(pf.size());
+		pf.removeFromAll(2);
+		System.out.print("\nSize after removeFromAll() should be " + 2*depth + ":\n");
+		System.out.print(pf.size());
+		pf.addIfPresentToAll(Arrays.asList(0, 1), 3);
+		pf.clearAllProbs();
+		pf.setConcurrent(true);
+		pf.pruneAll(0.2);
+		pf.good(1, 0.5);
+		pf.pruneAll();
+		System.out.print("\nSize after pruneAll() should be 1:\n");
+		System.out.print(pf.size());
+		System.out.print("\nClone should not change:\n");
+		System.out.print(copy.size());
+		System.out.print("\n");
+	}
+
+	private static void testWideFeedback() {
+		System.out.print("Wide Feedback Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		for(int i = 0; i < 4096; i++) {
+			choices.add(i);
+		}
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 1);
+		try {
+			pf.good(4096, 0.5);
+		} catch(IllegalArgumentException e) {
+			System.out.print("Missing element pass\n");
+		} finally {
+			System.out.print("Missing element pass?\n");
+		}
+		Random random = new Random(0);
+		long start = System.nanoTime();
+		for(int i = 0; i < 100000; i++) {
+			if(random.nextBoolean()) {
+				pf.good(random.nextInt(1024), 0.1);
+			} else {
+				pf.bad(random.nextInt(4096), 0.1);
+			}
+			pf.fun();
+		}
+		System.out.print("100000 good() or bad() and fun() calls on 4096 elements took " 
+				+ (System.nanoTime()-start)/1000000 + " ms\n");
+		double sum = 0;
+		for(double d : pf.getProbMap().values()) {
+			sum += d;
+		}
+		System.out.print("Probabilities should add up to 1.0:\n");
+		System.out.print(sum);
+		System.out.print("\n");
+		double low = 0;
+		for(int i = 0; i < 1024; i++) {
+			low += pf.getProbMap().get(i);
+		}
+		int n = 100000;
+		int count = 0;
+		for(int i = 0; i < n; i++) {
+			if(pf.fun() < 1024) {
+				count++;
+			}
+		}
+		System.out.print("0 to 1023 should come up about " + (int)(low*n) + " times:\n");
+		System.out.print(count);
+		System.out.print("\n");
+	}
+
+	private static void testConcurrent() {
+		System.out.print("Concurrent Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		for(int i = 0; i < 16; i++) {
+			choices.add(i);
+		}
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 3);
+		pf.setConcurrent(true);
+		int threads = 4;
+		AtomicBoolean done = new AtomicBoolean(false);
+		AtomicBoolean failed = new AtomicBoolean(false);
+		AtomicLong generated = new AtomicLong();
+		List<Thread> readers = new ArrayList<>();
+		for(int t = 0; t < threads; t++) {
+			readers.add(new Thread(() -> {
+				GenerationSession<Integer> session = pf.newSession();
+				long count = 0;
+				try {
+					while(!done.get()) {
+						Integer element = session.fun();
+						if(element < 0 || element >= 16) {
+							failed.set(true);
+						}
+						count++;
+					}
+				} catch(RuntimeException e) {
+					failed.set(true);
+				}
+				generated.addAndGet(count);
+			}));
+		}
+		for(Thread reader : readers) {
+			reader.start();
+		}
+		Random random = new Random(0);
+		for(int i = 0; i < 20000; i++) {
+			List<Integer> elements = new ArrayList<>();
+			elements.add(random.nextInt(16));elements.add(random.nextInt(16));elements.add(random.nextInt(16));
+			if(random.nextBoolean()) {
+				pf.good(elements, 0.1);
+			} else {
+				pf.bad(elements, 0.1);
+			}
+		}
+		done.set(true);
+		for(Thread reader : readers) {
+			try {
+				reader.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		System.out.print("Generated " + generated.get() + " elements on " + threads + " threads during feedback\n");
+		System.out.print("Every element should be valid:\n");
+		System.out.print(!failed.get());
+		System.out.print("\n");
+	}
+
+	private static void testSessions() {
+		System.out.print("Sessions Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		choices.add(0);choices.add(1);
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 2);
+		// After 0 always pick 1 and after 1 always pick 0
+		pf.getChildMap().get(0).getProbMap().put(0, 0.0);
+		pf.getChildMap().get(0).getProbMap().put(1, 1.0);
+		pf.getChildMap().get(1).getProbMap().put(0, 1.0);
+		pf.getChildMap().get(1).getProbMap().put(1, 0.0);
+		GenerationSession<Integer> first = pf.newSession();
+		GenerationSession<Integer> second = pf.newSession();
+		Integer previousFirst = first.fun();
+		Integer previousSecond = second.fun();
+		boolean alternates = true;
+		for(int i = 0; i < 1000; i++) {
+			Integer nextFirst = first.fun();
+			Integer nextSecond = second.fun();
+			alternates &= !nextFirst.equals(previousFirst) && !nextSecond.equals(previousSecond);
+			previousFirst = nextFirst;
+			previousSecond = nextSecond;
+		}
+		System.out.print("Each session should alternate between 0 and 1 on its own:\n");
+		System.out.print(alternates);
+		System.out.print("\n");
+		first.clearHistory();
+		Integer nextSecond = second.fun();
+		System.out.print("Clearing the history of one session should not change the other:\n");
+		System.out.print(!nextSecond.equals(previousSecond));
+		System.out.print("\n");
+	}
+
+	private static void testFunBatch() {
+		//IllegalArgumentException - if n is less than 0.
+		//IndexOutOfBoundsException - if off or len are out of the bounds of dest.
+		System.out.print("Fun Batch Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		choices.add(0);choices.add(1);
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 2);
+		try {
+			pf.fun(-1);
+		} catch(IllegalArgumentException e) {
+			System.out.print("Negative n pass\n");
+		} finally {
+			System.out.print("Negative n pass?\n");
+		}
+		try {
+			pf.fun(new Integer[4], 2, 3);
+		} catch(IndexOutOfBoundsException e) {
+			System.out.print("Out of bounds pass\n");
+		} finally {
+			System.out.print("Out of bounds pass?\n");
+		}
+		// After 0 always pick 1 and after 1 always pick 0
+		pf.getChildMap().get(0).getProbMap().put(0, 0.0);
+		pf.getChildMap().get(0).getProbMap().put(1, 1.0);
+		pf.getChildMap().get(1).getProbMap().put(0, 1.0);
+		pf.getChildMap().get(1).getProbMap().put(1, 0.0);
+		List<Integer> elements = pf.fun(1000);
+		boolean alternates = elements.size() == 1000;
+		for(int i = 1; i < elements.size(); i++) {
+			alternates &= !elements.get(i).equals(elements.get(i-1));
+		}
+		Integer[] dest = new Integer[10];
+		pf.fun(dest, 2, 8);
+		alternates &= dest[0] == null && dest[1] == null;
+		for(int i = 3; i < dest.length; i++) {
+			alternates &= !dest[i].equals(dest[i-1]);
+		}
+		List<Integer> generated = new ArrayList<>();
+		pf.generate(100, generated::add);
+		alternates &= generated.size() == 100;
+		for(int i = 1; i < generated.size(); i++) {
+			alternates &= !generated.get(i).equals(generated.get(i-1));
+		}
+		System.out.print("Elements should alternate between 0 and 1:\n");
+		System.out.print(alternates);
+		System.out.print("\n");
+	}
+
+	private static void testSharedLayers() {
+		System.out.print("Shared Layers Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		for(int i = 0; i < 200; i++) {
+			choices.add(i);
+		}
+		int layers = 3;
+		long start = System.nanoTime();
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, layers);
+		System.out.print("Made 200 choices with 3 layers in " + (System.nanoTime()-start)/1000000 + " ms\n");
+		System.out.print("Size should be 8040200:\n");
+		System.out.print(pf.size());
+		System.out.print("\n");
+		List<Integer> elements = new ArrayList<>();
+		elements.add(1);elements.add(2);elements.add(3);
+		pf.good(elements, 0.5);
+		System.out.print("After good([1, 2, 3], 0.5), 3 after [1, 2] should be 0.0075:\n");
+		System.out.print(pf.getChildMap().get(1).getChildMap().get(2).getProbMap().get(3));
+		System.out.print("\n3 after [2, 2] should still be 0.005:\n");
+		System.out.print(pf.getChildMap().get(2).getChildMap().get(2).getProbMap().get(3));
+		System.out.print("\n3 after [1, 3] should still be 0.005:\n");
+		System.out.print(pf.getChildMap().get(1).getChildMap().get(3).getProbMap().get(3));
+		System.out.print("\n");
+		Set<Integer> small = new HashSet<Integer>();
+		for(int i = 0; i < 20; i++) {
+			small.add(i);
+		}
+		ProbFunTree<Integer> layered = new ProbFunTree<Integer>(small, layers);
+		long bytes = layered.estimatedBytes();
+		Map<Integer, ProbFunTree<Integer>> childMap = layered.getChildMap();
+		boolean read = childMap.size() == 20 && childMap.containsKey(7) && childMap.keySet().contains(19);
+		System.out.print("Reading the elements of getChildMap() should not copy the shared nodes:\n");
+		System.out.print(read && layered.estimatedBytes() == bytes);
+		start = System.nanoTime();
+		layered.addLayer(small);
+		System.out.print("\naddLayer() on 20 choices with 3 layers took " + (System.nanoTime()-start)/1000000 + " ms\n");
+		System.out.print("Size should be 168420:\n");
+		System.out.print(layered.size());
+		System.out.print("\naddLayer() should add one shared node instead of one for each path:\n");
+		System.out.print(layered.estimatedBytes() < bytes*2);
+		System.out.print("\n");
+	}
+
+	private static void testFunSamplers() {
+		System.out.print("Fun Samplers Test:\n");
+		int[] sizes = {4, 32, 512};
+		for(int size : sizes) {
+			Map<Integer, Double> choices = new TreeMap<Integer, Double>();
+			double sum = 0;
+			for(int i = 0; i < size; i++) {
+				sum += i+1;
+			}
+			double probSum = 0;
+			for(int i = 0; i < size-1; i++) {
+				choices.put(i, (i+1)/sum);
+				probSum += (i+1)/sum;
+			}
+			choices.put(size-1, 1.0-probSum);
+			int layers = 1;
+			ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, layers);
+			int[] counts = new int[size];
+			int n = 1000000;
+			for(int i = 0; i < n; i++) {
+				counts[pf.fun()]++;
+			}
+			double maxError = 0;
+			for(int i = 0; i < size; i++) {
+				double error = Math.abs(((double)counts[i])/n - pf.getProbMap().get(i));
+				if(error > maxError) {
+					maxError = error;
+				}
+			}
+			System.out.print("Largest error for " + size + " elements should be close to 0:\n");
+			System.out.print(maxError);
+			System.out.print("\n");
+			pf.good(0, 0.5);
+			counts = new int[size];
+			for(int i = 0; i < n; i++) {
+				counts[pf.fun()]++;
+			}
+			System.out.print("After good(0, 0.5), 0 should come up about " + pf.getProbMap().get(0)*n + " times:\n");
+			System.out.print(counts[0]);
+			System.out.print("\n");
+		}
+	}
+
 	private static void testAddIfPresentToAll() {
 		//NullPointerException - if ifPresent or elementToAdd are null.
 		//IllegalArgumentException - if ifPresent is empty.
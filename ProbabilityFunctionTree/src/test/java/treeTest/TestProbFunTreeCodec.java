@@ -0,0 +1,151 @@
+package treeTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import tree.ProbFunTree;
+import tree.ProbFunTreeCodec;
+import tree.ProbFunTreeTrainer;
+import tree.SymbolCodec;
+
+public class TestProbFunTreeCodec {
+
+	public static void main(String[] args) throws IOException, ClassNotFoundException {
+		testRoundTrip();
+		testBadInput();
+		testDeep();
+		testSizeAndSpeed();
+	}
+
+	private static byte[] write(ProbFunTree<Integer> pf) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ProbFunTreeCodec.write(pf, Channels.newChannel(bytes), SymbolCodec.INTEGERS);
+		return bytes.toByteArray();
+	}
+
+	private static ProbFunTree<Integer> read(byte[] bytes) throws IOException {
+		return ProbFunTreeCodec.read(Channels.newChannel(new ByteArrayInputStream(bytes)), SymbolCodec.INTEGERS);
+	}
+
+	private static void testRoundTrip() throws IOException {
+		System.out.print("Codec Round Trip Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		for(int i = 0; i < 20; i++) {
+			choices.add(i);
+		}
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 3);
+		pf.good(3, 0.5);
+		pf.getChildMap().get(4).bad(7, 0.5);
+		pf.getChildMap().get(5).remove(9);
+		ProbFunTree<Integer> copy = read(write(pf));
+		System.out.print("Copy should print the same as the original:\n");
+		System.out.print(pf.toString().replaceAll("PF -?[0-9]+", "PF").equals(copy.toString().replaceAll("PF -?[0-9]+", "PF")));
+		System.out.print("\nShared layers should be written once, so 6 layers of 20 elements should take under 2000 bytes:\n");
+		byte[] shared = write(new ProbFunTree<Integer>(choices, 6));
+		System.out.print(shared.length);
+		System.out.print("\nThe copy should have 6 layers:\n");
+		System.out.print(read(shared).size() == 20+20*20+20*20*20+20*20*20*20+20*20*20*20*20+20*20*20*20*20*20);
+		System.out.print("\nStrings should be read back:\n");
+		Set<String> words = new HashSet<String>();
+		words.add("to");
+		words.add("be");
+		words.add("\u00fcber");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ProbFunTreeCodec.write(new ProbFunTree<String>(words, 2), Channels.newChannel(bytes), SymbolCodec.STRINGS);
+		System.out.print(ProbFunTreeCodec.read(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())), SymbolCodec.STRINGS));
+	}
+
+	private static void testBadInput() throws IOException {
+		//IOException - if the channel doesn't hold a ProbFunTree or ends early.
+		System.out.print("Codec Bad Input Test:\n");
+		try {
+			read(new byte[] {1, 2, 3, 4, 5});
+		} catch(IOException e) {
+			System.out.print("Bad magic pass\n");
+		} finally {
+			System.out.print("Bad magic pass?\n");
+		}
+		byte[] bytes = write(new ProbFunTree<Integer>(new HashSet<Integer>(Arrays.asList(1, 2)), 2));
+		bytes[4] = 99;
+		try {
+			read(bytes);
+		} catch(IOException e) {
+			System.out.print("Bad version pass\n");
+		} finally {
+			System.out.print("Bad version pass?\n");
+		}
+		bytes = write(new ProbFunTree<Integer>(new HashSet<Integer>(Arrays.asList(1, 2)), 2));
+		try {
+			read(Arrays.copyOf(bytes, bytes.length-3));
+		} catch(IOException e) {
+			System.out.print("Truncated pass\n");
+		} finally {
+			System.out.print("Truncated pass?\n");
+		}
+	}
+
+	private static void testDeep() throws IOException {
+		System.out.print("Codec Deep Tree Test:\n");
+		int depth = 100000;
+		Set<Integer> choice = new HashSet<Integer>(Arrays.asList(0));
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choice, 1);
+		ProbFunTree<Integer> node = pf;
+		for(int i = 1; i < depth; i++) {
+			ProbFunTree<Integer> child = new ProbFunTree<Integer>(choice, 1);
+			node.getChildMap().put(0, child);
+			node = child;
+		}
+		ProbFunTree<Integer> copy = read(write(pf));
+		int copyDepth = 0;
+		for(node = copy; node != null; node = node.getChildMap().get(0)) {
+			copyDepth++;
+		}
+		System.out.print("Depth should be " + depth + ":\n");
+		System.out.print(copyDepth);
+		System.out.print("\n");
+	}
+
+	private static void testSizeAndSpeed() throws IOException, ClassNotFoundException {
+		System.out.print("Codec Size and Speed Test:\n");
+		Random random = new Random(0);
+		List<Integer> sequence = new ArrayList<Integer>();
+		for(int i = 0; i < 1000000; i++) {
+			sequence.add((int) Math.abs(random.nextGaussian()*16));
+		}
+		ProbFunTreeTrainer<Integer> trainer = new ProbFunTreeTrainer<Integer>(4);
+		trainer.train(sequence);
+		ProbFunTree<Integer> pf = trainer.build();
+		long start = System.nanoTime();
+		byte[] codecBytes = write(pf);
+		long written = System.nanoTime();
+		ProbFunTree<Integer> copy = read(codecBytes);
+		long read = System.nanoTime();
+		ByteArrayOutputStream javaBytes = new ByteArrayOutputStream();
+		try(ObjectOutputStream out = new ObjectOutputStream(javaBytes)) {
+			out.writeObject(pf);
+		}
+		long javaWritten = System.nanoTime();
+		try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(javaBytes.toByteArray()))) {
+			in.readObject();
+		}
+		long javaRead = System.nanoTime();
+		System.out.print(trainer.nodeCount() + " nodes took " + codecBytes.length + " bytes, "
+				+ (written-start)/1000000 + " ms to write and " + (read-written)/1000000 + " ms to read\n");
+		System.out.print("Java serialization took " + javaBytes.size() + " bytes, "
+				+ (javaWritten-read)/1000000 + " ms to write and " + (javaRead-javaWritten)/1000000 + " ms to read\n");
+		System.out.print("Size should be " + trainer.size() + ":\n");
+		System.out.print(copy.size());
+		System.out.print("\n");
+	}
+
+}
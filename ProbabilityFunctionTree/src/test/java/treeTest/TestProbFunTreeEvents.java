@@ -0,0 +1,54 @@
+package treeTest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import tree.ProbFunTree;
+
+public class TestProbFunTreeEvents {
+
+	public static void main(String[] args) throws IOException {
+		// Metrics are switched on when ProbFunTreeMetrics is loaded, so this must come first
+		System.setProperty("tree.metrics", "true");
+		testEvents();
+	}
+
+	private static void testEvents() throws IOException {
+		System.out.print("Metrics JFR Event Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		choices.add(0);choices.add(1);
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 3);
+		Path path = Files.createTempFile("tree", ".jfr");
+		path.toFile().deleteOnExit();
+		try(Recording recording = new Recording()) {
+			recording.enable("tree.ProbFunTreeOperation").withThreshold(Duration.ZERO);
+			recording.start();
+			pf.clone();
+			pf.addToAll(2, null);
+			pf.pruneAll();
+			for(int i = 0; i < 100; i++) {
+				pf.fun();
+			}
+			recording.stop();
+			recording.dump(path);
+		}
+		StringBuilder operations = new StringBuilder();
+		for(RecordedEvent event : RecordingFile.readAllEvents(path)) {
+			if(event.getEventType().getName().equals("tree.ProbFunTreeOperation")) {
+				operations.append(event.getString("operation")).append(' ');
+			}
+		}
+		System.out.print("Only bulk operations should be recorded:\n");
+		System.out.print(operations.toString().trim());
+		System.out.print("\n");
+	}
+
+}
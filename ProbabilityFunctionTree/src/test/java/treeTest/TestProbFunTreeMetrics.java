@@ -0,0 +1,159 @@
+package treeTest;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import tree.ProbFunTree;
+import tree.ProbFunTreeMetrics;
+import tree.ProbFunTreeMetrics.Operation;
+
+public class TestProbFunTreeMetrics {
+
+	public static void main(String[] args) throws JMException {
+		// Metrics are switched on when ProbFunTreeMetrics is loaded, so this must come first
+		System.setProperty("tree.metrics", "true");
+		testCounts();
+		testHistogram();
+		testMXBean();
+	}
+
+	private static void testCounts() {
+		System.out.print("Metrics Count Test:\n");
+		System.out.print("Metrics should be enabled:\n");
+		System.out.print(ProbFunTreeMetrics.isEnabled());
+		ProbFunTreeMetrics.reset();
+		Set<Integer> choices = new HashSet<Integer>();
+		choices.add(0);choices.add(1);choices.add(2);
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 2);
+		for(int i = 0; i < 100; i++) {
+			pf.fun();
+		}
+		pf.good(0, 0.5);
+		pf.bad(1, 0.5);
+		pf.bad(1, 0.5);
+		pf.clone();
+		pf.pruneAll();
+		System.out.print("\nfun() should be counted 100 times:\n");
+		System.out.print(ProbFunTreeMetrics.count(Operation.FUN));
+		System.out.print("\ngood() should be counted once and bad() twice:\n");
+		System.out.print(ProbFunTreeMetrics.count(Operation.GOOD) + " " + ProbFunTreeMetrics.count(Operation.BAD));
+		System.out.print("\nclone() and pruneAll() should be counted once, and prune() never:\n");
+		System.out.print(ProbFunTreeMetrics.count(Operation.CLONE) + " " + ProbFunTreeMetrics.count(Operation.PRUNE_ALL) 
+				+ " " + ProbFunTreeMetrics.count(Operation.PRUNE));
+		System.out.print("\nreset() should clear the counts:\n");
+		ProbFunTreeMetrics.reset();
+		System.out.print(ProbFunTreeMetrics.count(Operation.FUN) + " " + ProbFunTreeMetrics.totalNanos(Operation.FUN));
+		System.out.print("\n");
+	}
+
+	private static void testHistogram() {
+		System.out.print("Metrics Histogram Test:\n");
+		try {
+			ProbFunTreeMetrics.percentileNanos(Operation.FUN, 1.5);
+		} catch(IllegalArgumentException e) {
+			System.out.print("Bad percentile pass\n");
+		} finally {
+			System.out.print("Bad percentile pass?\n");
+		}
+		ProbFunTreeMetrics.reset();
+		System.out.print("The percentile of an operation that never ran should be 0:\n");
+		System.out.print(ProbFunTreeMetrics.percentileNanos(Operation.FUN, 0.5));
+		Set<Integer> choices = new HashSet<Integer>();
+		for(int i = 0; i < 100; i++) {
+			choices.add(i);
+		}
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 3);
+		int n = 100000;
+		for(int i = 0; i < n; i++) {
+			pf.fun();
+		}
+		long sum = 0;
+		for(long count : ProbFunTreeMetrics.histogram(Operation.FUN)) {
+			sum += count;
+		}
+		System.out.print("\nThe histogram should add up to " + n + ":\n");
+		System.out.print(sum);
+		long p50 = ProbFunTreeMetrics.percentileNanos(Operation.FUN, 0.5);
+		long p99 = ProbFunTreeMetrics.percentileNanos(Operation.FUN, 0.99);
+		System.out.print("\nfun() took at most " + p50 + " ns half of the time and " + p99 + " ns 99% of the time, "
+				+ ProbFunTreeMetrics.totalNanos(Operation.FUN)/n + " ns on average\n");
+		System.out.print("The 50th percentile should not be more than the 99th:\n");
+		System.out.print(p50 <= p99);
+		System.out.print("\n");
+	}
+
+	private static void testMXBean() throws JMException {
+		System.out.print("Metrics MXBean Test:\n");
+		Set<Integer> choices = new HashSet<Integer>();
+		choices.add(0);choices.add(1);choices.add(2);
+		ProbFunTree<Integer> pf = new ProbFunTree<Integer>(choices, 2);
+		ObjectName name = ProbFunTreeMetrics.register(pf, "test");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		System.out.print("Node count should be 4:\n");
+		System.out.print(server.getAttribute(name, "NodeCount"));
+		System.out.print("\nEntry count should be 12:\n");
+		System.out.print(server.getAttribute(name, "EntryCount"));
+		System.out.print("\nEstimated bytes should match estimatedBytes():\n");
+		System.out.print(server.getAttribute(name, "EstimatedBytes").equals(pf.estimatedBytes()));
+		System.out.print("\nMetrics should be enabled:\n");
+		System.out.print(server.getAttribute(name, "MetricsEnabled"));
+		Set<Integer> choices2 = new HashSet<Integer>();
+		choices2.add(5);choices2.add(6);
+		pf.add(4, choices2);
+		System.out.print("\nEntry count should be 15 after add(4, [5, 6]), without reading the tree on the JMX thread:\n");
+		System.out.print(server.getAttribute(name, "EntryCount") + " " + server.getAttribute(name, "CountsCurrent"));
+		pf.getProbMap();
+		System.out.print("\nThe counts should not be current after getProbMap():\n");
+		System.out.print(server.getAttribute(name, "CountsCurrent"));
+		pf.size();
+		System.out.print("\nThe counts should be current again after size():\n");
+		System.out.print(server.getAttribute(name, "CountsCurrent"));
+		// The JMX thread only reads what was published, so it doesn't see the nodes change under it
+		AtomicBoolean done = new AtomicBoolean(false);
+		AtomicBoolean failed = new AtomicBoolean(false);
+		Thread reader = new Thread(() -> {
+			try {
+				while(!done.get()) {
+					server.getAttribute(name, "EntryCount");
+					server.getAttribute(name, "EstimatedBytes");
+				}
+			} catch(JMException | RuntimeException e) {
+				failed.set(true);
+			}
+		});
+		reader.start();
+		for(int i = 0; i < 20000; i++) {
+			pf.add(10+i%50, choices2);
+			pf.remove(10+(i+25)%50);
+			pf.getChildMap().get(0).good(1, 0.1);
+		}
+		done.set(true);
+		try {
+			reader.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		pf.size();
+		System.out.print("\nReading the MXBean while the tree changes should not throw, and the counts should match after:\n");
+		System.out.print(!failed.get() && server.getAttribute(name, "EntryCount").equals(pf.size()) 
+				&& server.getAttribute(name, "NodeCount").equals(pf.nodeCount()));
+		try {
+			ProbFunTreeMetrics.register(pf, "test");
+		} catch(JMException e) {
+			System.out.print("\nDuplicate name pass\n");
+		} finally {
+			System.out.print("Duplicate name pass?\n");
+		}
+		ProbFunTreeMetrics.unregister(name);
+		System.out.print("The MXBean should be gone after unregister():\n");
+		System.out.print(!server.isRegistered(name));
+		System.out.print("\n");
+	}
+
+}
@@ -0,0 +1,136 @@
+package treeTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import tree.ProbFunTree;
+import tree.ProbFunTreeTrainer;
+
+public class TestProbFunTreeTrainer {
+
+	public static void main(String[] args) {
+		testConstructor();
+		testBuild();
+		testThroughput();
+		testParallel();
+	}
+
+	private static void testConstructor() {
+		//IllegalArgumentException - if layers is not at least 1.
+		//IllegalStateException - if build() is called before training.
+		System.out.print("Trainer Constructor Test:\n");
+		try {
+			new ProbFunTreeTrainer<Integer>(0);
+		} catch(IllegalArgumentException e) {
+			System.out.print("No layers pass\n");
+		} finally {
+			System.out.print("No layers pass?\n");
+		}
+		try {
+			new ProbFunTreeTrainer<Integer>(2).build();
+		} catch(IllegalStateException e) {
+			System.out.print("Nothing trained pass\n");
+		} finally {
+			System.out.print("Nothing trained pass?\n");
+		}
+		try {
+			new ProbFunTreeTrainer<Integer>(2).train(Arrays.asList(1, null));
+		} catch(NullPointerException e) {
+			System.out.print("Null element pass\n");
+		} finally {
+			System.out.print("Null element pass?\n");
+		}
+	}
+
+	private static void testBuild() {
+		System.out.print("Trainer Build Test:\n");
+		ProbFunTreeTrainer<Character> trainer = new ProbFunTreeTrainer<Character>(3);
+		List<List<Character>> sequences = new ArrayList<>();
+		sequences.add(Arrays.asList('a', 'b', 'c', 'a', 'b'));
+		sequences.add(Arrays.asList('a', 'b', 'd'));
+		trainer.trainAll(sequences.stream());
+		ProbFunTree<Character> pf = trainer.build();
+		System.out.print(pf);
+		System.out.print("a in the root should be 0.375:\n");
+		System.out.print(pf.getProbMap().get('a'));
+		System.out.print("\nb after a should be 1.0:\n");
+		System.out.print(pf.getChildMap().get('a').getProbMap().get('b'));
+		System.out.print("\nc after [a, b] should be 0.5:\n");
+		System.out.print(pf.getChildMap().get('a').getChildMap().get('b').getProbMap().get('c'));
+		System.out.print("\nSize should be " + trainer.size() + ":\n");
+		System.out.print(pf.size());
+		System.out.print("\n");
+	}
+
+	private static void testThroughput() {
+		System.out.print("Trainer Throughput Test:\n");
+		Random random = new Random(0);
+		List<List<Integer>> sequences = new ArrayList<>();
+		int tokens = 0;
+		for(int i = 0; i < 1000; i++) {
+			List<Integer> sequence = new ArrayList<>();
+			for(int j = 0; j < 2000; j++) {
+				sequence.add(random.nextInt(64));
+			}
+			tokens += sequence.size();
+			sequences.add(sequence);
+		}
+		ProbFunTreeTrainer<Integer> trainer = new ProbFunTreeTrainer<Integer>(3);
+		long start = System.nanoTime();
+		trainer.trainAll(sequences.iterator());
+		long trained = System.nanoTime();
+		ProbFunTree<Integer> pf = trainer.build();
+		long built = System.nanoTime();
+		System.out.print("Trained on " + tokens + " elements in " + (trained-start)/1000000 + " ms" 
+				+ " and built " + trainer.nodeCount() + " nodes in " + (built-trained)/1000000 + " ms\n");
+		System.out.print("Size should be " + trainer.size() + ":\n");
+		System.out.print(pf.size());
+		System.out.print("\n");
+	}
+
+	private static void testParallel() {
+		System.out.print("Trainer Parallel Test:\n");
+		Random random = new Random(0);
+		List<List<Integer>> sequences = new ArrayList<>();
+		for(int i = 0; i < 200; i++) {
+			List<Integer> sequence = new ArrayList<>();
+			// Some sequences are empty and some are split between tasks
+			int length = i % 10 == 0 ? 0 : i % 7 == 0 ? 100000 : random.nextInt(5000);
+			for(int j = 0; j < length; j++) {
+				sequence.add((int) Math.abs(random.nextGaussian()*8));
+			}
+			sequences.add(sequence);
+		}
+		ProbFunTreeTrainer<Integer> sequential = new ProbFunTreeTrainer<Integer>(4);
+		long start = System.nanoTime();
+		sequential.trainAll(sequences.iterator());
+		long sequentialTime = System.nanoTime()-start;
+		ProbFunTreeTrainer<Integer> parallel = new ProbFunTreeTrainer<Integer>(4);
+		ForkJoinPool pool = new ForkJoinPool();
+		start = System.nanoTime();
+		parallel.trainAll(sequences, pool);
+		long parallelTime = System.nanoTime()-start;
+		pool.shutdown();
+		System.out.print("Sequential took " + sequentialTime/1000000 + " ms and parallel took " + parallelTime/1000000 
+				+ " ms on " + pool.getParallelism() + " threads\n");
+		System.out.print("Parallel build should be the same as sequential build:\n");
+		System.out.print(same(sequential.build(), parallel.build()));
+		System.out.print("\n");
+	}
+
+	private static <T> boolean same(ProbFunTree<T> a, ProbFunTree<T> b) {
+		if(!a.getProbMap().equals(b.getProbMap()) || !a.getChildMap().keySet().equals(b.getChildMap().keySet())) {
+			return false;
+		}
+		for(T t : a.getChildMap().keySet()) {
+			if(!same(a.getChildMap().get(t), b.getChildMap().get(t))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,37 @@
+package treeBenchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *         Runs the benchmarks with the GC profiler, so the allocation rate of every benchmark is reported with its time.
+ *         Takes the same arguments as JMH, so a regular expression picks which benchmarks run,
+ *         and hands help and listing arguments such as -h and -l to JMH without running anything.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+public final class Benchmarks {
+
+	private Benchmarks() {}
+
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+		CommandLineOptions options = new CommandLineOptions(args);
+		if(options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+				|| options.shouldListProfilers() || options.shouldListResultFormats()) {
+			Main.main(args);
+			return;
+		}
+		new Runner(new OptionsBuilder()
+				.parent(options)
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+
+}
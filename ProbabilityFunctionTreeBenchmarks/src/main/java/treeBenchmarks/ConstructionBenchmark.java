@@ -0,0 +1,60 @@
+package treeBenchmarks;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tree.ProbFunTree;
+
+/**
+ *         Benchmarks the ProbFunTree constructors across alphabet sizes and layer counts.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConstructionBenchmark {
+
+	@Param({"2", "16", "256"})
+	public int alphabet;
+
+	@Param({"1", "2", "4"})
+	public int layers;
+
+	private Set<Integer> choices;
+
+	private Map<Integer, Double> probabilities;
+
+	@Setup
+	public void setup() {
+		this.choices = Skew.choices(this.alphabet);
+		this.probabilities = Skew.probabilities(this.alphabet);
+	}
+
+	@Benchmark
+	public ProbFunTree<Integer> fromChoices() {
+		return new ProbFunTree<Integer>(this.choices, this.layers);
+	}
+
+	@Benchmark
+	public ProbFunTree<Integer> fromProbabilities() {
+		return new ProbFunTree<Integer>(this.probabilities, this.layers);
+	}
+
+}
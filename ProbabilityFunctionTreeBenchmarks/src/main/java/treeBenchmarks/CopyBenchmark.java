@@ -0,0 +1,89 @@
+package treeBenchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tree.ProbFunTree;
+import tree.ProbFunTreeCodec;
+import tree.SymbolCodec;
+
+/**
+ *         Benchmarks clone(), Java serialization and ProbFunTreeCodec on trees trained on skewed data.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CopyBenchmark {
+
+	@Param({"2", "4"})
+	public int layers;
+
+	private ProbFunTree<Integer> tree;
+
+	private byte[] serialized;
+
+	private byte[] encoded;
+
+	@Setup
+	public void setup() throws IOException {
+		this.tree = Skew.trainedTree(64, this.layers, 100000);
+		this.serialized = serialize();
+		this.encoded = encode();
+	}
+
+	@Benchmark
+	public ProbFunTree<Integer> cloneTree() {
+		return this.tree.clone();
+	}
+
+	@Benchmark
+	public byte[] serialize() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(this.tree);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public Object deserialize() throws IOException, ClassNotFoundException {
+		try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(this.serialized))) {
+			return in.readObject();
+		}
+	}
+
+	@Benchmark
+	public byte[] encode() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ProbFunTreeCodec.write(this.tree, Channels.newChannel(bytes), SymbolCodec.INTEGERS);
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public ProbFunTree<Integer> decode() throws IOException {
+		return ProbFunTreeCodec.read(Channels.newChannel(new ByteArrayInputStream(this.encoded)), SymbolCodec.INTEGERS);
+	}
+
+}
@@ -0,0 +1,102 @@
+package treeBenchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tree.ProbFunTree;
+
+/**
+ *         Benchmarks good() and bad() on single elements of a node and on lists of elements down a trained tree.
+ *         The elements are picked with skewed probabilities, so the common ones get most of the feedback.
+ *         Thousands of changes of 1% push the common elements to the limits of their probabilities, 
+ *         where good() and bad() leave them as they are, so each iteration times one batch of feedback 
+ *         given to a fresh copy of the node and tree, which is too small to get there.
+ *         The scores are the time taken by a batch of BATCH calls.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 50, batchSize = FeedbackBenchmark.BATCH)
+@Measurement(iterations = 100, batchSize = FeedbackBenchmark.BATCH)
+@Fork(1)
+@State(Scope.Thread)
+public class FeedbackBenchmark {
+
+	// The number of calls timed together, on the first elements of sequence
+	static final int BATCH = 1 << 10;
+
+	// The number of elements the tree is trained on
+	private static final int ELEMENTS = 1 << 16;
+
+	private static final int LIST_LENGTH = 4;
+
+	@Param({"16", "1024"})
+	public int alphabet;
+
+	private ProbFunTree<Integer> originalNode;
+
+	private ProbFunTree<Integer> originalTree;
+
+	private ProbFunTree<Integer> node;
+
+	private ProbFunTree<Integer> tree;
+
+	private List<Integer> sequence;
+
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		this.originalNode = new ProbFunTree<Integer>(Skew.probabilities(this.alphabet), 1);
+		this.sequence = Skew.sequence(this.alphabet, BATCH+LIST_LENGTH);
+		this.originalTree = Skew.trainedTree(this.alphabet, LIST_LENGTH, ELEMENTS+LIST_LENGTH);
+	}
+
+	@Setup(Level.Iteration)
+	public void copy() {
+		this.node = this.originalNode.clone();
+		this.tree = this.originalTree.clone();
+		this.next = 0;
+	}
+
+	private int next() {
+		return this.next++;
+	}
+
+	@Benchmark
+	public double good() {
+		return this.node.good(this.sequence.get(next()), 0.01);
+	}
+
+	@Benchmark
+	public double bad() {
+		return this.node.bad(this.sequence.get(next()), 0.01);
+	}
+
+	@Benchmark
+	public void goodList() {
+		int i = next();
+		this.tree.good(this.sequence.subList(i, i+LIST_LENGTH), 0.01);
+	}
+
+	@Benchmark
+	public void badList() {
+		int i = next();
+		this.tree.bad(this.sequence.subList(i, i+LIST_LENGTH), 0.01);
+	}
+
+}
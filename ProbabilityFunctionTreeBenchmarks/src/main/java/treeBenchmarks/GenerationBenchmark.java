@@ -0,0 +1,56 @@
+package treeBenchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tree.FrozenProbFunTree;
+import tree.ProbFunTree;
+
+/**
+ *         Benchmarks fun() on trees of several depths trained on skewed data.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GenerationBenchmark {
+
+	@Param({"1", "2", "4", "8"})
+	public int depth;
+
+	private ProbFunTree<Integer> tree;
+
+	private FrozenProbFunTree<Integer> frozen;
+
+	@Setup
+	public void setup() {
+		this.tree = Skew.trainedTree(64, this.depth, 100000);
+		this.frozen = this.tree.freeze();
+	}
+
+	@Benchmark
+	public Integer fun() {
+		return this.tree.fun();
+	}
+
+	@Benchmark
+	public Integer frozenFun() {
+		return this.frozen.fun();
+	}
+
+}
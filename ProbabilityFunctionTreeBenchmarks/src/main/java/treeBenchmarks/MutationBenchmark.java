@@ -0,0 +1,142 @@
+package treeBenchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tree.ProbFunTree;
+
+/**
+ *         Benchmarks prune(), pruneAll(), addToAll() and removeFromAll().
+ *         They change the tree, so each call gets a fresh copy that is made outside of the measurement.
+ *         prune() takes microseconds, which is too short to set up each call on its own, 
+ *         so copies of the node are made before each iteration and a batch of POOL calls takes one each.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MutationBenchmark {
+
+	// The number of copies of the node made before each iteration of the node benchmarks
+	static final int POOL = 256;
+
+	/**
+	 *         Copies of a single node with many skewed elements.
+	 */
+	@State(Scope.Thread)
+	public static class NodeState {
+
+		private ProbFunTree<Integer> original;
+
+		private final ProbFunTree<Integer>[] nodes = newNodes();
+
+		private int next = 0;
+
+		@SuppressWarnings("unchecked")
+		private static ProbFunTree<Integer>[] newNodes() {
+			return (ProbFunTree<Integer>[]) new ProbFunTree<?>[POOL];
+		}
+
+		@Setup(Level.Trial)
+		public void build() {
+			this.original = new ProbFunTree<Integer>(Skew.probabilities(1024), 1);
+		}
+
+		@Setup(Level.Iteration)
+		public void copy() {
+			for(int i = 0; i < POOL; i++) {
+				this.nodes[i] = this.original.clone();
+			}
+			this.next = 0;
+		}
+
+		/**        Returns a copy of the node that no call has changed yet.
+		 * @return the next copy of the node.
+		 */
+		ProbFunTree<Integer> node() {
+			return this.nodes[this.next++];
+		}
+
+	}
+
+	/**
+	 *         A tree trained on skewed data.
+	 */
+	@State(Scope.Thread)
+	public static class TreeState {
+
+		private ProbFunTree<Integer> original;
+
+		private ProbFunTree<Integer> tree;
+
+		@Setup(Level.Trial)
+		public void build() {
+			this.original = Skew.trainedTree(64, 3, 100000);
+		}
+
+		@Setup(Level.Invocation)
+		public void copy() {
+			this.tree = this.original.clone();
+		}
+
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 20, batchSize = POOL)
+	@Measurement(iterations = 50, batchSize = POOL)
+	public ProbFunTree<Integer> prune(NodeState state) {
+		ProbFunTree<Integer> node = state.node();
+		node.prune();
+		return node;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 20, batchSize = POOL)
+	@Measurement(iterations = 50, batchSize = POOL)
+	public ProbFunTree<Integer> prunePercent(NodeState state) {
+		ProbFunTree<Integer> node = state.node();
+		node.prune(0.001);
+		return node;
+	}
+
+	@Benchmark
+	public ProbFunTree<Integer> pruneAll(TreeState state) {
+		state.tree.pruneAll();
+		return state.tree;
+	}
+
+	@Benchmark
+	public ProbFunTree<Integer> pruneAllPercent(TreeState state) {
+		state.tree.pruneAll(0.01);
+		return state.tree;
+	}
+
+	@Benchmark
+	public ProbFunTree<Integer> addToAll(TreeState state) {
+		state.tree.addToAll(64, null);
+		return state.tree;
+	}
+
+	@Benchmark
+	public ProbFunTree<Integer> removeFromAll(TreeState state) {
+		state.tree.removeFromAll(0);
+		return state.tree;
+	}
+
+}
@@ -0,0 +1,99 @@
+package treeBenchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import tree.ProbFunTree;
+import tree.ProbFunTreeTrainer;
+
+/**
+ *         Makes the data the benchmarks run on, where element i is picked with a chance proportional to 1/(i+1)^EXPONENT, 
+ *         like the words of natural language.
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ */
+final class Skew {
+
+	// How quickly the chance of picking an element falls off with its rank
+	static final double EXPONENT = 1.1;
+
+	// So every benchmark sees the same data
+	static final long SEED = 0;
+
+	private Skew() {}
+
+	/**        Returns the elements 0 to alphabet-1.
+	 * @param  alphabet as the number of elements.
+	 * @return the elements 0 to alphabet-1.
+	 */
+	static Set<Integer> choices(int alphabet) {
+		Set<Integer> choices = new HashSet<Integer>();
+		for(int i = 0; i < alphabet; i++) {
+			choices.add(i);
+		}
+		return choices;
+	}
+
+	/**        Returns skewed probabilities for the elements 0 to alphabet-1.
+	 * @param  alphabet as the number of elements.
+	 * @return the elements 0 to alphabet-1 mapped to their probabilities, which add up to 1.0.
+	 */
+	static Map<Integer, Double> probabilities(int alphabet) {
+		double[] cumulative = cumulative(alphabet);
+		Map<Integer, Double> probabilities = new HashMap<Integer, Double>();
+		double last = 0;
+		for(int i = 0; i < alphabet; i++) {
+			probabilities.put(i, cumulative[i]-last);
+			last = cumulative[i];
+		}
+		return probabilities;
+	}
+
+	/**        Returns a sequence of elements picked with skewed probabilities.
+	 * @param  alphabet as the number of elements to pick from.
+	 * @param  length as the length of the sequence.
+	 * @return the sequence.
+	 */
+	static List<Integer> sequence(int alphabet, int length) {
+		double[] cumulative = cumulative(alphabet);
+		Random random = new Random(SEED);
+		List<Integer> sequence = new ArrayList<Integer>(length);
+		for(int i = 0; i < length; i++) {
+			int j = Arrays.binarySearch(cumulative, random.nextDouble());
+			sequence.add(Math.min(j < 0 ? -j-1 : j, alphabet-1));
+		}
+		return sequence;
+	}
+
+	/**        Trains a ProbFunTree on a skewed sequence, so its nodes are as uneven as a tree trained on real data.
+	 * @param  alphabet as the number of elements to pick from.
+	 * @param  layers as the number of layers of the ProbFunTree.
+	 * @param  length as the length of the sequence to train on.
+	 * @return the trained ProbFunTree.
+	 */
+	static ProbFunTree<Integer> trainedTree(int alphabet, int layers, int length) {
+		ProbFunTreeTrainer<Integer> trainer = new ProbFunTreeTrainer<Integer>(layers);
+		trainer.train(sequence(alphabet, length));
+		return trainer.build();
+	}
+
+	private static double[] cumulative(int alphabet) {
+		double[] cumulative = new double[alphabet];
+		double sum = 0;
+		for(int i = 0; i < alphabet; i++) {
+			sum += 1.0/Math.pow(i+1, EXPONENT);
+			cumulative[i] = sum;
+		}
+		for(int i = 0; i < alphabet; i++) {
+			cumulative[i] /= sum;
+		}
+		return cumulative;
+	}
+
+}